@@ -14,6 +14,7 @@
  */
 package com.amazonaws;
 
+import com.amazonaws.http.DnsResolver;
 import com.amazonaws.util.VersionInfoUtils;
 /**
  * Client configuration options such as proxy settings, user agent string, max
@@ -33,6 +34,9 @@ public class ClientConfiguration {
     /** The default maximum number of retries for error responses. */
     public static final int DEFAULT_MAX_RETRIES = 3;
 
+    /** The default on whether to request gzip compressed responses. */
+    public static final boolean DEFAULT_USE_GZIP = false;
+
     /** The HTTP user agent header passed with all HTTP requests. */
     private String userAgent = DEFAULT_USER_AGENT;
 
@@ -99,6 +103,24 @@ public class ClientConfiguration {
      */
     private int socketReceiveBufferSizeHint = 0;
 
+    /**
+     * Whether to ask services to gzip compress their responses, and to
+     * decompress them as they are read.
+     */
+    private boolean useGzip = DEFAULT_USE_GZIP;
+
+    /**
+     * Optional policy for hedging slow idempotent requests. Requests aren't
+     * hedged unless a policy is specified.
+     */
+    private HedgingPolicy hedgingPolicy = null;
+
+    /**
+     * Optional resolver for the host names of service endpoints. The JVM's
+     * default resolver is used if none is specified.
+     */
+    private DnsResolver dnsResolver = null;
+
 
     public ClientConfiguration() {}
 
@@ -115,6 +137,9 @@ public class ClientConfiguration {
         this.proxyWorkstation  = other.proxyWorkstation;
         this.socketTimeout     = other.socketTimeout;
         this.userAgent         = other.userAgent;
+        this.useGzip           = other.useGzip;
+        this.hedgingPolicy     = other.hedgingPolicy;
+        this.dnsResolver       = other.dnsResolver;
 
         this.socketReceiveBufferSizeHint = other.socketReceiveBufferSizeHint;
         this.socketSendBufferSizeHint    = other.socketSendBufferSizeHint;
@@ -713,4 +738,126 @@ public class ClientConfiguration {
         return this;
     }
 
+    /**
+     * Checks if gzip compression of responses is used.
+     *
+     * @return if gzip compression of responses is used.
+     */
+    public boolean useGzip() {
+        return useGzip;
+    }
+
+    /**
+     * Sets whether to ask services to gzip compress their responses. When
+     * enabled, requests are sent with an <code>Accept-Encoding: gzip</code>
+     * header and compressed responses are decompressed as they are read, so
+     * large responses use less bandwidth at the cost of some CPU time.
+     * <p>
+     * Content returned directly to the caller, such as the data of an Amazon
+     * S3 object, is never decompressed by the client.
+     *
+     * @param use
+     *            Whether to request gzip compressed responses.
+     */
+    public void setUseGzip(boolean use) {
+        this.useGzip = use;
+    }
+
+    /**
+     * Sets whether to ask services to gzip compress their responses, and
+     * returns the updated ClientConfiguration object so that additional method
+     * calls may be chained together.
+     *
+     * @param use
+     *            Whether to request gzip compressed responses.
+     *
+     * @return The updated ClientConfiguration object.
+     */
+    public ClientConfiguration withGzip(boolean use) {
+        setUseGzip(use);
+        return this;
+    }
+
+    /**
+     * Returns the policy for hedging slow idempotent requests, or null if
+     * requests aren't hedged.
+     *
+     * @return The policy for hedging slow idempotent requests, if any.
+     */
+    public HedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
+    }
+
+    /**
+     * Sets the policy for hedging slow idempotent requests. When a hedgeable
+     * request takes longer than usual to receive a response, a second copy of
+     * it is sent on another connection and the first response is used.
+     * Hedging is disabled by default.
+     *
+     * @param hedgingPolicy
+     *            The policy for hedging slow idempotent requests, or null to
+     *            disable hedging.
+     */
+    public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+    }
+
+    /**
+     * Sets the policy for hedging slow idempotent requests, and returns the
+     * updated ClientConfiguration object so that additional method calls may
+     * be chained together.
+     *
+     * @param hedgingPolicy
+     *            The policy for hedging slow idempotent requests, or null to
+     *            disable hedging.
+     *
+     * @return The updated ClientConfiguration object.
+     */
+    public ClientConfiguration withHedgingPolicy(HedgingPolicy hedgingPolicy) {
+        setHedgingPolicy(hedgingPolicy);
+        return this;
+    }
+
+    /**
+     * Returns the resolver used to look up the IP addresses of service
+     * endpoints, or null if the JVM's default resolver is used.
+     *
+     * @return The resolver used to look up the IP addresses of service
+     *         endpoints, if any.
+     */
+    public DnsResolver getDnsResolver() {
+        return dnsResolver;
+    }
+
+    /**
+     * Sets the resolver used to look up the IP addresses of service endpoints.
+     * Whichever resolver is used, the client caches its results for as long
+     * as the JVM caches lookups (the <code>networkaddress.cache.ttl</code>
+     * security property), spreads new connections across all the addresses
+     * of an endpoint, and skips addresses that repeatedly can't be reached.
+     *
+     * @param dnsResolver
+     *            The resolver to use, or null to use the JVM's default
+     *            resolver.
+     */
+    public void setDnsResolver(DnsResolver dnsResolver) {
+        this.dnsResolver = dnsResolver;
+    }
+
+    /**
+     * Sets the resolver used to look up the IP addresses of service endpoints,
+     * and returns the updated ClientConfiguration object so that additional
+     * method calls may be chained together.
+     *
+     * @param dnsResolver
+     *            The resolver to use, or null to use the JVM's default
+     *            resolver.
+     *
+     * @return The updated ClientConfiguration object.
+     */
+    public ClientConfiguration withDnsResolver(DnsResolver dnsResolver) {
+        setDnsResolver(dnsResolver);
+        return this;
+    }
+
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.amazonaws.http.HttpMethodName;
+import com.amazonaws.util.StringInputStream;
+
+/**
+ * Configures request hedging, which cuts the tail latency of idempotent reads
+ * that are occasionally slowed down by a bad connection rather than by the
+ * service itself.
+ * <p>
+ * When a hedgeable request hasn't received a response within a delay based on
+ * the recent response times of the client (by default, its 95th percentile),
+ * a second copy of the request is sent on another pooled connection. Whichever
+ * copy answers first is used and the other one is aborted.
+ * <p>
+ * Every hedge adds load to the service, so hedges are limited to a fraction of
+ * the hedgeable requests sent by the client (by default, 5%).
+ * <p>
+ * By default, <code>GET</code> and <code>HEAD</code> requests are hedged, as
+ * well as JSON requests for read operations such as DynamoDB's
+ * <code>GetItem</code>. Subclasses can override
+ * {@link #isHedgeable(Request)} to change which requests are hedged; only
+ * requests without content, or with content held in memory, can be hedged.
+ *
+ * @see ClientConfiguration#setHedgingPolicy(HedgingPolicy)
+ */
+public class HedgingPolicy {
+
+    /** The default percentile of recent response times to wait before hedging. */
+    public static final double DEFAULT_DELAY_PERCENTILE = 95.0;
+
+    /** The default minimum time, in milliseconds, to wait before hedging. */
+    public static final long DEFAULT_MIN_DELAY_MILLIS = 10;
+
+    /** The default maximum number of hedges per hedgeable request. */
+    public static final double DEFAULT_MAX_HEDGE_RATIO = 0.05;
+
+    /**
+     * The read operations of JSON services that are hedged by default,
+     * identified by the action in their <code>X-Amz-Target</code> header.
+     */
+    private static final Set<String> IDEMPOTENT_TARGET_ACTIONS = Collections.unmodifiableSet(
+            new HashSet<String>(Arrays.asList(new String[] {
+                    "GetItem", "BatchGetItem", "Query", "Scan", "DescribeTable", "ListTables", })));
+
+    private double delayPercentile = DEFAULT_DELAY_PERCENTILE;
+
+    private long minDelayMillis = DEFAULT_MIN_DELAY_MILLIS;
+
+    private double maxHedgeRatio = DEFAULT_MAX_HEDGE_RATIO;
+
+    /**
+     * Returns the percentile of recent response times to wait for before
+     * sending a hedge.
+     *
+     * @return The percentile of recent response times to wait for before
+     *         sending a hedge.
+     */
+    public double getDelayPercentile() {
+        return delayPercentile;
+    }
+
+    /**
+     * Sets the percentile of recent response times to wait for before sending
+     * a hedge. Lower percentiles hedge sooner and more often.
+     *
+     * @param delayPercentile
+     *            The percentile, greater than 0 and at most 100.
+     */
+    public void setDelayPercentile(double delayPercentile) {
+        if (delayPercentile <= 0 || delayPercentile > 100) {
+            throw new IllegalArgumentException("Delay percentile must be greater than 0 and at most 100");
+        }
+        this.delayPercentile = delayPercentile;
+    }
+
+    /**
+     * Sets the percentile of recent response times to wait for before sending
+     * a hedge, and returns the updated policy so that additional method calls
+     * may be chained together.
+     *
+     * @param delayPercentile
+     *            The percentile, greater than 0 and at most 100.
+     *
+     * @return The updated HedgingPolicy object.
+     */
+    public HedgingPolicy withDelayPercentile(double delayPercentile) {
+        setDelayPercentile(delayPercentile);
+        return this;
+    }
+
+    /**
+     * Returns the minimum time, in milliseconds, to wait for a response before
+     * sending a hedge.
+     *
+     * @return The minimum time, in milliseconds, to wait before hedging.
+     */
+    public long getMinDelayMillis() {
+        return minDelayMillis;
+    }
+
+    /**
+     * Sets the minimum time, in milliseconds, to wait for a response before
+     * sending a hedge, however fast recent responses have been.
+     *
+     * @param minDelayMillis
+     *            The minimum time, in milliseconds, to wait before hedging.
+     */
+    public void setMinDelayMillis(long minDelayMillis) {
+        if (minDelayMillis < 0) {
+            throw new IllegalArgumentException("Minimum delay can't be negative");
+        }
+        this.minDelayMillis = minDelayMillis;
+    }
+
+    /**
+     * Sets the minimum time, in milliseconds, to wait for a response before
+     * sending a hedge, and returns the updated policy so that additional
+     * method calls may be chained together.
+     *
+     * @param minDelayMillis
+     *            The minimum time, in milliseconds, to wait before hedging.
+     *
+     * @return The updated HedgingPolicy object.
+     */
+    public HedgingPolicy withMinDelayMillis(long minDelayMillis) {
+        setMinDelayMillis(minDelayMillis);
+        return this;
+    }
+
+    /**
+     * Returns the maximum number of hedges sent per hedgeable request.
+     *
+     * @return The maximum number of hedges sent per hedgeable request.
+     */
+    public double getMaxHedgeRatio() {
+        return maxHedgeRatio;
+    }
+
+    /**
+     * Sets the maximum number of hedges sent per hedgeable request, which
+     * bounds the extra load hedging puts on the service. For example, with a
+     * ratio of 0.05, at most one request in twenty is hedged, apart from a
+     * small allowance for bursts.
+     *
+     * @param maxHedgeRatio
+     *            The maximum ratio of hedges to hedgeable requests, greater
+     *            than 0 and at most 1.
+     */
+    public void setMaxHedgeRatio(double maxHedgeRatio) {
+        if (maxHedgeRatio <= 0 || maxHedgeRatio > 1) {
+            throw new IllegalArgumentException("Maximum hedge ratio must be greater than 0 and at most 1");
+        }
+        this.maxHedgeRatio = maxHedgeRatio;
+    }
+
+    /**
+     * Sets the maximum number of hedges sent per hedgeable request, and
+     * returns the updated policy so that additional method calls may be
+     * chained together.
+     *
+     * @param maxHedgeRatio
+     *            The maximum ratio of hedges to hedgeable requests, greater
+     *            than 0 and at most 1.
+     *
+     * @return The updated HedgingPolicy object.
+     */
+    public HedgingPolicy withMaxHedgeRatio(double maxHedgeRatio) {
+        setMaxHedgeRatio(maxHedgeRatio);
+        return this;
+    }
+
+    /**
+     * Returns true if the specified request is idempotent and may be hedged.
+     * Requests whose content is a stream that can only be read once are never
+     * hedged, regardless of what this method returns.
+     *
+     * @param request
+     *            The request about to be sent.
+     *
+     * @return True if a hedge of the request may be sent.
+     */
+    public boolean isHedgeable(Request<?> request) {
+        HttpMethodName method = request.getHttpMethod();
+        if (method == HttpMethodName.GET || method == HttpMethodName.HEAD) {
+            return true;
+        }
+        if (method == HttpMethodName.POST && request.getContent() instanceof StringInputStream) {
+            String target = request.getHeaders().get("X-Amz-Target");
+            if (target != null) {
+                return IDEMPOTENT_TARGET_ACTIONS.contains(target.substring(target.lastIndexOf('.') + 1));
+            }
+        }
+        return false;
+    }
+}
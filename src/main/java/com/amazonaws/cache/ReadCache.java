@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A bounded, least recently used cache of results that are loaded on demand.
+ * <p>
+ * Concurrent requests for a result that isn't cached are coalesced: the first
+ * caller loads it, and the others wait for that load and share its result or
+ * its failure. Failures aren't cached.
+ * <p>
+ * Instances of this class are thread-safe.
+ */
+class ReadCache {
+
+    private final Map<String, CachedResult> entries;
+
+    ReadCache(final int maxEntries) {
+        this.entries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the result cached under the specified key, loading it if it
+     * isn't cached or is older than the time to live given.
+     *
+     * @throws ExecutionException
+     *             If the result couldn't be loaded; the cause is the exception
+     *             thrown by the loader.
+     * @throws InterruptedException
+     *             If interrupted while waiting for another caller to load the
+     *             result.
+     */
+    Object get(String key, long ttlNanos, Callable<Object> loader) throws ExecutionException, InterruptedException {
+        CachedResult entry;
+        boolean owner = false;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null || entry.isExpired(System.nanoTime(), ttlNanos)) {
+                entry = new CachedResult(loader);
+                entries.put(key, entry);
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            entry.load();
+            if (entry.failed()) {
+                synchronized (entries) {
+                    if (entries.get(key) == entry) entries.remove(key);
+                }
+            }
+        }
+        return entry.result.get();
+    }
+
+    /**
+     * Forgets all cached results. Loads in progress complete for the callers
+     * waiting on them, but aren't cached.
+     */
+    void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * A cached result, or one that is being loaded.
+     */
+    private static class CachedResult {
+        final FutureTask<Object> result;
+        private volatile long loadedAt;
+        private volatile boolean loaded = false;
+
+        CachedResult(Callable<Object> loader) {
+            this.result = new FutureTask<Object>(loader);
+        }
+
+        void load() {
+            result.run();
+            loadedAt = System.nanoTime();
+            loaded = true;
+        }
+
+        boolean failed() {
+            try {
+                result.get();
+                return false;
+            } catch (Exception e) {
+                return true;
+            }
+        }
+
+        /** Results that are still being loaded never expire. */
+        boolean isExpired(long now, long ttlNanos) {
+            return loaded && now - loadedAt >= ttlNanos;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Settings for {@link ReadCachingDecorator}: how long the results of each
+ * operation are cached, and how many results are kept.
+ * <p>
+ * Operations are identified by the name of the client method, such as
+ * <code>describeInstances</code>. Operations whose names start with
+ * <code>describe</code> or <code>list</code> are cached for the default time
+ * to live unless they are given their own; other operations are only cached
+ * if they are given a time to live explicitly.
+ */
+public class ReadCacheConfig {
+
+    /** The default time, in milliseconds, that results are cached. */
+    public static final long DEFAULT_TTL_MILLIS = 5 * 1000;
+
+    /** The default maximum number of cached results. */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private long defaultTtlMillis = DEFAULT_TTL_MILLIS;
+
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    /** Times to live for specific operations, keyed by method name. */
+    private final Map<String, Long> operationTtlMillis = new HashMap<String, Long>();
+
+    public ReadCacheConfig() {}
+
+    public ReadCacheConfig(ReadCacheConfig other) {
+        this.defaultTtlMillis = other.defaultTtlMillis;
+        this.maxEntries = other.maxEntries;
+        this.operationTtlMillis.putAll(other.operationTtlMillis);
+    }
+
+    /**
+     * Returns the time, in milliseconds, that the results of describe and
+     * list operations are cached unless they have their own time to live.
+     *
+     * @return The default time to live, in milliseconds.
+     */
+    public long getDefaultTtlMillis() {
+        return defaultTtlMillis;
+    }
+
+    /**
+     * Sets the time, in milliseconds, that the results of describe and list
+     * operations are cached unless they have their own time to live. Zero
+     * disables caching for them.
+     *
+     * @param defaultTtlMillis
+     *            The default time to live, in milliseconds.
+     */
+    public void setDefaultTtlMillis(long defaultTtlMillis) {
+        if (defaultTtlMillis < 0) {
+            throw new IllegalArgumentException("Time to live can't be negative");
+        }
+        this.defaultTtlMillis = defaultTtlMillis;
+    }
+
+    /**
+     * Sets the time, in milliseconds, that the results of describe and list
+     * operations are cached, and returns the updated ReadCacheConfig object so
+     * that additional method calls may be chained together.
+     *
+     * @param defaultTtlMillis
+     *            The default time to live, in milliseconds.
+     *
+     * @return The updated ReadCacheConfig object.
+     */
+    public ReadCacheConfig withDefaultTtlMillis(long defaultTtlMillis) {
+        setDefaultTtlMillis(defaultTtlMillis);
+        return this;
+    }
+
+    /**
+     * Returns the maximum number of results cached for each decorated client.
+     *
+     * @return The maximum number of cached results.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Sets the maximum number of results cached for each decorated client.
+     * Once it's reached, the least recently used result is evicted.
+     *
+     * @param maxEntries
+     *            The maximum number of cached results.
+     */
+    public void setMaxEntries(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Maximum number of entries must be positive");
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Sets the maximum number of results cached for each decorated client,
+     * and returns the updated ReadCacheConfig object so that additional method
+     * calls may be chained together.
+     *
+     * @param maxEntries
+     *            The maximum number of cached results.
+     *
+     * @return The updated ReadCacheConfig object.
+     */
+    public ReadCacheConfig withMaxEntries(int maxEntries) {
+        setMaxEntries(maxEntries);
+        return this;
+    }
+
+    /**
+     * Sets the time, in milliseconds, that the results of an operation are
+     * cached, overriding the default. Only operations that don't change
+     * anything should be given a time to live.
+     *
+     * @param operation
+     *            The name of the client method, such as
+     *            <code>describeInstances</code>.
+     * @param ttlMillis
+     *            The time to live, in milliseconds, or zero to never cache the
+     *            operation.
+     */
+    public void setOperationTtlMillis(String operation, long ttlMillis) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("Time to live can't be negative");
+        }
+        operationTtlMillis.put(operation, ttlMillis);
+    }
+
+    /**
+     * Sets the time, in milliseconds, that the results of an operation are
+     * cached, and returns the updated ReadCacheConfig object so that
+     * additional method calls may be chained together.
+     *
+     * @param operation
+     *            The name of the client method, such as
+     *            <code>describeInstances</code>.
+     * @param ttlMillis
+     *            The time to live, in milliseconds, or zero to never cache the
+     *            operation.
+     *
+     * @return The updated ReadCacheConfig object.
+     */
+    public ReadCacheConfig withOperationTtlMillis(String operation, long ttlMillis) {
+        setOperationTtlMillis(operation, ttlMillis);
+        return this;
+    }
+
+    /**
+     * Returns the time, in milliseconds, that the results of the specified
+     * operation are cached, or zero if they aren't cached.
+     *
+     * @param operation
+     *            The name of the client method.
+     *
+     * @return The time to live of the operation, in milliseconds.
+     */
+    public long getOperationTtlMillis(String operation) {
+        Long ttl = operationTtlMillis.get(operation);
+        if (ttl != null) return ttl;
+        if (operation.startsWith("describe") || operation.startsWith("list")) return defaultTtlMillis;
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ReadCacheConfig [defaultTtlMillis=" + defaultTtlMillis + ", maxEntries=" + maxEntries
+                + ", operationTtlMillis=" + operationTtlMillis + "]";
+    }
+}
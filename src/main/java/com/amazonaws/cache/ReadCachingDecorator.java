@@ -0,0 +1,222 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.cache;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.transform.Marshaller;
+import com.amazonaws.util.StringInputStream;
+
+/**
+ * Decorates a service client so that the results of read-only operations,
+ * such as <code>describeInstances</code>, are cached for a short time and
+ * shared by all the threads making the same request. This cuts down on
+ * throttling when many threads poll the same resources.
+ * <p>
+ * Requests are identified by their marshalled form: two requests are the same
+ * if they would be sent to the service with the same parameters. Concurrent
+ * identical requests that miss the cache are coalesced into a single call to
+ * the service. Errors aren't cached. Each decorated client has its own cache,
+ * which is cleared when its endpoint or region is changed.
+ * <p>
+ * Cached results are shared by every caller that gets them, so they must not
+ * be modified. Only requests that can be marshalled by the model classes of
+ * the service are cached; others, such as Amazon S3 requests, are always
+ * passed on to the client, as are requests that carry their own credentials
+ * and the asynchronous operations of a client, whose futures may still fail
+ * or be cancelled.
+ *
+ * <pre>
+ * AmazonEC2 ec2 = new ReadCachingDecorator(new ReadCacheConfig()
+ *         .withOperationTtlMillis(&quot;describeInstances&quot;, 10000))
+ *         .decorate(AmazonEC2.class, new AmazonEC2Client(credentials));
+ * </pre>
+ *
+ * @see ReadCacheConfig
+ */
+public class ReadCachingDecorator {
+
+    private static final Log log = LogFactory.getLog(ReadCachingDecorator.class);
+
+    /** Stands in for request classes that have no marshaller. */
+    private static final Object NO_MARSHALLER = new Object();
+
+    /** Marshallers by request class, shared by all decorated clients. */
+    private static final ConcurrentHashMap<Class<?>, Object> marshallers = new ConcurrentHashMap<Class<?>, Object>();
+
+    private final ReadCacheConfig config;
+
+    public ReadCachingDecorator(ReadCacheConfig config) {
+        this.config = new ReadCacheConfig(config);
+    }
+
+    public ReadCachingDecorator() {
+        this(new ReadCacheConfig());
+    }
+
+    /**
+     * Returns a view of the specified client that caches the results of its
+     * read-only operations.
+     *
+     * @param clientInterface
+     *            The service interface to decorate, such as
+     *            <code>AmazonEC2.class</code>.
+     * @param client
+     *            The client to decorate.
+     *
+     * @return The decorated client.
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V decorate(Class<V> clientInterface, V client) {
+        return (V) Proxy.newProxyInstance(clientInterface.getClassLoader(), new Class<?>[] { clientInterface },
+                new CachingInvocationHandler(client, new ReadCache(config.getMaxEntries())));
+    }
+
+    private final class CachingInvocationHandler implements InvocationHandler {
+
+        private final Object client;
+        private final ReadCache cache;
+
+        CachingInvocationHandler(Object client, ReadCache cache) {
+            this.client = client;
+            this.cache = cache;
+        }
+
+        public Object invoke(Object proxy, final Method method, final Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("setEndpoint") || name.equals("setRegion")) {
+                cache.clear();
+            }
+
+            String key = null;
+            long ttlMillis = config.getOperationTtlMillis(name);
+            if (ttlMillis > 0 && method.getReturnType() != Void.TYPE && !Future.class.isAssignableFrom(method.getReturnType())
+                    && method.getDeclaringClass() != Object.class) {
+                key = cacheKey(method, args);
+            }
+            if (key == null) {
+                return invokeClient(method, args);
+            }
+
+            try {
+                return cache.get(key, TimeUnit.MILLISECONDS.toNanos(ttlMillis), new Callable<Object>() {
+                    public Object call() throws Exception {
+                        try {
+                            return invokeClient(method, args);
+                        } catch (Exception e) {
+                            throw e;
+                        } catch (Throwable t) {
+                            throw (Error)t;
+                        }
+                    }
+                });
+            } catch (ExecutionException e) {
+                throw e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AmazonClientException("Interrupted while waiting for " + name, e);
+            }
+        }
+
+        private Object invokeClient(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(client, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+    }
+
+    /**
+     * Returns the key the result of the specified call is cached under, or
+     * null if the call can't be cached.
+     */
+    private static String cacheKey(Method method, Object[] args) {
+        if (args == null || args.length == 0) {
+            return method.getName() + "()";
+        }
+        if (args.length != 1 || !(args[0] instanceof AmazonWebServiceRequest)) {
+            return null;
+        }
+        // Results fetched with another principal's credentials mustn't be shared
+        if (((AmazonWebServiceRequest)args[0]).getRequestCredentials() != null) {
+            return null;
+        }
+
+        Request<?> request = marshall((AmazonWebServiceRequest)args[0]);
+        if (request == null) return null;
+
+        StringBuilder key = new StringBuilder(method.getName())
+                .append(' ').append(request.getHttpMethod())
+                .append(' ').append(request.getResourcePath());
+        for (Map.Entry<String, String> parameter : new TreeMap<String, String>(request.getParameters()).entrySet()) {
+            key.append('&').append(parameter.getKey()).append('=').append(parameter.getValue());
+        }
+        for (Map.Entry<String, String> header : new TreeMap<String, String>(request.getHeaders()).entrySet()) {
+            key.append('\n').append(header.getKey()).append(": ").append(header.getValue());
+        }
+        if (request.getContent() instanceof StringInputStream) {
+            key.append("\n\n").append(((StringInputStream)request.getContent()).getString());
+        } else if (request.getContent() != null) {
+            return null;
+        }
+        return key.toString();
+    }
+
+    /**
+     * Marshalls the specified request with the marshaller from the model
+     * classes of its service, returning null if there isn't one or the request
+     * can't be marshalled.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Request<?> marshall(AmazonWebServiceRequest request) {
+        Class<?> requestClass = request.getClass();
+        Object marshaller = marshallers.get(requestClass);
+        if (marshaller == null) {
+            marshaller = NO_MARSHALLER;
+            String name = requestClass.getPackage().getName() + ".transform." + requestClass.getSimpleName() + "Marshaller";
+            try {
+                marshaller = Class.forName(name, true, requestClass.getClassLoader()).newInstance();
+            } catch (Exception e) {
+                log.debug("No marshaller for " + requestClass.getName() + "; its results won't be cached");
+            }
+            marshallers.putIfAbsent(requestClass, marshaller);
+        }
+        if (!(marshaller instanceof Marshaller)) return null;
+
+        try {
+            return (Request<?>)((Marshaller)marshaller).marshall(request);
+        } catch (Exception e) {
+            // Let the client report the problem
+            return null;
+        }
+    }
+}
@@ -14,6 +14,7 @@
  */
 package com.amazonaws.http;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
@@ -24,6 +25,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPInputStream;
 
 import javax.net.ssl.SSLContext;
 
@@ -53,6 +56,7 @@ import com.amazonaws.internal.CRC32MismatchException;
 import com.amazonaws.internal.CustomBackoffStrategy;
 import com.amazonaws.util.AWSRequestMetrics;
 import com.amazonaws.util.AWSRequestMetrics.Field;
+import com.amazonaws.util.CRC32ChecksumCalculatingInputStream;
 import com.amazonaws.util.CountingInputStream;
 import com.amazonaws.util.ResponseMetadataCache;
 import com.amazonaws.util.TimingInfo;
@@ -81,6 +85,9 @@ public class AmazonHttpClient {
     /** Client configuration options, such as proxy settings, max retries, etc. */
     private final ClientConfiguration config;
 
+    /** Sends hedges of slow idempotent requests, if hedging is enabled. */
+    private final HedgedRequestExecutor hedgedRequestExecutor;
+
     /** Cache of metadata for recently executed requests for diagnostic purposes */
     private final ResponseMetadataCache responseMetadataCache = new ResponseMetadataCache(50);
 
@@ -116,6 +123,12 @@ public class AmazonHttpClient {
     public AmazonHttpClient(ClientConfiguration clientConfiguration) {
         this.config = clientConfiguration;
         this.httpClient = httpClientFactory.createHttpClient(config);
+        if (config.getHedgingPolicy() != null) {
+            this.hedgedRequestExecutor = new HedgedRequestExecutor(
+                    httpClient, config.getHedgingPolicy(), config.getMaxConnections());
+        } else {
+            this.hedgedRequestExecutor = null;
+        }
     }
 
     /**
@@ -303,7 +316,14 @@ public class AmazonHttpClient {
                 exception = null;
 
                 awsRequestMetrics.startEvent(Field.HttpRequestTime.name());
-                response = httpClient.execute(httpRequest);
+                if (hedgedRequestExecutor != null && hedgedRequestExecutor.isHedgeable(request)) {
+                    HedgedRequestExecutor.Result result = hedgedRequestExecutor.execute(
+                            httpRequest, newHedgeFactory(request, redirectedURI, executionContext));
+                    httpRequest = result.request;
+                    response = result.response;
+                } else {
+                    response = httpClient.execute(httpRequest);
+                }
                 awsRequestMetrics.endEvent(Field.HttpRequestTime.name());
 
 
@@ -371,6 +391,23 @@ public class AmazonHttpClient {
         } /* end while (true) */
     }
 
+    /**
+     * Returns a factory for hedges of the specified request, which are sent to
+     * the same location as the current attempt.
+     */
+    private Callable<HttpRequestBase> newHedgeFactory(final Request<?> request,
+            final URI redirectedURI, final ExecutionContext executionContext) {
+        return new Callable<HttpRequestBase>() {
+            public HttpRequestBase call() {
+                HttpRequestBase hedge = httpRequestFactory.createHedgeHttpRequest(request, config, executionContext);
+                if (redirectedURI != null) {
+                    hedge.setURI(redirectedURI);
+                }
+                return hedge;
+            }
+        };
+    }
+
     /**
      * Resets the specified request, so that it can be sent again, after
      * receiving the specified error. If a problem is encountered with resetting
@@ -437,6 +474,9 @@ public class AmazonHttpClient {
      * Once a client has been shutdown, it cannot be used to make more requests.
      */
     public void shutdown() {
+        if (hedgedRequestExecutor != null) {
+            hedgedRequestExecutor.shutdown();
+        }
         IdleConnectionReaper.removeConnectionManager(httpClient.getConnectionManager());
         httpClient.getConnectionManager().shutdown();
     }
@@ -550,6 +590,11 @@ public class AmazonHttpClient {
             httpResponse.setContent(new HttpMethodReleaseInputStream(httpEntityEnclosingRequest));
         }
 
+        CompressedContentChecksum compressedContentChecksum = null;
+        if (!responseHandler.needsConnectionLeftOpen() && isGzipEncoded(apacheHttpResponse)) {
+            compressedContentChecksum = decompressContent(httpResponse, true);
+        }
+
         try {
             CountingInputStream countingInputStream = null;
             if (System.getProperty(PROFILING_SYSTEM_PROPERTY) != null) {
@@ -560,6 +605,9 @@ public class AmazonHttpClient {
             AWSRequestMetrics awsRequestMetrics = executionContext.getAwsRequestMetrics();
             awsRequestMetrics.startEvent(Field.ResponseProcessingTime.name());
             AmazonWebServiceResponse<? extends T> awsResponse = responseHandler.handle(httpResponse);
+            if (compressedContentChecksum != null) {
+                compressedContentChecksum.validate();
+            }
             awsRequestMetrics.endEvent(Field.ResponseProcessingTime.name());
             if (countingInputStream != null) {
                 awsRequestMetrics.setCounter(Field.BytesProcessed.name(), countingInputStream.getByteCount());
@@ -612,6 +660,8 @@ public class AmazonHttpClient {
         if (errorResponseHandler.needsConnectionLeftOpen() && method instanceof HttpEntityEnclosingRequestBase) {
             HttpEntityEnclosingRequestBase entityEnclosingRequest = (HttpEntityEnclosingRequestBase)method;
             response.setContent(new HttpMethodReleaseInputStream(entityEnclosingRequest));
+        } else if (isGzipEncoded(apacheHttpResponse)) {
+            decompressContent(response, false);
         }
 
         AmazonServiceException exception = null;
@@ -641,7 +691,6 @@ public class AmazonHttpClient {
 
         exception.setStatusCode(status);
         exception.setServiceName(request.getServiceName());
-        exception.fillInStackTrace();
         return exception;
     }
 
@@ -677,6 +726,97 @@ public class AmazonHttpClient {
         return httpResponse;
     }
 
+    /**
+     * Returns true if we asked for a compressed response and the service
+     * returned one.
+     */
+    private boolean isGzipEncoded(org.apache.http.HttpResponse apacheHttpResponse) {
+        if (!config.useGzip()) return false;
+        Header contentEncoding = apacheHttpResponse.getFirstHeader("Content-Encoding");
+        return contentEncoding != null && "gzip".equalsIgnoreCase(contentEncoding.getValue().trim());
+    }
+
+    /**
+     * Replaces the content of the specified response with a stream that
+     * decompresses it as it is read.
+     * <p>
+     * A CRC32 checksum sent by the service in the <code>x-amz-crc32</code>
+     * header covers the compressed bytes, so the header is removed from the
+     * response to keep the response handler from checking it against the
+     * decompressed content, and the checksum of the compressed bytes is
+     * calculated instead.
+     *
+     * @param response
+     *            The response whose content is gzip compressed.
+     * @param checkCrc32
+     *            Whether to calculate the checksum of the compressed content.
+     *
+     * @return The checksum to validate once the response has been handled, or
+     *         null if there is none.
+     *
+     * @throws IOException
+     *             If the content doesn't start with a valid gzip header.
+     */
+    private CompressedContentChecksum decompressContent(HttpResponse response, boolean checkCrc32) throws IOException {
+        InputStream content = response.getContent();
+        if (content == null) return null;
+
+        CompressedContentChecksum checksum = null;
+        String expectedCrc32 = response.getHeaders().remove("x-amz-crc32");
+        if (checkCrc32 && expectedCrc32 != null) {
+            checksum = new CompressedContentChecksum(Long.parseLong(expectedCrc32), content);
+            content = checksum;
+        }
+        response.setContent(new GZIPInputStream(content));
+        return checksum;
+    }
+
+    /**
+     * Compressed response content whose CRC32 checksum is calculated as it is
+     * read. The response handler usually closes the content without reading
+     * the end of the compressed stream, such as the gzip trailer, so the rest
+     * of it is read before it's closed.
+     */
+    private static class CompressedContentChecksum extends FilterInputStream {
+        private final long expected;
+        private final CRC32ChecksumCalculatingInputStream compressedContent;
+        private boolean drained = false;
+
+        CompressedContentChecksum(long expected, InputStream content) {
+            this(expected, new CRC32ChecksumCalculatingInputStream(content));
+        }
+
+        private CompressedContentChecksum(long expected, CRC32ChecksumCalculatingInputStream compressedContent) {
+            super(compressedContent);
+            this.expected = expected;
+            this.compressedContent = compressedContent;
+        }
+
+        @Override
+        public void close() throws IOException {
+            drain();
+            super.close();
+        }
+
+        /**
+         * Checks the checksum of the whole compressed content against the one
+         * sent by the service.
+         */
+        void validate() throws IOException {
+            drain();
+            if (compressedContent.getCRC32Checksum() != expected) {
+                throw new CRC32MismatchException("Client calculated crc32 checksum didn't match that calculated by server side");
+            }
+        }
+
+        private void drain() throws IOException {
+            if (drained) return;
+            byte[] buffer = new byte[1024];
+            while (compressedContent.read(buffer) > -1);
+            drained = true;
+        }
+    }
+
     /**
      * Exponential sleep on failed request to avoid flooding a service with
      * retries.
@@ -23,7 +23,10 @@ import com.amazonaws.ClientConfiguration;
 class ConnectionManagerFactory {
 
     public static ThreadSafeClientConnManager createThreadSafeClientConnManager( ClientConfiguration config, HttpParams httpClientParams ) {
-        ThreadSafeClientConnManager connectionManager = new ThreadSafeClientConnManager();
+        DnsResolver dnsResolver = config.getDnsResolver();
+        if (dnsResolver == null) dnsResolver = new SystemDefaultDnsResolver();
+
+        ThreadSafeClientConnManager connectionManager = new DnsCachingClientConnManager(dnsResolver);
         connectionManager.setDefaultMaxPerRoute(config.getMaxConnections());
         connectionManager.setMaxTotal(config.getMaxConnections());
 
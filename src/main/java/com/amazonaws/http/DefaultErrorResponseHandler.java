@@ -14,7 +14,16 @@
  */
 package com.amazonaws.http;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
@@ -22,6 +31,9 @@ import org.xml.sax.SAXParseException;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonServiceException.ErrorType;
+import com.amazonaws.transform.LegacyErrorUnmarshaller;
+import com.amazonaws.transform.StandardErrorUnmarshaller;
 import com.amazonaws.transform.Unmarshaller;
 import com.amazonaws.util.XpathUtils;
 
@@ -33,16 +45,39 @@ import com.amazonaws.util.XpathUtils;
  * unmarshaller is found that can unmarshall the error response, a generic
  * AmazonServiceException is created and populated with the AWS error response
  * information (error message, AWS error code, AWS request ID, etc).
+ * <p>
+ * Error responses are first scanned once with a streaming parser to pull out
+ * the error code, type, message and request ID. The unmarshaller that handled
+ * each error code is remembered, so later responses with the same code go
+ * straight to it, and responses handled by the generic
+ * {@link StandardErrorUnmarshaller} or {@link LegacyErrorUnmarshaller} are
+ * built from the scanned fields without building a DOM at all.
  */
 public class DefaultErrorResponseHandler
         implements HttpResponseHandler<AmazonServiceException> {
 
+    /** Shared factory for creating XML stream readers */
+    private static XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+
+    /**
+     * The maximum number of distinct error codes remembered by each handler,
+     * so that a misbehaving endpoint can't grow the cache without bound.
+     */
+    private static final int MAX_CACHED_ERROR_CODES = 256;
+
     /**
      * The list of error response unmarshallers to try to apply to error
      * responses.
      */
     private List<Unmarshaller<AmazonServiceException, Node>> unmarshallerList;
 
+    /**
+     * The unmarshaller that handled each error code seen so far, keyed by the
+     * error response format and the error code.
+     */
+    private final ConcurrentHashMap<String, Unmarshaller<AmazonServiceException, Node>> unmarshallerCache =
+        new ConcurrentHashMap<String, Unmarshaller<AmazonServiceException, Node>>();
+
     /**
      * Constructs a new DefaultErrorResponseHandler that will handle error
      * responses from Amazon services using the specified list of unmarshallers.
@@ -63,9 +98,43 @@ public class DefaultErrorResponseHandler
      */
     public AmazonServiceException handle(HttpResponse errorResponse)
             throws Exception {
+        if (errorResponse.getContent() == null) {
+            return handleDocument(errorResponse, errorResponse.getContent(), null);
+        }
+
+        byte[] content = readContent(errorResponse.getContent());
+        ErrorFields fields;
+        try {
+            fields = ErrorFields.scan(content);
+        } catch (XMLStreamException e) {
+            // Let the DOM parser report the problem in the usual way
+            return handleDocument(errorResponse, new ByteArrayInputStream(content), null);
+        }
+
+        String cacheKey = fields.getCacheKey();
+        Unmarshaller<AmazonServiceException, Node> unmarshaller =
+            (cacheKey == null) ? null : unmarshallerCache.get(cacheKey);
+        if (unmarshaller == null) {
+            return handleDocument(errorResponse, new ByteArrayInputStream(content), cacheKey);
+        }
+
+        AmazonServiceException ase = fields.newException(unmarshaller);
+        if (ase == null) {
+            ase = unmarshaller.unmarshall(XpathUtils.documentFrom(new ByteArrayInputStream(content)));
+        }
+        ase.setStatusCode(errorResponse.getStatusCode());
+        return ase;
+    }
+
+    /**
+     * Parses the error response into a DOM and tries each unmarshaller in
+     * turn, remembering which one handled the response's error code.
+     */
+    private AmazonServiceException handleDocument(HttpResponse errorResponse, InputStream content, String cacheKey)
+            throws Exception {
         Document document;
         try {
-            document = XpathUtils.documentFrom(errorResponse.getContent());
+            document = XpathUtils.documentFrom(content);
         } catch (SAXParseException e) {
             AmazonServiceException exception =
                 new AmazonServiceException(String.format("Unable to unmarshall error response (%s)", e.getMessage()), e);
@@ -83,9 +152,21 @@ public class DefaultErrorResponseHandler
          * unmarshall the response, but we might need something a little more
          * sophisticated in the future.
          */
+        boolean cacheable = cacheKey != null && unmarshallerCache.size() < MAX_CACHED_ERROR_CODES;
         for (Unmarshaller<AmazonServiceException, Node> unmarshaller : unmarshallerList) {
+            /*
+             * The SDK's error unmarshallers only decide whether to handle a
+             * response based on its error code; other unmarshallers may look
+             * at anything, so we can't skip them based on the code alone.
+             */
+            if (!(unmarshaller instanceof StandardErrorUnmarshaller)
+                    && !(unmarshaller instanceof LegacyErrorUnmarshaller)) {
+                cacheable = false;
+            }
+
             AmazonServiceException ase = unmarshaller.unmarshall(document);
             if (ase != null) {
+                if (cacheable) unmarshallerCache.put(cacheKey, unmarshaller);
                 ase.setStatusCode(errorResponse.getStatusCode());
                 return ase;
             }
@@ -94,6 +175,20 @@ public class DefaultErrorResponseHandler
         throw new AmazonClientException("Unable to unmarshall error response from service");
     }
 
+    private static byte[] readContent(InputStream content) throws Exception {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024 * 4];
+            int bytesRead;
+            while ((bytesRead = content.read(buffer)) > -1) {
+                bytes.write(buffer, 0, bytesRead);
+            }
+            return bytes.toByteArray();
+        } finally {
+            try {content.close();} catch (Exception e) {}
+        }
+    }
+
     /**
      * Since this response handler completely consumes all the data from the
      * underlying HTTP connection during the handle method, we don't need to
@@ -105,4 +200,136 @@ public class DefaultErrorResponseHandler
         return false;
     }
 
+
+    /**
+     * The fields of a standard (ErrorResponse/Error) or legacy
+     * (Response/Errors/Error) error response, pulled out with a single
+     * streaming pass. Values follow the same rules as
+     * {@link XpathUtils#asString(String, Node)}: null when the element is
+     * missing, and the trimmed text content of the first matching element
+     * otherwise.
+     */
+    private static final class ErrorFields {
+        private String rootElement;
+        private String code;
+        private String type;
+        private String message;
+        private String requestId;
+
+        static ErrorFields scan(byte[] content) throws XMLStreamException {
+            ErrorFields fields = new ErrorFields();
+            XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(new ByteArrayInputStream(content));
+            try {
+                String[] path = new String[4];
+                int depth = 0;
+                String field = null;
+                int fieldDepth = 0;
+                StringBuilder text = null;
+
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        depth++;
+                        if (depth <= path.length) path[depth - 1] = reader.getLocalName();
+                        if (depth == 1) fields.rootElement = path[0];
+                        if (field == null && (depth == 2 || depth == 3 || depth == 4)) {
+                            field = fields.fieldAt(path, depth);
+                            if (field != null) {
+                                fieldDepth = depth;
+                                text = new StringBuilder();
+                            }
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        if (field != null && depth == fieldDepth) {
+                            fields.set(field, text.toString().trim());
+                            field = null;
+                        }
+                        depth--;
+                    } else if (field != null && (event == XMLStreamConstants.CHARACTERS
+                            || event == XMLStreamConstants.CDATA
+                            || event == XMLStreamConstants.SPACE)) {
+                        text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                }
+            } finally {
+                try {reader.close();} catch (Exception e) {}
+            }
+            return fields;
+        }
+
+        /**
+         * Returns the name of the field at the current element path, if it
+         * hasn't already been seen.
+         */
+        private String fieldAt(String[] path, int depth) {
+            String name = path[depth - 1];
+            if ("ErrorResponse".equals(path[0])) {
+                if (depth == 2 && "RequestId".equals(name)) return requestId == null ? name : null;
+                if (depth == 3 && "Error".equals(path[1])) return unseen(name);
+            } else if ("Response".equals(path[0])) {
+                if (depth == 2 && "RequestID".equals(name)) return requestId == null ? "RequestId" : null;
+                if (depth == 4 && "Errors".equals(path[1]) && "Error".equals(path[2])) return unseen(name);
+            }
+            return null;
+        }
+
+        private String unseen(String name) {
+            if ("Code".equals(name)) return code == null ? name : null;
+            if ("Type".equals(name)) return type == null ? name : null;
+            if ("Message".equals(name)) return message == null ? name : null;
+            return null;
+        }
+
+        private void set(String field, String value) {
+            if ("Code".equals(field)) code = value;
+            else if ("Type".equals(field)) type = value;
+            else if ("Message".equals(field)) message = value;
+            else if ("RequestId".equals(field)) requestId = value;
+        }
+
+        /**
+         * Returns the key under which the unmarshaller for this error is
+         * cached, or null if the error code couldn't be found.
+         */
+        String getCacheKey() {
+            if (code == null) return null;
+            return rootElement + "/" + code;
+        }
+
+        /**
+         * Builds the exception directly from the scanned fields if the
+         * specified unmarshaller is one of the generic error unmarshallers,
+         * which read nothing else from the response.
+         *
+         * @return The new exception, or null if the unmarshaller has to be
+         *         run against the full document.
+         */
+        AmazonServiceException newException(Unmarshaller<AmazonServiceException, Node> unmarshaller) {
+            String serviceType;
+            String clientType;
+            if (unmarshaller.getClass() == StandardErrorUnmarshaller.class) {
+                serviceType = "Receiver";
+                clientType = "Sender";
+            } else if (unmarshaller.getClass() == LegacyErrorUnmarshaller.class) {
+                serviceType = "server";
+                clientType = "client";
+            } else {
+                return null;
+            }
+
+            AmazonServiceException ase = new AmazonServiceException(message);
+            ase.setErrorCode(code);
+            ase.setRequestId(requestId);
+
+            if (type == null) {
+                ase.setErrorType(ErrorType.Unknown);
+            } else if (type.equalsIgnoreCase(serviceType)) {
+                ase.setErrorType(ErrorType.Service);
+            } else if (type.equalsIgnoreCase(clientType)) {
+                ase.setErrorType(ErrorType.Client);
+            }
+            return ase;
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.http;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.security.Security;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Caches the addresses returned by a {@link DnsResolver}, and hands them out
+ * so that new connections are spread across all the addresses of a host.
+ * <p>
+ * Lookups are cached for as long as the JVM caches successful lookups, as
+ * configured by the <code>networkaddress.cache.ttl</code> security property.
+ * Every lookup returns all the cached addresses, starting from a different one
+ * each time, so connections are opened to each address in turn and only fall
+ * back to the others if the first can't be reached.
+ * <p>
+ * An address that can't be connected to several times in a row is evicted
+ * until the host is looked up again. If every address of a host is evicted,
+ * the host is looked up again right away.
+ * <p>
+ * Instances of this class are thread-safe.
+ */
+class DnsCache {
+
+    private static final Log log = LogFactory.getLog(DnsCache.class);
+
+    /** The JVM's default time to cache successful lookups, in seconds. */
+    private static final int DEFAULT_TTL_SECONDS = 30;
+
+    /** An address is evicted after this many connection failures in a row. */
+    private static final int MAX_CONSECUTIVE_FAILURES = 3;
+
+    /** Expired lookups are purged once this many hosts are cached. */
+    private static final int MAX_CACHED_HOSTS = 1000;
+
+    private final DnsResolver resolver;
+
+    /** How long lookups are cached, or -1 to cache them forever. */
+    private final long ttlNanos;
+
+    private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+
+    /** Picks the address each lookup starts with. */
+    private final AtomicInteger nextAddress = new AtomicInteger(0);
+
+    DnsCache(DnsResolver resolver) {
+        this.resolver = resolver;
+        this.ttlNanos = getCacheTtlNanos();
+    }
+
+    /**
+     * Returns all the addresses of the specified host, starting from a
+     * different address each time.
+     */
+    InetAddress[] resolve(String host) throws UnknownHostException {
+        long now = System.nanoTime();
+        Entry entry = cache.get(host);
+        if (entry == null || isExpired(entry, now)) {
+            InetAddress[] addresses = resolver.resolve(host);
+            if (addresses == null || addresses.length == 0) {
+                throw new UnknownHostException(host);
+            }
+            if (cache.size() >= MAX_CACHED_HOSTS) purgeExpired(now);
+            entry = new Entry(addresses, now);
+            if (ttlNanos != 0) cache.put(host, entry);
+        }
+
+        InetAddress[] addresses = entry.addresses;
+        int first = (nextAddress.getAndIncrement() & Integer.MAX_VALUE) % addresses.length;
+        InetAddress[] rotated = new InetAddress[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            rotated[i] = addresses[(first + i) % addresses.length];
+        }
+        return rotated;
+    }
+
+    /**
+     * Records that a connection to an address of the specified host was
+     * opened.
+     */
+    void connectSucceeded(String host, InetAddress address) {
+        Entry entry = cache.get(host);
+        if (entry == null) return;
+        int index = entry.indexOf(address);
+        if (index >= 0) entry.failures.set(index, 0);
+    }
+
+    /**
+     * Records that a connection to an address of the specified host couldn't
+     * be opened, evicting the address if this keeps happening.
+     */
+    void connectFailed(String host, InetAddress address) {
+        Entry entry = cache.get(host);
+        if (entry == null) return;
+        int index = entry.indexOf(address);
+        if (index < 0 || entry.failures.incrementAndGet(index) < MAX_CONSECUTIVE_FAILURES) return;
+
+        if (log.isDebugEnabled()) {
+            log.debug("Evicting unreachable address " + address.getHostAddress() + " of " + host);
+        }
+        if (entry.addresses.length == 1) {
+            cache.remove(host, entry);
+        } else {
+            cache.replace(host, entry, entry.without(index));
+        }
+    }
+
+    private void purgeExpired(long now) {
+        for (Iterator<Entry> it = cache.values().iterator(); it.hasNext();) {
+            if (isExpired(it.next(), now)) it.remove();
+        }
+        // Still too many hosts; start over rather than grow without bound
+        if (cache.size() >= MAX_CACHED_HOSTS) cache.clear();
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return ttlNanos >= 0 && now - entry.resolvedAt >= ttlNanos;
+    }
+
+    /**
+     * Returns how long the JVM caches successful lookups, or -1 if it caches
+     * them forever.
+     */
+    private static long getCacheTtlNanos() {
+        int ttlSeconds = DEFAULT_TTL_SECONDS;
+        try {
+            String ttl = Security.getProperty("networkaddress.cache.ttl");
+            if (ttl != null) ttlSeconds = Integer.parseInt(ttl.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Unable to parse networkaddress.cache.ttl; caching lookups for "
+                    + DEFAULT_TTL_SECONDS + " seconds");
+        } catch (SecurityException e) {
+            // Not allowed to read it; use the default
+        }
+        if (ttlSeconds < 0) return -1;
+        return TimeUnit.SECONDS.toNanos(ttlSeconds);
+    }
+
+    /**
+     * The cached addresses of a host, and the number of times in a row each
+     * couldn't be connected to.
+     */
+    private static class Entry {
+        final InetAddress[] addresses;
+        final AtomicIntegerArray failures;
+        final long resolvedAt;
+
+        Entry(InetAddress[] addresses, long resolvedAt) {
+            this.addresses = addresses;
+            this.failures = new AtomicIntegerArray(addresses.length);
+            this.resolvedAt = resolvedAt;
+        }
+
+        int indexOf(InetAddress address) {
+            for (int i = 0; i < addresses.length; i++) {
+                if (addresses[i].equals(address)) return i;
+            }
+            return -1;
+        }
+
+        /** Returns a copy of this entry without the address at the index given. */
+        Entry without(int index) {
+            InetAddress[] remaining = new InetAddress[addresses.length - 1];
+            System.arraycopy(addresses, 0, remaining, 0, index);
+            System.arraycopy(addresses, index + 1, remaining, index, remaining.length - index);
+            Entry entry = new Entry(remaining, resolvedAt);
+            for (int i = 0; i < remaining.length; i++) {
+                entry.failures.set(i, failures.get(i < index ? i : i + 1));
+            }
+            return entry;
+        }
+    }
+}
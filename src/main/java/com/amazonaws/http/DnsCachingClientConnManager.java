@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.http;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.OperatedClientConnection;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.DefaultClientConnectionOperator;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Connection manager that resolves host names through a {@link DnsCache}, so
+ * that the connections to an endpoint are spread across all of its addresses,
+ * and addresses that can't be reached are skipped.
+ */
+class DnsCachingClientConnManager extends ThreadSafeClientConnManager {
+
+    private final DnsCache dnsCache;
+
+    DnsCachingClientConnManager(DnsResolver dnsResolver) {
+        super();
+        this.dnsCache = new DnsCache(dnsResolver);
+    }
+
+    /**
+     * Called by the superclass constructor, so the operator can only use the
+     * DNS cache once it starts opening connections.
+     */
+    @Override
+    protected ClientConnectionOperator createConnectionOperator(SchemeRegistry schreg) {
+        return new DnsCachingConnectionOperator(schreg);
+    }
+
+    /**
+     * Resolves host names through the DNS cache, from the hook the default
+     * operator already calls before trying each address in turn, and reports
+     * the outcome of those attempts back to the cache.
+     */
+    private class DnsCachingConnectionOperator extends DefaultClientConnectionOperator {
+
+        /** The addresses last resolved on this thread, in the order tried. */
+        private final ThreadLocal<InetAddress[]> resolved = new ThreadLocal<InetAddress[]>();
+
+        DnsCachingConnectionOperator(SchemeRegistry schemes) {
+            super(schemes);
+        }
+
+        @Override
+        protected InetAddress[] resolveHostname(String host) throws UnknownHostException {
+            InetAddress[] addresses = dnsCache.resolve(host);
+            resolved.set(addresses);
+            return addresses;
+        }
+
+        @Override
+        public void openConnection(OperatedClientConnection conn, HttpHost target, InetAddress local,
+                HttpContext context, HttpParams params) throws IOException {
+            resolved.remove();
+            String host = target == null ? null : target.getHostName();
+            try {
+                super.openConnection(conn, target, local, context, params);
+            } catch (ConnectException e) {
+                reportConnected(host, null);
+                throw e;
+            } catch (ConnectTimeoutException e) {
+                reportConnected(host, null);
+                throw e;
+            }
+            reportConnected(host, conn.getSocket().getInetAddress());
+        }
+
+        /**
+         * Reports the addresses tried before the connected one as failed, as
+         * the default operator only moves on to the next address when a
+         * connection can't be made, and the connected one as reachable.
+         *
+         * @param connected
+         *            The address connected to, or null if none was.
+         */
+        private void reportConnected(String host, InetAddress connected) {
+            InetAddress[] addresses = resolved.get();
+            resolved.remove();
+            if (addresses == null) return;
+            for (InetAddress address : addresses) {
+                if (address.equals(connected)) {
+                    dnsCache.connectSucceeded(host, address);
+                    return;
+                }
+                dnsCache.connectFailed(host, address);
+            }
+        }
+    }
+}
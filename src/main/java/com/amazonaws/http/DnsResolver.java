@@ -0,0 +1,44 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.http;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Resolves the host names of service endpoints to IP addresses.
+ * <p>
+ * The addresses returned are cached by the client for as long as the JVM
+ * caches successful lookups (the <code>networkaddress.cache.ttl</code>
+ * security property), and new connections are spread across all of them.
+ * Implementations must be thread-safe.
+ *
+ * @see com.amazonaws.ClientConfiguration#setDnsResolver(DnsResolver)
+ */
+public interface DnsResolver {
+
+    /**
+     * Returns all the IP addresses of the specified host.
+     *
+     * @param host
+     *            The host name to resolve.
+     *
+     * @return The IP addresses of the host, which must not be empty.
+     *
+     * @throws UnknownHostException
+     *             If no IP address for the host could be found.
+     */
+    public InetAddress[] resolve(String host) throws UnknownHostException;
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpRequestBase;
+
+import com.amazonaws.HedgingPolicy;
+import com.amazonaws.Request;
+import com.amazonaws.util.StringInputStream;
+
+/**
+ * Sends hedgeable requests according to a {@link HedgingPolicy}.
+ * <p>
+ * The first attempt is sent on the calling thread, as usual. If it hasn't
+ * received a response once the hedging delay has passed, a background thread
+ * sends a hedge of the request on another pooled connection. Whichever attempt
+ * receives a response first wins, and the other one is aborted, which makes
+ * the caller's blocked attempt fail so that it picks up the hedge's response.
+ * <p>
+ * The hedging delay is the configured percentile of the time taken to receive
+ * the responses of recent hedgeable requests. Every hedgeable request earns a
+ * fraction of a hedge, according to the maximum hedge ratio, and hedges are
+ * only sent while there are whole hedges to spend.
+ */
+class HedgedRequestExecutor {
+
+    private static final Log log = LogFactory.getLog(HedgedRequestExecutor.class);
+
+    /** The number of recent response times the hedging delay is based on. */
+    private static final int LATENCY_SAMPLES = 1024;
+
+    /** Requests aren't hedged until this many response times are known. */
+    private static final int MIN_LATENCY_SAMPLES = 100;
+
+    /** How often, in samples, the hedging delay is recomputed. */
+    private static final int DELAY_UPDATE_INTERVAL = 128;
+
+    /** The most hedges that can be saved up for a burst of slow requests. */
+    private static final double MAX_HEDGE_CREDITS = 10;
+
+    private static final AtomicInteger threadCount = new AtomicInteger(0);
+
+    private final HttpClient httpClient;
+    private final HedgingPolicy policy;
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    /** Recent response times in nanoseconds, used as a ring buffer. */
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+
+    /** The number of response times ever recorded, guarded by latencies. */
+    private long latencyCount = 0;
+
+    /** The time to wait before hedging, or -1 until enough samples are known. */
+    private volatile long hedgeDelayNanos = -1;
+
+    /** The number of hedges that may be sent, guarded by this. */
+    private double hedgeCredits = 0;
+
+    HedgedRequestExecutor(HttpClient httpClient, HedgingPolicy policy, int maxConcurrentHedges) {
+        this.httpClient = httpClient;
+        this.policy = policy;
+        this.scheduler = new ScheduledThreadPoolExecutor(maxConcurrentHedges, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r);
+                thread.setName("aws-hedged-request-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Returns true if the specified request may be hedged: the policy allows
+     * it, and a copy of its content, if any, can be sent at the same time.
+     */
+    boolean isHedgeable(Request<?> request) {
+        InputStream content = request.getContent();
+        return (content == null || content instanceof StringInputStream) && policy.isHedgeable(request);
+    }
+
+    /**
+     * Sends the specified request, hedging it if no response is received
+     * within the hedging delay.
+     *
+     * @param primary
+     *            The first attempt of the request.
+     * @param hedgeFactory
+     *            Creates the hedge of the request, if it's needed.
+     *
+     * @return The attempt that won and its response.
+     *
+     * @throws IOException
+     *             If neither attempt received a response.
+     */
+    Result execute(HttpRequestBase primary, Callable<HttpRequestBase> hedgeFactory) throws IOException {
+        earnHedgeCredit();
+        long startTime = System.nanoTime();
+
+        long delay = hedgeDelayNanos;
+        HedgeTask hedge = new HedgeTask(primary, hedgeFactory);
+        ScheduledFuture<?> hedgeFuture = null;
+        if (delay >= 0) {
+            try {
+                hedgeFuture = scheduler.schedule(hedge, delay, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // Shut down; just send the request
+            }
+        }
+
+        HttpResponse response = null;
+        IOException failure = null;
+        try {
+            response = httpClient.execute(primary);
+        } catch (IOException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            if (hedgeFuture != null) {
+                hedgeFuture.cancel(false);
+                hedge.abandon();
+            }
+            throw e;
+        }
+
+        if (hedgeFuture != null) hedgeFuture.cancel(false);
+        if (hedgeFuture == null || hedge.preventStart()) {
+            // The hedge was never sent
+            if (failure != null) throw failure;
+            recordLatency(System.nanoTime() - startTime);
+            return new Result(primary, response);
+        }
+
+        if (failure == null && hedge.claim(HedgeTask.PRIMARY)) {
+            hedge.abortHedge();
+            recordLatency(System.nanoTime() - startTime);
+            return new Result(primary, response);
+        }
+
+        // Either the first attempt failed, or the hedge received a response first
+        HttpResponse hedgeResponse;
+        try {
+            hedgeResponse = hedge.awaitResponse();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            hedge.abandon();
+            throw new InterruptedIOException("Interrupted while waiting for a hedged request");
+        }
+        if (hedgeResponse == null) throw failure;
+
+        if (failure == null) primary.abort();
+        // The first attempt took at least this long
+        recordLatency(System.nanoTime() - startTime);
+        return new Result(hedge.hedgeRequest, hedgeResponse);
+    }
+
+    /**
+     * Stops sending hedges.
+     */
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private synchronized void earnHedgeCredit() {
+        hedgeCredits = Math.min(MAX_HEDGE_CREDITS, hedgeCredits + policy.getMaxHedgeRatio());
+    }
+
+    private synchronized boolean spendHedgeCredit() {
+        if (hedgeCredits < 1) return false;
+        hedgeCredits -= 1;
+        return true;
+    }
+
+    /**
+     * Records the time taken to receive a response, and periodically updates
+     * the hedging delay from the recent response times.
+     */
+    private void recordLatency(long latencyNanos) {
+        long[] sorted = null;
+        synchronized (latencies) {
+            latencies[(int)(latencyCount % LATENCY_SAMPLES)] = latencyNanos;
+            latencyCount++;
+            if (latencyCount == MIN_LATENCY_SAMPLES || latencyCount % DELAY_UPDATE_INTERVAL == 0) {
+                sorted = new long[(int)Math.min(latencyCount, LATENCY_SAMPLES)];
+                System.arraycopy(latencies, 0, sorted, 0, sorted.length);
+            }
+        }
+        if (sorted != null && sorted.length >= MIN_LATENCY_SAMPLES) {
+            Arrays.sort(sorted);
+            int index = (int)Math.ceil(policy.getDelayPercentile() / 100 * sorted.length) - 1;
+            long minDelayNanos = TimeUnit.MILLISECONDS.toNanos(policy.getMinDelayMillis());
+            hedgeDelayNanos = Math.max(minDelayNanos, sorted[Math.max(0, index)]);
+        }
+    }
+
+    /**
+     * The attempt that won, and the response it received.
+     */
+    static class Result {
+        final HttpRequestBase request;
+        final HttpResponse response;
+
+        Result(HttpRequestBase request, HttpResponse response) {
+            this.request = request;
+            this.response = response;
+        }
+    }
+
+    /**
+     * Sends the hedge of a request, unless the first attempt has already
+     * received a response or the hedge budget is used up.
+     */
+    private class HedgeTask implements Runnable {
+        static final int NONE = 0;
+        static final int PRIMARY = 1;
+        static final int HEDGE = 2;
+
+        private final HttpRequestBase primary;
+        private final Callable<HttpRequestBase> hedgeFactory;
+
+        /** Which attempt received the response that is used. */
+        private final AtomicInteger winner = new AtomicInteger(NONE);
+
+        /**
+         * Set once the task starts, or once the caller makes sure it never
+         * will. Cancelling the scheduled task doesn't tell the two apart.
+         */
+        private final AtomicBoolean started = new AtomicBoolean(false);
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        volatile HttpRequestBase hedgeRequest;
+        private volatile HttpResponse hedgeResponse;
+
+        HedgeTask(HttpRequestBase primary, Callable<HttpRequestBase> hedgeFactory) {
+            this.primary = primary;
+            this.hedgeFactory = hedgeFactory;
+        }
+
+        public void run() {
+            if (!started.compareAndSet(false, true)) return;
+            try {
+                if (winner.get() != NONE || !spendHedgeCredit()) return;
+
+                HttpRequestBase request = hedgeFactory.call();
+                hedgeRequest = request;
+                if (winner.get() != NONE) return;
+
+                HttpResponse response = httpClient.execute(request);
+                hedgeResponse = response;
+                if (claim(HEDGE)) {
+                    primary.abort();
+                } else {
+                    request.abort();
+                }
+            } catch (Exception e) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Hedged request failed: " + e.getMessage());
+                }
+            } finally {
+                done.countDown();
+            }
+        }
+
+        /**
+         * Keeps the task from starting, returning false if it already has.
+         */
+        boolean preventStart() {
+            return started.compareAndSet(false, true);
+        }
+
+        boolean claim(int attempt) {
+            return winner.compareAndSet(NONE, attempt);
+        }
+
+        /**
+         * Waits for the hedge to finish and returns its response, or null if
+         * it didn't receive one.
+         */
+        HttpResponse awaitResponse() throws InterruptedException {
+            done.await();
+            return (winner.get() == HEDGE) ? hedgeResponse : null;
+        }
+
+        void abortHedge() {
+            HttpRequestBase request = hedgeRequest;
+            if (request != null) request.abort();
+        }
+
+        /** Keeps the hedge from being sent, or aborts it if it already was. */
+        void abandon() {
+            preventStart();
+            winner.compareAndSet(NONE, PRIMARY);
+            abortHedge();
+        }
+    }
+}
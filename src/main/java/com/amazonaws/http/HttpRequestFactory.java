@@ -21,12 +21,14 @@ import java.util.Map.Entry;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.entity.BufferedHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.params.CoreProtocolPNames;
 
@@ -34,6 +36,7 @@ import com.amazonaws.AmazonClientException;
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.Request;
 import com.amazonaws.util.HttpUtils;
+import com.amazonaws.util.StringInputStream;
 
 /** Responsible for creating Apache HttpClient 4 request objects. */
 class HttpRequestFactory {
@@ -139,6 +142,25 @@ class HttpRequestFactory {
         return httpRequest;
     }
 
+    /**
+     * Creates another HttpClient method object for a request that is already
+     * being sent, with its own copy of the request content so that both can be
+     * sent at the same time. Only requests without content, or whose content
+     * is a {@link StringInputStream}, can be copied.
+     */
+    HttpRequestBase createHedgeHttpRequest(Request<?> request, ClientConfiguration clientConfiguration, ExecutionContext context) {
+        HttpRequestBase httpRequest = createHttpRequest(request, clientConfiguration, null, context);
+        if (httpRequest instanceof HttpEntityEnclosingRequestBase && request.getContent() instanceof StringInputStream) {
+            String content = ((StringInputStream)request.getContent()).getString();
+            try {
+                ((HttpEntityEnclosingRequestBase)httpRequest).setEntity(new ByteArrayEntity(content.getBytes(DEFAULT_ENCODING)));
+            } catch (UnsupportedEncodingException e) {
+                throw new AmazonClientException("Unable to create HTTP entity: " + e.getMessage(), e);
+            }
+        }
+        return httpRequest;
+    }
+
     /** Configures the headers in the specified Apache HTTP request. */
     private void configureHeaders(HttpRequestBase httpRequest, Request<?> request, ExecutionContext context, ClientConfiguration clientConfiguration) {
         /*
@@ -176,6 +198,12 @@ class HttpRequestFactory {
                     "charset=" + DEFAULT_ENCODING.toLowerCase());
         }
 
+        // Ask for a compressed response; AmazonHttpClient decompresses it
+        if (clientConfiguration.useGzip()
+                && (httpRequest.getHeaders("Accept-Encoding") == null || httpRequest.getHeaders("Accept-Encoding").length == 0)) {
+            httpRequest.addHeader("Accept-Encoding", "gzip");
+        }
+
         // Override the user agent string specified in the client params if the context requires it
         if (context != null && context.getContextUserAgent() != null) {
             httpRequest.addHeader("User-Agent", createUserAgentString(clientConfiguration, context.getContextUserAgent()));
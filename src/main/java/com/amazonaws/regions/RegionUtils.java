@@ -21,8 +21,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -40,25 +44,43 @@ import com.amazonaws.util.VersionInfoUtils;
 
 /**
  * Utilities for working with regions.
+ * <p>
+ * Region metadata is loaded on first use from the regions file bundled with
+ * the SDK (or from the override file named by the
+ * <code>com.amazonaws.regions.RegionUtils.fileOverride</code> system
+ * property), without any network access. Calling {@link #init()} replaces it
+ * with the most recent version published by AWS. The metadata is immutable
+ * once loaded and indexed by region name and by endpoint host, so lookups
+ * don't lock or scan.
  */
 public class RegionUtils {
 
     private static final String CLOUDFRONT_DISTRO = "http://aws-sdk-configurations.amazonwebservices.com/";
-    private static List<Region> regions;
     private static final String REGIONS_FILE_OVERRIDE = RegionUtils.class.getName() + ".fileOverride";
 
     // Use the same logger as the http client
     private static final Log log = LogFactory.getLog("com.amazonaws.request");
-    
+
     /**
-     * Returns a list of the available AWS regions.
+     * Region metadata installed by {@link #init()}, which takes precedence
+     * over the metadata loaded on first use.
      */
-    public synchronized static List<Region> getRegions() {
-        if ( regions == null ) {
-            init();
-        }
+    private static volatile RegionMetadata refreshedMetadata;
 
-        return regions;
+    /**
+     * Holds the region metadata loaded on first use. The JVM initializes the
+     * holder exactly once, and every later read is an ordinary field read.
+     */
+    private static final class LocalRegionMetadata {
+        static final RegionMetadata METADATA = loadLocalRegionMetadata();
+    }
+
+    /**
+     * Returns a list of the available AWS regions. The list can't be
+     * modified.
+     */
+    public static List<Region> getRegions() {
+        return getMetadata().regions;
     }
 
     /**
@@ -66,7 +88,7 @@ public class RegionUtils {
      * 
      * @see ServiceAbbreviations
      */
-    public synchronized static List<Region> getRegionsForService(String serviceAbbreviation) {
+    public static List<Region> getRegionsForService(String serviceAbbreviation) {
         List<Region> regions = new LinkedList<Region>();
         for ( Region r : getRegions() ) {
             if ( r.isServiceSupported(serviceAbbreviation) ) {
@@ -81,13 +103,7 @@ public class RegionUtils {
      * null.
      */
     public static Region getRegion(String regionName) {
-        for ( Region r : getRegions() ) {
-            if ( r.getName().equals(regionName) ) {
-                return r;
-            }
-        }
-
-        return null;
+        return getMetadata().regionsByName.get(regionName);
     }
 
     /**
@@ -105,68 +121,96 @@ public class RegionUtils {
      *             URLs on record is malformed.
      */
     public static Region getRegionByEndpoint(String endpoint) throws MalformedURLException {
-        URL targetEndpointUrl = null;
+        String targetHost;
         try {
-            targetEndpointUrl = new URL(endpoint);
+            targetHost = getHost(endpoint);
         } catch ( MalformedURLException e ) {
             throw new RuntimeException("Unable to parse service endpoint: " + e.getMessage());
         }
 
-        String targetHost = targetEndpointUrl.getHost();
-        for ( Region region : getRegions() ) {
-            for ( String serviceEndpoint : region.getServiceEndpoints().values() ) {
-                URL serviceEndpointUrl = new URL(serviceEndpoint);
-                if ( serviceEndpointUrl.getHost().equals(targetHost) )
-                    return region;
-            }
+        Region region = getMetadata().regionsByHost.get(targetHost);
+        if ( region == null ) {
+            throw new RuntimeException("No region found with any service for endpoint " + endpoint);
         }
-
-        throw new RuntimeException("No region found with any service for endpoint " + endpoint);
+        return region;
     }
 
     /**
      * Fetches the most recent version of the regions file from the remote
-     * source and caches it to the workspace metadata directory, then
-     * initializes the static list of regions with it.
+     * source and replaces the region metadata with it. If the remote file
+     * can't be fetched or parsed, the current metadata is kept.
      */
     public static synchronized void init() {
         if ( System.getProperty(REGIONS_FILE_OVERRIDE) != null ) {
             try {
-                loadRegionsFromOverrideFile();
+                refreshedMetadata = loadRegionsFromOverrideFile();
             } catch ( FileNotFoundException e ) {
                 throw new RuntimeException("Couldn't find regions override file specified", e);
             }
         } else {
             try {
                 InputStream regionsFile = getRegionsFileFromCloudfront();
-                initRegions(regionsFile);
+                RegionMetadata metadata = initRegions(regionsFile);
+                if ( metadata != null ) {
+                    refreshedMetadata = metadata;
+                }
             } catch ( Exception e ) {
                 log.warn("Failed to initialize regional endpoints from cloudfront", e);
             }
         }
+    }
+
+    private static RegionMetadata getMetadata() {
+        RegionMetadata metadata = refreshedMetadata;
+        if ( metadata == null ) {
+            metadata = LocalRegionMetadata.METADATA;
+        }
+        return metadata;
+    }
+
+    /**
+     * Loads the region metadata used until {@link #init()} is called, from
+     * the override file if one is specified and otherwise from the regions
+     * file bundled with the SDK.
+     */
+    private static RegionMetadata loadLocalRegionMetadata() {
+        RegionMetadata metadata = null;
+        if ( System.getProperty(REGIONS_FILE_OVERRIDE) != null ) {
+            try {
+                metadata = loadRegionsFromOverrideFile();
+            } catch ( FileNotFoundException e ) {
+                log.warn("Couldn't find regions override file specified", e);
+            }
+        }
 
         // Fall back onto the version we ship with the SDK
-        if ( regions == null ) {
-            initSDKRegions();
+        if ( metadata == null ) {
+            metadata = initSDKRegions();
         }
+        if ( metadata == null ) {
+            metadata = new RegionMetadata(new ArrayList<Region>());
+        }
+        return metadata;
     }
 
-    private static void loadRegionsFromOverrideFile() throws FileNotFoundException {
+    private static RegionMetadata loadRegionsFromOverrideFile() throws FileNotFoundException {
         System.setProperty("com.amazonaws.sdk.disableCertChecking", "true");
         File regionsFile = new File(System.getProperty(REGIONS_FILE_OVERRIDE));
         FileInputStream override = new FileInputStream(regionsFile);
-        initRegions(override);
+        return initRegions(override);
     }
 
     /**
-     * Tries to initialize the regions list from the stream given.
+     * Tries to parse and index the regions in the stream given, returning
+     * null if they can't be parsed.
      */
-    private static void initRegions(InputStream regionsFile) {
+    private static RegionMetadata initRegions(InputStream regionsFile) {
         try {
             RegionMetadataParser parser = new RegionMetadataParser();
-            regions = parser.parseRegionMetadata(regionsFile);
+            return new RegionMetadata(parser.parseRegionMetadata(regionsFile));
         } catch ( Exception e ) {
             log.warn("Failed to parse regional endpoints", e);
+            return null;
         }
     }
 
@@ -174,10 +218,64 @@ public class RegionUtils {
      * Failsafe method to initialize the regions list from the list bundled with
      * the SDK, in case it cannot be fetched from the remote source.
      */
-    private static void initSDKRegions() {
-        ClassLoader classLoader = RegionUtils.class.getClassLoader();
-        InputStream inputStream = classLoader.getResourceAsStream("/etc/regions.xml");
-        initRegions(inputStream);
+    private static RegionMetadata initSDKRegions() {
+        InputStream inputStream = RegionUtils.class.getResourceAsStream("/regions.xml");
+        if ( inputStream == null ) {
+            log.warn("Unable to find the regions file bundled with the SDK");
+            return null;
+        }
+        return initRegions(inputStream);
+    }
+
+    /**
+     * Returns the host of the endpoint given, which may be either a URL or
+     * just a host name.
+     */
+    private static String getHost(String endpoint) throws MalformedURLException {
+        if ( endpoint.indexOf("://") >= 0 ) {
+            return new URL(endpoint).getHost();
+        }
+        int end = endpoint.length();
+        for ( char c : new char[] { '/', ':' } ) {
+            int index = endpoint.indexOf(c);
+            if ( index >= 0 && index < end ) {
+                end = index;
+            }
+        }
+        return endpoint.substring(0, end);
+    }
+
+    /**
+     * An immutable, indexed snapshot of the region metadata.
+     */
+    private static final class RegionMetadata {
+        final List<Region> regions;
+        final Map<String, Region> regionsByName;
+        final Map<String, Region> regionsByHost;
+
+        RegionMetadata(List<Region> regionList) {
+            Map<String, Region> byName = new HashMap<String, Region>();
+            Map<String, Region> byHost = new HashMap<String, Region>();
+            for ( Region region : regionList ) {
+                if ( !byName.containsKey(region.getName()) ) {
+                    byName.put(region.getName(), region);
+                }
+                for ( String serviceEndpoint : region.getServiceEndpoints().values() ) {
+                    try {
+                        String host = getHost(serviceEndpoint);
+                        // The first region listed with a host wins, as with a scan
+                        if ( !byHost.containsKey(host) ) {
+                            byHost.put(host, region);
+                        }
+                    } catch ( MalformedURLException e ) {
+                        log.warn("Ignoring malformed endpoint for region " + region.getName() + ": " + serviceEndpoint);
+                    }
+                }
+            }
+            this.regions = Collections.unmodifiableList(new ArrayList<Region>(regionList));
+            this.regionsByName = byName;
+            this.regionsByHost = byHost;
+        }
     }
 
     /**
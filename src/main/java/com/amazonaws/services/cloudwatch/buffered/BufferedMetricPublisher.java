@@ -0,0 +1,443 @@
+/*
+ * Copyright 2012-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package com.amazonaws.services.cloudwatch.buffered;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatch;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+import com.amazonaws.util.VersionInfoUtils;
+
+/**
+ * Publishes metric data to Amazon CloudWatch in the background, so that
+ * recording a datapoint doesn't cost the caller a network round trip.
+ * <p>
+ * Datapoints for the same metric name, unit and set of dimensions are
+ * aggregated on the client into a single {@link StatisticSet} (sample count,
+ * sum, minimum and maximum) over a window of
+ * {@link MetricBufferConfig#getFlushIntervalMs()}. At the end of each window a
+ * background thread publishes the aggregated metrics with
+ * {@code PutMetricData} requests of up to 20 datums each, so the number of
+ * calls depends on the number of distinct metrics rather than the number of
+ * datapoints.
+ * <p>
+ * Recording a datapoint for a metric already in the window only updates its
+ * aggregate. When the window already holds
+ * {@link MetricBufferConfig#getMaxBufferedMetrics()} metrics, datapoints for
+ * new metrics are either dropped (and counted in {@link #getDroppedCount()})
+ * or make the caller wait while the window is published early, depending on
+ * {@link MetricBufferConfig#isDropWhenFull()}.
+ * <p>
+ * The publisher does not own the CloudWatch client; call {@link #shutdown()}
+ * to publish any remaining data and stop the background thread, and shut down
+ * the client separately.
+ * <p>
+ * Instances of {@code BufferedMetricPublisher} are thread-safe.
+ */
+public class BufferedMetricPublisher {
+
+    private static Log log = LogFactory.getLog(BufferedMetricPublisher.class);
+
+    static final String USER_AGENT = BufferedMetricPublisher.class.getSimpleName() + "/"
+            + VersionInfoUtils.getVersion();
+
+    private static final Comparator<Dimension> DIMENSION_ORDER = new Comparator<Dimension>() {
+        public int compare( Dimension a, Dimension b ) {
+            return String.valueOf(a.getName()).compareTo(String.valueOf(b.getName()));
+        }
+    };
+
+    private final AmazonCloudWatch cloudWatch;
+
+    private final String namespace;
+
+    private final MetricBufferConfig config;
+
+    /** the window datapoints are currently aggregated into */
+    private volatile Window currentWindow;
+
+    /** notified every time a new window replaces the current one */
+    private final Object windowChanged = new Object();
+
+    /** serializes publishing, whether scheduled, early or on shutdown */
+    private final Object flushLock = new Object();
+
+    private final AtomicLong droppedCount = new AtomicLong(0);
+
+    private final ScheduledExecutorService scheduler;
+
+    private volatile boolean shutdown = false;
+
+    private final Runnable flushTask = new Runnable() {
+        public void run() {
+            try {
+                flush();
+            } catch ( RuntimeException e ) {
+                log.warn("BufferedMetricPublisher: unable to publish metrics " + e);
+            }
+        }
+    };
+
+    public BufferedMetricPublisher( AmazonCloudWatch paramCloudWatch, String paramNamespace ) {
+        this(paramCloudWatch, paramNamespace, new MetricBufferConfig());
+    }
+
+    public BufferedMetricPublisher( AmazonCloudWatch paramCloudWatch, String paramNamespace, MetricBufferConfig paramConfig ) {
+        paramConfig.validate();
+        cloudWatch = paramCloudWatch;
+        namespace = paramNamespace;
+        config = new MetricBufferConfig(paramConfig);
+        currentWindow = new Window();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread( Runnable r ) {
+                Thread thread = new Thread( r );
+                thread.setDaemon(true);
+                thread.setName("CloudWatchMetricPublisherThread");
+                return thread;
+            }
+        });
+        scheduler.scheduleAtFixedRate(flushTask, config.getFlushIntervalMs(), config.getFlushIntervalMs(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records a datapoint, to be published at the end of the current window
+     * as part of its metric's statistic set.
+     *
+     * @return false if the datapoint was dropped because the window was full
+     */
+    public boolean addDatum( String metricName, double value, StandardUnit unit, Dimension... dimensions ) {
+        return add(new MetricKey(metricName, unit == null ? null : unit.toString(), dimensions), 1, value, value, value);
+    }
+
+    /**
+     * Records a datum, to be published at the end of the current window as
+     * part of its metric's statistic set. The datum's timestamp is ignored;
+     * either its value or its statistic values are aggregated.
+     *
+     * @return false if the datum was dropped because the window was full
+     */
+    public boolean addDatum( MetricDatum datum ) {
+        List<Dimension> dimensions = datum.getDimensions();
+        MetricKey key = new MetricKey(datum.getMetricName(), datum.getUnit(),
+                dimensions.toArray(new Dimension[dimensions.size()]));
+
+        StatisticSet statistics = datum.getStatisticValues();
+        if ( statistics != null ) {
+            return add(key, statistics.getSampleCount(), statistics.getSum(),
+                    statistics.getMinimum(), statistics.getMaximum());
+        }
+        if ( datum.getValue() == null ) {
+            throw new AmazonClientException("A metric datum needs either a value or statistic values");
+        }
+        double value = datum.getValue();
+        return add(key, 1, value, value, value);
+    }
+
+    /**
+     * Returns the number of datapoints dropped so far because a window was
+     * full.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Publishes everything recorded so far and starts a new window. Called
+     * periodically by the background thread, but may also be called directly.
+     */
+    public void flush() {
+        synchronized ( flushLock ) {
+            Window window = currentWindow;
+            currentWindow = new Window();
+            synchronized ( windowChanged ) {
+                windowChanged.notifyAll();
+            }
+
+            window.close();
+            publish(window);
+        }
+    }
+
+    /**
+     * Stops the background thread and publishes everything recorded so far.
+     * Datapoints recorded afterwards are dropped.
+     */
+    public void shutdown() {
+        shutdown = true;
+        scheduler.shutdownNow();
+        flush();
+        synchronized ( windowChanged ) {
+            windowChanged.notifyAll();
+        }
+    }
+
+    private boolean add( MetricKey key, double sampleCount, double sum, double minimum, double maximum ) {
+        while ( !shutdown ) {
+            Window window = currentWindow;
+            if ( !window.enter() ) {
+                // the window was closed; move on to the new one
+                continue;
+            }
+            boolean full;
+            try {
+                Aggregate aggregate = window.aggregates.get(key);
+                if ( aggregate == null ) {
+                    aggregate = window.newAggregate(key);
+                }
+                full = (aggregate == null);
+                if ( !full ) {
+                    aggregate.add(sampleCount, sum, minimum, maximum);
+                    return true;
+                }
+            } finally {
+                window.exit();
+            }
+
+            if ( config.isDropWhenFull() ) {
+                break;
+            }
+            awaitNextWindow(window);
+        }
+        droppedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Publishes the full window early and waits until it has been replaced.
+     */
+    private void awaitNextWindow( Window full ) {
+        synchronized ( windowChanged ) {
+            if ( currentWindow != full || shutdown ) {
+                return;
+            }
+            try {
+                scheduler.execute(flushTask);
+            } catch ( RejectedExecutionException e ) {
+                // shutting down; the final flush empties the window
+                return;
+            }
+            try {
+                while ( currentWindow == full && !shutdown ) {
+                    windowChanged.wait();
+                }
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new AmazonClientException("Interrupted while waiting for metrics to be published", e);
+            }
+        }
+    }
+
+    private void publish( Window window ) {
+        Date timestamp = new Date(window.startMillis);
+        List<MetricDatum> batch = new ArrayList<MetricDatum>(MetricBufferConfig.MAX_BATCH_SIZE);
+        for ( Map.Entry<MetricKey, Aggregate> entry : window.aggregates.entrySet() ) {
+            batch.add(entry.getValue().toDatum(entry.getKey(), timestamp));
+            if ( batch.size() == MetricBufferConfig.MAX_BATCH_SIZE ) {
+                putMetricData(batch);
+                batch = new ArrayList<MetricDatum>(MetricBufferConfig.MAX_BATCH_SIZE);
+            }
+        }
+        if ( !batch.isEmpty() ) {
+            putMetricData(batch);
+        }
+    }
+
+    private void putMetricData( List<MetricDatum> batch ) {
+        PutMetricDataRequest request = new PutMetricDataRequest()
+                .withNamespace(namespace)
+                .withMetricData(batch);
+        request.getRequestClientOptions().addClientMarker(USER_AGENT);
+        try {
+            cloudWatch.putMetricData(request);
+        } catch ( AmazonClientException e ) {
+            // Metrics are best effort; log and carry on with the next batch.
+            droppedCount.addAndGet(batch.size());
+            log.warn("BufferedMetricPublisher: putMetricData failed " + e);
+        }
+    }
+
+    /**
+     * The metrics aggregated over one flush interval.
+     * <p>
+     * Callers register in a striped counter while they update the window, so
+     * that closing it only has to wait for updates already in progress rather
+     * than every caller sharing a single lock or counter.
+     */
+    private class Window {
+        final long startMillis = System.currentTimeMillis();
+
+        final ConcurrentHashMap<MetricKey, Aggregate> aggregates = new ConcurrentHashMap<MetricKey, Aggregate>();
+
+        final AtomicInteger metricCount = new AtomicInteger(0);
+
+        /** callers currently updating this window, spread over padded slots */
+        final AtomicIntegerArray writers = new AtomicIntegerArray(WRITER_SLOTS * SLOT_PADDING);
+
+        volatile boolean closed = false;
+
+        /**
+         * @return false if the window has already been closed
+         */
+        boolean enter() {
+            int slot = slot();
+            writers.incrementAndGet(slot);
+            if ( closed ) {
+                writers.decrementAndGet(slot);
+                return false;
+            }
+            return true;
+        }
+
+        void exit() {
+            writers.decrementAndGet(slot());
+        }
+
+        /**
+         * Stops new updates and waits for the updates in progress to finish.
+         */
+        void close() {
+            closed = true;
+            for ( int i = 0; i < writers.length(); i += SLOT_PADDING ) {
+                while ( writers.get(i) != 0 ) {
+                    Thread.yield();
+                }
+            }
+        }
+
+        /**
+         * @return the aggregate for a new metric, or null if the window
+         *         already holds the maximum number of metrics
+         */
+        Aggregate newAggregate( MetricKey key ) {
+            if ( metricCount.incrementAndGet() > config.getMaxBufferedMetrics() ) {
+                metricCount.decrementAndGet();
+                return null;
+            }
+            Aggregate created = new Aggregate();
+            Aggregate existing = aggregates.putIfAbsent(key, created);
+            if ( existing != null ) {
+                metricCount.decrementAndGet();
+                return existing;
+            }
+            return created;
+        }
+    }
+
+    private static final int WRITER_SLOTS = 16;
+
+    /** keeps each writer slot on its own cache line */
+    private static final int SLOT_PADDING = 16;
+
+    private static int slot() {
+        long id = Thread.currentThread().getId();
+        return (int)((id ^ (id >>> 16)) & (WRITER_SLOTS - 1)) * SLOT_PADDING;
+    }
+
+    /** The statistic set of one metric in one window. */
+    private static class Aggregate {
+        private double sampleCount;
+        private double sum;
+        private double minimum = Double.POSITIVE_INFINITY;
+        private double maximum = Double.NEGATIVE_INFINITY;
+
+        synchronized void add( double paramSampleCount, double paramSum, double paramMinimum, double paramMaximum ) {
+            sampleCount += paramSampleCount;
+            sum += paramSum;
+            if ( paramMinimum < minimum ) minimum = paramMinimum;
+            if ( paramMaximum > maximum ) maximum = paramMaximum;
+        }
+
+        synchronized MetricDatum toDatum( MetricKey key, Date timestamp ) {
+            return new MetricDatum()
+                    .withMetricName(key.metricName)
+                    .withUnit(key.unit)
+                    .withDimensions(key.dimensions)
+                    .withTimestamp(timestamp)
+                    .withStatisticValues(new StatisticSet()
+                            .withSampleCount(sampleCount)
+                            .withSum(sum)
+                            .withMinimum(minimum)
+                            .withMaximum(maximum));
+        }
+    }
+
+    /** Identifies a metric by its name, unit and dimensions, in any order. */
+    private static class MetricKey {
+        final String metricName;
+        final String unit;
+        final List<Dimension> dimensions;
+        private final int hashCode;
+
+        MetricKey( String paramMetricName, String paramUnit, Dimension[] paramDimensions ) {
+            metricName = paramMetricName;
+            unit = paramUnit;
+            if ( paramDimensions == null || paramDimensions.length == 0 ) {
+                dimensions = Collections.emptyList();
+            } else {
+                Dimension[] sorted = paramDimensions.clone();
+                if ( sorted.length > 1 ) {
+                    Arrays.sort(sorted, DIMENSION_ORDER);
+                }
+                dimensions = Arrays.asList(sorted);
+            }
+            int hash = metricName == null ? 0 : metricName.hashCode();
+            hash = 31 * hash + (unit == null ? 0 : unit.hashCode());
+            hashCode = 31 * hash + dimensions.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if ( this == obj ) return true;
+            if ( !(obj instanceof MetricKey) ) return false;
+            MetricKey other = (MetricKey) obj;
+            return hashCode == other.hashCode
+                    && (metricName == null ? other.metricName == null : metricName.equals(other.metricName))
+                    && (unit == null ? other.unit == null : unit.equals(other.unit))
+                    && dimensions.equals(other.dimensions);
+        }
+    }
+}
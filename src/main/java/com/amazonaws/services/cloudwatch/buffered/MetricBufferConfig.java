@@ -0,0 +1,171 @@
+/*
+ * Copyright 2012-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package com.amazonaws.services.cloudwatch.buffered;
+
+import com.amazonaws.AmazonClientException;
+
+/**
+ * Settings for {@link BufferedMetricPublisher}.
+ */
+public class MetricBufferConfig {
+
+    /**
+     * The length, in milliseconds, of the window over which datapoints for
+     * the same metric are aggregated into a single statistic set. At the end
+     * of each window the aggregated metrics are published in the background.
+     */
+    private long flushIntervalMs;
+
+    /** one minute, the finest resolution CloudWatch stores */
+    public static final long FLUSH_INTERVAL_MS_DEFAULT = 60 * 1000;
+
+    /**
+     * The maximum number of distinct metrics (metric name, unit and dimension
+     * set) aggregated in one window. Datapoints for metrics already in the
+     * window are always accepted.
+     */
+    private int maxBufferedMetrics;
+
+    /** 10000 metrics */
+    public static final int MAX_BUFFERED_METRICS_DEFAULT = 10000;
+
+    /**
+     * What to do with a datapoint for a new metric when the window already
+     * holds the maximum number of metrics. If true, the datapoint is dropped
+     * and counted; if false, the caller waits while the window is published
+     * early.
+     */
+    private boolean dropWhenFull;
+
+    /** true */
+    public static final boolean DROP_WHEN_FULL_DEFAULT = true;
+
+    /** The maximum number of datums PutMetricData accepts in one request. */
+    public static final int MAX_BATCH_SIZE = 20;
+
+    public MetricBufferConfig( long flushIntervalMs, int maxBufferedMetrics, boolean dropWhenFull ) {
+        this.flushIntervalMs = flushIntervalMs;
+        this.maxBufferedMetrics = maxBufferedMetrics;
+        this.dropWhenFull = dropWhenFull;
+    }
+
+    public MetricBufferConfig() {
+        this(FLUSH_INTERVAL_MS_DEFAULT, MAX_BUFFERED_METRICS_DEFAULT, DROP_WHEN_FULL_DEFAULT);
+    }
+
+    /** copy constructor */
+    public MetricBufferConfig( MetricBufferConfig other ) {
+        this(other.flushIntervalMs, other.maxBufferedMetrics, other.dropWhenFull);
+    }
+
+    @Override
+    public String toString() {
+        return "MetricBufferConfig [flushIntervalMs=" + flushIntervalMs + ", maxBufferedMetrics="
+                + maxBufferedMetrics + ", dropWhenFull=" + dropWhenFull + "]";
+    }
+
+    /**
+     * The length, in milliseconds, of the window over which datapoints for
+     * the same metric are aggregated into a single statistic set.
+     */
+    public long getFlushIntervalMs() {
+        return flushIntervalMs;
+    }
+
+    /**
+     * The length, in milliseconds, of the window over which datapoints for
+     * the same metric are aggregated into a single statistic set.
+     */
+    public void setFlushIntervalMs( long flushIntervalMs ) {
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    /**
+     * The length, in milliseconds, of the window over which datapoints for
+     * the same metric are aggregated into a single statistic set.
+     */
+    public MetricBufferConfig withFlushIntervalMs( long flushIntervalMs ) {
+        setFlushIntervalMs(flushIntervalMs);
+        return this;
+    }
+
+    /**
+     * The maximum number of distinct metrics (metric name, unit and dimension
+     * set) aggregated in one window.
+     */
+    public int getMaxBufferedMetrics() {
+        return maxBufferedMetrics;
+    }
+
+    /**
+     * The maximum number of distinct metrics (metric name, unit and dimension
+     * set) aggregated in one window.
+     */
+    public void setMaxBufferedMetrics( int maxBufferedMetrics ) {
+        this.maxBufferedMetrics = maxBufferedMetrics;
+    }
+
+    /**
+     * The maximum number of distinct metrics (metric name, unit and dimension
+     * set) aggregated in one window.
+     */
+    public MetricBufferConfig withMaxBufferedMetrics( int maxBufferedMetrics ) {
+        setMaxBufferedMetrics(maxBufferedMetrics);
+        return this;
+    }
+
+    /**
+     * If true, datapoints for new metrics are dropped while the window is
+     * full; if false, callers wait while the window is published early.
+     */
+    public boolean isDropWhenFull() {
+        return dropWhenFull;
+    }
+
+    /**
+     * If true, datapoints for new metrics are dropped while the window is
+     * full; if false, callers wait while the window is published early.
+     */
+    public void setDropWhenFull( boolean dropWhenFull ) {
+        this.dropWhenFull = dropWhenFull;
+    }
+
+    /**
+     * If true, datapoints for new metrics are dropped while the window is
+     * full; if false, callers wait while the window is published early.
+     */
+    public MetricBufferConfig withDropWhenFull( boolean dropWhenFull ) {
+        setDropWhenFull(dropWhenFull);
+        return this;
+    }
+
+    /**
+     * this method checks the config for validity. If the config is deemed to
+     * be invalid, an informative exception is thrown.
+     *
+     * @throws AmazonClientException
+     *             with a message explaining why the config was invalid
+     */
+    void validate() {
+        if ( flushIntervalMs <= 0 ) {
+            throw new AmazonClientException("Config flushIntervalMs must be greater than 0.");
+        }
+        if ( maxBufferedMetrics <= 0 ) {
+            throw new AmazonClientException("Config maxBufferedMetrics must be greater than 0.");
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2012-2013 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazonaws.services.glacier;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.util.BinaryUtils;
+
+/**
+ * Incrementally computes a tree hash from data, or from the hashes of
+ * sequential one megabyte leaves, as it becomes available. This allows the
+ * tree hash of an archive to be produced as a side effect of streaming its
+ * data, without holding all of the leaf hashes and combining them afterwards.
+ * <p>
+ * Completed subtrees are combined as soon as a sibling of the same height is
+ * available, so only one hash per tree level is retained. The resulting hash
+ * is identical to the one computed by
+ * {@link TreeHashGenerator#calculateTreeHash(List)}.
+ * <p>
+ * Instances of this class are not thread safe.
+ */
+public class TreeHashBuilder {
+
+    /** The size, in bytes, of the leaves of the hash tree. */
+    static final int LEAF_SIZE = 1024 * 1024;
+
+    /** Digest used for both leaf data and combining pairs of hashes. */
+    private final MessageDigest digest;
+
+    /** Subtree hashes waiting for a sibling, in order of decreasing height. */
+    private final List<byte[]> pendingHashes = new ArrayList<byte[]>();
+
+    /** The height of each subtree hash in pendingHashes. */
+    private final List<Integer> pendingHeights = new ArrayList<Integer>();
+
+    /** The number of data bytes digested into the current, incomplete leaf. */
+    private int leafOffset = 0;
+
+    /** The total number of leaves added so far. */
+    private long leafCount = 0;
+
+    /**
+     * Constructs a new TreeHashBuilder with no data.
+     *
+     * @throws AmazonClientException
+     *             If the SHA-256 algorithm isn't available.
+     */
+    public TreeHashBuilder() throws AmazonClientException {
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AmazonClientException("Unable to compute hash", e);
+        }
+    }
+
+    /**
+     * Digests the specified bytes, completing a leaf each time another
+     * megabyte of data has been added.
+     *
+     * @param b
+     *            The data to add.
+     * @param off
+     *            The offset of the first byte to add.
+     * @param len
+     *            The number of bytes to add.
+     *
+     * @return This builder, so that calls can be chained together.
+     */
+    public TreeHashBuilder update(byte[] b, int off, int len) {
+        while (len > 0) {
+            int bytesToDigest = Math.min(LEAF_SIZE - leafOffset, len);
+            digest.update(b, off, bytesToDigest);
+            off += bytesToDigest;
+            len -= bytesToDigest;
+            leafOffset += bytesToDigest;
+            if (leafOffset == LEAF_SIZE) finishLeaf();
+        }
+        return this;
+    }
+
+    /**
+     * Digests the remaining bytes in the specified buffer, completing a leaf
+     * each time another megabyte of data has been added. The position of the
+     * buffer is advanced to its limit.
+     *
+     * @param buffer
+     *            The data to add.
+     *
+     * @return This builder, so that calls can be chained together.
+     */
+    public TreeHashBuilder update(ByteBuffer buffer) {
+        int limit = buffer.limit();
+        while (buffer.hasRemaining()) {
+            int bytesToDigest = Math.min(LEAF_SIZE - leafOffset, buffer.remaining());
+            buffer.limit(buffer.position() + bytesToDigest);
+            digest.update(buffer);
+            buffer.limit(limit);
+            leafOffset += bytesToDigest;
+            if (leafOffset == LEAF_SIZE) finishLeaf();
+        }
+        return this;
+    }
+
+    /**
+     * Adds the hash of the next one megabyte leaf, computed elsewhere. All
+     * leaves but the last must be exactly one megabyte, and this method can't
+     * be used while part of a leaf has been added through
+     * <code>update</code>.
+     *
+     * @param leafHash
+     *            The binary SHA-256 hash of the next leaf.
+     *
+     * @return This builder, so that calls can be chained together.
+     */
+    public TreeHashBuilder addLeafHash(byte[] leafHash) {
+        if (leafOffset != 0) {
+            throw new IllegalStateException("Cannot add a leaf hash while a leaf is partially digested");
+        }
+        addSubtree(leafHash, 0);
+        return this;
+    }
+
+    /**
+     * Returns the number of leaves added to this builder so far, including
+     * any incomplete final leaf.
+     *
+     * @return The number of leaves added so far.
+     */
+    public long getLeafCount() {
+        return leafCount + (leafOffset > 0 ? 1 : 0);
+    }
+
+    /**
+     * Completes any partially digested leaf and returns the binary tree hash
+     * of all the data added. No more data can be added afterwards.
+     *
+     * @return The binary tree hash of all the data added.
+     */
+    public byte[] getBinaryTreeHash() {
+        if (leafOffset > 0 || (leafCount == 0 && pendingHashes.isEmpty())) finishLeaf();
+
+        byte[] hash = pendingHashes.get(pendingHashes.size() - 1);
+        for (int i = pendingHashes.size() - 2; i >= 0; i--) {
+            hash = combine(pendingHashes.get(i), hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Completes any partially digested leaf and returns the hex encoded
+     * binary tree hash of all the data added. No more data can be added
+     * afterwards.
+     *
+     * @return The hex encoded binary tree hash of all the data added.
+     */
+    public String getTreeHash() {
+        return BinaryUtils.toHex(getBinaryTreeHash());
+    }
+
+    private void finishLeaf() {
+        leafOffset = 0;
+        addSubtree(digest.digest(), 0);
+    }
+
+    private void addSubtree(byte[] hash, int height) {
+        leafCount++;
+        int last = pendingHashes.size() - 1;
+        while (last >= 0 && pendingHeights.get(last) == height) {
+            hash = combine(pendingHashes.remove(last), hash);
+            pendingHeights.remove(last);
+            height++;
+            last--;
+        }
+        pendingHashes.add(hash);
+        pendingHeights.add(height);
+    }
+
+    /**
+     * Hashes the concatenation of two hashes without building an
+     * intermediate array.
+     */
+    private byte[] combine(byte[] left, byte[] right) {
+        digest.update(left);
+        digest.update(right);
+        return digest.digest();
+    }
+}
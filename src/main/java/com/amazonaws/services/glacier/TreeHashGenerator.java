@@ -14,21 +14,24 @@
  */
 package com.amazonaws.services.glacier;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.amazonaws.AmazonClientException;
-import com.amazonaws.services.glacier.internal.TreeHashInputStream;
-import com.amazonaws.services.s3.internal.RepeatableFileInputStream;
-import com.amazonaws.util.BinaryUtils;
 
 /**
  * Utility class for calculating tree hashes.
@@ -38,9 +41,14 @@ import com.amazonaws.util.BinaryUtils;
  */
 public class TreeHashGenerator {
 
+    /** The size, in bytes, of the file regions hashed by each parallel task. */
+    private static final long PARALLEL_REGION_SIZE = 64L * TreeHashBuilder.LEAF_SIZE;
+
 	/**
 	 * Calculates a hex encoded binary hash using a tree hashing algorithm for
-	 * the data in the specified file.
+	 * the data in the specified file. The file is memory mapped, and its one
+	 * megabyte leaves are hashed in parallel using one thread per available
+	 * processor.
 	 * 
 	 * @param file
 	 *            The file containing the data to hash.
@@ -53,11 +61,104 @@ public class TreeHashGenerator {
 	 *             computing the hash.
 	 */
     public static String calculateTreeHash(File file) throws AmazonClientException {
-    	try {
-			return calculateTreeHash(new RepeatableFileInputStream(file));
-		} catch (FileNotFoundException e) {
-			throw new AmazonClientException("Unable to compute hash for file: " + file.getAbsolutePath(), e);
-		}
+        int threads = (int)Math.min(Runtime.getRuntime().availableProcessors(),
+                (file.length() + PARALLEL_REGION_SIZE - 1) / PARALLEL_REGION_SIZE);
+        if (threads <= 1) {
+            return calculateTreeHash(file, 0, file.length());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger(1);
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r);
+                thread.setName("glacier-tree-hash-worker-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            return calculateTreeHash(file, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+	/**
+	 * Calculates a hex encoded binary hash using a tree hashing algorithm for
+	 * the data in the specified file. The file is memory mapped, and its one
+	 * megabyte leaves are hashed in parallel by tasks submitted to the
+	 * specified executor.
+	 * 
+	 * @param file
+	 *            The file containing the data to hash.
+	 * @param executor
+	 *            The executor used to hash regions of the file in parallel.
+	 * 
+	 * @return The hex encoded binary tree hash for the data in the specified
+	 *         file.
+	 * 
+	 * @throws AmazonClientException
+	 *             If any problems were encountered reading the data or
+	 *             computing the hash.
+	 */
+    public static String calculateTreeHash(final File file, ExecutorService executor) throws AmazonClientException {
+        List<Future<List<byte[]>>> futures = new ArrayList<Future<List<byte[]>>>();
+        for (long position = 0; position < file.length(); position += PARALLEL_REGION_SIZE) {
+            final long regionStart = position;
+            final long regionLength = Math.min(PARALLEL_REGION_SIZE, file.length() - position);
+            futures.add(executor.submit(new Callable<List<byte[]>>() {
+                public List<byte[]> call() throws Exception {
+                    return calculateLeafHashes(file, regionStart, regionLength);
+                }
+            }));
+        }
+
+        TreeHashBuilder builder = new TreeHashBuilder();
+        try {
+            for (Future<List<byte[]>> future : futures) {
+                for (byte[] leafHash : future.get()) {
+                    builder.addLeafHash(leafHash);
+                }
+            }
+        } catch (Exception e) {
+            for (Future<List<byte[]>> future : futures) {
+                future.cancel(true);
+            }
+            throw new AmazonClientException("Unable to compute hash for file: " + file.getAbsolutePath(), e);
+        }
+        return builder.getTreeHash();
+    }
+
+	/**
+	 * Calculates a hex encoded binary hash using a tree hashing algorithm for
+	 * the specified range of data in a file, on the calling thread. The range
+	 * is memory mapped rather than copied through stream buffers.
+	 * 
+	 * @param file
+	 *            The file containing the data to hash.
+	 * @param offset
+	 *            The offset in the file of the first byte to hash.
+	 * @param length
+	 *            The number of bytes to hash.
+	 * 
+	 * @return The hex encoded binary tree hash for the specified range of
+	 *         data.
+	 * 
+	 * @throws AmazonClientException
+	 *             If any problems were encountered reading the data or
+	 *             computing the hash.
+	 */
+    public static String calculateTreeHash(File file, long offset, long length) throws AmazonClientException {
+        TreeHashBuilder builder = new TreeHashBuilder();
+        try {
+            for (byte[] leafHash : calculateLeafHashes(file, offset, length)) {
+                builder.addLeafHash(leafHash);
+            }
+        } catch (IOException e) {
+            throw new AmazonClientException("Unable to compute hash for file: " + file.getAbsolutePath(), e);
+        }
+        return builder.getTreeHash();
     }
 
 	/**
@@ -77,13 +178,17 @@ public class TreeHashGenerator {
 	 */
     public static String calculateTreeHash(InputStream input) throws AmazonClientException {
 		try {
-			TreeHashInputStream treeHashInputStream = new TreeHashInputStream(input);
-            byte[] buffer = new byte[1024];
-            while (treeHashInputStream.read(buffer, 0, buffer.length) != -1);
-			treeHashInputStream.close();
-			return calculateTreeHash(treeHashInputStream.getChecksums());
+			TreeHashBuilder builder = new TreeHashBuilder();
+            byte[] buffer = new byte[64 * 1024];
+            int bytesRead;
+            while ((bytesRead = input.read(buffer, 0, buffer.length)) != -1) {
+                builder.update(buffer, 0, bytesRead);
+            }
+			return builder.getTreeHash();
 		} catch (Exception e) {
 			throw new AmazonClientException("Unable to compute hash", e);
+		} finally {
+		    try { input.close(); } catch ( Exception e ) {}
 		}
     }
 
@@ -107,46 +212,50 @@ public class TreeHashGenerator {
          * individual checksums, then taking the checksum of the resulting bytes
          * and storing it, then recursing on this new list until there is only
          * one element. Any final odd-numbered parts at each step are carried
-         * over to the next iteration as-is.
+         * over to the next iteration as-is. TreeHashBuilder produces the same
+         * result by combining each pair as soon as both halves are known.
          */
-        List<byte[]> hashes = new ArrayList<byte[]>();
-        hashes.addAll(checksums);
-        while ( hashes.size() > 1 ) {
-            List<byte[]> treeHashes = new ArrayList<byte[]>();
-            for ( int i = 0; i < hashes.size() / 2; i++ ) {
-                byte[] firstPart = hashes.get(2 * i);
-                byte[] secondPart = hashes.get(2 * i + 1);
-                byte[] concatenation = new byte[firstPart.length + secondPart.length];
-                System.arraycopy(firstPart, 0, concatenation, 0, firstPart.length);
-                System.arraycopy(secondPart, 0, concatenation, firstPart.length, secondPart.length);
-                try {
-					treeHashes.add(computeSHA256Hash(concatenation));
-				} catch (Exception e) {
-					throw new AmazonClientException("Unable to compute hash", e);
-				}
-            }
-            if ( hashes.size() % 2 == 1 ) {
-                treeHashes.add(hashes.get(hashes.size() - 1));
-            }
-            hashes = treeHashes;
+        if (checksums.isEmpty()) {
+            throw new AmazonClientException("Unable to compute hash: no checksums specified");
         }
 
-        return BinaryUtils.toHex(hashes.get(0));
+        TreeHashBuilder builder = new TreeHashBuilder();
+        for (byte[] checksum : checksums) {
+            builder.addLeafHash(checksum);
+        }
+        return builder.getTreeHash();
     }
-    
 
-    private static byte[] computeSHA256Hash(byte[] data) throws NoSuchAlgorithmException, IOException {
-        BufferedInputStream bis = new BufferedInputStream(new ByteArrayInputStream(data));
+    /**
+     * Returns the SHA-256 hashes of the sequential one megabyte leaves in the
+     * specified range of a file, reading the range through a read-only memory
+     * mapping. The offset must be aligned on a leaf boundary.
+     */
+    private static List<byte[]> calculateLeafHashes(File file, long offset, long length) throws IOException {
+        List<byte[]> leafHashes = new ArrayList<byte[]>((int)((length + TreeHashBuilder.LEAF_SIZE - 1) / TreeHashBuilder.LEAF_SIZE));
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AmazonClientException("Unable to compute hash", e);
+        }
+
+        FileInputStream input = new FileInputStream(file);
         try {
-            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
-            byte[] buffer = new byte[16384];
-            int bytesRead = -1;
-            while ( (bytesRead = bis.read(buffer, 0, buffer.length)) != -1 ) {
-                messageDigest.update(buffer, 0, bytesRead);
+            FileChannel channel = input.getChannel();
+            long end = offset + length;
+            for (long position = offset; position < end; position += PARALLEL_REGION_SIZE) {
+                long regionLength = Math.min(PARALLEL_REGION_SIZE, end - position);
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, regionLength);
+                while (region.position() < region.capacity()) {
+                    region.limit(Math.min(region.position() + TreeHashBuilder.LEAF_SIZE, region.capacity()));
+                    messageDigest.update(region);
+                    leafHashes.add(messageDigest.digest());
+                }
             }
-            return messageDigest.digest();
         } finally {
-            try { bis.close(); } catch ( Exception e ) {}
+            try { input.close(); } catch ( Exception e ) {}
         }
+        return leafHashes;
     }
 }
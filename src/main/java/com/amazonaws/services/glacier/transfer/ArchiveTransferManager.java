@@ -22,12 +22,21 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.security.NoSuchAlgorithmException;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonServiceException.ErrorType;
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.AWSCredentialsProvider;
@@ -39,6 +48,8 @@ import com.amazonaws.services.glacier.internal.TreeHashInputStream;
 import com.amazonaws.services.glacier.model.AbortMultipartUploadRequest;
 import com.amazonaws.services.glacier.model.CompleteMultipartUploadRequest;
 import com.amazonaws.services.glacier.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.glacier.model.DescribeJobRequest;
+import com.amazonaws.services.glacier.model.DescribeJobResult;
 import com.amazonaws.services.glacier.model.GetJobOutputRequest;
 import com.amazonaws.services.glacier.model.GetJobOutputResult;
 import com.amazonaws.services.glacier.model.InitiateJobRequest;
@@ -72,6 +83,9 @@ public class ArchiveTransferManager {
     /** Glacier client used for making all requests. */
     private final AmazonGlacier glacier;
 
+    /** Configuration for how uploads and downloads are split into parts. */
+    private ArchiveTransferManagerConfiguration configuration = new ArchiveTransferManagerConfiguration();
+
 	private final AWSCredentialsProvider credentialsProvider;
 
 	private final ClientConfiguration clientConfiguration;
@@ -314,7 +328,7 @@ public class ArchiveTransferManager {
             throws AmazonServiceException, AmazonClientException {
 
     	JobStatusMonitor jobStatusMonitor = null;
-    	GetJobOutputResult jobOutputResult = null;
+    	String jobId = null;
     	try {
     		if (credentialsProvider != null && clientConfiguration != null) {
     			jobStatusMonitor = new JobStatusMonitor(credentialsProvider, clientConfiguration);
@@ -331,20 +345,84 @@ public class ArchiveTransferManager {
     				.withAccountId(accountId)
     				.withVaultName(vaultName)
     				.withJobParameters(jobParameters));
-    		String jobId = archiveRetrievalResult.getJobId();
+    		jobId = archiveRetrievalResult.getJobId();
 
     		jobStatusMonitor.waitForJobToComplete(jobId);
-    		jobOutputResult = glacier.getJobOutput(new GetJobOutputRequest()
-    			.withAccountId(accountId)
-    			.withVaultName(vaultName)
-    			.withJobId(jobId));
     	} finally {
             if ( jobStatusMonitor != null ) {
                 jobStatusMonitor.shutdown();
             }
     	}
 
-    	downloadJobOutput(jobOutputResult, file);
+    	downloadJobOutput(accountId, vaultName, jobId, file);
+    }
+
+    /**
+     * Returns the configuration options for how this ArchiveTransferManager
+     * splits uploads and downloads into concurrently transferred parts.
+     *
+     * @return The configuration options for this ArchiveTransferManager.
+     */
+    public ArchiveTransferManagerConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Sets the configuration options for how this ArchiveTransferManager
+     * splits uploads and downloads into concurrently transferred parts.
+     *
+     * @param configuration
+     *            The new configuration options for this
+     *            ArchiveTransferManager.
+     */
+    public void setConfiguration(ArchiveTransferManagerConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    private void downloadJobOutput(final String accountId, final String vaultName, final String jobId, final File file) {
+        DescribeJobResult job = glacier.describeJob(new DescribeJobRequest(accountId, vaultName, jobId));
+        Long archiveSize = job.getArchiveSizeInBytes();
+        long chunkSize = configuration.getDownloadChunkSize();
+
+        if (archiveSize == null || archiveSize <= chunkSize || configuration.getConcurrency() == 1) {
+            GetJobOutputResult jobOutputResult = glacier.getJobOutput(new GetJobOutputRequest()
+                .withAccountId(accountId)
+                .withVaultName(vaultName)
+                .withJobId(jobId));
+            downloadJobOutput(jobOutputResult, file);
+            return;
+        }
+
+        RandomAccessFile output = null;
+        try {
+            output = new RandomAccessFile(file, "rw");
+            output.setLength(archiveSize);
+        } catch (IOException e) {
+            throw new AmazonClientException("Unable to save archive to disk", e);
+        } finally {
+            try {output.close();} catch (Exception e) {}
+        }
+
+        List<Callable<List<byte[]>>> tasks = new ArrayList<Callable<List<byte[]>>>();
+        for (long position = 0; position < archiveSize; position += chunkSize) {
+            long length = Math.min(chunkSize, archiveSize - position);
+            tasks.add(new DownloadRangeCallable(accountId, vaultName, jobId, file, position, length));
+        }
+
+        List<byte[]> checksums = new ArrayList<byte[]>();
+        try {
+            for (List<byte[]> rangeChecksums : invokeAll(tasks)) {
+                checksums.addAll(rangeChecksums);
+            }
+        } catch (Exception e) {
+            throw new AmazonClientException("Unable to download archive", e);
+        }
+
+        String clientSideTreeHash = TreeHashGenerator.calculateTreeHash(checksums);
+        String serverSideTreeHash = job.getSHA256TreeHash();
+        if (serverSideTreeHash != null && !clientSideTreeHash.equalsIgnoreCase(serverSideTreeHash)) {
+            throw new AmazonClientException("Client side computed hash doesn't match server side hash; possible data corruption");
+        }
     }
 
     private void downloadJobOutput(GetJobOutputResult jobOutputResult, File file) {
@@ -425,56 +503,217 @@ public class ArchiveTransferManager {
         String uploadId = initiateResult.getUploadId();
 
         try {
-	        List<byte[]> binaryChecksums = new LinkedList<byte[]>();
-
-	        long currentPosition = 0;
-	        while (currentPosition < file.length()) {
-	            long length = partSize;
-	            if (currentPosition + partSize > file.length()) {
-	                length = file.length() - currentPosition;
-	            }
-
-				InputStream inputSubStream = newInputSubstream(file, currentPosition, length);
-				inputSubStream.mark(-1);
-				String checksum = TreeHashGenerator.calculateTreeHash(inputSubStream);
-				byte[] binaryChecksum = BinaryUtils.fromHex(checksum);
-				binaryChecksums.add(binaryChecksum);
-				inputSubStream.reset();
-				
-	            try {
-	                glacier.uploadMultipartPart(new UploadMultipartPartRequest()
-	                    .withAccountId(accountId)
-	                    .withChecksum(checksum)
-	                    .withBody(inputSubStream)
-	                    .withRange("bytes " + currentPosition + "-" + (currentPosition + length - 1) + "/*")
-	                    .withUploadId(uploadId)
-	                    .withVaultName(vaultName));
-	            } finally {
-	                try {inputSubStream.close();} catch (Exception e) {}
-	            }
-
-	            currentPosition += partSize;
-	        }
-
-	        String checksum = TreeHashGenerator.calculateTreeHash(binaryChecksums);
-
-	        String archiveSize = Long.toString(file.length());
-	        CompleteMultipartUploadResult completeMultipartUploadResult =
-	            glacier.completeMultipartUpload(new CompleteMultipartUploadRequest()
-	                .withAccountId(accountId)
-	                .withArchiveSize(archiveSize)
-	                .withVaultName(vaultName)
-	                .withChecksum(checksum)
-	                .withUploadId(uploadId));
-
-	        String artifactId = completeMultipartUploadResult.getArchiveId();
-	        return new UploadResult(artifactId);
-		} catch (Exception e) {
-			glacier.abortMultipartUpload(new AbortMultipartUploadRequest(accountId, vaultName, uploadId));
-			throw new AmazonClientException("Unable to finish the upload", e);
-		}
+            List<Callable<byte[]>> tasks = new ArrayList<Callable<byte[]>>();
+            for (long position = 0; position < file.length(); position += partSize) {
+                long length = Math.min(partSize, file.length() - position);
+                tasks.add(new UploadPartCallable(accountId, vaultName, uploadId, file, position, length));
+            }
+
+            /*
+             * Parts are the same 2^n MB size, so the tree hash of the archive
+             * can be combined from the tree hashes of the individual parts,
+             * in part order, regardless of which part finished first.
+             */
+            List<byte[]> binaryChecksums = invokeAll(tasks);
+            String checksum = TreeHashGenerator.calculateTreeHash(binaryChecksums);
+
+            String archiveSize = Long.toString(file.length());
+            CompleteMultipartUploadResult completeMultipartUploadResult =
+                glacier.completeMultipartUpload(new CompleteMultipartUploadRequest()
+                    .withAccountId(accountId)
+                    .withArchiveSize(archiveSize)
+                    .withVaultName(vaultName)
+                    .withChecksum(checksum)
+                    .withUploadId(uploadId));
+
+            String artifactId = completeMultipartUploadResult.getArchiveId();
+            return new UploadResult(artifactId);
+        } catch (Exception e) {
+            glacier.abortMultipartUpload(new AbortMultipartUploadRequest(accountId, vaultName, uploadId));
+            throw new AmazonClientException("Unable to finish the upload", e);
+        }
+    }
+
+    /**
+     * Runs the specified part transfers using up to the configured number of
+     * threads, and returns their results in the same order as the tasks. If
+     * any task fails, the remaining tasks are cancelled and the failure is
+     * rethrown.
+     */
+    private <T> List<T> invokeAll(List<? extends Callable<T>> tasks) throws Exception {
+        int threads = Math.min(configuration.getConcurrency(), tasks.size());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(threads, 1), new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger(1);
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r);
+                thread.setName("glacier-transfer-manager-worker-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+            for (Callable<T> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+
+            List<T> results = new ArrayList<T>(tasks.size());
+            for (Future<T> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) throw (Exception)e.getCause();
+                    throw e;
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
     }
 
+    /**
+     * Calls the specified part transfer, retrying it up to the configured
+     * number of times if it fails with a retryable error.
+     */
+    private <T> T callWithRetries(Callable<T> task) throws Exception {
+        int retries = 0;
+        while (true) {
+            try {
+                return task.call();
+            } catch (Exception e) {
+                if (retries++ >= configuration.getMaxPartRetries() || !isRetryable(e)) throw e;
+            }
+        }
+    }
+
+    private boolean isRetryable(Exception e) {
+        if (Thread.currentThread().isInterrupted()) return false;
+        if (e instanceof AmazonServiceException) {
+            AmazonServiceException ase = (AmazonServiceException)e;
+            if (ase.getErrorType() == ErrorType.Client) {
+                String errorCode = ase.getErrorCode();
+                return "ThrottlingException".equals(errorCode)
+                    || "RequestTimeoutException".equals(errorCode);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes the tree hash for one part of a file and uploads it as part of
+     * a multipart upload, returning the binary tree hash of the part.
+     */
+    private class UploadPartCallable implements Callable<byte[]> {
+        private final String accountId;
+        private final String vaultName;
+        private final String uploadId;
+        private final File file;
+        private final long position;
+        private final long length;
+
+        public UploadPartCallable(String accountId, String vaultName, String uploadId, File file, long position, long length) {
+            this.accountId = accountId;
+            this.vaultName = vaultName;
+            this.uploadId = uploadId;
+            this.file = file;
+            this.position = position;
+            this.length = length;
+        }
+
+        public byte[] call() throws Exception {
+            final String checksum = TreeHashGenerator.calculateTreeHash(file, position, length);
+
+            callWithRetries(new Callable<Object>() {
+                public Object call() throws Exception {
+                    InputStream inputSubStream = newInputSubstream(file, position, length);
+                    try {
+                        return glacier.uploadMultipartPart(new UploadMultipartPartRequest()
+                            .withAccountId(accountId)
+                            .withChecksum(checksum)
+                            .withBody(inputSubStream)
+                            .withRange("bytes " + position + "-" + (position + length - 1) + "/*")
+                            .withUploadId(uploadId)
+                            .withVaultName(vaultName));
+                    } finally {
+                        try {inputSubStream.close();} catch (Exception e) {}
+                    }
+                }
+            });
+
+            return BinaryUtils.fromHex(checksum);
+        }
+    }
+
+    /**
+     * Downloads one byte range of a completed job's output into the matching
+     * offset of a file, returning the one megabyte checksums of the range.
+     */
+    private class DownloadRangeCallable implements Callable<List<byte[]>> {
+        private final String accountId;
+        private final String vaultName;
+        private final String jobId;
+        private final File file;
+        private final long position;
+        private final long length;
+
+        public DownloadRangeCallable(String accountId, String vaultName, String jobId, File file, long position, long length) {
+            this.accountId = accountId;
+            this.vaultName = vaultName;
+            this.jobId = jobId;
+            this.file = file;
+            this.position = position;
+            this.length = length;
+        }
+
+        public List<byte[]> call() throws Exception {
+            return callWithRetries(new Callable<List<byte[]>>() {
+                public List<byte[]> call() throws Exception {
+                    return downloadRange();
+                }
+            });
+        }
+
+        private List<byte[]> downloadRange() throws Exception {
+            GetJobOutputResult jobOutputResult = glacier.getJobOutput(new GetJobOutputRequest()
+                .withAccountId(accountId)
+                .withVaultName(vaultName)
+                .withJobId(jobId)
+                .withRange("bytes=" + position + "-" + (position + length - 1)));
+
+            TreeHashInputStream input = new TreeHashInputStream(jobOutputResult.getBody());
+            RandomAccessFile output = null;
+            byte[] buffer = new byte[1024 * 1024];
+            long bytesWritten = 0;
+            try {
+                output = new RandomAccessFile(file, "rw");
+                output.seek(position);
+
+                int bytesRead;
+                while ((bytesRead = input.read(buffer, 0, buffer.length)) > 0) {
+                    output.write(buffer, 0, bytesRead);
+                    bytesWritten += bytesRead;
+                }
+            } finally {
+                try {input.close();}  catch (Exception e) {}
+                try {output.close();} catch (Exception e) {}
+            }
+
+            if (bytesWritten != length) {
+                throw new AmazonClientException("Expected " + length + " bytes of job output at offset " + position
+                        + " but received " + bytesWritten);
+            }
+
+            String serverSideTreeHash = jobOutputResult.getChecksum();
+            if (serverSideTreeHash != null && !input.getTreeHash().equalsIgnoreCase(serverSideTreeHash)) {
+                throw new AmazonClientException("Client side computed hash doesn't match server side hash for range starting at "
+                        + position + "; possible data corruption");
+            }
+            return input.getChecksums();
+        }
+    }
 
     private UploadResult uploadInSinglePart(final String accountId, final String vaultName, final String archiveDescription, final File file)
             throws AmazonServiceException, AmazonClientException, FileNotFoundException {
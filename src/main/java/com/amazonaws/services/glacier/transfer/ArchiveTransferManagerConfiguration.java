@@ -0,0 +1,134 @@
+/*
+ * Copyright 2012-2013 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazonaws.services.glacier.transfer;
+
+/**
+ * Configuration options for how {@link ArchiveTransferManager} uploads and
+ * downloads archives.
+ * <p>
+ * The default configuration settings are suitable for most applications, but
+ * this class enables developers to tune the number of parts transferred in
+ * parallel and how failed parts are retried.
+ */
+public class ArchiveTransferManagerConfiguration {
+
+    private static final long MB = 1024L * 1024;
+
+    /** Default number of parts transferred in parallel. */
+    private static final int DEFAULT_CONCURRENCY = 4;
+
+    /** Default number of times a single part is retried before giving up. */
+    private static final int DEFAULT_MAX_PART_RETRIES = 3;
+
+    /** Default size, in bytes, of each ranged job output request. */
+    private static final long DEFAULT_DOWNLOAD_CHUNK_SIZE = 128 * MB;
+
+    /**
+     * The maximum number of parts that are uploaded, or ranges that are
+     * downloaded, at the same time for a single archive.
+     */
+    private int concurrency = DEFAULT_CONCURRENCY;
+
+    /**
+     * The number of times a failed part upload or ranged download is retried,
+     * re-reading the part from its source, before the whole transfer fails.
+     */
+    private int maxPartRetries = DEFAULT_MAX_PART_RETRIES;
+
+    /**
+     * The size of each byte range requested when downloading job output in
+     * parallel. Must be a megabyte multiplied by a power of two so that
+     * Amazon Glacier returns a tree hash for every range.
+     */
+    private long downloadChunkSize = DEFAULT_DOWNLOAD_CHUNK_SIZE;
+
+    /**
+     * Returns the maximum number of parts that are uploaded, or ranges that
+     * are downloaded, at the same time for a single archive.
+     *
+     * @return The maximum number of concurrent part transfers.
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Sets the maximum number of parts that are uploaded, or ranges that are
+     * downloaded, at the same time for a single archive. A value of one
+     * transfers archives sequentially.
+     *
+     * @param concurrency
+     *            The maximum number of concurrent part transfers.
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Returns the number of times a failed part upload or ranged download is
+     * retried before the whole transfer fails.
+     *
+     * @return The number of retries allowed for each part.
+     */
+    public int getMaxPartRetries() {
+        return maxPartRetries;
+    }
+
+    /**
+     * Sets the number of times a failed part upload or ranged download is
+     * retried before the whole transfer fails. These retries are in addition
+     * to the retries the Amazon Glacier client performs for each request, and
+     * re-read the part from its source.
+     *
+     * @param maxPartRetries
+     *            The number of retries allowed for each part.
+     */
+    public void setMaxPartRetries(int maxPartRetries) {
+        if (maxPartRetries < 0) {
+            throw new IllegalArgumentException("Part retries must not be negative");
+        }
+        this.maxPartRetries = maxPartRetries;
+    }
+
+    /**
+     * Returns the size, in bytes, of each byte range requested when
+     * downloading job output in parallel.
+     *
+     * @return The size of each ranged job output request.
+     */
+    public long getDownloadChunkSize() {
+        return downloadChunkSize;
+    }
+
+    /**
+     * Sets the size, in bytes, of each byte range requested when downloading
+     * job output in parallel. The size must be one megabyte multiplied by a
+     * power of two (ex: 1MB, 2MB, 4MB, 8MB, etc) so that each range is tree
+     * hash aligned.
+     *
+     * @param downloadChunkSize
+     *            The size of each ranged job output request.
+     */
+    public void setDownloadChunkSize(long downloadChunkSize) {
+        long megabytes = downloadChunkSize / MB;
+        if (downloadChunkSize % MB != 0 || megabytes == 0 || (megabytes & (megabytes - 1)) != 0) {
+            throw new IllegalArgumentException("Download chunk size must be a megabyte multiplied by a power of two");
+        }
+        this.downloadChunkSize = downloadChunkSize;
+    }
+}
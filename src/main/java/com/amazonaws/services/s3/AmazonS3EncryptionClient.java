@@ -41,12 +41,14 @@ import com.amazonaws.services.s3.internal.crypto.CipherFactory;
 import com.amazonaws.services.s3.internal.crypto.EncryptedUploadContext;
 import com.amazonaws.services.s3.internal.crypto.EncryptionInstruction;
 import com.amazonaws.services.s3.internal.crypto.EncryptionUtils;
+import com.amazonaws.services.s3.internal.crypto.EnvelopeKeyCache;
 import com.amazonaws.services.s3.internal.crypto.JceEncryptionConstants;
 import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
 import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
 import com.amazonaws.services.s3.model.CopyPartRequest;
 import com.amazonaws.services.s3.model.CopyPartResult;
 import com.amazonaws.services.s3.model.CryptoConfiguration;
+import com.amazonaws.services.s3.model.CryptoMode;
 import com.amazonaws.services.s3.model.CryptoStorageMode;
 import com.amazonaws.services.s3.model.DeleteObjectRequest;
 import com.amazonaws.services.s3.model.EncryptionMaterials;
@@ -74,6 +76,7 @@ public class AmazonS3EncryptionClient extends AmazonS3Client {
 
     private EncryptionMaterialsProvider encryptionMaterialsProvider;
     private CryptoConfiguration cryptoConfig;
+    private EnvelopeKeyCache keyCache;
 
     private static final String USER_AGENT = AmazonS3EncryptionClient.class.getName() + "/" + VersionInfoUtils.getVersion();
 
@@ -372,6 +375,7 @@ public class AmazonS3EncryptionClient extends AmazonS3Client {
         assertParameterNotNull(cryptoConfig, "CryptoConfiguration parameter must not be null.");
         this.encryptionMaterialsProvider = encryptionMaterialsProvider;
         this.cryptoConfig = cryptoConfig;
+        if (EnvelopeKeyCache.isEnabled(cryptoConfig)) this.keyCache = new EnvelopeKeyCache(cryptoConfig);
     }
 
     public AmazonS3EncryptionClient(AWSCredentialsProvider credentialsProvider,
@@ -383,6 +387,7 @@ public class AmazonS3EncryptionClient extends AmazonS3Client {
         assertParameterNotNull(cryptoConfig, "CryptoConfiguration parameter must not be null.");
         this.encryptionMaterialsProvider = encryptionMaterialsProvider;
         this.cryptoConfig = cryptoConfig;
+        if (EnvelopeKeyCache.isEnabled(cryptoConfig)) this.keyCache = new EnvelopeKeyCache(cryptoConfig);
     }
 
     /* (non-Javadoc)
@@ -414,8 +419,10 @@ public class AmazonS3EncryptionClient extends AmazonS3Client {
         // range of bytes.
         long[] desiredRange = getObjectRequest.getRange();
         long[] adjustedCryptoRange = EncryptionUtils.getAdjustedCryptoRange(desiredRange);
+        long contentOffset = 0;
         if (adjustedCryptoRange != null) {
             getObjectRequest.setRange(adjustedCryptoRange[0], adjustedCryptoRange[1]);
+            contentOffset = adjustedCryptoRange[0];
         }
 
         // Get the object from S3
@@ -429,12 +436,12 @@ public class AmazonS3EncryptionClient extends AmazonS3Client {
         try {
             // Check if encryption info is in object metadata
             if (EncryptionUtils.isEncryptionInfoInMetadata(retrievedObject)) {
-                objectToBeReturned = decryptObjectUsingMetadata(retrievedObject);
+                objectToBeReturned = decryptObjectUsingMetadata(retrievedObject, contentOffset);
             } else {
                 // Check if encrypted info is in an instruction file
                 S3Object instructionFile = getInstructionFile(getObjectRequest);
                 if (EncryptionUtils.isEncryptionInfoInInstructionFile(instructionFile)) {
-                    objectToBeReturned = decryptObjectUsingInstructionFile(retrievedObject, instructionFile);
+                    objectToBeReturned = decryptObjectUsingInstructionFile(retrievedObject, instructionFile, contentOffset);
                 } else {
                     // The object was not encrypted to begin with.  Return the object without decrypting it.
                     log.warn(String.format("Unable to detect encryption information for object '%s' in bucket '%s'. " +
@@ -532,7 +539,8 @@ public class AmazonS3EncryptionClient extends AmazonS3Client {
             Cipher symmetricCipher = EncryptionUtils.createSymmetricCipher(
                     encryptedUploadContext.getEnvelopeEncryptionKey(),
                     Cipher.ENCRYPT_MODE, cryptoConfig.getCryptoProvider(),
-                    encryptedUploadContext.getFirstInitializationVector());
+                    encryptedUploadContext.getFirstInitializationVector(),
+                    encryptedUploadContext.getCipherMethod(), 0);
 
             EncryptionMaterials encryptionMaterials = encryptionMaterialsProvider.getEncryptionMaterials();
 
@@ -560,7 +568,8 @@ public class AmazonS3EncryptionClient extends AmazonS3Client {
 
         // Generate a one-time use symmetric key and initialize a cipher to encrypt object data
         SecretKey envelopeSymmetricKey = EncryptionUtils.generateOneTimeUseSymmetricKey();
-        Cipher symmetricCipher = EncryptionUtils.createSymmetricCipher(envelopeSymmetricKey, Cipher.ENCRYPT_MODE, cryptoConfig.getCryptoProvider(), null);
+        String cipherMethod = EncryptionUtils.getCipherMethod(cryptoConfig.getCryptoMode());
+        Cipher symmetricCipher = EncryptionUtils.createSymmetricCipher(envelopeSymmetricKey, Cipher.ENCRYPT_MODE, cryptoConfig.getCryptoProvider(), null, cipherMethod, 0);
 
         if (cryptoConfig.getStorageMode() == CryptoStorageMode.ObjectMetadata) {
       EncryptionMaterials encryptionMaterials = encryptionMaterialsProvider.getEncryptionMaterials();
@@ -575,7 +584,7 @@ public class AmazonS3EncryptionClient extends AmazonS3Client {
         }
 
         InitiateMultipartUploadResult result = super.initiateMultipartUpload(initiateMultipartUploadRequest);
-        EncryptedUploadContext encryptedUploadContext = new EncryptedUploadContext(initiateMultipartUploadRequest.getBucketName(), initiateMultipartUploadRequest.getKey(), envelopeSymmetricKey);
+        EncryptedUploadContext encryptedUploadContext = new EncryptedUploadContext(initiateMultipartUploadRequest.getBucketName(), initiateMultipartUploadRequest.getKey(), envelopeSymmetricKey, cipherMethod);
         encryptedUploadContext.setNextInitializationVector(symmetricCipher.getIV());
         encryptedUploadContext.setFirstInitializationVector(symmetricCipher.getIV());
         currentMultipartUploadSecretKeys.put(result.getUploadId(), encryptedUploadContext);
@@ -592,6 +601,17 @@ public class AmazonS3EncryptionClient extends AmazonS3Client {
      * AmazonS3EncryptionClient (as opposed to the normal AmazonS3Client) must
      * be uploaded serially, and in order. Otherwise, the previous encryption
      * context isn't available to use when encrypting the current part.
+     * <p>
+     * If the upload was initiated with the {@link CryptoMode#Counter} crypto
+     * mode, each part is encrypted from its offset in the object instead.
+     * Parts uploaded from a file may then be uploaded in parallel, and in any
+     * order, as long as the file offset of each part is also its offset in the
+     * object; parts uploaded from an input stream must still be uploaded
+     * serially, and in order. A part whose range of the object overlaps the
+     * range of another part of the same upload is rejected, since encrypting
+     * both would reuse the same keystream. In particular, parts kept in
+     * separate files, each read from file offset 0, must be uploaded from
+     * input streams.
      */
     @Override
     public UploadPartResult uploadPart(UploadPartRequest uploadPartRequest)
@@ -602,20 +622,34 @@ public class AmazonS3EncryptionClient extends AmazonS3Client {
         boolean isLastPart = uploadPartRequest.isLastPart();
         String uploadId = uploadPartRequest.getUploadId();
 
+        // Generate the envelope symmetric key and initialize a cipher to encrypt the object's data
+        EncryptedUploadContext encryptedUploadContext = currentMultipartUploadSecretKeys.get(uploadId);
+        if (encryptedUploadContext == null) throw new AmazonClientException("No client-side information available on upload ID " + uploadId);
+
+        String cipherMethod = encryptedUploadContext.getCipherMethod();
+        boolean isSeekable = EncryptionUtils.isSeekableCipherMethod(cipherMethod);
+
         boolean partSizeMultipleOfCipherBlockSize = uploadPartRequest.getPartSize() % JceEncryptionConstants.SYMMETRIC_CIPHER_BLOCK_SIZE == 0;
-        if (!isLastPart && !partSizeMultipleOfCipherBlockSize) {
+        if (!isSeekable && !isLastPart && !partSizeMultipleOfCipherBlockSize) {
             throw new AmazonClientException("Invalid part size: part sizes for encrypted multipart uploads must be multiples " +
                     "of the cipher block size (" + JceEncryptionConstants.SYMMETRIC_CIPHER_BLOCK_SIZE + ") with the exception of the last part.  " +
                     "Otherwise encryption adds extra padding that will corrupt the final object.");
         }
 
-        // Generate the envelope symmetric key and initialize a cipher to encrypt the object's data
-        EncryptedUploadContext encryptedUploadContext = currentMultipartUploadSecretKeys.get(uploadId);
-        if (encryptedUploadContext == null) throw new AmazonClientException("No client-side information available on upload ID " + uploadId);
-
         SecretKey envelopeSymmetricKey = encryptedUploadContext.getEnvelopeEncryptionKey();
-        byte[] iv = encryptedUploadContext.getNextInitializationVector();
-        CipherFactory cipherFactory = new CipherFactory(envelopeSymmetricKey, Cipher.ENCRYPT_MODE, iv, this.cryptoConfig.getCryptoProvider());
+        CipherFactory cipherFactory;
+        long partOffset = 0;
+        if (isSeekable) {
+            // Encrypt the part from its offset in the object, independently of the other parts
+            partOffset = (uploadPartRequest.getFile() != null) ? uploadPartRequest.getFileOffset() : encryptedUploadContext.getNextPartOffset();
+            encryptedUploadContext.claimPartRange(uploadPartRequest.getPartNumber(), partOffset, uploadPartRequest.getPartSize());
+            cipherFactory = new CipherFactory(envelopeSymmetricKey, Cipher.ENCRYPT_MODE, encryptedUploadContext.getFirstInitializationVector(),
+                    this.cryptoConfig.getCryptoProvider(), cipherMethod).atOffset(partOffset);
+        } else {
+            byte[] iv = encryptedUploadContext.getNextInitializationVector();
+            cipherFactory = new CipherFactory(envelopeSymmetricKey, Cipher.ENCRYPT_MODE, iv, this.cryptoConfig.getCryptoProvider());
+        }
+        long plaintextPartSize = uploadPartRequest.getPartSize();
 
         // Create encrypted input stream
         InputStream encryptedInputStream = EncryptionUtils.getEncryptedInputStream(uploadPartRequest, cipherFactory);
@@ -642,7 +676,9 @@ public class AmazonS3EncryptionClient extends AmazonS3Client {
 
         UploadPartResult result = super.uploadPart(uploadPartRequest);
 
-        if (encryptedInputStream instanceof ByteRangeCapturingInputStream) {
+        if (isSeekable) {
+            encryptedUploadContext.setNextPartOffset(partOffset + plaintextPartSize);
+        } else if (encryptedInputStream instanceof ByteRangeCapturingInputStream) {
             ByteRangeCapturingInputStream bris = (ByteRangeCapturingInputStream)encryptedInputStream;
             encryptedUploadContext.setNextInitializationVector(bris.getBlock());
         } else {
@@ -664,6 +700,18 @@ public class AmazonS3EncryptionClient extends AmazonS3Client {
         return super.copyPart(copyPartRequest);
     }
 
+    /**
+     * Returns true if the parts of multipart uploads initiated by this client
+     * can be uploaded in parallel. This is only the case when data is
+     * encrypted in the {@link CryptoMode#Counter} crypto mode, and the parts
+     * are uploaded from a file.
+     *
+     * @return True if parts uploaded from a file can be uploaded in parallel.
+     */
+    public boolean isParallelPartUploadSupported() {
+        return cryptoConfig.getCryptoMode() == CryptoMode.Counter;
+    }
+
     /*
      * Private helper methods
      */
@@ -687,7 +735,7 @@ public class AmazonS3EncryptionClient extends AmazonS3Client {
     private PutObjectResult putObjectUsingMetadata(PutObjectRequest putObjectRequest)
     throws AmazonClientException, AmazonServiceException {
         // Create instruction
-        EncryptionInstruction instruction = EncryptionUtils.generateInstruction(this.encryptionMaterialsProvider, this.cryptoConfig.getCryptoProvider());
+        EncryptionInstruction instruction = EncryptionUtils.generateInstruction(this.encryptionMaterialsProvider, this.cryptoConfig.getCryptoProvider(), this.cryptoConfig.getCryptoMode(), this.keyCache);
 
         // Encrypt the object data with the instruction
         PutObjectRequest encryptedObjectRequest = EncryptionUtils.encryptRequestUsingInstruction(putObjectRequest, instruction);
@@ -718,7 +766,7 @@ public class AmazonS3EncryptionClient extends AmazonS3Client {
     private PutObjectResult putObjectUsingInstructionFile(PutObjectRequest putObjectRequest)
     throws AmazonClientException, AmazonServiceException {
         // Create instruction
-        EncryptionInstruction instruction = EncryptionUtils.generateInstruction(this.encryptionMaterialsProvider, this.cryptoConfig.getCryptoProvider());
+        EncryptionInstruction instruction = EncryptionUtils.generateInstruction(this.encryptionMaterialsProvider, this.cryptoConfig.getCryptoProvider(), this.cryptoConfig.getCryptoMode(), this.keyCache);
 
         // Encrypt the object data with the instruction
         PutObjectRequest encryptedObjectRequest = EncryptionUtils.encryptRequestUsingInstruction(putObjectRequest, instruction);
@@ -739,15 +787,17 @@ public class AmazonS3EncryptionClient extends AmazonS3Client {
      *
      * @param object
      *      The S3Object to be decrypted.
+     * @param contentOffset
+     *      The offset, into the encrypted object, of the first byte of the object content.
      * @return
      *      An S3Object with decrypted object contents.  If decryption is not possible, returns null.
      */
-    private S3Object decryptObjectUsingMetadata(S3Object object) {
+    private S3Object decryptObjectUsingMetadata(S3Object object, long contentOffset) {
         // Create an instruction object from the object headers
-        EncryptionInstruction instruction = EncryptionUtils.buildInstructionFromObjectMetadata( object, this.encryptionMaterialsProvider, this.cryptoConfig.getCryptoProvider() );
+        EncryptionInstruction instruction = EncryptionUtils.buildInstructionFromObjectMetadata( object, this.encryptionMaterialsProvider, this.cryptoConfig.getCryptoProvider(), this.keyCache );
 
         // Decrypt the object file with the instruction
-        return EncryptionUtils.decryptObjectUsingInstruction(object, instruction);
+        return EncryptionUtils.decryptObjectUsingInstruction(object, instruction, contentOffset);
     }
 
     /**
@@ -757,15 +807,17 @@ public class AmazonS3EncryptionClient extends AmazonS3Client {
      *      The S3Object to be decrypted.
      * @param instructionFile
      *      The S3Object instruction file to be used to decrypt the object.
+     * @param contentOffset
+     *      The offset, into the encrypted object, of the first byte of the object content.
      * @return
      *      An S3Object with decrypted object contents.
      */
-    private S3Object decryptObjectUsingInstructionFile(S3Object object, S3Object instructionFile) {
+    private S3Object decryptObjectUsingInstructionFile(S3Object object, S3Object instructionFile, long contentOffset) {
         // Create an instruction object from the retrieved instruction file
-        EncryptionInstruction instruction = EncryptionUtils.buildInstructionFromInstructionFile(instructionFile, this.encryptionMaterialsProvider, this.cryptoConfig.getCryptoProvider());
+        EncryptionInstruction instruction = EncryptionUtils.buildInstructionFromInstructionFile(instructionFile, this.encryptionMaterialsProvider, this.cryptoConfig.getCryptoProvider(), this.keyCache);
 
         // Decrypt the object file with the instruction
-        return EncryptionUtils.decryptObjectUsingInstruction(object, instruction);
+        return EncryptionUtils.decryptObjectUsingInstruction(object, instruction, contentOffset);
     }
 
     /**
@@ -116,6 +116,9 @@ public interface Headers {
     /** Initialization vector (IV) header that is used in the symmetric and envelope encryption mechanisms */
     public static final String CRYPTO_IV = "x-amz-iv";
 
+    /** Algorithm, mode, and padding of the symmetric cipher used to encrypt the object data */
+    public static final String CRYPTO_CEK_ALGORITHM = "x-amz-cek-alg";
+
     /** JSON-encoded description of encryption materials used during encryption */
     public static final String MATERIALS_DESCRIPTION = "x-amz-matdesc";
 
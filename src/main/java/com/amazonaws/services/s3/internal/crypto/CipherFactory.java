@@ -33,11 +33,13 @@ public class CipherFactory {
     private int cipherMode;
     private byte[] initVectorBytes;
     private Provider cryptoProvider;
+    private String cipherMethod;
+    private long startOffset;
 
 
     /**
      * Creates a new CipherFactory that will produce ciphers using the specified
-     * key, mode, IV and provider.
+     * key, mode, IV and provider, and the default symmetric cipher method.
      *
      * @param symmetricKey
      *            The symmetric key used in the ciphers created by this factory.
@@ -51,10 +53,61 @@ public class CipherFactory {
      *            alternate crypto provider is to be used.
      */
     public CipherFactory(SecretKey symmetricKey, int cipherMode, byte[] initVectorBytes, Provider cryptoProvider) {
+        this(symmetricKey, cipherMode, initVectorBytes, cryptoProvider, JceEncryptionConstants.SYMMETRIC_CIPHER_METHOD);
+    }
+
+    /**
+     * Creates a new CipherFactory that will produce ciphers using the specified
+     * key, mode, IV, provider and symmetric cipher method.
+     *
+     * @param symmetricKey
+     *            The symmetric key used in the ciphers created by this factory.
+     * @param cipherMode
+     *            The mode indicating whether the created ciphers are for
+     *            encrypting or decrypting.
+     * @param initVectorBytes
+     *            The optional crypto IV used to initialize the ciphers.
+     * @param cryptoProvider
+     *            The optional Java crypto provider implementation, if an
+     *            alternate crypto provider is to be used.
+     * @param cipherMethod
+     *            The algorithm, mode and padding of the created ciphers.
+     */
+    public CipherFactory(SecretKey symmetricKey, int cipherMode, byte[] initVectorBytes, Provider cryptoProvider, String cipherMethod) {
         this.symmetricKey = symmetricKey;
         this.cipherMode = cipherMode;
         this.initVectorBytes = initVectorBytes;
         this.cryptoProvider = cryptoProvider;
+        this.cipherMethod = cipherMethod;
+    }
+
+    /**
+     * Returns a CipherFactory that produces ciphers like this one, but
+     * positioned to encrypt or decrypt data starting at the specified offset.
+     * Only ciphers using the seekable cipher method can start from an offset;
+     * for other methods this factory is returned unchanged.
+     *
+     * @param offset
+     *            The offset, from the start of the data, of the first byte
+     *            the created ciphers will process.
+     *
+     * @return A CipherFactory whose ciphers start at the specified offset.
+     */
+    public CipherFactory atOffset(long offset) {
+        if (!EncryptionUtils.isSeekableCipherMethod(cipherMethod)) return this;
+        if (initVectorBytes == null) createCipher();
+
+        CipherFactory factory = new CipherFactory(symmetricKey, cipherMode, initVectorBytes, cryptoProvider, cipherMethod);
+        factory.startOffset = offset;
+        return factory;
+    }
+
+    /**
+     * Returns the algorithm, mode and padding of the ciphers created by this
+     * factory.
+     */
+    public String getCipherMethod() {
+        return cipherMethod;
     }
 
     /**
@@ -66,7 +119,7 @@ public class CipherFactory {
      *         factory instance.
      */
     public Cipher createCipher() {
-        Cipher cipher = EncryptionUtils.createSymmetricCipher(symmetricKey, cipherMode, cryptoProvider, initVectorBytes);
+        Cipher cipher = EncryptionUtils.createSymmetricCipher(symmetricKey, cipherMode, cryptoProvider, initVectorBytes, cipherMethod, startOffset);
 
         // If we weren't given an IV to use, make sure we store the one the first Cipher
         // used so we can use it for all future Ciphers created by this instance.
@@ -14,27 +14,42 @@
  */
 package com.amazonaws.services.s3.internal.crypto;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import javax.crypto.SecretKey;
 
+import com.amazonaws.AmazonClientException;
+
 /**
  * State information for an in-progress, encrypted multipart upload,
  * including the envelope encryption key used to encrypt each individual
- * part in a multipart upload, and the next initialization vector (IV) for
- * the next part to encrypt.
+ * part in a multipart upload, and the next initialization vector (IV) or
+ * offset for the next part to encrypt.
  */
 public class EncryptedUploadContext {
 	private final String bucketName;
 	private final String key;
 	private final SecretKey envelopeEncryptionKey;
+	private final String cipherMethod;
 	
 	private byte[] firstIV;
+	private long nextPartOffset;
 	private byte[] nextIV;
 	private boolean hasFinalPartBeenSeen;
 
+	/** Plaintext offset and length encrypted for each part number, when parts are encrypted from their offset */
+	private final Map<Integer, long[]> partRanges = new HashMap<Integer, long[]>();
+
 	public EncryptedUploadContext(String bucketName, String key, SecretKey envelopeEncryptionKey) {
+		this(bucketName, key, envelopeEncryptionKey, JceEncryptionConstants.SYMMETRIC_CIPHER_METHOD);
+	}
+
+	public EncryptedUploadContext(String bucketName, String key, SecretKey envelopeEncryptionKey, String cipherMethod) {
 		this.bucketName = bucketName;
 		this.key = key;
 		this.envelopeEncryptionKey = envelopeEncryptionKey;
+		this.cipherMethod = cipherMethod;
 	}
 
 	public String getBucketName() {
@@ -49,6 +64,10 @@ public class EncryptedUploadContext {
 		return envelopeEncryptionKey;
 	}
 
+	public String getCipherMethod() {
+		return cipherMethod;
+	}
+
 	public void setNextInitializationVector(byte[] nextIV) {
 		this.nextIV = nextIV;
 	}
@@ -72,4 +91,36 @@ public class EncryptedUploadContext {
 	public byte[] getFirstInitializationVector() {
 		return firstIV;
 	}
+
+	public void setNextPartOffset(long nextPartOffset) {
+		this.nextPartOffset = nextPartOffset;
+	}
+
+	public long getNextPartOffset() {
+		return nextPartOffset;
+	}
+
+	/**
+	 * Records the range of the object encrypted for a part, rejecting it if it
+	 * overlaps the range of another part. Counter mode parts encrypted over
+	 * overlapping ranges would reuse the same keystream for different data.
+	 * Uploading a part again over the same range is allowed, since it
+	 * produces the same ciphertext.
+	 *
+	 * @throws AmazonClientException
+	 *             if the range overlaps the range of another part
+	 */
+	public synchronized void claimPartRange(int partNumber, long offset, long length) {
+		if (length <= 0) return;
+		for (Map.Entry<Integer, long[]> entry : partRanges.entrySet()) {
+			long[] range = entry.getValue();
+			if (entry.getKey() != partNumber && offset < range[0] + range[1] && range[0] < offset + length) {
+				throw new AmazonClientException("Part " + partNumber + " covers bytes " + offset + "-" + (offset + length - 1)
+						+ " of the object, which overlap part " + entry.getKey() + ".  In the Counter crypto mode a part uploaded "
+						+ "from a file is encrypted from its file offset, which must also be its offset in the object.  "
+						+ "Parts kept in separate files must be uploaded from input streams, serially and in order.");
+			}
+		}
+		partRanges.put(partNumber, new long[] {offset, length});
+	}
 }
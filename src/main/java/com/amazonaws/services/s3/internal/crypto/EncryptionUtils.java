@@ -41,6 +41,7 @@ import com.amazonaws.services.s3.internal.InputSubstream;
 import com.amazonaws.services.s3.internal.Mimetypes;
 import com.amazonaws.services.s3.internal.RepeatableCipherInputStream;
 import com.amazonaws.services.s3.internal.RepeatableFileInputStream;
+import com.amazonaws.services.s3.model.CryptoMode;
 import com.amazonaws.services.s3.model.DeleteObjectRequest;
 import com.amazonaws.services.s3.model.EncryptionMaterials;
 import com.amazonaws.services.s3.model.EncryptionMaterialsAccessor;
@@ -134,13 +135,59 @@ public class EncryptionUtils {
     }
 
     public static EncryptionInstruction generateInstruction(EncryptionMaterialsProvider materialsProvider, Provider cryptoProvider) {
-        // Generate a one-time use symmetric key and initialize a cipher to encrypt object data
-        SecretKey envelopeSymmetricKey = generateOneTimeUseSymmetricKey();
-        CipherFactory cipherFactory = new CipherFactory(envelopeSymmetricKey, Cipher.ENCRYPT_MODE, null, cryptoProvider);
+        return generateInstruction(materialsProvider, cryptoProvider, CryptoMode.CipherBlockChaining);
+    }
 
-        // Encrypt the envelope symmetric key
+    /**
+     * Generates an instruction that will be used to encrypt an object with a cipher in the specified mode.
+     *
+     * @param materialsProvider
+     *      The encryption materials provider to be used to encrypt and decrypt data.
+     * @param cryptoProvider
+     *      The crypto provider whose encryption implementation will be used to encrypt and decrypt data.
+     * @param cryptoMode
+     *      The cipher mode to be used to encrypt the object data.
+     * @return
+     *      The instruction that will be used to encrypt an object.
+     */
+    public static EncryptionInstruction generateInstruction(EncryptionMaterialsProvider materialsProvider, Provider cryptoProvider, CryptoMode cryptoMode) {
+        return generateInstruction(materialsProvider, cryptoProvider, cryptoMode, null);
+    }
+
+    /**
+     * Generates an instruction that will be used to encrypt an object with a cipher in the specified mode,
+     * reusing an envelope symmetric key from the specified key cache if it allows.
+     *
+     * @param materialsProvider
+     *      The encryption materials provider to be used to encrypt and decrypt data.
+     * @param cryptoProvider
+     *      The crypto provider whose encryption implementation will be used to encrypt and decrypt data.
+     * @param cryptoMode
+     *      The cipher mode to be used to encrypt the object data.
+     * @param keyCache
+     *      The optional cache of envelope symmetric keys.
+     * @return
+     *      The instruction that will be used to encrypt an object.
+     */
+    public static EncryptionInstruction generateInstruction(EncryptionMaterialsProvider materialsProvider, Provider cryptoProvider,
+            CryptoMode cryptoMode, EnvelopeKeyCache keyCache) {
         EncryptionMaterials materials = materialsProvider.getEncryptionMaterials();
-        byte[] encryptedEnvelopeSymmetricKey = getEncryptedSymmetricKey(envelopeSymmetricKey, materials, cryptoProvider);
+        EnvelopeKeyCache.DataKey dataKey = (keyCache == null) ? null : keyCache.reuseDataKey(materials);
+
+        SecretKey envelopeSymmetricKey;
+        byte[] encryptedEnvelopeSymmetricKey;
+        if (dataKey != null) {
+            envelopeSymmetricKey = dataKey.key;
+            encryptedEnvelopeSymmetricKey = dataKey.encryptedKey;
+        } else {
+            // Generate a one-time use symmetric key, and encrypt it
+            envelopeSymmetricKey = generateOneTimeUseSymmetricKey();
+            encryptedEnvelopeSymmetricKey = getEncryptedSymmetricKey(envelopeSymmetricKey, materials, cryptoProvider);
+            if (keyCache != null) keyCache.putDataKey(materials, envelopeSymmetricKey, encryptedEnvelopeSymmetricKey);
+        }
+
+        // Initialize a cipher, with a new IV, to encrypt object data
+        CipherFactory cipherFactory = new CipherFactory(envelopeSymmetricKey, Cipher.ENCRYPT_MODE, null, cryptoProvider, getCipherMethod(cryptoMode));
 
         // Return a new instruction with the appropriate fields.
         return new EncryptionInstruction(materials.getMaterialsDescription(), encryptedEnvelopeSymmetricKey, envelopeSymmetricKey, cipherFactory);
@@ -178,6 +225,27 @@ public class EncryptionUtils {
      *      A non-null instruction object containing encryption information
      */
     public static EncryptionInstruction buildInstructionFromInstructionFile(S3Object instructionFile, EncryptionMaterialsProvider materialsProvider, Provider cryptoProvider) {
+        return buildInstructionFromInstructionFile(instructionFile, materialsProvider, cryptoProvider, null);
+    }
+
+    /**
+     * Builds an instruction object from the contents of an instruction file, using the specified cache of
+     * decrypted envelope symmetric keys.
+     *
+     * @param instructionFile
+     *      A non-null instruction file retrieved from S3 that contains encryption information
+     * @param materialsProvider
+     *      The non-null encryption materials provider to be used to encrypt and decrypt data.
+     * @param cryptoProvider
+     *      The crypto provider whose encryption implementation will be used to encrypt and decrypt data.  Null is ok and uses the
+     *      preferred provider from Security.getProviders().
+     * @param keyCache
+     *      The optional cache of envelope symmetric keys.
+     * @return
+     *      A non-null instruction object containing encryption information
+     */
+    public static EncryptionInstruction buildInstructionFromInstructionFile(S3Object instructionFile, EncryptionMaterialsProvider materialsProvider,
+            Provider cryptoProvider, EnvelopeKeyCache keyCache) {
         JSONObject instructionJSON = parseJSONInstruction(instructionFile);
         try {
             // Get fields from instruction object
@@ -185,6 +253,7 @@ public class EncryptionUtils {
             byte[] initVectorBytes = instructionJSON.getString(Headers.CRYPTO_IV).getBytes();
             String materialsDescriptionString = instructionJSON.getString(Headers.MATERIALS_DESCRIPTION);
             Map<String, String> materialsDescription = convertJSONToMap(materialsDescriptionString);
+            String cipherMethod = getSupportedCipherMethod(instructionJSON.optString(Headers.CRYPTO_CEK_ALGORITHM, null));
 
             // Decode from Base 64 to standard binary bytes
             encryptedSymmetricKeyBytes = Base64.decodeBase64(encryptedSymmetricKeyBytes);
@@ -208,8 +277,8 @@ public class EncryptionUtils {
             }
 
             // Decrypt the symmetric key and create the symmetric cipher
-            SecretKey symmetricKey = getDecryptedSymmetricKey(encryptedSymmetricKeyBytes, materials, cryptoProvider);
-            CipherFactory cipherFactory = new CipherFactory(symmetricKey, Cipher.DECRYPT_MODE, initVectorBytes, cryptoProvider);
+            SecretKey symmetricKey = getDecryptedSymmetricKey(encryptedSymmetricKeyBytes, materials, cryptoProvider, keyCache);
+            CipherFactory cipherFactory = new CipherFactory(symmetricKey, Cipher.DECRYPT_MODE, initVectorBytes, cryptoProvider, cipherMethod);
 
             return new EncryptionInstruction(materialsDescription, encryptedSymmetricKeyBytes, symmetricKey, cipherFactory);
         } catch (JSONException e) {
@@ -257,6 +326,31 @@ public class EncryptionUtils {
      *      materials used to encrypt the object are not available via the materials Accessor
      */
     public static EncryptionInstruction buildInstructionFromObjectMetadata(S3Object object, EncryptionMaterialsProvider materialsProvider, Provider cryptoProvider) {
+        return buildInstructionFromObjectMetadata(object, materialsProvider, cryptoProvider, null);
+    }
+
+    /**
+     * Builds an instruction object from the object metadata, using the specified cache of decrypted
+     * envelope symmetric keys.
+     *
+     * @param object
+     *      A non-null object that contains encryption information in its headers
+     * @param materialsProvider
+     *      The non-null encryption materials provider to be used to encrypt and decrypt data.
+     * @param cryptoProvider
+     *      The crypto provider whose encryption implementation will be used to encrypt and decrypt data.  Null is ok and uses the
+     *      preferred provider from Security.getProviders().
+     * @param keyCache
+     *      The optional cache of envelope symmetric keys.
+     * @return
+     *      A non-null instruction object containing encryption information
+     *
+     * @throws AmazonClientException
+     *      if encryption information is missing in the metadata, or the encryption
+     *      materials used to encrypt the object are not available via the materials Accessor
+     */
+    public static EncryptionInstruction buildInstructionFromObjectMetadata(S3Object object, EncryptionMaterialsProvider materialsProvider,
+            Provider cryptoProvider, EnvelopeKeyCache keyCache) {
         ObjectMetadata metadata = object.getObjectMetadata();
 
         // Get encryption info from metadata.
@@ -264,6 +358,7 @@ public class EncryptionUtils {
         byte[] initVectorBytes = getCryptoBytesFromMetadata(Headers.CRYPTO_IV, metadata);
         String materialsDescriptionString = getStringFromMetadata(Headers.MATERIALS_DESCRIPTION, metadata);
         Map<String, String> materialsDescription = convertJSONToMap(materialsDescriptionString);
+        String cipherMethod = getSupportedCipherMethod(getStringFromMetadata(Headers.CRYPTO_CEK_ALGORITHM, metadata));
 
         if (encryptedSymmetricKeyBytes == null || initVectorBytes == null || materialsDescription == null) {
             // If necessary encryption info was not found in the instruction file, throw an exception.
@@ -283,8 +378,8 @@ public class EncryptionUtils {
         }
 
         // Decrypt the symmetric key and create the symmetric cipher
-        SecretKey symmetricKey = getDecryptedSymmetricKey(encryptedSymmetricKeyBytes, materials, cryptoProvider);
-        CipherFactory cipherFactory = new CipherFactory(symmetricKey, Cipher.DECRYPT_MODE, initVectorBytes, cryptoProvider);
+        SecretKey symmetricKey = getDecryptedSymmetricKey(encryptedSymmetricKeyBytes, materials, cryptoProvider, keyCache);
+        CipherFactory cipherFactory = new CipherFactory(symmetricKey, Cipher.DECRYPT_MODE, initVectorBytes, cryptoProvider, cipherMethod);
 
         return new EncryptionInstruction(materialsDescription, encryptedSymmetricKeyBytes, symmetricKey, cipherFactory);
     }
@@ -343,9 +438,27 @@ public class EncryptionUtils {
      *      The updated object where the object content input stream contains the decrypted contents.
      */
     public static S3Object decryptObjectUsingInstruction(S3Object object, EncryptionInstruction instruction) {
+        return decryptObjectUsingInstruction(object, instruction, 0);
+    }
+
+    /**
+     * Returns an updated object where the object content input stream contains the decrypted contents,
+     * when the object content starts at the specified offset into the encrypted object, such as when
+     * a range of the object was retrieved.
+     *
+     * @param object
+     *      The object whose contents are to be decrypted.
+     * @param instruction
+     *      The instruction that will be used to decrypt the object data.
+     * @param contentOffset
+     *      The offset, into the encrypted object, of the first byte of the object content.
+     * @return
+     *      The updated object where the object content input stream contains the decrypted contents.
+     */
+    public static S3Object decryptObjectUsingInstruction(S3Object object, EncryptionInstruction instruction, long contentOffset) {
         S3ObjectInputStream objectContent = object.getObjectContent();
 
-        InputStream decryptedInputStream = new RepeatableCipherInputStream(objectContent, instruction.getCipherFactory());
+        InputStream decryptedInputStream = new RepeatableCipherInputStream(objectContent, instruction.getCipherFactory().atOffset(contentOffset));
         object.setObjectContent(new S3ObjectInputStream(decryptedInputStream, objectContent.getHttpRequest()));
         return object;
     }
@@ -464,6 +577,8 @@ public class EncryptionUtils {
      *
      * For Chained Block Cipher decryption to function properly, we need to retrieve the cipher block that precedes
      * the range, all of the cipher blocks that contain the range, and the cipher block that follows the range.
+     * The cipher method isn't known until the object is retrieved, so the same blocks are retrieved for objects
+     * encrypted with the seekable cipher method, which are decrypted starting from the first retrieved block.
      *
      * @param range
      *      A two-element array of longs corresponding to the start and finish (inclusive) of a desired
@@ -535,18 +650,37 @@ public class EncryptionUtils {
      * the default JCE crypto provider will be used.
      */
     public static Cipher createSymmetricCipher(SecretKey symmetricCryptoKey, int encryptMode, Provider cryptoProvider, byte[] initVector) {
+        return createSymmetricCipher(symmetricCryptoKey, encryptMode, cryptoProvider, initVector, JceEncryptionConstants.SYMMETRIC_CIPHER_METHOD, 0);
+    }
+
+    /**
+     * Creates a symmetric cipher using the specified cipher method.  Ciphers using the seekable cipher method
+     * are positioned to encrypt or decrypt data starting at the given offset into the data; the offset is
+     * ignored for other cipher methods, and requires an IV.
+     */
+    public static Cipher createSymmetricCipher(SecretKey symmetricCryptoKey, int encryptMode, Provider cryptoProvider, byte[] initVector,
+            String cipherMethod, long offset) {
         try {
             Cipher cipher;
             if (cryptoProvider != null) {
-                cipher = Cipher.getInstance(JceEncryptionConstants.SYMMETRIC_CIPHER_METHOD, cryptoProvider);
+                cipher = Cipher.getInstance(cipherMethod, cryptoProvider);
             } else {
-                cipher = Cipher.getInstance(JceEncryptionConstants.SYMMETRIC_CIPHER_METHOD);
+                cipher = Cipher.getInstance(cipherMethod);
+            }
+            boolean isSeekable = isSeekableCipherMethod(cipherMethod) && initVector != null;
+            if (isSeekable && offset > 0) {
+                // The counter of the block containing the offset, then skip to the offset within that block
+                initVector = incrementCounter(initVector, offset / JceEncryptionConstants.SYMMETRIC_CIPHER_BLOCK_SIZE);
             }
             if (initVector != null) {
                 cipher.init(encryptMode, symmetricCryptoKey, new IvParameterSpec(initVector));
             } else {
                 cipher.init(encryptMode, symmetricCryptoKey);
             }
+            if (isSeekable && offset > 0) {
+                int offsetIntoBlock = (int)(offset % JceEncryptionConstants.SYMMETRIC_CIPHER_BLOCK_SIZE);
+                if (offsetIntoBlock > 0) cipher.update(new byte[offsetIntoBlock]);
+            }
             return cipher;
         } catch (Exception e) {
             throw new AmazonClientException("Unable to build cipher: " + e.getMessage() +
@@ -611,6 +745,19 @@ public class EncryptionUtils {
         }
     }
 
+    /** Like the method above, but reuses keys already decrypted from the same bytes when a cache is given. */
+    private static SecretKey getDecryptedSymmetricKey(byte[] encryptedSymmetricKeyBytes, EncryptionMaterials materials, Provider cryptoProvider,
+            EnvelopeKeyCache keyCache) {
+        if (keyCache != null) {
+            SecretKey cachedKey = keyCache.getDecryptedKey(encryptedSymmetricKeyBytes);
+            if (cachedKey != null) return cachedKey;
+        }
+
+        SecretKey symmetricKey = getDecryptedSymmetricKey(encryptedSymmetricKeyBytes, materials, cryptoProvider);
+        if (keyCache != null) keyCache.putDecryptedKey(encryptedSymmetricKeyBytes, symmetricKey);
+        return symmetricKey;
+    }
+
     private static InputStream getEncryptedInputStream(PutObjectRequest request, CipherFactory cipherFactory) {
         try {
             InputStream originalInputStream = request.getInputStream();
@@ -735,6 +882,9 @@ public class EncryptionUtils {
         initVectorBytes = Base64.encodeBase64(initVectorBytes);
         metadata.addUserMetadata(Headers.CRYPTO_IV, new String(initVectorBytes));
 
+        // Put the cipher method into the object metadata so the object is decrypted the same way
+        metadata.addUserMetadata(Headers.CRYPTO_CEK_ALGORITHM, symmetricCipher.getAlgorithm());
+
         // Put the materials description into the object metadata as JSON
         JSONObject descriptionJSON = new JSONObject(materialsDescription);
         metadata.addUserMetadata(Headers.MATERIALS_DESCRIPTION, descriptionJSON.toString());
@@ -776,6 +926,9 @@ public class EncryptionUtils {
         // If we don't know the unencrypted size, then report -1
         if (plaintextLength < 0) return -1;
 
+        // Without padding, the encrypted data is as long as the plaintext
+        if (isSeekableCipherMethod(symmetricCipher.getAlgorithm())) return plaintextLength;
+
         long cipherBlockSize = symmetricCipher.getBlockSize();
         long offset = cipherBlockSize - (plaintextLength % cipherBlockSize);
         return plaintextLength + offset;
@@ -791,6 +944,8 @@ public class EncryptionUtils {
         } else {
             return -1;
         }
+        if (isSeekableCipherMethod(symmetricCipher.getAlgorithm())) return plaintextLength;
+
         long cipherBlockSize = symmetricCipher.getBlockSize();
         long offset = cipherBlockSize - (plaintextLength % cipherBlockSize);
         return plaintextLength + offset;
@@ -833,6 +988,7 @@ public class EncryptionUtils {
             instructionJSON.put(Headers.MATERIALS_DESCRIPTION, materialsDescriptionJSON.toString());
             instructionJSON.put(Headers.CRYPTO_KEY, new String(encryptedKeyBytes));
             instructionJSON.put(Headers.CRYPTO_IV, new String(initVector));
+            instructionJSON.put(Headers.CRYPTO_CEK_ALGORITHM, instruction.getSymmetricCipher().getAlgorithm());
 
         } catch (JSONException e) {} // Keys are never null, so JSONException will never be thrown.
         return instructionJSON;
@@ -871,6 +1027,54 @@ public class EncryptionUtils {
         }
     }
 
+    /**
+     * Returns the name of the symmetric cipher method used in the specified crypto mode.
+     */
+    public static String getCipherMethod(CryptoMode cryptoMode) {
+        if (cryptoMode == CryptoMode.Counter) {
+            return JceEncryptionConstants.SEEKABLE_SYMMETRIC_CIPHER_METHOD;
+        } else {
+            return JceEncryptionConstants.SYMMETRIC_CIPHER_METHOD;
+        }
+    }
+
+    /**
+     * Returns true if the specified cipher method can encrypt and decrypt data starting from any offset.
+     */
+    public static boolean isSeekableCipherMethod(String cipherMethod) {
+        return JceEncryptionConstants.SEEKABLE_SYMMETRIC_CIPHER_METHOD.equals(cipherMethod);
+    }
+
+    /**
+     * Returns the cipher method recorded in an object's encryption information.  Objects
+     * encrypted before the cipher method was recorded used the default cipher method.
+     */
+    private static String getSupportedCipherMethod(String cipherMethod) {
+        if (cipherMethod == null) {
+            return JceEncryptionConstants.SYMMETRIC_CIPHER_METHOD;
+        }
+        if (cipherMethod.equals(JceEncryptionConstants.SYMMETRIC_CIPHER_METHOD) || isSeekableCipherMethod(cipherMethod)) {
+            return cipherMethod;
+        }
+        throw new AmazonClientException("Unsupported symmetric cipher method: " + cipherMethod);
+    }
+
+    /**
+     * Returns a copy of the specified counter block, treated as a big-endian integer, incremented by the
+     * specified number of blocks.
+     */
+    private static byte[] incrementCounter(byte[] counter, long blocks) {
+        byte[] result = new byte[counter.length];
+        System.arraycopy(counter, 0, result, 0, counter.length);
+        long carry = blocks;
+        for (int i = result.length - 1; i >= 0 && carry != 0; i--) {
+            long sum = (result[i] & 0xff) + (carry & 0xff);
+            result[i] = (byte)sum;
+            carry = (carry >>> 8) + (sum >>> 8);
+        }
+        return result;
+    }
+
     /**
      * Takes the position of the leftmost desired byte of a user specified range and returns the
      * position of the start of the previous cipher block, or returns 0 if the leftmost byte is in
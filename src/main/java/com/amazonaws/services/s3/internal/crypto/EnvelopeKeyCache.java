@@ -0,0 +1,161 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.s3.internal.crypto;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.amazonaws.services.s3.model.CryptoConfiguration;
+import com.amazonaws.services.s3.model.EncryptionMaterials;
+
+/**
+ * Caches envelope symmetric keys, so that the encryption materials don't have
+ * to be used to encrypt or decrypt a symmetric key for every object.
+ * <p>
+ * Decrypted envelope keys are cached by their encrypted bytes, for a limited
+ * time, and the least recently used keys are evicted once the cache is full.
+ * When encrypting, the same envelope key can be reused for a limited number of
+ * objects, or a limited time, as long as the encryption materials don't
+ * change. A fresh initialization vector is still used for each object.
+ * <p>
+ * Instances of this class are thread-safe.
+ */
+public class EnvelopeKeyCache {
+
+    private final int maxDecryptedKeys;
+    private final long decryptedKeyTtlNanos;
+    private final int maxDataKeyUses;
+    private final long maxDataKeyAgeNanos;
+
+    private final Map<String, CachedKey> decryptedKeys;
+
+    /** The envelope key currently reused for encryption, if any. */
+    private DataKey dataKey;
+
+    /**
+     * Creates a cache with the key caching settings of the specified
+     * configuration.
+     *
+     * @param cryptoConfig
+     *            The configuration whose key caching settings to use.
+     */
+    public EnvelopeKeyCache(CryptoConfiguration cryptoConfig) {
+        this.maxDecryptedKeys = cryptoConfig.getDecryptedKeyCacheSize();
+        this.decryptedKeyTtlNanos = TimeUnit.MILLISECONDS.toNanos(cryptoConfig.getDecryptedKeyCacheTtlMillis());
+        this.maxDataKeyUses = cryptoConfig.getMaxDataKeyUses();
+        this.maxDataKeyAgeNanos = TimeUnit.MILLISECONDS.toNanos(cryptoConfig.getMaxDataKeyAgeMillis());
+        this.decryptedKeys = new LinkedHashMap<String, CachedKey>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedKey> eldest) {
+                return size() > maxDecryptedKeys;
+            }
+        };
+    }
+
+    /**
+     * Returns true if the specified configuration enables any key caching.
+     */
+    public static boolean isEnabled(CryptoConfiguration cryptoConfig) {
+        return cryptoConfig.getDecryptedKeyCacheSize() > 0 || cryptoConfig.getMaxDataKeyUses() > 1;
+    }
+
+    /**
+     * Returns the cached decrypted form of the specified encrypted envelope
+     * key, or null if it isn't cached.
+     */
+    synchronized SecretKey getDecryptedKey(byte[] encryptedKey) {
+        if (maxDecryptedKeys <= 0) return null;
+
+        String id = new String(Base64.encodeBase64(encryptedKey));
+        CachedKey cached = decryptedKeys.get(id);
+        if (cached == null) return null;
+        if (System.nanoTime() - cached.cachedAt >= decryptedKeyTtlNanos) {
+            decryptedKeys.remove(id);
+            return null;
+        }
+        return cached.key;
+    }
+
+    /**
+     * Caches the decrypted form of the specified encrypted envelope key.
+     */
+    synchronized void putDecryptedKey(byte[] encryptedKey, SecretKey key) {
+        if (maxDecryptedKeys <= 0) return;
+        decryptedKeys.put(new String(Base64.encodeBase64(encryptedKey)), new CachedKey(key, System.nanoTime()));
+    }
+
+    /**
+     * Returns an envelope key that can be reused to encrypt another object
+     * with the specified encryption materials, or null if a new one must be
+     * generated.
+     */
+    synchronized DataKey reuseDataKey(EncryptionMaterials materials) {
+        if (dataKey == null || dataKey.materials != materials) return null;
+        if (dataKey.uses >= maxDataKeyUses || System.nanoTime() - dataKey.createdAt >= maxDataKeyAgeNanos) {
+            dataKey = null;
+            return null;
+        }
+        dataKey.uses++;
+        return dataKey;
+    }
+
+    /**
+     * Records a newly generated envelope key, which may be reused for later
+     * objects encrypted with the same encryption materials.
+     */
+    synchronized void putDataKey(EncryptionMaterials materials, SecretKey key, byte[] encryptedKey) {
+        if (maxDataKeyUses > 1) {
+            dataKey = new DataKey(materials, key, encryptedKey, System.nanoTime());
+        }
+        // Objects encrypted with the key can be decrypted without decrypting it again
+        putDecryptedKey(encryptedKey, key);
+    }
+
+    private static class CachedKey {
+        final SecretKey key;
+        final long cachedAt;
+
+        CachedKey(SecretKey key, long cachedAt) {
+            this.key = key;
+            this.cachedAt = cachedAt;
+        }
+    }
+
+    /**
+     * An envelope key used for encryption, in both plain and encrypted forms,
+     * and the number of objects it has encrypted.
+     */
+    static class DataKey {
+        final EncryptionMaterials materials;
+        final SecretKey key;
+        final byte[] encryptedKey;
+        final long createdAt;
+        int uses = 1;
+
+        DataKey(EncryptionMaterials materials, SecretKey key, byte[] encryptedKey, long createdAt) {
+            this.materials = materials;
+            this.key = key;
+            this.encryptedKey = encryptedKey;
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2012-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.s3.iterable;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Iterates over object summaries that are listed by a pool of background
+ * threads, each working through the pages of a different key prefix.
+ * <p>
+ * Prefixes are listed with a delimiter, and every common prefix in the
+ * response becomes a new prefix to list in parallel, until the maximum
+ * partition depth is reached; prefixes at that depth are listed without a
+ * delimiter. Listed pages are handed to the caller through a bounded queue,
+ * so the background threads fetch the next pages while the caller works
+ * through the current one, but never run too far ahead of it.
+ * <p>
+ * Summaries from different prefixes are interleaved, so unlike a sequential
+ * listing they are not returned in lexicographic key order.
+ * <p>
+ * The background threads stop once the listing is complete, fails, or is
+ * cancelled with {@link #cancel()}. If the caller abandons the iterator
+ * without cancelling it, the threads give up after waiting
+ * {@link #CONSUMER_TIMEOUT_SECONDS} for the caller to take another page.
+ */
+class PartitionedObjectIterator implements Iterator<S3ObjectSummary> {
+
+    /** Marks the end of the listing in the page queue. */
+    private static final List<S3ObjectSummary> END_OF_LISTING = Collections.emptyList();
+
+    /** How long listing threads wait for the caller to take a page before giving up. */
+    static final long CONSUMER_TIMEOUT_SECONDS = 300;
+
+    private static final AtomicInteger threadCount = new AtomicInteger(0);
+
+    private final AmazonS3 s3;
+    private final String bucketName;
+    private final Integer batchSize;
+    private final String delimiter;
+    private final int maxPartitionDepth;
+
+    private final ExecutorService executor;
+
+    /** Listed pages waiting for the caller, bounded to limit read-ahead. */
+    private final BlockingQueue<List<S3ObjectSummary>> pages;
+
+    /** The number of prefixes that are queued or still being listed. */
+    private final AtomicInteger pendingPrefixes = new AtomicInteger(0);
+
+    /** The first error encountered by a listing thread, if any. */
+    private volatile AmazonClientException failure;
+
+    /** Set when the listing is cancelled and the background threads should stop. */
+    private volatile boolean cancelled = false;
+
+    private Iterator<S3ObjectSummary> currentIterator = Collections.<S3ObjectSummary>emptyList().iterator();
+
+    private boolean finished = false;
+
+    PartitionedObjectIterator(AmazonS3 s3, String bucketName, List<String> prefixes, Integer batchSize,
+            String delimiter, int maxPartitionDepth, int parallelism) {
+        this.s3 = s3;
+        this.bucketName = bucketName;
+        this.batchSize = batchSize;
+        this.delimiter = delimiter;
+        this.maxPartitionDepth = maxPartitionDepth;
+        this.pages = new LinkedBlockingQueue<List<S3ObjectSummary>>(parallelism * 2);
+        this.executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r);
+                thread.setName("s3-listing-worker-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        pendingPrefixes.set(prefixes.size());
+        for (String prefix : prefixes) {
+            executor.execute(new ListPrefixTask(prefix, 0));
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (cancelled) {
+            if (failure != null) throw failure;
+            return false;
+        }
+        while (!currentIterator.hasNext() && !finished) {
+            List<S3ObjectSummary> page;
+            try {
+                page = pages.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel();
+                throw new AmazonClientException("Interrupted while listing objects", e);
+            }
+
+            if (page == END_OF_LISTING) {
+                finished = true;
+                executor.shutdown();
+                if (failure != null) throw failure;
+            } else {
+                currentIterator = page.iterator();
+            }
+        }
+        return currentIterator.hasNext();
+    }
+
+    @Override
+    public S3ObjectSummary next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return currentIterator.next();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stops the background listing threads. Once cancelled, the iterator
+     * returns no more summaries, or throws the error that stopped the
+     * listing.
+     */
+    void cancel() {
+        if (cancelled) return;
+        cancelled = true;
+        executor.shutdownNow();
+        // Tasks that never ran will not end the listing, so end it here
+        // and wake up a caller waiting for the next page
+        do {
+            pages.clear();
+        } while (!pages.offer(END_OF_LISTING));
+    }
+
+    /**
+     * @return True if the listing threads have stopped or been told to stop.
+     */
+    boolean isDone() {
+        return cancelled || executor.isShutdown();
+    }
+
+    /**
+     * Hands a page to the caller, waiting for space in the queue unless the
+     * listing has already failed or been cancelled. Gives up and cancels the
+     * listing if the caller takes no page for
+     * {@link #CONSUMER_TIMEOUT_SECONDS}, as it has most likely abandoned the
+     * iterator.
+     *
+     * @return False if the listing stopped and the page was dropped.
+     */
+    private boolean publish(List<S3ObjectSummary> page) throws InterruptedException {
+        long waitedSeconds = 0;
+        while (failure == null && !cancelled) {
+            if (pages.offer(page, 1, TimeUnit.SECONDS)) return true;
+            if (++waitedSeconds >= CONSUMER_TIMEOUT_SECONDS) {
+                if (failure == null) {
+                    failure = new AmazonClientException("Listing stopped: no objects were read for "
+                            + CONSUMER_TIMEOUT_SECONDS + " seconds");
+                }
+                cancel();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records that a prefix has been completely listed, and ends the listing
+     * once no more prefixes are pending.
+     */
+    private void prefixDone() {
+        if (pendingPrefixes.decrementAndGet() == 0 && !cancelled) {
+            // No task is left to queue more prefixes, so the pool can stop
+            executor.shutdown();
+            try {
+                publish(END_OF_LISTING);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel();
+            }
+        }
+    }
+
+    /**
+     * Records the first error of the listing and stops the background
+     * threads. The caller gets the error from {@link #hasNext()}.
+     */
+    private void fail(AmazonClientException e) {
+        if (cancelled) return;
+        if (failure == null) failure = e;
+        cancel();
+    }
+
+    /**
+     * Lists every page of a single prefix, queuing each of its common
+     * prefixes to be listed by the pool before moving on to the next page.
+     */
+    private class ListPrefixTask implements Runnable {
+        private final String prefix;
+        private final int depth;
+
+        ListPrefixTask(String prefix, int depth) {
+            this.prefix = prefix;
+            this.depth = depth;
+        }
+
+        public void run() {
+            try {
+                ListObjectsRequest request = new ListObjectsRequest()
+                        .withBucketName(bucketName)
+                        .withPrefix(prefix)
+                        .withMaxKeys(batchSize);
+                boolean partition = depth < maxPartitionDepth;
+                if (partition) request.setDelimiter(delimiter);
+
+                ObjectListing listing = null;
+                while (failure == null && !cancelled && (listing == null || listing.isTruncated())) {
+                    listing = (listing == null) ? s3.listObjects(request) : s3.listNextBatchOfObjects(listing);
+
+                    if (partition) {
+                        for (String commonPrefix : listing.getCommonPrefixes()) {
+                            pendingPrefixes.incrementAndGet();
+                            executor.execute(new ListPrefixTask(commonPrefix, depth + 1));
+                        }
+                    }
+                    if (!listing.getObjectSummaries().isEmpty() && !publish(listing.getObjectSummaries())) {
+                        break;
+                    }
+                }
+            } catch (AmazonClientException ace) {
+                fail(ace);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(new AmazonClientException("Interrupted while listing objects", e));
+            } catch (RuntimeException e) {
+                // Includes tasks rejected by the pool after a cancellation
+                fail(new AmazonClientException("Unable to list objects: " + e.getMessage(), e));
+            } finally {
+                prefixDone();
+            }
+        }
+    }
+}
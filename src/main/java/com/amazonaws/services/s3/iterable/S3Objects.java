@@ -14,7 +14,11 @@
  */
 package com.amazonaws.services.s3.iterable;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.ListObjectsRequest;
@@ -34,6 +38,20 @@ import com.amazonaws.services.s3.model.S3ObjectSummary;
  * The list of {@link S3ObjectSummary}s will be fetched lazily, a page at a
  * time, as they are needed. The size of the page can be controlled with the
  * {@link S3Objects#withBatchSize(int)} method.
+ * <p>
+ * Very large buckets can be listed faster by listing several key prefixes at
+ * once with {@link S3Objects#withParallelism(int)}. Common prefixes found
+ * using the delimiter (by default "/") are then listed in parallel by
+ * background threads, which fetch the next pages while the current one is
+ * being iterated:
+ *
+ * <pre>
+ * for ( S3ObjectSummary summary : S3Objects.inBucket(s3, &quot;my-bucket&quot;).withParallelism(16) ) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * Objects listed in parallel are not returned in key order.
  */
 public class S3Objects implements Iterable<S3ObjectSummary> {
 
@@ -41,6 +59,16 @@ public class S3Objects implements Iterable<S3ObjectSummary> {
     private String prefix = null;
     private String bucketName;
     private Integer batchSize = null;
+    private int parallelism = 0;
+    private String delimiter = "/";
+    private int maxPartitionDepth = DEFAULT_MAX_PARTITION_DEPTH;
+    private List<String> partitionPrefixes = null;
+
+    /** Parallel listings started by this iterable that may still be running. */
+    private final List<PartitionedObjectIterator> parallelIterators = new ArrayList<PartitionedObjectIterator>();
+
+    /** Default number of prefix levels to fan out over when listing in parallel. */
+    private static final int DEFAULT_MAX_PARTITION_DEPTH = 2;
 
     private S3Objects(AmazonS3 s3, String bucketName) {
         this.s3 = s3;
@@ -91,6 +119,103 @@ public class S3Objects implements Iterable<S3ObjectSummary> {
         return this;
     }
 
+    /**
+     * Lists objects with the specified number of background threads, each
+     * working through the pages of a different key prefix. Prefixes are found
+     * by listing with the delimiter, or taken from
+     * {@link S3Objects#withPartitionPrefixes(String...)}. Objects listed in
+     * parallel are not returned in key order.
+     * <p>
+     * The background threads stop once the iterator reaches the end or
+     * throws an exception. Callers that stop iterating early should call
+     * {@link S3Objects#cancel()}; otherwise the threads give up on their own
+     * after waiting five minutes for the next page to be read.
+     *
+     * @param parallelism
+     *            How many prefixes to list at once.
+     */
+    public S3Objects withParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Sets the delimiter used to split keys into prefixes that can be listed
+     * in parallel. Defaults to "/".
+     *
+     * @param delimiter
+     *            The delimiter that separates levels of the key space.
+     */
+    public S3Objects withDelimiter(String delimiter) {
+        this.delimiter = delimiter;
+        return this;
+    }
+
+    /**
+     * Sets how many levels of common prefixes are split out to be listed in
+     * parallel. Prefixes deeper than this are listed without a delimiter, a
+     * page of keys at a time. Defaults to 2.
+     *
+     * @param maxPartitionDepth
+     *            The number of delimiter levels to split into separate
+     *            listings, or zero to list each starting prefix in one pass.
+     */
+    public S3Objects withMaxPartitionDepth(int maxPartitionDepth) {
+        if (maxPartitionDepth < 0) {
+            throw new IllegalArgumentException("Partition depth must not be negative");
+        }
+        this.maxPartitionDepth = maxPartitionDepth;
+        return this;
+    }
+
+    /**
+     * Sets the prefixes that parallel listing starts from, instead of the
+     * single prefix of this iterable. The prefixes should not overlap, or
+     * objects will be returned more than once. Only used with
+     * {@link S3Objects#withParallelism(int)}.
+     *
+     * @param prefixes
+     *            Non-overlapping key prefixes that together cover the objects
+     *            to list.
+     */
+    public S3Objects withPartitionPrefixes(String... prefixes) {
+        this.partitionPrefixes = new ArrayList<String>(Arrays.asList(prefixes));
+        return this;
+    }
+
+    /**
+     * Stops the background threads of all parallel listings started by this
+     * iterable. Their iterators return no more summaries. Has no effect on
+     * listings that are not parallel.
+     */
+    public void cancel() {
+        synchronized ( parallelIterators ) {
+            for ( PartitionedObjectIterator iterator : parallelIterators ) {
+                iterator.cancel();
+            }
+            parallelIterators.clear();
+        }
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public String getDelimiter() {
+        return delimiter;
+    }
+
+    public int getMaxPartitionDepth() {
+        return maxPartitionDepth;
+    }
+
+    public List<String> getPartitionPrefixes() {
+        return partitionPrefixes;
+    }
+
     public Integer getBatchSize() {
         return batchSize;
     }
@@ -151,6 +276,21 @@ public class S3Objects implements Iterable<S3ObjectSummary> {
 
     @Override
     public Iterator<S3ObjectSummary> iterator() {
+        if ( parallelism > 0 ) {
+            List<String> prefixes = partitionPrefixes;
+            if ( prefixes == null || prefixes.isEmpty() ) {
+                prefixes = Collections.singletonList(getPrefix());
+            }
+            PartitionedObjectIterator iterator = new PartitionedObjectIterator(getS3(), getBucketName(), prefixes,
+                    getBatchSize(), getDelimiter(), getMaxPartitionDepth(), getParallelism());
+            synchronized ( parallelIterators ) {
+                for ( Iterator<PartitionedObjectIterator> i = parallelIterators.iterator(); i.hasNext(); ) {
+                    if ( i.next().isDone() ) i.remove();
+                }
+                parallelIterators.add(iterator);
+            }
+            return iterator;
+        }
         return new S3ObjectIterator();
     }
 
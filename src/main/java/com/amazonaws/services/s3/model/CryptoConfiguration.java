@@ -25,13 +25,24 @@ import java.security.Provider;
  */
 public class CryptoConfiguration {
 
+    /** The default time, in milliseconds, that decrypted envelope keys are cached. */
+    public static final long DEFAULT_DECRYPTED_KEY_CACHE_TTL_MILLIS = 5 * 60 * 1000;
+
+    /** The default maximum time, in milliseconds, that an envelope key is reused for encryption. */
+    public static final long DEFAULT_MAX_DATA_KEY_AGE_MILLIS = 5 * 60 * 1000;
+
     private CryptoStorageMode storageMode;
     private Provider cryptoProvider;
+    private CryptoMode cryptoMode;
+    private int decryptedKeyCacheSize = 0;
+    private long decryptedKeyCacheTtlMillis = DEFAULT_DECRYPTED_KEY_CACHE_TTL_MILLIS;
+    private int maxDataKeyUses = 1;
+    private long maxDataKeyAgeMillis = DEFAULT_MAX_DATA_KEY_AGE_MILLIS;
 
     /**
-     * Creates a new CryptoConfiguration object with default storage mode and crypto provider settings.
-     * The default storage mode is the Object Metadata storage mode, and the default crypto provider
-     * is the JCE provider.
+     * Creates a new CryptoConfiguration object with default storage mode, crypto provider and crypto
+     * mode settings. The default storage mode is the Object Metadata storage mode, the default crypto
+     * provider is the JCE provider, and the default crypto mode is the Cipher Block Chaining mode.
      */
     public CryptoConfiguration() {
         // By default, store encryption info in metadata
@@ -39,6 +50,9 @@ public class CryptoConfiguration {
 
         // A null value implies that the default JCE crypto provider will be used
         this.cryptoProvider = null;
+
+        // Chain cipher blocks, as objects have always been encrypted
+        this.cryptoMode = CryptoMode.CipherBlockChaining;
     }   
 
     /**
@@ -104,4 +118,190 @@ public class CryptoConfiguration {
     public Provider getCryptoProvider() {
         return this.cryptoProvider;
     }
+
+    /**
+     * Sets the crypto mode to the specified mode.
+     *
+     * @param cryptoMode
+     *     The cipher mode to be used for encrypting object data.
+     */
+    public void setCryptoMode(CryptoMode cryptoMode) {
+        this.cryptoMode = cryptoMode;
+    }
+
+    /**
+     * Sets the crypto mode to the specified mode, and returns the updated CryptoConfiguration object.
+     *
+     * @param cryptoMode
+     *     The cipher mode to be used for encrypting object data.
+     * @return
+     *     The updated CryptoConfiguration object.
+     */
+    public CryptoConfiguration withCryptoMode(CryptoMode cryptoMode) {
+        this.cryptoMode = cryptoMode;
+        return this;
+    }
+
+    /**
+     * Returns the cipher mode that will be used for encrypting object data. Objects are always
+     * decrypted with the mode they were encrypted with.
+     *
+     * @return
+     *     The cipher mode to be used for encrypting object data.
+     */
+    public CryptoMode getCryptoMode() {
+        return this.cryptoMode;
+    }
+
+    /**
+     * Sets the maximum number of decrypted envelope keys to cache. Decrypting
+     * the envelope key of an object is expensive with asymmetric encryption
+     * materials, so caching keys speeds up retrieving objects that share an
+     * envelope key, or are retrieved repeatedly. Zero, the default, disables
+     * the cache.
+     * <p>
+     * Key caching settings take effect for encryption clients created after
+     * they are set.
+     *
+     * @param decryptedKeyCacheSize
+     *     The maximum number of decrypted envelope keys to cache.
+     */
+    public void setDecryptedKeyCacheSize(int decryptedKeyCacheSize) {
+        this.decryptedKeyCacheSize = decryptedKeyCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of decrypted envelope keys to cache, and returns the updated
+     * CryptoConfiguration object.
+     *
+     * @param decryptedKeyCacheSize
+     *     The maximum number of decrypted envelope keys to cache.
+     * @return
+     *     The updated CryptoConfiguration object.
+     */
+    public CryptoConfiguration withDecryptedKeyCacheSize(int decryptedKeyCacheSize) {
+        this.decryptedKeyCacheSize = decryptedKeyCacheSize;
+        return this;
+    }
+
+    /**
+     * Returns the maximum number of decrypted envelope keys to cache.
+     *
+     * @return
+     *     The maximum number of decrypted envelope keys to cache, or zero if they aren't cached.
+     */
+    public int getDecryptedKeyCacheSize() {
+        return this.decryptedKeyCacheSize;
+    }
+
+    /**
+     * Sets the time, in milliseconds, that decrypted envelope keys are cached.
+     *
+     * @param decryptedKeyCacheTtlMillis
+     *     The time, in milliseconds, that decrypted envelope keys are cached.
+     */
+    public void setDecryptedKeyCacheTtlMillis(long decryptedKeyCacheTtlMillis) {
+        this.decryptedKeyCacheTtlMillis = decryptedKeyCacheTtlMillis;
+    }
+
+    /**
+     * Sets the time, in milliseconds, that decrypted envelope keys are cached, and returns the
+     * updated CryptoConfiguration object.
+     *
+     * @param decryptedKeyCacheTtlMillis
+     *     The time, in milliseconds, that decrypted envelope keys are cached.
+     * @return
+     *     The updated CryptoConfiguration object.
+     */
+    public CryptoConfiguration withDecryptedKeyCacheTtlMillis(long decryptedKeyCacheTtlMillis) {
+        this.decryptedKeyCacheTtlMillis = decryptedKeyCacheTtlMillis;
+        return this;
+    }
+
+    /**
+     * Returns the time, in milliseconds, that decrypted envelope keys are cached.
+     *
+     * @return
+     *     The time, in milliseconds, that decrypted envelope keys are cached.
+     */
+    public long getDecryptedKeyCacheTtlMillis() {
+        return this.decryptedKeyCacheTtlMillis;
+    }
+
+    /**
+     * Sets the maximum number of objects encrypted with the same envelope key.
+     * By default, a new envelope key is generated, and encrypted with the
+     * encryption materials, for every object. Reusing envelope keys avoids
+     * encrypting a new key for every object, at the cost of more objects being
+     * exposed if one envelope key is compromised. Keys are only reused while
+     * the encryption materials provider returns the same encryption materials.
+     * <p>
+     * Key caching settings take effect for encryption clients created after
+     * they are set.
+     *
+     * @param maxDataKeyUses
+     *     The maximum number of objects encrypted with the same envelope key.
+     */
+    public void setMaxDataKeyUses(int maxDataKeyUses) {
+        this.maxDataKeyUses = maxDataKeyUses;
+    }
+
+    /**
+     * Sets the maximum number of objects encrypted with the same envelope key, and returns the
+     * updated CryptoConfiguration object.
+     *
+     * @param maxDataKeyUses
+     *     The maximum number of objects encrypted with the same envelope key.
+     * @return
+     *     The updated CryptoConfiguration object.
+     */
+    public CryptoConfiguration withMaxDataKeyUses(int maxDataKeyUses) {
+        this.maxDataKeyUses = maxDataKeyUses;
+        return this;
+    }
+
+    /**
+     * Returns the maximum number of objects encrypted with the same envelope key.
+     *
+     * @return
+     *     The maximum number of objects encrypted with the same envelope key.
+     */
+    public int getMaxDataKeyUses() {
+        return this.maxDataKeyUses;
+    }
+
+    /**
+     * Sets the maximum time, in milliseconds, that an envelope key is reused for encryption
+     * after it's generated.
+     *
+     * @param maxDataKeyAgeMillis
+     *     The maximum time, in milliseconds, that an envelope key is reused.
+     */
+    public void setMaxDataKeyAgeMillis(long maxDataKeyAgeMillis) {
+        this.maxDataKeyAgeMillis = maxDataKeyAgeMillis;
+    }
+
+    /**
+     * Sets the maximum time, in milliseconds, that an envelope key is reused for encryption,
+     * and returns the updated CryptoConfiguration object.
+     *
+     * @param maxDataKeyAgeMillis
+     *     The maximum time, in milliseconds, that an envelope key is reused.
+     * @return
+     *     The updated CryptoConfiguration object.
+     */
+    public CryptoConfiguration withMaxDataKeyAgeMillis(long maxDataKeyAgeMillis) {
+        this.maxDataKeyAgeMillis = maxDataKeyAgeMillis;
+        return this;
+    }
+
+    /**
+     * Returns the maximum time, in milliseconds, that an envelope key is reused for encryption.
+     *
+     * @return
+     *     The maximum time, in milliseconds, that an envelope key is reused.
+     */
+    public long getMaxDataKeyAgeMillis() {
+        return this.maxDataKeyAgeMillis;
+    }
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.s3.model;
+
+/**
+ * Denotes the different cipher modes available for encrypting object data with
+ * the envelope symmetric key.
+ * <p>
+ * CipherBlockChaining is the default mode. In this mode, each block of data is
+ * encrypted using the encrypted block before it, so the parts of an encrypted
+ * multipart upload must be uploaded serially, and in order.
+ * <p>
+ * If the Counter mode is used, each block of data is encrypted independently
+ * from its offset in the object. The parts of a multipart upload can then be
+ * encrypted and uploaded in parallel, and the encrypted data is exactly as long
+ * as the original data. Objects encrypted in Counter mode can only be decrypted
+ * by clients that support it.
+ * <p>
+ * The mode used to encrypt an object is stored with its encryption
+ * information, so objects encrypted in either mode can be decrypted regardless
+ * of the mode configured for encryption.
+ */
+public enum CryptoMode {
+    CipherBlockChaining,
+    Counter
+}
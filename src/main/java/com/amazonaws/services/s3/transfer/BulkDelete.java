@@ -0,0 +1,60 @@
+/*
+ * Copyright 2013 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazonaws.services.s3.transfer;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.transfer.model.BulkDeleteResult;
+
+/**
+ * Represents an asynchronous deletion of many objects from Amazon S3.
+ * <p>
+ * The progress of a bulk delete is measured in objects rather than bytes:
+ * {@link TransferProgress#getBytesTransfered()} returns the number of objects
+ * deleted so far, and {@link TransferProgress#getTotalBytesToTransfer()} the
+ * number of keys read so far. Keys are read as the delete proceeds, so the
+ * total only becomes final once all keys have been read (for
+ * {@link TransferManager#deletePrefix(String, String)}, once the whole prefix
+ * has been listed).
+ * <p>
+ * See {@link TransferManager} for more information about creating transfers.
+ * </p>
+ *
+ * @see TransferManager#deletePrefix(String, String)
+ * @see TransferManager#deleteObjects(String, java.util.Iterator)
+ */
+public interface BulkDelete extends Transfer {
+
+    /**
+     * Waits for this delete to complete and returns its result. Be prepared
+     * to handle errors when calling this method. Any errors that stopped the
+     * delete will be re-thrown through this method; objects that individually
+     * couldn't be deleted are listed in the result instead.
+     *
+     * @return The result of this delete.
+     *
+     * @throws AmazonClientException
+     *             If any errors were encountered in the client while making the
+     *             request or handling the response.
+     * @throws AmazonServiceException
+     *             If any errors occurred in Amazon S3 while processing the
+     *             request.
+     * @throws InterruptedException
+     *             If this thread is interrupted while waiting for the delete to
+     *             complete.
+     */
+    public BulkDeleteResult waitForDeleteResult()
+            throws AmazonClientException, AmazonServiceException, InterruptedException;
+}
@@ -18,11 +18,13 @@ import java.io.File;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Stack;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -40,6 +42,8 @@ import com.amazonaws.services.s3.AmazonS3EncryptionClient;
 import com.amazonaws.services.s3.internal.Mimetypes;
 import com.amazonaws.services.s3.internal.ServiceUtils;
 import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.ListMultipartUploadsRequest;
 import com.amazonaws.services.s3.model.ListObjectsRequest;
@@ -52,6 +56,12 @@ import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.amazonaws.services.s3.transfer.Transfer.TransferState;
+import com.amazonaws.services.s3.transfer.internal.BulkDeleteCallable;
+import com.amazonaws.services.s3.transfer.internal.BulkDeleteImpl;
+import com.amazonaws.services.s3.transfer.internal.BulkDeleteMonitor;
+import com.amazonaws.services.s3.transfer.internal.CopyCallable;
+import com.amazonaws.services.s3.transfer.internal.CopyImpl;
+import com.amazonaws.services.s3.transfer.internal.CopyMonitor;
 import com.amazonaws.services.s3.transfer.internal.DownloadImpl;
 import com.amazonaws.services.s3.transfer.internal.DownloadMonitor;
 import com.amazonaws.services.s3.transfer.internal.MultipleFileDownloadImpl;
@@ -66,6 +76,7 @@ import com.amazonaws.services.s3.transfer.internal.TransferStateChangeListener;
 import com.amazonaws.services.s3.transfer.internal.UploadCallable;
 import com.amazonaws.services.s3.transfer.internal.UploadImpl;
 import com.amazonaws.services.s3.transfer.internal.UploadMonitor;
+import com.amazonaws.services.s3.transfer.model.BulkDeleteResult;
 import com.amazonaws.util.VersionInfoUtils;
 
 /**
@@ -539,6 +550,170 @@ public class TransferManager {
         return download;
     }
 
+    /**
+     * Schedules a new transfer to copy an object within Amazon S3. This method
+     * is non-blocking and returns immediately (i.e. before the copy has
+     * finished).
+     * <p>
+     * Use the returned Copy object to query the progress of the transfer,
+     * add listeners for progress events, and wait for the copy to complete.
+     *
+     * @param sourceBucketName
+     *            The name of the bucket containing the object to copy.
+     * @param sourceKey
+     *            The key of the object to copy.
+     * @param destinationBucketName
+     *            The name of the bucket to copy the object to.
+     * @param destinationKey
+     *            The key to store the copy under.
+     *
+     * @return A new <code>Copy</code> object to use to check the state of the
+     *         copy, listen for progress notifications, and otherwise manage
+     *         the copy.
+     *
+     * @throws AmazonClientException
+     *             If any errors are encountered in the client while making the
+     *             request or handling the response.
+     * @throws AmazonServiceException
+     *             If any errors occurred in Amazon S3 while processing the
+     *             request.
+     */
+    public Copy copy(String sourceBucketName, String sourceKey,
+            String destinationBucketName, String destinationKey)
+        throws AmazonServiceException, AmazonClientException {
+        return copy(new CopyObjectRequest(sourceBucketName, sourceKey, destinationBucketName, destinationKey));
+    }
+
+    /**
+     * Schedules a new transfer to copy an object within Amazon S3. This method
+     * is non-blocking and returns immediately (i.e. before the copy has
+     * finished).
+     * <p>
+     * Objects larger than the configured multipart copy threshold are copied
+     * as a multipart upload, with each part copied by Amazon S3 in parallel
+     * using the transfer manager's thread pool. Since the data never leaves
+     * Amazon S3, this is much faster than downloading and uploading the
+     * object again, and allows objects larger than 5GB to be copied.
+     * <p>
+     * Use the returned Copy object to query the progress of the transfer,
+     * add listeners for progress events, and wait for the copy to complete.
+     *
+     * @param copyObjectRequest
+     *            The request containing all the parameters for the copy.
+     *
+     * @return A new <code>Copy</code> object to use to check the state of the
+     *         copy, listen for progress notifications, and otherwise manage
+     *         the copy.
+     *
+     * @throws AmazonClientException
+     *             If any errors are encountered in the client while making the
+     *             request or handling the response.
+     * @throws AmazonServiceException
+     *             If any errors occurred in Amazon S3 while processing the
+     *             request.
+     */
+    public Copy copy(final CopyObjectRequest copyObjectRequest)
+        throws AmazonServiceException, AmazonClientException {
+
+        appendUserAgent(copyObjectRequest, USER_AGENT);
+
+        String description = "Copying from " + copyObjectRequest.getSourceBucketName() + "/" + copyObjectRequest.getSourceKey()
+                + " to " + copyObjectRequest.getDestinationBucketName() + "/" + copyObjectRequest.getDestinationKey();
+        TransferProgressImpl transferProgress = new TransferProgressImpl();
+
+        ProgressListenerChain listenerChain = new ProgressListenerChain(new TransferProgressUpdatingListener(
+                transferProgress));
+
+        CopyImpl copy = new CopyImpl(description, transferProgress, listenerChain, null);
+
+        CopyCallable copyCallable = new CopyCallable(this, threadPool, copy, copyObjectRequest, transferProgress, listenerChain);
+        CopyMonitor watcher = new CopyMonitor(this, copy, threadPool, copyCallable, copyObjectRequest, listenerChain);
+        watcher.setTimedThreadPool(timedThreadPool);
+        copy.setMonitor(watcher);
+
+        return copy;
+    }
+
+    /**
+     * Schedules a new transfer to delete all the objects in an Amazon S3
+     * bucket whose keys begin with the specified prefix. This method is
+     * non-blocking and returns immediately (i.e. before the objects have been
+     * deleted).
+     * <p>
+     * The prefix is listed a page at a time while the objects from earlier
+     * pages are deleted concurrently, up to a thousand at a time, using the
+     * transfer manager's thread pool. Objects that Amazon S3 reports it
+     * couldn't delete because of a transient error are retried; objects that
+     * still couldn't be deleted are listed in the result.
+     * <p>
+     * Use the returned BulkDelete object to query the progress of the
+     * transfer, add listeners for progress events, and wait for the delete to
+     * complete.
+     *
+     * @param bucketName
+     *            The name of the bucket containing the objects to delete.
+     * @param keyPrefix
+     *            The key prefix of the objects to delete.
+     *
+     * @return A new <code>BulkDelete</code> object to use to check the state
+     *         of the delete, listen for progress notifications, and otherwise
+     *         manage the delete.
+     */
+    public BulkDelete deletePrefix(String bucketName, String keyPrefix) {
+        ListObjectsRequest listObjectsRequest = new ListObjectsRequest()
+            .withBucketName(bucketName)
+            .withPrefix(keyPrefix);
+        appendUserAgent(listObjectsRequest, USER_AGENT);
+
+        return deleteObjects(bucketName, BulkDeleteCallable.batchesForPrefix(s3, listObjectsRequest),
+                "Deleting objects from " + bucketName + "/" + keyPrefix);
+    }
+
+    /**
+     * Schedules a new transfer to delete the objects with the specified keys
+     * from an Amazon S3 bucket. This method is non-blocking and returns
+     * immediately (i.e. before the objects have been deleted).
+     * <p>
+     * Keys are read from the iterator on a transfer manager thread, while the
+     * keys already read are deleted concurrently, up to a thousand at a time.
+     * Objects that Amazon S3 reports it couldn't delete because of a transient
+     * error are retried; objects that still couldn't be deleted are listed in
+     * the result.
+     * <p>
+     * Use the returned BulkDelete object to query the progress of the
+     * transfer, add listeners for progress events, and wait for the delete to
+     * complete.
+     *
+     * @param bucketName
+     *            The name of the bucket containing the objects to delete.
+     * @param keys
+     *            The keys of the objects to delete.
+     *
+     * @return A new <code>BulkDelete</code> object to use to check the state
+     *         of the delete, listen for progress notifications, and otherwise
+     *         manage the delete.
+     */
+    public BulkDelete deleteObjects(String bucketName, Iterator<String> keys) {
+        return deleteObjects(bucketName, BulkDeleteCallable.batchesForKeys(keys),
+                "Deleting objects from " + bucketName);
+    }
+
+    private BulkDelete deleteObjects(String bucketName, Iterator<List<KeyVersion>> batches, String description) {
+        TransferProgressImpl transferProgress = new TransferProgressImpl();
+        ProgressListenerChain listenerChain = new ProgressListenerChain(new TransferProgressUpdatingListener(
+                transferProgress));
+
+        BulkDeleteImpl bulkDelete = new BulkDeleteImpl(description, transferProgress, listenerChain);
+        BulkDeleteCallable bulkDeleteCallable = new BulkDeleteCallable(s3, threadPool, bulkDelete,
+                bucketName, batches, threadPool.getMaximumPoolSize(), transferProgress, listenerChain);
+
+        FutureTask<BulkDeleteResult> future = new FutureTask<BulkDeleteResult>(bulkDeleteCallable);
+        bulkDelete.setMonitor(new BulkDeleteMonitor(bulkDelete, future));
+        threadPool.execute(future);
+
+        return bulkDelete;
+    }
+
     /**
      * Downloads all objects in the virtual directory designated by the
      * keyPrefix given to the destination directory given. All virtual
@@ -33,6 +33,15 @@ public class TransferManagerConfiguration {
     /** Default size threshold for when to use multipart uploads.  */
     private static final int DEFAULT_MULTIPART_UPLOAD_THRESHOLD = 16 * MB;
 
+    /** Default part size for multipart copies. */
+    private static final long DEFAULT_MULTIPART_COPY_PART_SIZE = 100 * MB;
+
+    /** Smallest part size Amazon S3 allows for any part but the last. */
+    private static final long MINIMUM_MULTIPART_COPY_PART_SIZE = 5 * MB;
+
+    /** Default size threshold for when to use multipart copies. */
+    private static final long DEFAULT_MULTIPART_COPY_THRESHOLD = 5 * GB;
+
     
     /**
      * The minimum part size for upload parts. Decreasing the minimum part size
@@ -57,6 +66,19 @@ public class TransferManagerConfiguration {
      */
     private int multipartUploadThreshold = DEFAULT_MULTIPART_UPLOAD_THRESHOLD;
 
+    /**
+     * The part size, in bytes, for copy parts. Each part is copied by Amazon
+     * S3 with a separate request, and parts are copied in parallel.
+     */
+    private long multipartCopyPartSize = DEFAULT_MULTIPART_COPY_PART_SIZE;
+
+    /**
+     * The size threshold, in bytes, for when to copy objects with a multipart
+     * upload of copied parts. Objects larger than 5GB can't be copied with a
+     * single request, so this threshold can't be set higher than that.
+     */
+    private long multipartCopyThreshold = DEFAULT_MULTIPART_COPY_THRESHOLD;
+
     
     /**
      * Returns the minimum part size for upload parts. 
@@ -124,4 +146,57 @@ public class TransferManagerConfiguration {
     public void setMultipartUploadThreshold(int multipartUploadThreshold) {
         this.multipartUploadThreshold = multipartUploadThreshold;
     }
+
+    /**
+     * Returns the part size in bytes for copy parts. Objects copied in parts
+     * are split into parts of this size, which Amazon S3 copies in parallel.
+     *
+     * @return The part size in bytes for copy parts.
+     */
+    public long getMultipartCopyPartSize() {
+        return multipartCopyPartSize;
+    }
+
+    /**
+     * Sets the part size in bytes for copy parts. Objects copied in parts are
+     * split into parts of this size, which Amazon S3 copies in parallel.
+     * Parts are made larger if needed to keep within the maximum number of
+     * parts in a multipart upload. Sizes below the 5MB minimum part size of
+     * Amazon S3 are raised to 5MB.
+     *
+     * @param multipartCopyPartSize
+     *            The part size in bytes for copy parts.
+     */
+    public void setMultipartCopyPartSize(long multipartCopyPartSize) {
+        this.multipartCopyPartSize = Math.max(multipartCopyPartSize, MINIMUM_MULTIPART_COPY_PART_SIZE);
+    }
+
+    /**
+     * Returns the size threshold in bytes for when to use multipart copies.
+     * Objects over this size are copied in parts, in parallel, while smaller
+     * objects are copied with a single request.
+     *
+     * @return The size threshold in bytes for when to use multipart copies.
+     */
+    public long getMultipartCopyThreshold() {
+        return multipartCopyThreshold;
+    }
+
+    /**
+     * Sets the size threshold in bytes for when to use multipart copies.
+     * Objects over this size are copied in parts, in parallel, while smaller
+     * objects are copied with a single request. Amazon S3 can't copy objects
+     * larger than 5GB with a single request, so larger thresholds aren't
+     * allowed.
+     *
+     * @param multipartCopyThreshold
+     *            The size threshold in bytes for when to use multipart
+     *            copies.
+     */
+    public void setMultipartCopyThreshold(long multipartCopyThreshold) {
+        if (multipartCopyThreshold > DEFAULT_MULTIPART_COPY_THRESHOLD) {
+            throw new IllegalArgumentException("Objects larger than 5GB must be copied in parts");
+        }
+        this.multipartCopyThreshold = multipartCopyThreshold;
+    }
 }
@@ -47,10 +47,11 @@ public abstract class TransferProgress {
      * number of bytes to transfer.
      *
      * @return A percentage of the number of bytes transfered out of the total
-     *         number of bytes to transfer.
+     *         number of bytes to transfer, or 0 if the total isn't known
+     *         yet.
      */
     public synchronized double getPercentTransfered() {
-        if (getBytesTransfered() < 0) return 0;
+        if (getBytesTransfered() < 0 || getTotalBytesToTransfer() <= 0) return 0;
 
         return ((double)getBytesTransfered() / (double)getTotalBytesToTransfer()) * (double)100;
     }
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2013 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazonaws.services.s3.transfer.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException.DeleteError;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ProgressEvent;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.transfer.Transfer.TransferState;
+import com.amazonaws.services.s3.transfer.model.BulkDeleteResult;
+
+/**
+ * Deletes batches of up to 1000 keys with multi-object delete requests. The
+ * keys to delete are gathered on the calling thread (for example by listing a
+ * prefix) while earlier batches are deleted concurrently on the thread pool.
+ * <p>
+ * Keys that Amazon S3 fails to delete with a transient error are retried in a
+ * smaller batch of just the failed keys; keys that still can't be deleted are
+ * reported in the result.
+ * <p>
+ * When the maximum number of batches are already in progress, the next batch
+ * is deleted on the calling thread instead of waiting, and batches still
+ * queued behind other work at the end are run on the calling thread too, so
+ * a bulk delete can't deadlock the thread pool it is running on.
+ */
+public class BulkDeleteCallable implements Callable<BulkDeleteResult> {
+
+    /** The maximum number of keys in a single multi-object delete request. */
+    private static final int MAX_KEYS_PER_REQUEST = 1000;
+
+    /** The number of times keys that fail with a transient error are retried. */
+    private static final int MAX_KEY_RETRIES = 3;
+
+    /** Base delay, in milliseconds, before retrying failed keys. */
+    private static final int RETRY_BASE_DELAY = 100;
+
+    private final AmazonS3 s3;
+    private final ExecutorService threadPool;
+    private final String bucketName;
+    private final Iterator<List<KeyVersion>> batches;
+    private final BulkDeleteImpl bulkDelete;
+    private final ProgressListenerChain progressListenerChain;
+    private final TransferProgressImpl transferProgress;
+    private final Semaphore inflightBatches;
+
+    private final AtomicLong deletedCount = new AtomicLong(0);
+
+    /** The number of keys read from the batches so far. */
+    private long keyCount = 0;
+    private final List<DeleteError> errors = Collections.synchronizedList(new ArrayList<DeleteError>());
+
+    public BulkDeleteCallable(AmazonS3 s3, ExecutorService threadPool, BulkDeleteImpl bulkDelete,
+            String bucketName, Iterator<List<KeyVersion>> batches, int concurrency,
+            TransferProgressImpl transferProgress, ProgressListenerChain progressListenerChain) {
+        this.s3 = s3;
+        this.threadPool = threadPool;
+        this.bulkDelete = bulkDelete;
+        this.bucketName = bucketName;
+        this.batches = batches;
+        this.inflightBatches = new Semaphore(concurrency);
+        this.transferProgress = transferProgress;
+        this.progressListenerChain = progressListenerChain;
+    }
+
+    public BulkDeleteResult call() throws Exception {
+        bulkDelete.setState(TransferState.InProgress);
+        transferProgress.setTotalBytesToTransfer(0);
+        fireProgressEvent(ProgressEvent.STARTED_EVENT_CODE);
+
+        List<FutureTask<Object>> tasks = new ArrayList<FutureTask<Object>>();
+        try {
+            while (batches.hasNext()) {
+                if (threadPool.isShutdown()) throw new CancellationException("TransferManager has been shutdown");
+                List<KeyVersion> batch = batches.next();
+                if (batch.isEmpty()) continue;
+
+                // Progress is counted in objects, so the total grows as keys are read
+                keyCount += batch.size();
+                transferProgress.setTotalBytesToTransfer(keyCount);
+
+                if (inflightBatches.tryAcquire()) {
+                    FutureTask<Object> task = new FutureTask<Object>(new DeleteBatchCallable(batch));
+                    tasks.add(task);
+                    threadPool.execute(task);
+                } else {
+                    deleteBatch(batch);
+                }
+                reapCompletedTasks(tasks);
+            }
+
+            // Run any batches still queued behind other work ourselves; a
+            // task that has already started or finished won't run again.
+            for (FutureTask<Object> task : tasks) {
+                task.run();
+                getResult(task);
+            }
+        } catch (Exception e) {
+            for (FutureTask<Object> task : tasks) {
+                task.cancel(false);
+            }
+            if (e instanceof CancellationException) {
+                bulkDelete.setState(TransferState.Canceled);
+                fireProgressEvent(ProgressEvent.CANCELED_EVENT_CODE);
+            } else {
+                bulkDelete.setState(TransferState.Failed);
+                fireProgressEvent(ProgressEvent.FAILED_EVENT_CODE);
+            }
+            throw e;
+        }
+
+        BulkDeleteResult result = new BulkDeleteResult();
+        result.setBucketName(bucketName);
+        result.setDeletedCount(deletedCount.get());
+        synchronized (errors) {
+            result.setErrors(new ArrayList<DeleteError>(errors));
+        }
+
+        bulkDelete.setState(TransferState.Completed);
+        fireProgressEvent(ProgressEvent.COMPLETED_EVENT_CODE);
+        return result;
+    }
+
+    /**
+     * Removes finished batches from the list, failing fast if any of them
+     * failed.
+     */
+    private void reapCompletedTasks(List<FutureTask<Object>> tasks) throws Exception {
+        for (Iterator<FutureTask<Object>> iterator = tasks.iterator(); iterator.hasNext();) {
+            FutureTask<Object> task = iterator.next();
+            if (task.isDone()) {
+                getResult(task);
+                iterator.remove();
+            }
+        }
+    }
+
+    private void getResult(FutureTask<Object> task) throws Exception {
+        try {
+            task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception)cause;
+            throw new AmazonClientException("Unable to delete objects: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Deletes one batch of keys, retrying the keys that fail with a transient
+     * error.
+     */
+    private void deleteBatch(List<KeyVersion> keys) throws InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            DeleteObjectsRequest request = new DeleteObjectsRequest(bucketName)
+                .withKeys(keys)
+                .withQuiet(true);
+            try {
+                s3.deleteObjects(request);
+                objectsDeleted(keys.size());
+                return;
+            } catch (MultiObjectDeleteException e) {
+                List<KeyVersion> retryKeys = new ArrayList<KeyVersion>();
+                for (DeleteError error : e.getErrors()) {
+                    if (attempt < MAX_KEY_RETRIES && isRetryable(error)) {
+                        retryKeys.add(new KeyVersion(error.getKey(), error.getVersionId()));
+                    } else {
+                        errors.add(error);
+                    }
+                }
+                objectsDeleted(keys.size() - e.getErrors().size());
+
+                if (retryKeys.isEmpty()) return;
+                keys = retryKeys;
+                Thread.sleep(RETRY_BASE_DELAY << attempt);
+            }
+        }
+    }
+
+    /**
+     * Returns true if Amazon S3 may be able to delete the key on a later
+     * attempt.
+     */
+    private static boolean isRetryable(DeleteError error) {
+        String code = error.getCode();
+        return "InternalError".equals(code)
+            || "SlowDown".equals(code)
+            || "ServiceUnavailable".equals(code);
+    }
+
+    private void objectsDeleted(int count) {
+        deletedCount.addAndGet(count);
+        if (progressListenerChain != null && count > 0) {
+            progressListenerChain.progressChanged(new ProgressEvent(count));
+        }
+    }
+
+    private void fireProgressEvent(int eventType) {
+        if (progressListenerChain == null) return;
+        ProgressEvent event = new ProgressEvent(0);
+        event.setEventCode(eventType);
+        progressListenerChain.progressChanged(event);
+    }
+
+    private class DeleteBatchCallable implements Callable<Object> {
+        private final List<KeyVersion> keys;
+
+        DeleteBatchCallable(List<KeyVersion> keys) {
+            this.keys = keys;
+        }
+
+        public Object call() throws Exception {
+            try {
+                deleteBatch(keys);
+                return null;
+            } finally {
+                inflightBatches.release();
+            }
+        }
+    }
+
+    /**
+     * Returns batches of the keys under the specified prefix, one batch for
+     * each page of the listing. Pages are listed as the batches are needed.
+     */
+    public static Iterator<List<KeyVersion>> batchesForPrefix(final AmazonS3 s3, final ListObjectsRequest listObjectsRequest) {
+        return new Iterator<List<KeyVersion>>() {
+            private ObjectListing listing = null;
+
+            public boolean hasNext() {
+                return listing == null || listing.isTruncated();
+            }
+
+            public List<KeyVersion> next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                listing = (listing == null) ? s3.listObjects(listObjectsRequest) : s3.listNextBatchOfObjects(listing);
+
+                List<KeyVersion> keys = new ArrayList<KeyVersion>(listing.getObjectSummaries().size());
+                for (S3ObjectSummary summary : listing.getObjectSummaries()) {
+                    keys.add(new KeyVersion(summary.getKey()));
+                }
+                return keys;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Returns batches of up to 1000 of the specified keys, read from the key
+     * iterator as the batches are needed.
+     */
+    public static Iterator<List<KeyVersion>> batchesForKeys(final Iterator<String> keys) {
+        return new Iterator<List<KeyVersion>>() {
+            public boolean hasNext() {
+                return keys.hasNext();
+            }
+
+            public List<KeyVersion> next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                List<KeyVersion> batch = new ArrayList<KeyVersion>(MAX_KEYS_PER_REQUEST);
+                while (keys.hasNext() && batch.size() < MAX_KEYS_PER_REQUEST) {
+                    batch.add(new KeyVersion(keys.next()));
+                }
+                return batch;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazonaws.services.s3.transfer.internal;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.transfer.BulkDelete;
+import com.amazonaws.services.s3.transfer.model.BulkDeleteResult;
+
+public class BulkDeleteImpl extends AbstractTransfer implements BulkDelete {
+
+    public BulkDeleteImpl(String description, TransferProgressImpl transferProgressInternalState,
+            ProgressListenerChain progressListenerChain) {
+        super(description, transferProgressInternalState, progressListenerChain);
+    }
+
+    /**
+     * Waits for this delete to complete and returns its result. Be prepared
+     * to handle errors when calling this method. Any errors that stopped the
+     * delete will be re-thrown through this method; objects that individually
+     * couldn't be deleted are listed in the result instead.
+     *
+     * @return The result of this delete.
+     *
+     * @throws AmazonClientException
+     *             If any errors were encountered in the client while making the
+     *             request or handling the response.
+     * @throws AmazonServiceException
+     *             If any errors occurred in Amazon S3 while processing the
+     *             request.
+     * @throws InterruptedException
+     *             If this thread is interrupted while waiting for the delete to
+     *             complete.
+     */
+    public BulkDeleteResult waitForDeleteResult()
+            throws AmazonClientException, AmazonServiceException, InterruptedException {
+        try {
+            Future<?> f = monitor.getFuture();
+            return (BulkDeleteResult)f.get();
+        } catch (ExecutionException e) {
+            rethrowExecutionException(e);
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2013 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazonaws.services.s3.transfer.internal;
+
+import java.util.concurrent.Future;
+
+public class BulkDeleteMonitor implements TransferMonitor {
+
+    private final Future<?> future;
+    private final BulkDeleteImpl bulkDelete;
+
+    public BulkDeleteMonitor(BulkDeleteImpl bulkDelete, Future<?> future) {
+        this.bulkDelete = bulkDelete;
+        this.future = future;
+    }
+
+    @Override
+    public Future<?> getFuture() {
+        return future;
+    }
+
+    @Override
+    public boolean isDone() {
+        return bulkDelete.isDone();
+    }
+}
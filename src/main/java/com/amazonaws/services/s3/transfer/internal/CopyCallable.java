@@ -0,0 +1,257 @@
+/*
+ * Copyright 2013 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazonaws.services.s3.transfer.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyObjectResult;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.ProgressEvent;
+import com.amazonaws.services.s3.model.StorageClass;
+import com.amazonaws.services.s3.transfer.Transfer.TransferState;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerConfiguration;
+import com.amazonaws.services.s3.transfer.model.CopyResult;
+
+/**
+ * Copies an object with a single copy request, or starts a multipart upload
+ * and submits a copy request for each of its parts to the thread pool, so
+ * that Amazon S3 copies the parts in parallel.
+ */
+public class CopyCallable implements Callable<CopyResult> {
+    private final AmazonS3 s3;
+    private final ExecutorService threadPool;
+    private final CopyObjectRequest copyObjectRequest;
+    private final TransferProgressImpl transferProgress;
+    private ObjectMetadata sourceMetadata;
+    private String multipartUploadId;
+    private final CopyImpl copy;
+
+    private static final Log log = LogFactory.getLog(CopyCallable.class);
+    private final TransferManagerConfiguration configuration;
+    private final ProgressListenerChain progressListenerChain;
+    private final List<Future<PartETag>> futures = new ArrayList<Future<PartETag>>();
+
+    public CopyCallable(TransferManager transferManager, ExecutorService threadPool, CopyImpl copy,
+            CopyObjectRequest copyObjectRequest, TransferProgressImpl transferProgress,
+            ProgressListenerChain progressListenerChain) {
+        this.s3 = transferManager.getAmazonS3Client();
+        this.configuration = transferManager.getConfiguration();
+
+        this.threadPool = threadPool;
+        this.copyObjectRequest = copyObjectRequest;
+        this.transferProgress = transferProgress;
+        this.progressListenerChain = progressListenerChain;
+        this.copy = copy;
+    }
+
+    List<Future<PartETag>> getFutures() {
+        return futures;
+    }
+
+    String getMultipartUploadId() {
+        return multipartUploadId;
+    }
+
+    /**
+     * Returns true if the object is copied in parts. Only known once the
+     * source object has been sized by {@link #call()}.
+     */
+    public boolean isMultipartCopy() {
+        return sourceMetadata != null && TransferManagerUtils.shouldUseMultipartCopy(sourceMetadata, configuration);
+    }
+
+    public CopyResult call() throws Exception {
+        copy.setState(TransferState.InProgress);
+        fireProgressEvent(ProgressEvent.STARTED_EVENT_CODE);
+
+        // Sized here rather than in TransferManager.copy, so that scheduling
+        // a copy doesn't block the caller on a request to Amazon S3
+        GetObjectMetadataRequest getObjectMetadataRequest = new GetObjectMetadataRequest(
+                copyObjectRequest.getSourceBucketName(), copyObjectRequest.getSourceKey(),
+                copyObjectRequest.getSourceVersionId());
+        getObjectMetadataRequest.getRequestClientOptions().addClientMarker(
+                copyObjectRequest.getRequestClientOptions().getClientMarker());
+        sourceMetadata = s3.getObjectMetadata(getObjectMetadataRequest);
+        transferProgress.setTotalBytesToTransfer(sourceMetadata.getContentLength());
+
+        if ( isMultipartCopy() ) {
+            copyInParts();
+            return null;
+        } else {
+            return copyInOneChunk();
+        }
+    }
+
+    private CopyResult copyInOneChunk() {
+        CopyObjectResult copyObjectResult = s3.copyObject(copyObjectRequest);
+        if (copyObjectResult == null) {
+            throw new AmazonClientException("The copy constraints specified for the source object were not met");
+        }
+        fireProgressEvent(sourceMetadata.getContentLength());
+
+        CopyResult copyResult = new CopyResult();
+        copyResult.setSourceBucketName(copyObjectRequest.getSourceBucketName());
+        copyResult.setSourceKey(copyObjectRequest.getSourceKey());
+        copyResult.setDestinationBucketName(copyObjectRequest.getDestinationBucketName());
+        copyResult.setDestinationKey(copyObjectRequest.getDestinationKey());
+        copyResult.setETag(copyObjectResult.getETag());
+        copyResult.setVersionId(copyObjectResult.getVersionId());
+        return copyResult;
+    }
+
+    private void copyInParts() throws Exception {
+        long contentLength = sourceMetadata.getContentLength();
+        long partSize = TransferManagerUtils.calculateOptimalCopyPartSize(contentLength, configuration);
+        log.debug("Calculated optimal part size: " + partSize);
+
+        multipartUploadId = initiateMultipartUpload();
+
+        try {
+            int partNumber = 1;
+            for (long firstByte = 0; firstByte < contentLength; firstByte += partSize) {
+                if (threadPool.isShutdown()) throw new CancellationException("TransferManager has been shutdown");
+                long lastByte = Math.min(firstByte + partSize, contentLength) - 1;
+                CopyPartRequest request = newCopyPartRequest(partNumber++, firstByte, lastByte);
+                futures.add(threadPool.submit(new CopyPartCallable(s3, request, progressListenerChain)));
+            }
+        } catch (Exception e) {
+            fireProgressEvent(ProgressEvent.FAILED_EVENT_CODE);
+
+            try {
+                s3.abortMultipartUpload(new AbortMultipartUploadRequest(
+                        copyObjectRequest.getDestinationBucketName(), copyObjectRequest.getDestinationKey(), multipartUploadId));
+            } catch (Exception e2) {
+                log.info("Unable to abort multipart upload, you may need to manually remove uploaded parts: " + e2.getMessage(), e2);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Creates the request to copy one part. The copy constraints from the
+     * original request are applied to every part; without any, each part is
+     * constrained to the ETag of the source object that was measured, so
+     * that an object that changes mid-copy can't produce a mixed result.
+     */
+    private CopyPartRequest newCopyPartRequest(int partNumber, long firstByte, long lastByte) {
+        CopyPartRequest request = new CopyPartRequest()
+            .withUploadId(multipartUploadId)
+            .withPartNumber(partNumber)
+            .withSourceBucketName(copyObjectRequest.getSourceBucketName())
+            .withSourceKey(copyObjectRequest.getSourceKey())
+            .withSourceVersionId(copyObjectRequest.getSourceVersionId())
+            .withDestinationBucketName(copyObjectRequest.getDestinationBucketName())
+            .withDestinationKey(copyObjectRequest.getDestinationKey())
+            .withFirstByte(firstByte)
+            .withLastByte(lastByte);
+
+        boolean hasConstraints = false;
+        if (copyObjectRequest.getMatchingETagConstraints() != null
+                && !copyObjectRequest.getMatchingETagConstraints().isEmpty()) {
+            request.setMatchingETagConstraints(copyObjectRequest.getMatchingETagConstraints());
+            hasConstraints = true;
+        }
+        if (copyObjectRequest.getNonmatchingETagConstraints() != null
+                && !copyObjectRequest.getNonmatchingETagConstraints().isEmpty()) {
+            request.setNonmatchingETagConstraints(copyObjectRequest.getNonmatchingETagConstraints());
+            hasConstraints = true;
+        }
+        if (copyObjectRequest.getModifiedSinceConstraint() != null) {
+            request.setModifiedSinceConstraint(copyObjectRequest.getModifiedSinceConstraint());
+            hasConstraints = true;
+        }
+        if (copyObjectRequest.getUnmodifiedSinceConstraint() != null) {
+            request.setUnmodifiedSinceConstraint(copyObjectRequest.getUnmodifiedSinceConstraint());
+            hasConstraints = true;
+        }
+        if (!hasConstraints && sourceMetadata.getETag() != null) {
+            request.withMatchingETagConstraint(sourceMetadata.getETag());
+        }
+
+        return request;
+    }
+
+    private String initiateMultipartUpload() {
+        ObjectMetadata newObjectMetadata = copyObjectRequest.getNewObjectMetadata();
+        if (newObjectMetadata == null) {
+            newObjectMetadata = copySourceMetadata();
+        }
+
+        InitiateMultipartUploadRequest initiateMultipartUploadRequest =
+            new InitiateMultipartUploadRequest(copyObjectRequest.getDestinationBucketName(), copyObjectRequest.getDestinationKey())
+                .withCannedACL(copyObjectRequest.getCannedAccessControlList())
+                .withAccessControlList(copyObjectRequest.getAccessControlList())
+                .withObjectMetadata(newObjectMetadata);
+
+        if (copyObjectRequest.getStorageClass() != null) {
+            initiateMultipartUploadRequest.setStorageClass(
+                    StorageClass.fromValue(copyObjectRequest.getStorageClass()));
+        }
+
+        String uploadId = s3.initiateMultipartUpload(initiateMultipartUploadRequest).getUploadId();
+        log.debug("Initiated new multipart upload: " + uploadId);
+
+        return uploadId;
+    }
+
+    /**
+     * Returns the metadata a single copy request would have carried over from
+     * the source object, leaving out headers that describe the source object
+     * itself (such as its length, ETag and modification time).
+     */
+    private ObjectMetadata copySourceMetadata() {
+        ObjectMetadata metadata = new ObjectMetadata();
+        if (sourceMetadata.getContentType() != null) metadata.setContentType(sourceMetadata.getContentType());
+        if (sourceMetadata.getContentEncoding() != null) metadata.setContentEncoding(sourceMetadata.getContentEncoding());
+        if (sourceMetadata.getContentDisposition() != null) metadata.setContentDisposition(sourceMetadata.getContentDisposition());
+        if (sourceMetadata.getCacheControl() != null) metadata.setCacheControl(sourceMetadata.getCacheControl());
+        if (sourceMetadata.getServerSideEncryption() != null) metadata.setServerSideEncryption(sourceMetadata.getServerSideEncryption());
+        metadata.setUserMetadata(sourceMetadata.getUserMetadata());
+        return metadata;
+    }
+
+    private void fireProgressEvent(int eventType) {
+        if (progressListenerChain == null) return;
+        ProgressEvent event = new ProgressEvent(0);
+        event.setEventCode(eventType);
+        progressListenerChain.progressChanged(event);
+    }
+
+    private void fireProgressEvent(long bytesTransferred) {
+        if (progressListenerChain == null) return;
+        while (bytesTransferred > 0) {
+            int bytes = (int)Math.min(bytesTransferred, Integer.MAX_VALUE);
+            progressListenerChain.progressChanged(new ProgressEvent(bytes));
+            bytesTransferred -= bytes;
+        }
+    }
+}
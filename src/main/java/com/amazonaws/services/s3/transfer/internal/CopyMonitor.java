@@ -0,0 +1,264 @@
+/*
+ * Copyright 2013 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazonaws.services.s3.transfer.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.ProgressEvent;
+import com.amazonaws.services.s3.transfer.Transfer.TransferState;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.model.CopyResult;
+
+/**
+ * Manages a copy by periodically checking to see if the copy is done, and
+ * returning a result if so. Otherwise, schedules a copy of itself to be run in
+ * the future and returns null. When waiting on the result of this class via a
+ * Future object, clients must call {@link CopyMonitor#isDone()} and
+ * {@link CopyMonitor#getFuture()}
+ */
+public class CopyMonitor implements Callable<CopyResult>, TransferMonitor {
+
+    private final AmazonS3 s3;
+    private final ExecutorService threadPool;
+    private final CopyObjectRequest copyObjectRequest;
+    private ScheduledExecutorService timedThreadPool;
+
+    private static final Log log = LogFactory.getLog(CopyMonitor.class);
+    private final ProgressListenerChain progressListenerChain;
+    private final CopyCallable multipartCopyCallable;
+    private final CopyImpl transfer;
+
+    /*
+     * State for tracking the copy's progress
+     */
+    private String uploadId;
+    private final List<Future<PartETag>> futures = new ArrayList<Future<PartETag>>();
+
+    /*
+     * State for clients wishing to poll for completion
+     */
+    private boolean isCopyDone = false;
+    private Future<CopyResult> nextFuture;
+
+    public synchronized Future<CopyResult> getFuture() {
+        return nextFuture;
+    }
+
+    private synchronized void setNextFuture(Future<CopyResult> nextFuture) {
+        this.nextFuture = nextFuture;
+    }
+
+    public synchronized boolean isDone() {
+        return isCopyDone;
+    }
+
+    private synchronized void markAllDone() {
+        isCopyDone = true;
+    }
+
+    private int pollInterval = 5000;
+
+    /**
+     * Constructs a new copy watcher, which immediately submits itself to the
+     * thread pool.
+     *
+     * @param manager
+     *            The {@link TransferManager} that owns this copy.
+     * @param transfer
+     *            The transfer being processed.
+     * @param threadPool
+     *            The {@link ExecutorService} to which we should submit new
+     *            tasks.
+     * @param multipartCopyCallable
+     *            The callable responsible for processing the copy
+     *            asynchronously
+     * @param copyObjectRequest
+     *            The original copyObject request
+     * @param progressListenerChain
+     *            A chain of listeners that wish to be notified of copy
+     *            progress
+     */
+    public CopyMonitor(TransferManager manager, CopyImpl transfer, ExecutorService threadPool,
+            CopyCallable multipartCopyCallable, CopyObjectRequest copyObjectRequest,
+            ProgressListenerChain progressListenerChain) {
+
+        this.s3 = manager.getAmazonS3Client();
+
+        this.multipartCopyCallable = multipartCopyCallable;
+        this.threadPool = threadPool;
+        this.copyObjectRequest = copyObjectRequest;
+        this.progressListenerChain = progressListenerChain;
+        this.transfer = transfer;
+
+        setNextFuture(threadPool.submit(this));
+    }
+
+    public void setTimedThreadPool(ScheduledExecutorService timedThreadPool) {
+        this.timedThreadPool = timedThreadPool;
+    }
+
+    @Override
+    public CopyResult call() throws Exception {
+        try {
+            if ( uploadId == null ) {
+                return copy();
+            } else {
+                return poll();
+            }
+        } catch ( CancellationException e ) {
+            transfer.setState(TransferState.Canceled);
+            fireProgressEvent(ProgressEvent.CANCELED_EVENT_CODE);
+            abortMultipartCopy();
+            throw new AmazonClientException("Copy canceled");
+        } catch ( Exception e ) {
+            transfer.setState(TransferState.Failed);
+            fireProgressEvent(ProgressEvent.FAILED_EVENT_CODE);
+            abortMultipartCopy();
+            throw e;
+        }
+    }
+
+    /**
+     * Polls for a result from a multipart copy and either returns it if
+     * complete, or reschedules to poll again later if not.
+     */
+    private CopyResult poll() throws InterruptedException {
+        for ( Future<PartETag> f : futures ) {
+            if ( !f.isDone() ) {
+                reschedule();
+                return null;
+            }
+        }
+
+        for ( Future<PartETag> f : futures ) {
+            if ( f.isCancelled() ) {
+                throw new CancellationException();
+            }
+        }
+
+        return completeMultipartCopy();
+    }
+
+    /**
+     * Initiates the copy and checks on the result. If it has completed,
+     * returns the result; otherwise, reschedules to check back later.
+     */
+    private CopyResult copy() throws Exception, InterruptedException {
+
+        CopyResult result = multipartCopyCallable.call();
+
+        if ( result != null ) {
+            copyComplete();
+        } else {
+            uploadId = multipartCopyCallable.getMultipartUploadId();
+            futures.addAll(multipartCopyCallable.getFutures());
+            reschedule();
+        }
+
+        return result;
+    }
+
+    private void copyComplete() {
+        markAllDone();
+        transfer.setState(TransferState.Completed);
+
+        // Unlike putObject, copyObject fires no events of its own, so both
+        // kinds of copy are completed here
+        fireProgressEvent(ProgressEvent.COMPLETED_EVENT_CODE);
+    }
+
+    private void reschedule()  {
+        setNextFuture(timedThreadPool.schedule(new Callable<CopyResult>() {
+            public CopyResult call() throws Exception {
+                setNextFuture(threadPool.submit(CopyMonitor.this));
+                return null;
+            }
+        }, pollInterval, TimeUnit.MILLISECONDS));
+    }
+
+    private void fireProgressEvent(int eventType) {
+        if (progressListenerChain == null) return;
+        ProgressEvent event = new ProgressEvent(0);
+        event.setEventCode(eventType);
+        progressListenerChain.progressChanged(event);
+    }
+
+    /**
+     * Aborts the multipart upload behind a failed copy, so that the parts
+     * already copied don't continue to be stored.
+     */
+    private void abortMultipartCopy() {
+        if (uploadId == null) return;
+
+        for (Future<PartETag> f : futures) {
+            f.cancel(false);
+        }
+        try {
+            s3.abortMultipartUpload(new AbortMultipartUploadRequest(copyObjectRequest.getDestinationBucketName(),
+                    copyObjectRequest.getDestinationKey(), uploadId));
+        } catch (Exception e) {
+            log.info("Unable to abort multipart upload, you may need to manually remove copied parts: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Completes the multipart copy and returns the result.
+     */
+    private CopyResult completeMultipartCopy() {
+        CompleteMultipartUploadResult completeMultipartUploadResult = s3
+                .completeMultipartUpload(new CompleteMultipartUploadRequest(copyObjectRequest.getDestinationBucketName(),
+                        copyObjectRequest.getDestinationKey(), uploadId, collectPartETags()));
+
+        copyComplete();
+
+        CopyResult copyResult = new CopyResult();
+        copyResult.setSourceBucketName(copyObjectRequest.getSourceBucketName());
+        copyResult.setSourceKey(copyObjectRequest.getSourceKey());
+        copyResult.setDestinationBucketName(completeMultipartUploadResult.getBucketName());
+        copyResult.setDestinationKey(completeMultipartUploadResult.getKey());
+        copyResult.setETag(completeMultipartUploadResult.getETag());
+        copyResult.setVersionId(completeMultipartUploadResult.getVersionId());
+        return copyResult;
+    }
+
+    private List<PartETag> collectPartETags() {
+        final List<PartETag> partETags = new ArrayList<PartETag>(futures.size());
+        for (Future<PartETag> future : futures) {
+            try {
+                partETags.add(future.get());
+            } catch (Exception e) {
+                throw new AmazonClientException("Unable to copy part: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+        return partETags;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazonaws.services.s3.transfer.internal;
+
+import java.util.concurrent.Callable;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.ProgressEvent;
+
+/**
+ * Copies a single part of a multipart copy, and reports the part's bytes as
+ * transferred once Amazon S3 has finished copying them.
+ */
+public class CopyPartCallable implements Callable<PartETag> {
+    private final AmazonS3 s3;
+    private final CopyPartRequest request;
+    private final ProgressListenerChain progressListenerChain;
+
+    public CopyPartCallable(AmazonS3 s3, CopyPartRequest request, ProgressListenerChain progressListenerChain) {
+        this.s3 = s3;
+        this.request = request;
+        this.progressListenerChain = progressListenerChain;
+    }
+
+    public PartETag call() throws Exception {
+        CopyPartResult result = s3.copyPart(request);
+        if (result == null) {
+            throw new AmazonClientException("The source object changed while it was being copied");
+        }
+
+        if (progressListenerChain != null) {
+            long bytes = request.getLastByte() - request.getFirstByte() + 1;
+            while (bytes > 0) {
+                int bytesTransferred = (int)Math.min(bytes, Integer.MAX_VALUE);
+                progressListenerChain.progressChanged(new ProgressEvent(bytesTransferred));
+                bytes -= bytesTransferred;
+            }
+        }
+        return new PartETag(result.getPartNumber(), result.getETag());
+    }
+}
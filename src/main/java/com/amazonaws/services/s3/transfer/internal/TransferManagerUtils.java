@@ -21,6 +21,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.transfer.TransferManagerConfiguration;
 
@@ -54,7 +55,8 @@ public class TransferManagerUtils {
 	 * @param putObjectRequest
 	 *            The request to check.
 	 * @param isUsingEncryption
-	 *            True if the upload is an encrypted upload, otherwise false.
+	 *            True if the upload is encrypted with a cipher mode that
+	 *            chains each part to the part before it, otherwise false.
 	 * 
 	 * @return True if this request can use parallel part uploads for faster
 	 *         uploads.
@@ -129,6 +131,41 @@ public class TransferManagerUtils {
         return (contentLength > configuration.getMultipartUploadThreshold());
     }
 
+    /**
+     * Returns the optimal part size, in bytes, for each individual part copy
+     * in a multipart copy.
+     *
+     * @param contentLength
+     *            The size of the object being copied.
+     * @param configuration
+     *            Configuration values to use when calculating size.
+     *
+     * @return The optimal part size, in bytes, for each individual part copy
+     *         in a multipart copy.
+     */
+    public static long calculateOptimalCopyPartSize(long contentLength, TransferManagerConfiguration configuration) {
+        double optimalPartSize = (double)contentLength / (double)MAXIMUM_UPLOAD_PARTS;
+        // round up so we don't push the copy over the maximum number of parts
+        optimalPartSize = Math.ceil(optimalPartSize);
+        return (long)Math.max(optimalPartSize, configuration.getMultipartCopyPartSize());
+    }
+
+    /**
+     * Returns true if the the specified object should be copied as a
+     * multipart upload of copied parts (instead of a single copy request).
+     *
+     * @param sourceMetadata
+     *            The metadata of the object being copied.
+     * @param configuration
+     *            Configuration settings controlling how transfer manager
+     *            processes requests.
+     *
+     * @return True if the the specified object should be copied in parts.
+     */
+    public static boolean shouldUseMultipartCopy(ObjectMetadata sourceMetadata, TransferManagerConfiguration configuration) {
+        return (sourceMetadata.getContentLength() > configuration.getMultipartCopyThreshold());
+    }
+
     /**
      * Convenience method for getting the file specified in a request.
      */
@@ -114,6 +114,7 @@ public class UploadCallable implements Callable<UploadResult> {
         final String key        = putObjectRequest.getKey();
 
         boolean isUsingEncryption = s3 instanceof AmazonS3EncryptionClient;
+        boolean isUsingChainedEncryption = isUsingEncryption && !((AmazonS3EncryptionClient)s3).isParallelPartUploadSupported();
         long optimalPartSize = getOptimalPartSize(isUsingEncryption);
 
         multipartUploadId = initiateMultipartUpload(putObjectRequest);
@@ -121,7 +122,7 @@ public class UploadCallable implements Callable<UploadResult> {
         try {
             UploadPartRequestFactory requestFactory = new UploadPartRequestFactory(putObjectRequest, multipartUploadId, optimalPartSize);
 
-            if (TransferManagerUtils.isUploadParallelizable(putObjectRequest, isUsingEncryption)) {
+            if (TransferManagerUtils.isUploadParallelizable(putObjectRequest, isUsingChainedEncryption)) {
                 uploadPartsInParallel(requestFactory);
                 return null;
             } else {
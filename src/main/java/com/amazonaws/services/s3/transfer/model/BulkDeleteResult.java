@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazonaws.services.s3.transfer.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.amazonaws.services.s3.model.MultiObjectDeleteException.DeleteError;
+import com.amazonaws.services.s3.transfer.TransferManager;
+
+/**
+ * Contains information returned by Amazon S3 for a completed bulk delete.
+ * <p>
+ * See {@link TransferManager} for more information about creating transfers.
+ *
+ * @see TransferManager#deletePrefix(String, String)
+ * @see TransferManager#deleteObjects(String, java.util.Iterator)
+ */
+public class BulkDeleteResult {
+
+    /** The name of the bucket the objects were deleted from. */
+    private String bucketName;
+
+    /** The number of objects successfully deleted. */
+    private long deletedCount;
+
+    /** The objects that couldn't be deleted, and why. */
+    private List<DeleteError> errors = new ArrayList<DeleteError>();
+
+    /**
+     * Returns the name of the bucket the objects were deleted from.
+     *
+     * @return The name of the bucket the objects were deleted from.
+     */
+    public String getBucketName() {
+        return bucketName;
+    }
+
+    /**
+     * Sets the name of the bucket the objects were deleted from.
+     *
+     * @param bucketName
+     *            The name of the bucket the objects were deleted from.
+     */
+    public void setBucketName(String bucketName) {
+        this.bucketName = bucketName;
+    }
+
+    /**
+     * Returns the number of objects successfully deleted.
+     *
+     * @return The number of objects successfully deleted.
+     */
+    public long getDeletedCount() {
+        return deletedCount;
+    }
+
+    /**
+     * Sets the number of objects successfully deleted.
+     *
+     * @param deletedCount
+     *            The number of objects successfully deleted.
+     */
+    public void setDeletedCount(long deletedCount) {
+        this.deletedCount = deletedCount;
+    }
+
+    /**
+     * Returns the objects that couldn't be deleted, even after retrying, and
+     * the error Amazon S3 reported for each.
+     *
+     * @return The objects that couldn't be deleted.
+     */
+    public List<DeleteError> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Sets the objects that couldn't be deleted, and the error Amazon S3
+     * reported for each.
+     *
+     * @param errors
+     *            The objects that couldn't be deleted.
+     */
+    public void setErrors(List<DeleteError> errors) {
+        this.errors = errors;
+    }
+}
@@ -21,6 +21,12 @@ import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.mail.Address;
 import javax.mail.Message;
@@ -33,8 +39,14 @@ import javax.mail.event.TransportEvent;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.AmazonWebServiceRequest;
 import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.simpleemail.model.GetSendQuotaRequest;
 import com.amazonaws.services.simpleemail.model.RawMessage;
 import com.amazonaws.services.simpleemail.model.SendRawEmailRequest;
 import com.amazonaws.util.VersionInfoUtils;
@@ -53,23 +65,51 @@ import com.amazonaws.util.VersionInfoUtils;
  * <p>
  * This transport implementation only accepts MIME encoded messages (see
  * MimeMessage class) and RFC822 E-mail addresses (see InternetAddress class).
+ * <p>
+ * By default each message is sent before sendMessage() returns. If the
+ * mail.aws.sendthreads property is set, messages are instead sent in the
+ * background by that many threads, no faster than the maximum send rate of
+ * the account (or mail.aws.maxsendrate, if set). sendMessage() then only
+ * waits when too many messages are already waiting to be sent; the outcome of
+ * each message is reported to the transport listeners, and close() waits for
+ * all messages to be sent, throwing an exception if any couldn't be.
  */
 public class AWSJavaMailTransport extends Transport {
 
 	public static final String AWS_EMAIL_SERVICE_ENDPOINT_PROPERTY = "mail.aws.host";
     public static final String AWS_SECRET_KEY_PROPERTY = "mail.aws.password";
     public static final String AWS_ACCESS_KEY_PROPERTY = "mail.aws.user";
+    public static final String AWS_SEND_THREADS_PROPERTY = "mail.aws.sendthreads";
+    public static final String AWS_MAX_SEND_RATE_PROPERTY = "mail.aws.maxsendrate";
+
+    /** Times a throttled message is retried once the client has given up on it. */
+    private static final int MAX_THROTTLED_RETRIES = 4;
+
+    /** Delay before the first retry of a throttled message, doubled for each retry. */
+    private static final long THROTTLED_RETRY_DELAY_MILLIS = 1000;
+
+    private static final Log log = LogFactory.getLog(AWSJavaMailTransport.class);
 
     private AmazonSimpleEmailServiceClient emailService;
 	private final String accessKey;
 	private final String secretKey;
 	private final String httpsEndpoint;
+	private final int sendThreads;
+	private final double maxSendRate;
+
+	/** Background sending state, only used when mail.aws.sendthreads is set */
+	private ExecutorService sendExecutor;
+	private Semaphore pendingSends;
+	private SendRateLimiter rateLimiter;
+	private final AtomicInteger failedSends = new AtomicInteger();
 
 	public AWSJavaMailTransport(Session session, URLName urlname) {
 		super(session, urlname);
 		this.accessKey = session.getProperty(AWS_ACCESS_KEY_PROPERTY);
 		this.secretKey = session.getProperty(AWS_SECRET_KEY_PROPERTY);
 		this.httpsEndpoint = session.getProperty(AWS_EMAIL_SERVICE_ENDPOINT_PROPERTY);
+		this.sendThreads = (int)parseNumber(session.getProperty(AWS_SEND_THREADS_PROPERTY));
+		this.maxSendRate = parseNumber(session.getProperty(AWS_MAX_SEND_RATE_PROPERTY));
 	}
 
 	/**
@@ -94,7 +134,11 @@ public class AWSJavaMailTransport extends Transport {
 
 		SendRawEmailRequest req = prepareEmail(msg);
 
-		sendEmail(msg, req);
+		if (sendExecutor != null) {
+			sendEmailInBackground(msg, req);
+		} else {
+			sendEmail(msg, req);
+		}
 	}
 
 	/**
@@ -256,6 +300,24 @@ public class AWSJavaMailTransport extends Transport {
 	 */
 	private void sendEmail(Message m, SendRawEmailRequest req)
 			throws SendFailedException, MessagingException {
+		sendEmail(this.emailService, m, m.getAllRecipients(), req);
+	}
+
+	/**
+	 * Sends an email using the specified client, retrying it if it's
+	 * throttled, and notifies listeners
+	 *
+	 * @param emailService
+	 *            Client used to send the email
+	 * @param m
+	 *            Message used to notify users
+	 * @param recipients
+	 *            Recipients of the message when it was prepared
+	 * @param req
+	 *            Raw email to be sent
+	 */
+	private void sendEmail(AmazonSimpleEmailServiceClient emailService, Message m, Address[] recipients,
+			SendRawEmailRequest req) throws SendFailedException {
 
 		Address[] sent = null;
 		Address[] unsent = null;
@@ -263,24 +325,125 @@ public class AWSJavaMailTransport extends Transport {
 
 		try {
 		    appendUserAgent(req, USER_AGENT);
-			this.emailService.sendRawEmail(req);
-			sent = m.getAllRecipients();
+			sendRawEmail(emailService, req);
+			sent = recipients;
 			unsent = new Address[0];
 			invalid = new Address[0];
 			super.notifyTransportListeners(TransportEvent.MESSAGE_DELIVERED,
 					sent, unsent, invalid, m);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw notDelivered(m, recipients, e);
 		} catch (Exception e) {
-			sent = new Address[0];
-			unsent = m.getAllRecipients();
-			invalid = new Address[0];
-			super.notifyTransportListeners(
-					TransportEvent.MESSAGE_NOT_DELIVERED, sent, unsent,
-					invalid, m);
-			throw new SendFailedException("Unable to send email", e, sent,
-					unsent, invalid);
+			throw notDelivered(m, recipients, e);
 		}
 	}
 
+	/**
+	 * Notifies listeners that the message wasn't delivered to any of its
+	 * recipients, and returns the exception to report it with
+	 */
+	private SendFailedException notDelivered(Message m, Address[] recipients, Exception e) {
+		Address[] sent = new Address[0];
+		Address[] unsent = recipients;
+		Address[] invalid = new Address[0];
+		super.notifyTransportListeners(
+				TransportEvent.MESSAGE_NOT_DELIVERED, sent, unsent,
+				invalid, m);
+		return new SendFailedException("Unable to send email", e, sent,
+				unsent, invalid);
+	}
+
+	/**
+	 * Sends a raw email no faster than the send rate allows, retrying it with
+	 * increasing delays if it's still throttled after the client's retries.
+	 */
+	private void sendRawEmail(AmazonSimpleEmailServiceClient emailService, SendRawEmailRequest req)
+			throws InterruptedException {
+		for (int retries = 0;; retries++) {
+			if (rateLimiter != null) rateLimiter.acquire();
+			try {
+				emailService.sendRawEmail(req);
+				return;
+			} catch (AmazonServiceException ase) {
+				if (!isThrottlingException(ase) || retries >= MAX_THROTTLED_RETRIES) throw ase;
+				Thread.sleep(THROTTLED_RETRY_DELAY_MILLIS << retries);
+			}
+		}
+	}
+
+	/**
+	 * Queues an email to be sent by the background send threads, waiting
+	 * first if too many emails are already queued. Listeners are notified
+	 * once the email is sent.
+	 */
+	private void sendEmailInBackground(final Message m, final SendRawEmailRequest req)
+			throws MessagingException {
+		final AmazonSimpleEmailServiceClient emailService = this.emailService;
+		// The message may be changed once this method returns
+		final Address[] recipients = m.getAllRecipients();
+
+		try {
+			pendingSends.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MessagingException("Interrupted while waiting to send message", e);
+		}
+		try {
+			sendExecutor.execute(new Runnable() {
+				public void run() {
+					try {
+						sendEmail(emailService, m, recipients, req);
+					} catch (SendFailedException e) {
+						failedSends.incrementAndGet();
+						log.warn("Unable to send email: " + e.getMessage(), e.getNextException());
+					} finally {
+						pendingSends.release();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			pendingSends.release();
+			throw new MessagingException("Transport is closed", e);
+		}
+	}
+
+	/**
+	 * Starts the threads that send emails in the background, limited to the
+	 * configured send rate or, failing that, the account's maximum send rate.
+	 */
+	private void startSendThreads() {
+		double sendRate = this.maxSendRate;
+		if (sendRate <= 0) {
+			try {
+				sendRate = this.emailService.getSendQuota(new GetSendQuotaRequest()).getMaxSendRate();
+			} catch (AmazonClientException ace) {
+				log.warn("Unable to get the maximum send rate; sending without a rate limit", ace);
+			}
+		}
+		this.rateLimiter = (sendRate > 0) ? new SendRateLimiter(sendRate) : null;
+		this.pendingSends = new Semaphore(sendThreads * 2);
+		this.sendExecutor = Executors.newFixedThreadPool(sendThreads);
+	}
+
+	/**
+	 * Waits for the background send threads to send all queued emails, then
+	 * stops them, returning the number of emails that couldn't be sent.
+	 */
+	private int stopSendThreads() {
+		if (sendExecutor == null) return 0;
+
+		sendExecutor.shutdown();
+		try {
+			sendExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			sendExecutor.shutdownNow();
+		}
+		sendExecutor = null;
+		return failedSends.getAndSet(0);
+	}
+
 	/**
 	 * Sets up a new AmazonSimpleEmailServiceClient. This method is typically called
 	 * indirectly from the connect() method and should only be called on
@@ -330,14 +493,21 @@ public class AWSJavaMailTransport extends Transport {
 		} else if (this.httpsEndpoint != null) {
 			this.emailService.setEndpoint(this.httpsEndpoint);
 		}
+		if (sendThreads > 0) {
+			startSendThreads();
+		}
 		super.setConnected(true);
 		return true;
 	}
 
 	@Override
 	public void close() throws MessagingException {
+		int failed = stopSendThreads();
 		super.close();
 		this.emailService = null;
+		if (failed > 0) {
+			throw new MessagingException("Unable to send " + failed + " email(s); see the transport listeners for details");
+		}
 	}
 
 	private static boolean isNullOrEmpty(String s) {
@@ -348,6 +518,53 @@ public class AWSJavaMailTransport extends Transport {
 		return (o == null || o.length == 0);
 	}
 
+	private static double parseNumber(String s) {
+		if (isNullOrEmpty(s)) return 0;
+		try {
+			return Double.parseDouble(s.trim());
+		} catch (NumberFormatException e) {
+			log.warn("Ignoring invalid number: " + s);
+			return 0;
+		}
+	}
+
+	private static boolean isThrottlingException(AmazonServiceException ase) {
+		return "Throttling".equals(ase.getErrorCode());
+	}
+
+	/**
+	 * Token bucket that lets emails be sent no faster than a maximum rate,
+	 * with bursts of up to one second's worth of emails.
+	 */
+	private static class SendRateLimiter {
+		private final double permitsPerNano;
+		private final double maxPermits;
+		private double permits = 1;
+		private long lastRefill = System.nanoTime();
+
+		SendRateLimiter(double permitsPerSecond) {
+			this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+			this.maxPermits = Math.max(1, permitsPerSecond);
+		}
+
+		/**
+		 * Waits until another email may be sent. Callers wait their turn, so
+		 * the lock is held while sleeping.
+		 */
+		synchronized void acquire() throws InterruptedException {
+			while (true) {
+				long now = System.nanoTime();
+				permits = Math.min(maxPermits, permits + (now - lastRefill) * permitsPerNano);
+				lastRefill = now;
+				if (permits >= 1) {
+					permits -= 1;
+					return;
+				}
+				TimeUnit.NANOSECONDS.sleep((long)Math.ceil((1 - permits) / permitsPerNano));
+			}
+		}
+	}
+
     public <X extends AmazonWebServiceRequest> X appendUserAgent(X request, String userAgent) {
         request.getRequestClientOptions().addClientMarker(USER_AGENT);
         return request;
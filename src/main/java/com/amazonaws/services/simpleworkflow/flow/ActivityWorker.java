@@ -22,6 +22,7 @@ import com.amazonaws.services.simpleworkflow.AmazonSimpleWorkflow;
 import com.amazonaws.services.simpleworkflow.flow.generic.ActivityImplementation;
 import com.amazonaws.services.simpleworkflow.flow.pojo.POJOActivityImplementationFactory;
 import com.amazonaws.services.simpleworkflow.flow.worker.GenericActivityWorker;
+import com.amazonaws.services.simpleworkflow.flow.worker.PollMetrics;
 import com.amazonaws.services.simpleworkflow.model.ActivityType;
 
 public class ActivityWorker implements WorkerBase {
@@ -88,6 +89,17 @@ public class ActivityWorker implements WorkerBase {
         genericWorker.setTaskExecutorThreadPoolSize(taskExecutorThreadPoolSize);
     }
 
+    public double getHeartbeatTimeoutFraction() {
+        return genericWorker.getHeartbeatTimeoutFraction();
+    }
+
+    /**
+     * @see GenericActivityWorker#setHeartbeatTimeoutFraction(double)
+     */
+    public void setHeartbeatTimeoutFraction(double heartbeatTimeoutFraction) {
+        genericWorker.setHeartbeatTimeoutFraction(heartbeatTimeoutFraction);
+    }
+
     @Override
     public boolean shutdownAndAwaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
         return genericWorker.shutdownAndAwaitTermination(timeout, unit);
@@ -228,6 +240,24 @@ public class ActivityWorker implements WorkerBase {
         genericWorker.setPollThreadCount(threadCount);
     }
 
+    public int getMinimumPollThreadCount() {
+        return genericWorker.getMinimumPollThreadCount();
+    }
+
+    /**
+     * @see GenericActivityWorker#setMinimumPollThreadCount(int)
+     */
+    public void setMinimumPollThreadCount(int minimumPollThreadCount) {
+        genericWorker.setMinimumPollThreadCount(minimumPollThreadCount);
+    }
+
+    /**
+     * @see GenericActivityWorker#getPollMetrics()
+     */
+    public PollMetrics getPollMetrics() {
+        return genericWorker.getPollMetrics();
+    }
+
     @Override
     public void setDisableTypeRegistrationOnStart(boolean disableTypeRegistrationOnStart) {
         genericWorker.setDisableTypeRegistrationOnStart(disableTypeRegistrationOnStart);
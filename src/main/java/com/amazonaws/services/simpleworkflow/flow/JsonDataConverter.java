@@ -15,14 +15,27 @@
 package com.amazonaws.services.simpleworkflow.flow;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.codehaus.jackson.JsonGenerationException;
 import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.annotate.JsonTypeInfo;
 import org.codehaus.jackson.map.JsonMappingException;
+import org.codehaus.jackson.map.MapperConfig;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectMapper.DefaultTypeResolverBuilder;
 import org.codehaus.jackson.map.ObjectMapper.DefaultTyping;
+import org.codehaus.jackson.map.ObjectReader;
+import org.codehaus.jackson.map.ObjectWriter;
 import org.codehaus.jackson.map.SerializationConfig;
 import org.codehaus.jackson.map.DeserializationConfig;
+import org.codehaus.jackson.map.jsontype.NamedType;
+import org.codehaus.jackson.map.jsontype.TypeIdResolver;
+import org.codehaus.jackson.map.jsontype.impl.ClassNameIdResolver;
+import org.codehaus.jackson.map.type.TypeFactory;
+import org.codehaus.jackson.type.JavaType;
 
 /**
  * Implements conversion through Jackson JSON processor. Consult its
@@ -36,12 +49,62 @@ import org.codehaus.jackson.map.DeserializationConfig;
  * disable polymorphic support as it produces much more concise and portable
  * output.
  * 
+ * <p>
+ * Readers and writers are created from the mapper the first time each value
+ * type is converted and then reused, so the mapper must not be reconfigured
+ * after the converter is first used.
+ * 
  * @author fateev
  */
 public class JsonDataConverter extends DataConverter {
 
+    /**
+     * Default typing that resolves each class name found in the serialized
+     * data only once instead of loading the class by name on every
+     * conversion. Produces exactly the same JSON as
+     * {@link ObjectMapper#enableDefaultTyping(DefaultTyping)}.
+     */
+    private static class CachingTypeResolverBuilder extends DefaultTypeResolverBuilder {
+
+        public CachingTypeResolverBuilder(DefaultTyping typing) {
+            super(typing);
+        }
+
+        @Override
+        protected TypeIdResolver idResolver(MapperConfig<?> config, JavaType baseType, Collection<NamedType> subtypes,
+                boolean forSer, boolean forDeser) {
+            if (_idType == JsonTypeInfo.Id.CLASS) {
+                return new CachingClassNameIdResolver(baseType, config.getTypeFactory());
+            }
+            return super.idResolver(config, baseType, subtypes, forSer, forDeser);
+        }
+    }
+
+    private static class CachingClassNameIdResolver extends ClassNameIdResolver {
+
+        private final ConcurrentMap<String, JavaType> types = new ConcurrentHashMap<String, JavaType>();
+
+        public CachingClassNameIdResolver(JavaType baseType, TypeFactory typeFactory) {
+            super(baseType, typeFactory);
+        }
+
+        @Override
+        public JavaType typeFromId(String id) {
+            JavaType result = types.get(id);
+            if (result == null) {
+                result = super.typeFromId(id);
+                types.put(id, result);
+            }
+            return result;
+        }
+    }
+
     protected final ObjectMapper mapper;
 
+    private final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<Class<?>, ObjectReader>();
+
+    private volatile ObjectWriter writer;
+
     /**
      * Create instance of the converter that uses ObjectMapper with
      * {@link Feature#FAIL_ON_UNKNOWN_PROPERTIES} set to <code>false</code> and
@@ -55,7 +118,8 @@ public class JsonDataConverter extends DataConverter {
 
         // This will allow including type information all non-final types.  This allows correct 
         // serialization/deserialization of generic collections, for example List<MyType>. 
-        mapper.enableDefaultTyping(DefaultTyping.NON_FINAL);
+        mapper.setDefaultTyping(new CachingTypeResolverBuilder(DefaultTyping.NON_FINAL).init(JsonTypeInfo.Id.CLASS, null).inclusion(
+                JsonTypeInfo.As.WRAPPER_ARRAY));
     }
 
     /**
@@ -69,7 +133,7 @@ public class JsonDataConverter extends DataConverter {
     @Override
     public String toData(Object value) throws DataConverterException {
         try {
-            return mapper.writeValueAsString(value);
+            return getWriter().writeValueAsString(value);
         }
         catch (JsonGenerationException e) {
             throwDataConverterException(e, value);
@@ -83,6 +147,24 @@ public class JsonDataConverter extends DataConverter {
         throw new IllegalStateException("not reachable");
     }
 
+    private ObjectWriter getWriter() {
+        ObjectWriter result = writer;
+        if (result == null) {
+            result = mapper.writer();
+            writer = result;
+        }
+        return result;
+    }
+
+    private ObjectReader getReader(Class<?> valueType) {
+        ObjectReader result = readers.get(valueType);
+        if (result == null) {
+            result = mapper.reader(valueType);
+            readers.put(valueType, result);
+        }
+        return result;
+    }
+
     private void throwDataConverterException(Throwable e, Object value) {
         if (value == null) {
             throw new DataConverterException("Failure serializing null value", e);
@@ -93,7 +175,7 @@ public class JsonDataConverter extends DataConverter {
     @Override
     public <T> T fromData(String serialized, Class<T> valueType) throws DataConverterException {
         try {
-            return mapper.readValue(serialized, valueType);
+            return getReader(valueType).<T> readValue(serialized);
         }
         catch (JsonParseException e) {
             throw new DataConverterException(e);
@@ -15,7 +15,9 @@
 package com.amazonaws.services.simpleworkflow.flow;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Contains value that is bound to a currently executing workflow. Has the same
@@ -68,6 +70,55 @@ public class WorkflowExecutionLocal<T> {
         }
     }
 
+    /**
+     * Unbinds the values of all workflow execution locals from the current
+     * thread like {@link #after()}, but returns them so that a decision can
+     * be continued later, possibly by another thread, through
+     * {@link #resume(Object)}. It is not a good idea to call this method from
+     * non framework code.
+     * 
+     * @return the unbound values, to be passed to {@link #resume(Object)}
+     */
+    public static Object suspend() {
+        List<WorkflowExecutionLocal<?>> currentLocals;
+        synchronized (locals) {
+            currentLocals = new ArrayList<WorkflowExecutionLocal<?>>(locals);
+        }
+        // hashCode of a local is the one of its value, so locals are keyed by identity
+        Map<WorkflowExecutionLocal<?>, Wrapper<?>> result = new IdentityHashMap<WorkflowExecutionLocal<?>, Wrapper<?>>();
+        for (WorkflowExecutionLocal<?> local : currentLocals) {
+            Wrapper<?> w = local.value.get();
+            if (w != null) {
+                result.put(local, w);
+            }
+            local.removeAfter();
+        }
+        return result;
+    }
+
+    /**
+     * Binds values unbound by {@link #suspend()} to the current thread. It is
+     * used instead of {@link #before()} when a suspended decision is
+     * continued. It is not a good idea to call this method from non framework
+     * code.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static void resume(Object suspended) {
+        Map<WorkflowExecutionLocal<?>, Wrapper<?>> values = (Map<WorkflowExecutionLocal<?>, Wrapper<?>>) suspended;
+        List<WorkflowExecutionLocal<?>> currentLocals;
+        synchronized (locals) {
+            currentLocals = new ArrayList<WorkflowExecutionLocal<?>>(locals);
+        }
+        for (WorkflowExecutionLocal local : currentLocals) {
+            Wrapper w = values.get(local);
+            if (w == null) {
+                w = new Wrapper();
+                w.wrapped = local.initialValue();
+            }
+            local.set(w);
+        }
+    }
+
     @SuppressWarnings({ "unchecked", "rawtypes" })
     public WorkflowExecutionLocal() {
         Wrapper w = new Wrapper();
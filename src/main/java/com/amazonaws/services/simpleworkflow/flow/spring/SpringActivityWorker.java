@@ -25,6 +25,7 @@ import com.amazonaws.services.simpleworkflow.flow.DataConverter;
 import com.amazonaws.services.simpleworkflow.flow.WorkerBase;
 import com.amazonaws.services.simpleworkflow.flow.pojo.POJOActivityImplementationFactory;
 import com.amazonaws.services.simpleworkflow.flow.worker.GenericActivityWorker;
+import com.amazonaws.services.simpleworkflow.flow.worker.PollMetrics;
 import com.amazonaws.services.simpleworkflow.model.ActivityType;
 
 public class SpringActivityWorker implements WorkerBase, SmartLifecycle {
@@ -160,6 +161,24 @@ public class SpringActivityWorker implements WorkerBase, SmartLifecycle {
     public void setPollThreadCount(int threadCount) {
         genericWorker.setPollThreadCount(threadCount);
     }
+
+    public int getMinimumPollThreadCount() {
+        return genericWorker.getMinimumPollThreadCount();
+    }
+
+    /**
+     * @see GenericActivityWorker#setMinimumPollThreadCount(int)
+     */
+    public void setMinimumPollThreadCount(int minimumPollThreadCount) {
+        genericWorker.setMinimumPollThreadCount(minimumPollThreadCount);
+    }
+
+    /**
+     * @see GenericActivityWorker#getPollMetrics()
+     */
+    public PollMetrics getPollMetrics() {
+        return genericWorker.getPollMetrics();
+    }
     
     public int getTaskExecutorThreadPoolSize() {
         return genericWorker.getTaskExecutorThreadPoolSize();
@@ -168,6 +187,17 @@ public class SpringActivityWorker implements WorkerBase, SmartLifecycle {
     public void setTaskExecutorThreadPoolSize(int taskExecutorThreadPoolSize) {
         genericWorker.setTaskExecutorThreadPoolSize(taskExecutorThreadPoolSize);
     }
+
+    public double getHeartbeatTimeoutFraction() {
+        return genericWorker.getHeartbeatTimeoutFraction();
+    }
+
+    /**
+     * @see GenericActivityWorker#setHeartbeatTimeoutFraction(double)
+     */
+    public void setHeartbeatTimeoutFraction(double heartbeatTimeoutFraction) {
+        genericWorker.setHeartbeatTimeoutFraction(heartbeatTimeoutFraction);
+    }
     
     public boolean isDisableServiceShutdownOnStop() {
         return genericWorker.isDisableServiceShutdownOnStop();
@@ -0,0 +1,2074 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.simpleworkflow.flow.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.ResponseMetadata;
+import com.amazonaws.regions.Region;
+import com.amazonaws.services.simpleworkflow.AmazonSimpleWorkflow;
+import com.amazonaws.services.simpleworkflow.flow.common.FlowConstants;
+import com.amazonaws.services.simpleworkflow.flow.common.FlowHelpers;
+import com.amazonaws.services.simpleworkflow.model.ActivityTask;
+import com.amazonaws.services.simpleworkflow.model.ActivityTaskCancelRequestedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.ActivityTaskCanceledEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.ActivityTaskCompletedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.ActivityTaskFailedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.ActivityTaskScheduledEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.ActivityTaskStartedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.ActivityTaskStatus;
+import com.amazonaws.services.simpleworkflow.model.ActivityType;
+import com.amazonaws.services.simpleworkflow.model.ActivityTypeConfiguration;
+import com.amazonaws.services.simpleworkflow.model.ActivityTypeDetail;
+import com.amazonaws.services.simpleworkflow.model.ActivityTypeInfo;
+import com.amazonaws.services.simpleworkflow.model.ActivityTypeInfos;
+import com.amazonaws.services.simpleworkflow.model.CancelTimerDecisionAttributes;
+import com.amazonaws.services.simpleworkflow.model.CancelTimerFailedCause;
+import com.amazonaws.services.simpleworkflow.model.CancelTimerFailedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.CancelWorkflowExecutionDecisionAttributes;
+import com.amazonaws.services.simpleworkflow.model.CancelWorkflowExecutionFailedCause;
+import com.amazonaws.services.simpleworkflow.model.CancelWorkflowExecutionFailedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.ChildWorkflowExecutionCanceledEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.ChildWorkflowExecutionCompletedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.ChildWorkflowExecutionFailedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.ChildWorkflowExecutionStartedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.ChildWorkflowExecutionTerminatedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.CloseStatus;
+import com.amazonaws.services.simpleworkflow.model.CompleteWorkflowExecutionDecisionAttributes;
+import com.amazonaws.services.simpleworkflow.model.CompleteWorkflowExecutionFailedCause;
+import com.amazonaws.services.simpleworkflow.model.CompleteWorkflowExecutionFailedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.ContinueAsNewWorkflowExecutionDecisionAttributes;
+import com.amazonaws.services.simpleworkflow.model.ContinueAsNewWorkflowExecutionFailedCause;
+import com.amazonaws.services.simpleworkflow.model.ContinueAsNewWorkflowExecutionFailedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.CountClosedWorkflowExecutionsRequest;
+import com.amazonaws.services.simpleworkflow.model.CountOpenWorkflowExecutionsRequest;
+import com.amazonaws.services.simpleworkflow.model.CountPendingActivityTasksRequest;
+import com.amazonaws.services.simpleworkflow.model.CountPendingDecisionTasksRequest;
+import com.amazonaws.services.simpleworkflow.model.Decision;
+import com.amazonaws.services.simpleworkflow.model.DecisionTask;
+import com.amazonaws.services.simpleworkflow.model.DecisionTaskCompletedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.DecisionTaskScheduledEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.DecisionTaskStartedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.DecisionTaskTimedOutEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.DecisionTaskTimeoutType;
+import com.amazonaws.services.simpleworkflow.model.DecisionType;
+import com.amazonaws.services.simpleworkflow.model.DefaultUndefinedException;
+import com.amazonaws.services.simpleworkflow.model.DeprecateActivityTypeRequest;
+import com.amazonaws.services.simpleworkflow.model.DeprecateDomainRequest;
+import com.amazonaws.services.simpleworkflow.model.DeprecateWorkflowTypeRequest;
+import com.amazonaws.services.simpleworkflow.model.DescribeActivityTypeRequest;
+import com.amazonaws.services.simpleworkflow.model.DescribeDomainRequest;
+import com.amazonaws.services.simpleworkflow.model.DescribeWorkflowExecutionRequest;
+import com.amazonaws.services.simpleworkflow.model.DescribeWorkflowTypeRequest;
+import com.amazonaws.services.simpleworkflow.model.DomainAlreadyExistsException;
+import com.amazonaws.services.simpleworkflow.model.DomainConfiguration;
+import com.amazonaws.services.simpleworkflow.model.DomainDetail;
+import com.amazonaws.services.simpleworkflow.model.DomainInfo;
+import com.amazonaws.services.simpleworkflow.model.DomainInfos;
+import com.amazonaws.services.simpleworkflow.model.EventType;
+import com.amazonaws.services.simpleworkflow.model.ExecutionTimeFilter;
+import com.amazonaws.services.simpleworkflow.model.ExecutionStatus;
+import com.amazonaws.services.simpleworkflow.model.ExternalWorkflowExecutionCancelRequestedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.ExternalWorkflowExecutionSignaledEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.FailWorkflowExecutionDecisionAttributes;
+import com.amazonaws.services.simpleworkflow.model.FailWorkflowExecutionFailedCause;
+import com.amazonaws.services.simpleworkflow.model.FailWorkflowExecutionFailedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.GetWorkflowExecutionHistoryRequest;
+import com.amazonaws.services.simpleworkflow.model.History;
+import com.amazonaws.services.simpleworkflow.model.HistoryEvent;
+import com.amazonaws.services.simpleworkflow.model.ListActivityTypesRequest;
+import com.amazonaws.services.simpleworkflow.model.ListClosedWorkflowExecutionsRequest;
+import com.amazonaws.services.simpleworkflow.model.ListDomainsRequest;
+import com.amazonaws.services.simpleworkflow.model.ListOpenWorkflowExecutionsRequest;
+import com.amazonaws.services.simpleworkflow.model.ListWorkflowTypesRequest;
+import com.amazonaws.services.simpleworkflow.model.MarkerRecordedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.PendingTaskCount;
+import com.amazonaws.services.simpleworkflow.model.PollForActivityTaskRequest;
+import com.amazonaws.services.simpleworkflow.model.PollForDecisionTaskRequest;
+import com.amazonaws.services.simpleworkflow.model.RecordActivityTaskHeartbeatRequest;
+import com.amazonaws.services.simpleworkflow.model.RecordMarkerDecisionAttributes;
+import com.amazonaws.services.simpleworkflow.model.RegisterActivityTypeRequest;
+import com.amazonaws.services.simpleworkflow.model.RegisterDomainRequest;
+import com.amazonaws.services.simpleworkflow.model.RegisterWorkflowTypeRequest;
+import com.amazonaws.services.simpleworkflow.model.RegistrationStatus;
+import com.amazonaws.services.simpleworkflow.model.RequestCancelActivityTaskDecisionAttributes;
+import com.amazonaws.services.simpleworkflow.model.RequestCancelActivityTaskFailedCause;
+import com.amazonaws.services.simpleworkflow.model.RequestCancelActivityTaskFailedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.RequestCancelExternalWorkflowExecutionDecisionAttributes;
+import com.amazonaws.services.simpleworkflow.model.RequestCancelExternalWorkflowExecutionFailedCause;
+import com.amazonaws.services.simpleworkflow.model.RequestCancelExternalWorkflowExecutionFailedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.RequestCancelExternalWorkflowExecutionInitiatedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.RequestCancelWorkflowExecutionRequest;
+import com.amazonaws.services.simpleworkflow.model.RespondActivityTaskCanceledRequest;
+import com.amazonaws.services.simpleworkflow.model.RespondActivityTaskCompletedRequest;
+import com.amazonaws.services.simpleworkflow.model.RespondActivityTaskFailedRequest;
+import com.amazonaws.services.simpleworkflow.model.RespondDecisionTaskCompletedRequest;
+import com.amazonaws.services.simpleworkflow.model.Run;
+import com.amazonaws.services.simpleworkflow.model.ScheduleActivityTaskDecisionAttributes;
+import com.amazonaws.services.simpleworkflow.model.ScheduleActivityTaskFailedCause;
+import com.amazonaws.services.simpleworkflow.model.ScheduleActivityTaskFailedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.SignalExternalWorkflowExecutionDecisionAttributes;
+import com.amazonaws.services.simpleworkflow.model.SignalExternalWorkflowExecutionFailedCause;
+import com.amazonaws.services.simpleworkflow.model.SignalExternalWorkflowExecutionFailedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.SignalExternalWorkflowExecutionInitiatedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.SignalWorkflowExecutionRequest;
+import com.amazonaws.services.simpleworkflow.model.StartChildWorkflowExecutionDecisionAttributes;
+import com.amazonaws.services.simpleworkflow.model.StartChildWorkflowExecutionFailedCause;
+import com.amazonaws.services.simpleworkflow.model.StartChildWorkflowExecutionFailedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.StartChildWorkflowExecutionInitiatedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.StartTimerDecisionAttributes;
+import com.amazonaws.services.simpleworkflow.model.StartTimerFailedCause;
+import com.amazonaws.services.simpleworkflow.model.StartTimerFailedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.StartWorkflowExecutionRequest;
+import com.amazonaws.services.simpleworkflow.model.TagFilter;
+import com.amazonaws.services.simpleworkflow.model.TaskList;
+import com.amazonaws.services.simpleworkflow.model.TerminateWorkflowExecutionRequest;
+import com.amazonaws.services.simpleworkflow.model.TimerCanceledEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.TimerFiredEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.TimerStartedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.TypeAlreadyExistsException;
+import com.amazonaws.services.simpleworkflow.model.UnknownResourceException;
+import com.amazonaws.services.simpleworkflow.model.WorkflowExecution;
+import com.amazonaws.services.simpleworkflow.model.WorkflowExecutionAlreadyStartedException;
+import com.amazonaws.services.simpleworkflow.model.WorkflowExecutionCancelRequestedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.WorkflowExecutionCanceledEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.WorkflowExecutionCompletedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.WorkflowExecutionConfiguration;
+import com.amazonaws.services.simpleworkflow.model.WorkflowExecutionContinuedAsNewEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.WorkflowExecutionCount;
+import com.amazonaws.services.simpleworkflow.model.WorkflowExecutionDetail;
+import com.amazonaws.services.simpleworkflow.model.WorkflowExecutionFilter;
+import com.amazonaws.services.simpleworkflow.model.WorkflowExecutionFailedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.WorkflowExecutionInfo;
+import com.amazonaws.services.simpleworkflow.model.WorkflowExecutionInfos;
+import com.amazonaws.services.simpleworkflow.model.WorkflowExecutionOpenCounts;
+import com.amazonaws.services.simpleworkflow.model.WorkflowExecutionSignaledEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.WorkflowExecutionStartedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.WorkflowExecutionTerminatedEventAttributes;
+import com.amazonaws.services.simpleworkflow.model.WorkflowType;
+import com.amazonaws.services.simpleworkflow.model.WorkflowTypeConfiguration;
+import com.amazonaws.services.simpleworkflow.model.WorkflowTypeDetail;
+import com.amazonaws.services.simpleworkflow.model.WorkflowTypeFilter;
+import com.amazonaws.services.simpleworkflow.model.WorkflowTypeInfo;
+import com.amazonaws.services.simpleworkflow.model.WorkflowTypeInfos;
+
+/**
+ * In-process implementation of {@link AmazonSimpleWorkflow} that keeps
+ * domains, types and workflow histories in memory. It allows running real
+ * {@link com.amazonaws.services.simpleworkflow.flow.worker.GenericWorkflowWorker}
+ * and {@link com.amazonaws.services.simpleworkflow.flow.worker.GenericActivityWorker}
+ * instances, including their polling, history paging and replay, without
+ * the service, for example to load test workers and workflow
+ * implementations.
+ * <p>
+ * Decision and activity polls are long polls that wait up to
+ * {@link #getPollTimeoutMilliseconds()} for a task. Activities, timers,
+ * markers, signals, cancellation, child workflows and continue as new are
+ * supported. Timers and decision task start to close timeouts run in real
+ * time, so a decision task that a decider fails to complete is rescheduled
+ * as by the service. Other timeouts, child policies and retention periods
+ * are not enforced, and closed executions are kept until
+ * {@link #clearClosedExecutions()} is called.
+ *
+ * @see TestAmazonSimpleWorkflowBenchmark
+ */
+public class TestAmazonSimpleWorkflow implements AmazonSimpleWorkflow {
+
+    private static final int DEFAULT_MAXIMUM_PAGE_SIZE = 1000;
+
+    private static class Domain {
+
+        private final DomainInfo info;
+
+        private final DomainConfiguration configuration;
+
+        private final Map<String, ActivityTypeDetail> activityTypes = new HashMap<String, ActivityTypeDetail>();
+
+        private final Map<String, WorkflowTypeDetail> workflowTypes = new HashMap<String, WorkflowTypeDetail>();
+
+        /**
+         * Open executions by workflow id
+         */
+        private final Map<String, Execution> openExecutions = new HashMap<String, Execution>();
+
+        /**
+         * All executions by run id
+         */
+        private final Map<String, Execution> executions = new HashMap<String, Execution>();
+
+        private Domain(DomainInfo info, DomainConfiguration configuration) {
+            this.info = info;
+            this.configuration = configuration;
+        }
+    }
+
+    /**
+     * Tasks of a single task list and the pollers waiting for them.
+     */
+    private class TaskQueue<T> {
+
+        private final LinkedList<T> tasks = new LinkedList<T>();
+
+        private final Condition notEmpty = lock.newCondition();
+
+        void add(T task) {
+            tasks.addLast(task);
+            notEmpty.signal();
+        }
+
+        T poll(long timeoutNanos) throws InterruptedException {
+            long nanos = timeoutNanos;
+            while (tasks.isEmpty()) {
+                if (nanos <= 0 || shutdown) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return tasks.removeFirst();
+        }
+    }
+
+    private static class Execution {
+
+        private final Domain domain;
+
+        private final WorkflowExecution workflowExecution;
+
+        private final WorkflowExecutionStartedEventAttributes startedAttributes;
+
+        private final Date startTimestamp = new Date();
+
+        private final List<HistoryEvent> history = new ArrayList<HistoryEvent>();
+
+        private final Map<String, ActivityTaskState> activities = new HashMap<String, ActivityTaskState>();
+
+        private final Map<String, TimerState> timers = new HashMap<String, TimerState>();
+
+        private int openChildren;
+
+        private Date closeTimestamp;
+
+        private String closeStatus;
+
+        private boolean cancelRequested;
+
+        private String latestExecutionContext;
+
+        /**
+         * Id of the DecisionTaskScheduled event of a decision task not yet
+         * polled, 0 if there is none.
+         */
+        private long decisionScheduledEventId;
+
+        /**
+         * Token of the decision task being processed by a decider, null if
+         * there is none.
+         */
+        private String decisionTaskToken;
+
+        private ScheduledFuture<?> decisionTimeout;
+
+        private long decisionStartedScheduledEventId;
+
+        private long decisionStartedEventId;
+
+        private long previousStartedEventId;
+
+        private Execution parent;
+
+        private long parentInitiatedEventId;
+
+        private long parentStartedEventId;
+
+        private Execution(Domain domain, WorkflowExecution workflowExecution,
+                WorkflowExecutionStartedEventAttributes startedAttributes) {
+            this.domain = domain;
+            this.workflowExecution = workflowExecution;
+            this.startedAttributes = startedAttributes;
+        }
+
+        boolean isOpen() {
+            return closeStatus == null;
+        }
+
+        HistoryEvent addEvent(EventType eventType) {
+            HistoryEvent event = new HistoryEvent();
+            event.setEventId((long) history.size() + 1);
+            event.setEventTimestamp(new Date());
+            event.setEventType(eventType);
+            history.add(event);
+            return event;
+        }
+    }
+
+    private static class ActivityTaskState {
+
+        private final Execution execution;
+
+        private final String activityId;
+
+        private final ActivityType activityType;
+
+        private final String input;
+
+        private final String taskList;
+
+        private final long scheduledEventId;
+
+        private long startedEventId;
+
+        private long latestCancelRequestedEventId;
+
+        /**
+         * true after the activity task is closed or canceled before it was
+         * polled
+         */
+        private boolean closed;
+
+        private ActivityTaskState(Execution execution, String activityId, ActivityType activityType, String input,
+                String taskList, long scheduledEventId) {
+            this.execution = execution;
+            this.activityId = activityId;
+            this.activityType = activityType;
+            this.input = input;
+            this.taskList = taskList;
+            this.scheduledEventId = scheduledEventId;
+        }
+    }
+
+    private static class TimerState {
+
+        private final String timerId;
+
+        private final long startedEventId;
+
+        private ScheduledFuture<?> future;
+
+        private TimerState(String timerId, long startedEventId) {
+            this.timerId = timerId;
+            this.startedEventId = startedEventId;
+        }
+    }
+
+    /**
+     * A page of a listing and the token of the next one
+     */
+    private static class Page<T> {
+
+        private final List<T> items;
+
+        private final String nextPageToken;
+
+        private Page(List<T> items, String nextPageToken) {
+            this.items = items;
+            this.nextPageToken = nextPageToken;
+        }
+    }
+
+    private static final Comparator<WorkflowExecutionInfo> START_TIMESTAMP_ORDER = new Comparator<WorkflowExecutionInfo>() {
+
+        @Override
+        public int compare(WorkflowExecutionInfo o1, WorkflowExecutionInfo o2) {
+            return o1.getStartTimestamp().compareTo(o2.getStartTimestamp());
+        }
+    };
+
+    private static final Comparator<WorkflowExecutionInfo> CLOSE_TIMESTAMP_ORDER = new Comparator<WorkflowExecutionInfo>() {
+
+        @Override
+        public int compare(WorkflowExecutionInfo o1, WorkflowExecutionInfo o2) {
+            return o1.getCloseTimestamp().compareTo(o2.getCloseTimestamp());
+        }
+    };
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Map<String, Domain> domains = new HashMap<String, Domain>();
+
+    private final Map<String, TaskQueue<Execution>> decisionTaskLists = new HashMap<String, TaskQueue<Execution>>();
+
+    private final Map<String, TaskQueue<ActivityTaskState>> activityTaskLists = new HashMap<String, TaskQueue<ActivityTaskState>>();
+
+    private final Map<String, Execution> decisionTasks = new HashMap<String, Execution>();
+
+    private final Map<String, ActivityTaskState> activityTasks = new HashMap<String, ActivityTaskState>();
+
+    private final ScheduledExecutorService timerService;
+
+    private long pollTimeoutMilliseconds = TimeUnit.SECONDS.toMillis(60);
+
+    private int maximumPageSize = DEFAULT_MAXIMUM_PAGE_SIZE;
+
+    private volatile boolean shutdown;
+
+    public TestAmazonSimpleWorkflow() {
+        timerService = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread result = new Thread(r, "TestAmazonSimpleWorkflow timers");
+                result.setDaemon(true);
+                return result;
+            }
+        });
+    }
+
+    public long getPollTimeoutMilliseconds() {
+        return pollTimeoutMilliseconds;
+    }
+
+    /**
+     * Time a poll waits for a task before returning an empty result. Default
+     * is 60 seconds as in the service.
+     */
+    public void setPollTimeoutMilliseconds(long pollTimeoutMilliseconds) {
+        if (pollTimeoutMilliseconds < 0) {
+            throw new IllegalArgumentException("negative pollTimeoutMilliseconds");
+        }
+        this.pollTimeoutMilliseconds = pollTimeoutMilliseconds;
+    }
+
+    public int getMaximumPageSize() {
+        return maximumPageSize;
+    }
+
+    /**
+     * Maximum number of history events returned in a single page when a
+     * request does not specify it. Default is 1000.
+     */
+    public void setMaximumPageSize(int maximumPageSize) {
+        if (maximumPageSize < 1) {
+            throw new IllegalArgumentException("0 or negative maximumPageSize");
+        }
+        this.maximumPageSize = maximumPageSize;
+    }
+
+    /**
+     * Forgets all closed workflow executions to bound memory used by long
+     * running tests.
+     */
+    public void clearClosedExecutions() {
+        lock.lock();
+        try {
+            for (Domain domain : domains.values()) {
+                for (Iterator<Execution> i = domain.executions.values().iterator(); i.hasNext();) {
+                    if (!i.next().isOpen()) {
+                        i.remove();
+                    }
+                }
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setEndpoint(String endpoint) throws IllegalArgumentException {
+    }
+
+    @Override
+    public void setRegion(Region region) throws IllegalArgumentException {
+    }
+
+    @Override
+    public void registerDomain(RegisterDomainRequest request) throws AmazonServiceException, AmazonClientException {
+        lock.lock();
+        try {
+            if (domains.containsKey(request.getName())) {
+                throw new DomainAlreadyExistsException(request.getName());
+            }
+            DomainInfo info = new DomainInfo().withName(request.getName()).withDescription(request.getDescription()).withStatus(
+                    RegistrationStatus.REGISTERED);
+            DomainConfiguration configuration = new DomainConfiguration().withWorkflowExecutionRetentionPeriodInDays(request.getWorkflowExecutionRetentionPeriodInDays());
+            domains.put(request.getName(), new Domain(info, configuration));
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public DomainDetail describeDomain(DescribeDomainRequest request) throws AmazonServiceException, AmazonClientException {
+        lock.lock();
+        try {
+            Domain domain = getDomain(request.getName());
+            return new DomainDetail().withDomainInfo(domain.info).withConfiguration(domain.configuration);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void deprecateDomain(DeprecateDomainRequest request) throws AmazonServiceException, AmazonClientException {
+        lock.lock();
+        try {
+            getDomain(request.getName()).info.setStatus(RegistrationStatus.DEPRECATED);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public DomainInfos listDomains(ListDomainsRequest request) throws AmazonServiceException, AmazonClientException {
+        lock.lock();
+        try {
+            List<DomainInfo> infos = new ArrayList<DomainInfo>();
+            for (Domain domain : domains.values()) {
+                if (domain.info.getStatus().equals(request.getRegistrationStatus())) {
+                    infos.add(domain.info);
+                }
+            }
+            Collections.sort(infos, new Comparator<DomainInfo>() {
+
+                @Override
+                public int compare(DomainInfo o1, DomainInfo o2) {
+                    return o1.getName().compareTo(o2.getName());
+                }
+            });
+            Page<DomainInfo> page = getPage(infos, Boolean.TRUE.equals(request.getReverseOrder()),
+                    request.getNextPageToken(), request.getMaximumPageSize());
+            return new DomainInfos().withDomainInfos(page.items).withNextPageToken(page.nextPageToken);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void registerActivityType(RegisterActivityTypeRequest request) throws AmazonServiceException,
+            AmazonClientException {
+        lock.lock();
+        try {
+            Domain domain = getDomain(request.getDomain());
+            String key = typeKey(request.getName(), request.getVersion());
+            if (domain.activityTypes.containsKey(key)) {
+                throw new TypeAlreadyExistsException(key);
+            }
+            ActivityTypeInfo info = new ActivityTypeInfo().withActivityType(
+                    new ActivityType().withName(request.getName()).withVersion(request.getVersion())).withDescription(
+                    request.getDescription()).withCreationDate(new Date()).withStatus(RegistrationStatus.REGISTERED);
+            ActivityTypeConfiguration configuration = new ActivityTypeConfiguration();
+            configuration.setDefaultTaskList(request.getDefaultTaskList());
+            configuration.setDefaultTaskHeartbeatTimeout(request.getDefaultTaskHeartbeatTimeout());
+            configuration.setDefaultTaskScheduleToCloseTimeout(request.getDefaultTaskScheduleToCloseTimeout());
+            configuration.setDefaultTaskScheduleToStartTimeout(request.getDefaultTaskScheduleToStartTimeout());
+            configuration.setDefaultTaskStartToCloseTimeout(request.getDefaultTaskStartToCloseTimeout());
+            domain.activityTypes.put(key, new ActivityTypeDetail().withTypeInfo(info).withConfiguration(configuration));
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public ActivityTypeDetail describeActivityType(DescribeActivityTypeRequest request) throws AmazonServiceException,
+            AmazonClientException {
+        lock.lock();
+        try {
+            return getActivityType(getDomain(request.getDomain()), request.getActivityType());
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void deprecateActivityType(DeprecateActivityTypeRequest request) throws AmazonServiceException,
+            AmazonClientException {
+        lock.lock();
+        try {
+            ActivityTypeInfo info = getActivityType(getDomain(request.getDomain()), request.getActivityType()).getTypeInfo();
+            info.setStatus(RegistrationStatus.DEPRECATED);
+            info.setDeprecationDate(new Date());
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public ActivityTypeInfos listActivityTypes(ListActivityTypesRequest request) throws AmazonServiceException,
+            AmazonClientException {
+        lock.lock();
+        try {
+            List<ActivityTypeInfo> infos = new ArrayList<ActivityTypeInfo>();
+            for (ActivityTypeDetail type : getDomain(request.getDomain()).activityTypes.values()) {
+                ActivityTypeInfo info = type.getTypeInfo();
+                if (info.getStatus().equals(request.getRegistrationStatus())
+                        && (request.getName() == null || request.getName().equals(info.getActivityType().getName()))) {
+                    infos.add(info);
+                }
+            }
+            Collections.sort(infos, new Comparator<ActivityTypeInfo>() {
+
+                @Override
+                public int compare(ActivityTypeInfo o1, ActivityTypeInfo o2) {
+                    ActivityType t1 = o1.getActivityType();
+                    ActivityType t2 = o2.getActivityType();
+                    return typeKey(t1.getName(), t1.getVersion()).compareTo(typeKey(t2.getName(), t2.getVersion()));
+                }
+            });
+            Page<ActivityTypeInfo> page = getPage(infos, Boolean.TRUE.equals(request.getReverseOrder()),
+                    request.getNextPageToken(), request.getMaximumPageSize());
+            return new ActivityTypeInfos().withTypeInfos(page.items).withNextPageToken(page.nextPageToken);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void registerWorkflowType(RegisterWorkflowTypeRequest request) throws AmazonServiceException,
+            AmazonClientException {
+        lock.lock();
+        try {
+            Domain domain = getDomain(request.getDomain());
+            String key = typeKey(request.getName(), request.getVersion());
+            if (domain.workflowTypes.containsKey(key)) {
+                throw new TypeAlreadyExistsException(key);
+            }
+            WorkflowTypeInfo info = new WorkflowTypeInfo().withWorkflowType(
+                    new WorkflowType().withName(request.getName()).withVersion(request.getVersion())).withDescription(
+                    request.getDescription()).withCreationDate(new Date()).withStatus(RegistrationStatus.REGISTERED);
+            WorkflowTypeConfiguration configuration = new WorkflowTypeConfiguration();
+            configuration.setDefaultTaskList(request.getDefaultTaskList());
+            configuration.setDefaultChildPolicy(request.getDefaultChildPolicy());
+            configuration.setDefaultExecutionStartToCloseTimeout(request.getDefaultExecutionStartToCloseTimeout());
+            configuration.setDefaultTaskStartToCloseTimeout(request.getDefaultTaskStartToCloseTimeout());
+            domain.workflowTypes.put(key, new WorkflowTypeDetail().withTypeInfo(info).withConfiguration(configuration));
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public WorkflowTypeDetail describeWorkflowType(DescribeWorkflowTypeRequest request) throws AmazonServiceException,
+            AmazonClientException {
+        lock.lock();
+        try {
+            return getWorkflowType(getDomain(request.getDomain()), request.getWorkflowType());
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void deprecateWorkflowType(DeprecateWorkflowTypeRequest request) throws AmazonServiceException,
+            AmazonClientException {
+        lock.lock();
+        try {
+            WorkflowTypeInfo info = getWorkflowType(getDomain(request.getDomain()), request.getWorkflowType()).getTypeInfo();
+            info.setStatus(RegistrationStatus.DEPRECATED);
+            info.setDeprecationDate(new Date());
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public WorkflowTypeInfos listWorkflowTypes(ListWorkflowTypesRequest request) throws AmazonServiceException,
+            AmazonClientException {
+        lock.lock();
+        try {
+            List<WorkflowTypeInfo> infos = new ArrayList<WorkflowTypeInfo>();
+            for (WorkflowTypeDetail type : getDomain(request.getDomain()).workflowTypes.values()) {
+                WorkflowTypeInfo info = type.getTypeInfo();
+                if (info.getStatus().equals(request.getRegistrationStatus())
+                        && (request.getName() == null || request.getName().equals(info.getWorkflowType().getName()))) {
+                    infos.add(info);
+                }
+            }
+            Collections.sort(infos, new Comparator<WorkflowTypeInfo>() {
+
+                @Override
+                public int compare(WorkflowTypeInfo o1, WorkflowTypeInfo o2) {
+                    WorkflowType t1 = o1.getWorkflowType();
+                    WorkflowType t2 = o2.getWorkflowType();
+                    return typeKey(t1.getName(), t1.getVersion()).compareTo(typeKey(t2.getName(), t2.getVersion()));
+                }
+            });
+            Page<WorkflowTypeInfo> page = getPage(infos, Boolean.TRUE.equals(request.getReverseOrder()),
+                    request.getNextPageToken(), request.getMaximumPageSize());
+            return new WorkflowTypeInfos().withTypeInfos(page.items).withNextPageToken(page.nextPageToken);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Run startWorkflowExecution(StartWorkflowExecutionRequest request) throws AmazonServiceException,
+            AmazonClientException {
+        lock.lock();
+        try {
+            Domain domain = getDomain(request.getDomain());
+            WorkflowExecutionStartedEventAttributes attributes = new WorkflowExecutionStartedEventAttributes();
+            attributes.setWorkflowType(request.getWorkflowType());
+            attributes.setInput(request.getInput());
+            attributes.setTaskList(request.getTaskList());
+            attributes.setExecutionStartToCloseTimeout(request.getExecutionStartToCloseTimeout());
+            attributes.setTaskStartToCloseTimeout(request.getTaskStartToCloseTimeout());
+            attributes.setChildPolicy(request.getChildPolicy());
+            attributes.setTagList(request.getTagList());
+            Execution execution = startExecution(domain, request.getWorkflowId(), attributes);
+            return new Run().withRunId(execution.workflowExecution.getRunId());
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void signalWorkflowExecution(SignalWorkflowExecutionRequest request) throws AmazonServiceException,
+            AmazonClientException {
+        lock.lock();
+        try {
+            Execution execution = getOpenExecution(getDomain(request.getDomain()), request.getWorkflowId(), request.getRunId());
+            WorkflowExecutionSignaledEventAttributes attributes = new WorkflowExecutionSignaledEventAttributes();
+            attributes.setSignalName(request.getSignalName());
+            attributes.setInput(request.getInput());
+            execution.addEvent(EventType.WorkflowExecutionSignaled).setWorkflowExecutionSignaledEventAttributes(attributes);
+            scheduleDecisionTask(execution);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void requestCancelWorkflowExecution(RequestCancelWorkflowExecutionRequest request)
+            throws AmazonServiceException, AmazonClientException {
+        lock.lock();
+        try {
+            Execution execution = getOpenExecution(getDomain(request.getDomain()), request.getWorkflowId(), request.getRunId());
+            execution.cancelRequested = true;
+            execution.addEvent(EventType.WorkflowExecutionCancelRequested).setWorkflowExecutionCancelRequestedEventAttributes(
+                    new WorkflowExecutionCancelRequestedEventAttributes());
+            scheduleDecisionTask(execution);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void terminateWorkflowExecution(TerminateWorkflowExecutionRequest request) throws AmazonServiceException,
+            AmazonClientException {
+        lock.lock();
+        try {
+            Execution execution = getOpenExecution(getDomain(request.getDomain()), request.getWorkflowId(), request.getRunId());
+            WorkflowExecutionTerminatedEventAttributes attributes = new WorkflowExecutionTerminatedEventAttributes();
+            attributes.setReason(request.getReason());
+            attributes.setDetails(request.getDetails());
+            attributes.setChildPolicy(request.getChildPolicy() == null ? execution.startedAttributes.getChildPolicy()
+                    : request.getChildPolicy());
+            execution.addEvent(EventType.WorkflowExecutionTerminated).setWorkflowExecutionTerminatedEventAttributes(attributes);
+            closeExecution(execution, CloseStatus.TERMINATED);
+            if (execution.parent != null && execution.parent.isOpen()) {
+                ChildWorkflowExecutionTerminatedEventAttributes childAttributes = new ChildWorkflowExecutionTerminatedEventAttributes();
+                childAttributes.setWorkflowExecution(execution.workflowExecution);
+                childAttributes.setWorkflowType(execution.startedAttributes.getWorkflowType());
+                childAttributes.setInitiatedEventId(execution.parentInitiatedEventId);
+                childAttributes.setStartedEventId(execution.parentStartedEventId);
+                execution.parent.addEvent(EventType.ChildWorkflowExecutionTerminated).setChildWorkflowExecutionTerminatedEventAttributes(
+                        childAttributes);
+                scheduleDecisionTask(execution.parent);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public WorkflowExecutionDetail describeWorkflowExecution(DescribeWorkflowExecutionRequest request)
+            throws AmazonServiceException, AmazonClientException {
+        lock.lock();
+        try {
+            Execution execution = getExecution(getDomain(request.getDomain()), request.getExecution());
+            WorkflowExecutionStartedEventAttributes started = execution.startedAttributes;
+            WorkflowExecutionInfo info = newExecutionInfo(execution);
+            WorkflowExecutionConfiguration configuration = new WorkflowExecutionConfiguration();
+            configuration.setTaskList(started.getTaskList());
+            configuration.setChildPolicy(started.getChildPolicy());
+            configuration.setExecutionStartToCloseTimeout(started.getExecutionStartToCloseTimeout());
+            configuration.setTaskStartToCloseTimeout(started.getTaskStartToCloseTimeout());
+            WorkflowExecutionOpenCounts openCounts = new WorkflowExecutionOpenCounts();
+            openCounts.setOpenActivityTasks(execution.activities.size());
+            openCounts.setOpenDecisionTasks(execution.decisionScheduledEventId != 0 || execution.decisionTaskToken != null ? 1
+                    : 0);
+            openCounts.setOpenTimers(execution.timers.size());
+            openCounts.setOpenChildWorkflowExecutions(execution.openChildren);
+            WorkflowExecutionDetail result = new WorkflowExecutionDetail();
+            result.setExecutionInfo(info);
+            result.setExecutionConfiguration(configuration);
+            result.setOpenCounts(openCounts);
+            result.setLatestExecutionContext(execution.latestExecutionContext);
+            return result;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public History getWorkflowExecutionHistory(GetWorkflowExecutionHistoryRequest request) throws AmazonServiceException,
+            AmazonClientException {
+        lock.lock();
+        try {
+            Execution execution = getExecution(getDomain(request.getDomain()), request.getExecution());
+            List<HistoryEvent> events = execution.history;
+            if (Boolean.TRUE.equals(request.getReverseOrder())) {
+                events = new ArrayList<HistoryEvent>(events);
+                Collections.reverse(events);
+            }
+            int offset = request.getNextPageToken() == null ? 0 : parsePageToken(request.getNextPageToken());
+            int end = Math.min(events.size(), offset + getPageSize(request.getMaximumPageSize()));
+            History result = new History();
+            result.setEvents(new ArrayList<HistoryEvent>(events.subList(Math.min(offset, end), end)));
+            if (end < events.size()) {
+                result.setNextPageToken(String.valueOf(end));
+            }
+            return result;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public WorkflowExecutionInfos listOpenWorkflowExecutions(ListOpenWorkflowExecutionsRequest request)
+            throws AmazonServiceException, AmazonClientException {
+        lock.lock();
+        try {
+            List<WorkflowExecutionInfo> infos = findExecutions(getDomain(request.getDomain()), true,
+                    request.getStartTimeFilter(), null, request.getTypeFilter(), request.getTagFilter(),
+                    request.getExecutionFilter(), null);
+            // Most recent first unless reversed
+            Collections.sort(infos, Collections.reverseOrder(START_TIMESTAMP_ORDER));
+            Page<WorkflowExecutionInfo> page = getPage(infos, Boolean.TRUE.equals(request.getReverseOrder()),
+                    request.getNextPageToken(), request.getMaximumPageSize());
+            return new WorkflowExecutionInfos().withExecutionInfos(page.items).withNextPageToken(page.nextPageToken);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public WorkflowExecutionInfos listClosedWorkflowExecutions(ListClosedWorkflowExecutionsRequest request)
+            throws AmazonServiceException, AmazonClientException {
+        lock.lock();
+        try {
+            List<WorkflowExecutionInfo> infos = findExecutions(getDomain(request.getDomain()), false,
+                    request.getStartTimeFilter(), request.getCloseTimeFilter(), request.getTypeFilter(),
+                    request.getTagFilter(), request.getExecutionFilter(),
+                    request.getCloseStatusFilter() == null ? null : request.getCloseStatusFilter().getStatus());
+            // Most recent first unless reversed
+            Comparator<WorkflowExecutionInfo> order = request.getCloseTimeFilter() == null ? START_TIMESTAMP_ORDER
+                    : CLOSE_TIMESTAMP_ORDER;
+            Collections.sort(infos, Collections.reverseOrder(order));
+            Page<WorkflowExecutionInfo> page = getPage(infos, Boolean.TRUE.equals(request.getReverseOrder()),
+                    request.getNextPageToken(), request.getMaximumPageSize());
+            return new WorkflowExecutionInfos().withExecutionInfos(page.items).withNextPageToken(page.nextPageToken);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public WorkflowExecutionCount countOpenWorkflowExecutions(CountOpenWorkflowExecutionsRequest request)
+            throws AmazonServiceException, AmazonClientException {
+        lock.lock();
+        try {
+            List<WorkflowExecutionInfo> infos = findExecutions(getDomain(request.getDomain()), true,
+                    request.getStartTimeFilter(), null, request.getTypeFilter(), request.getTagFilter(),
+                    request.getExecutionFilter(), null);
+            return new WorkflowExecutionCount().withCount(infos.size()).withTruncated(false);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public WorkflowExecutionCount countClosedWorkflowExecutions(CountClosedWorkflowExecutionsRequest request)
+            throws AmazonServiceException, AmazonClientException {
+        lock.lock();
+        try {
+            List<WorkflowExecutionInfo> infos = findExecutions(getDomain(request.getDomain()), false,
+                    request.getStartTimeFilter(), request.getCloseTimeFilter(), request.getTypeFilter(),
+                    request.getTagFilter(), request.getExecutionFilter(),
+                    request.getCloseStatusFilter() == null ? null : request.getCloseStatusFilter().getStatus());
+            return new WorkflowExecutionCount().withCount(infos.size()).withTruncated(false);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public PendingTaskCount countPendingDecisionTasks(CountPendingDecisionTasksRequest request)
+            throws AmazonServiceException, AmazonClientException {
+        lock.lock();
+        try {
+            getDomain(request.getDomain());
+            TaskQueue<Execution> queue = decisionTaskLists.get(taskListKey(request.getDomain(), request.getTaskList()));
+            return new PendingTaskCount().withCount(queue == null ? 0 : queue.tasks.size()).withTruncated(false);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public PendingTaskCount countPendingActivityTasks(CountPendingActivityTasksRequest request)
+            throws AmazonServiceException, AmazonClientException {
+        lock.lock();
+        try {
+            getDomain(request.getDomain());
+            TaskQueue<ActivityTaskState> queue = activityTaskLists.get(taskListKey(request.getDomain(), request.getTaskList()));
+            int count = 0;
+            if (queue != null) {
+                for (ActivityTaskState task : queue.tasks) {
+                    if (!task.closed) {
+                        count++;
+                    }
+                }
+            }
+            return new PendingTaskCount().withCount(count).withTruncated(false);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the first page of the history of a decision task, waiting for a
+     * task up to {@link #getPollTimeoutMilliseconds()}, or the following page
+     * when nextPageToken is specified.
+     */
+    @Override
+    public DecisionTask pollForDecisionTask(PollForDecisionTaskRequest request) throws AmazonServiceException,
+            AmazonClientException {
+        boolean reverseOrder = Boolean.TRUE.equals(request.getReverseOrder());
+        int pageSize = getPageSize(request.getMaximumPageSize());
+        lock.lock();
+        try {
+            getDomain(request.getDomain());
+            if (request.getNextPageToken() != null) {
+                String pageToken = request.getNextPageToken();
+                int separator = pageToken.lastIndexOf(':');
+                String taskToken = pageToken.substring(0, separator);
+                Execution execution = decisionTasks.get(taskToken);
+                if (execution == null) {
+                    throw new UnknownResourceException("Unknown decision task: " + taskToken);
+                }
+                return newDecisionTask(execution, parsePageToken(pageToken.substring(separator + 1)), pageSize,
+                        reverseOrder);
+            }
+            TaskQueue<Execution> queue = getDecisionTaskQueue(request.getDomain(), request.getTaskList().getName());
+            Execution execution = queue.poll(TimeUnit.MILLISECONDS.toNanos(pollTimeoutMilliseconds));
+            if (execution == null) {
+                return new DecisionTask();
+            }
+            DecisionTaskStartedEventAttributes attributes = new DecisionTaskStartedEventAttributes();
+            attributes.setIdentity(request.getIdentity());
+            attributes.setScheduledEventId(execution.decisionScheduledEventId);
+            HistoryEvent event = execution.addEvent(EventType.DecisionTaskStarted);
+            event.setDecisionTaskStartedEventAttributes(attributes);
+            execution.decisionStartedScheduledEventId = execution.decisionScheduledEventId;
+            execution.decisionStartedEventId = event.getEventId();
+            execution.decisionScheduledEventId = 0;
+            execution.decisionTaskToken = UUID.randomUUID().toString();
+            decisionTasks.put(execution.decisionTaskToken, execution);
+            scheduleDecisionTaskTimeout(execution);
+            return newDecisionTask(execution, 0, pageSize, reverseOrder);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AmazonClientException("Interrupted while polling for a decision task", e);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void respondDecisionTaskCompleted(RespondDecisionTaskCompletedRequest request) throws AmazonServiceException,
+            AmazonClientException {
+        lock.lock();
+        try {
+            Execution execution = decisionTasks.remove(request.getTaskToken());
+            if (execution == null) {
+                throw new UnknownResourceException("Unknown decision task: " + request.getTaskToken());
+            }
+            cancelDecisionTaskTimeout(execution);
+            DecisionTaskCompletedEventAttributes attributes = new DecisionTaskCompletedEventAttributes();
+            attributes.setExecutionContext(request.getExecutionContext());
+            attributes.setScheduledEventId(execution.decisionStartedScheduledEventId);
+            attributes.setStartedEventId(execution.decisionStartedEventId);
+            long completedEventId = execution.addEvent(EventType.DecisionTaskCompleted).withDecisionTaskCompletedEventAttributes(
+                    attributes).getEventId();
+            execution.previousStartedEventId = execution.decisionStartedEventId;
+            if (request.getExecutionContext() != null) {
+                execution.latestExecutionContext = request.getExecutionContext();
+            }
+            if (request.getDecisions() != null) {
+                for (Decision decision : request.getDecisions()) {
+                    if (!execution.isOpen()) {
+                        break;
+                    }
+                    applyDecision(execution, decision, completedEventId);
+                }
+            }
+            // Decision tasks scheduled while the task was in progress are dispatched only now
+            execution.decisionTaskToken = null;
+            if (execution.isOpen() && execution.decisionScheduledEventId != 0) {
+                dispatchDecisionTask(execution);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public ActivityTask pollForActivityTask(PollForActivityTaskRequest request) throws AmazonServiceException,
+            AmazonClientException {
+        lock.lock();
+        try {
+            getDomain(request.getDomain());
+            TaskQueue<ActivityTaskState> queue = getActivityTaskQueue(request.getDomain(), request.getTaskList().getName());
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pollTimeoutMilliseconds);
+            while (true) {
+                ActivityTaskState task = queue.poll(deadline - System.nanoTime());
+                if (task == null) {
+                    return new ActivityTask();
+                }
+                if (task.closed) {
+                    // Canceled before it was polled
+                    continue;
+                }
+                Execution execution = task.execution;
+                ActivityTaskStartedEventAttributes attributes = new ActivityTaskStartedEventAttributes();
+                attributes.setIdentity(request.getIdentity());
+                attributes.setScheduledEventId(task.scheduledEventId);
+                task.startedEventId = execution.addEvent(EventType.ActivityTaskStarted).withActivityTaskStartedEventAttributes(
+                        attributes).getEventId();
+                String taskToken = UUID.randomUUID().toString();
+                activityTasks.put(taskToken, task);
+                ActivityTask result = new ActivityTask();
+                result.setTaskToken(taskToken);
+                result.setActivityId(task.activityId);
+                result.setActivityType(task.activityType);
+                result.setInput(task.input);
+                result.setStartedEventId(task.startedEventId);
+                result.setWorkflowExecution(execution.workflowExecution);
+                return result;
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AmazonClientException("Interrupted while polling for an activity task", e);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public ActivityTaskStatus recordActivityTaskHeartbeat(RecordActivityTaskHeartbeatRequest request)
+            throws AmazonServiceException, AmazonClientException {
+        lock.lock();
+        try {
+            ActivityTaskState task = getActivityTask(request.getTaskToken());
+            return new ActivityTaskStatus().withCancelRequested(task.latestCancelRequestedEventId != 0);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void respondActivityTaskCompleted(RespondActivityTaskCompletedRequest request) throws AmazonServiceException,
+            AmazonClientException {
+        lock.lock();
+        try {
+            ActivityTaskState task = closeActivityTask(request.getTaskToken());
+            ActivityTaskCompletedEventAttributes attributes = new ActivityTaskCompletedEventAttributes();
+            attributes.setResult(request.getResult());
+            attributes.setScheduledEventId(task.scheduledEventId);
+            attributes.setStartedEventId(task.startedEventId);
+            task.execution.addEvent(EventType.ActivityTaskCompleted).setActivityTaskCompletedEventAttributes(attributes);
+            scheduleDecisionTask(task.execution);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void respondActivityTaskFailed(RespondActivityTaskFailedRequest request) throws AmazonServiceException,
+            AmazonClientException {
+        lock.lock();
+        try {
+            ActivityTaskState task = closeActivityTask(request.getTaskToken());
+            ActivityTaskFailedEventAttributes attributes = new ActivityTaskFailedEventAttributes();
+            attributes.setReason(request.getReason());
+            attributes.setDetails(request.getDetails());
+            attributes.setScheduledEventId(task.scheduledEventId);
+            attributes.setStartedEventId(task.startedEventId);
+            task.execution.addEvent(EventType.ActivityTaskFailed).setActivityTaskFailedEventAttributes(attributes);
+            scheduleDecisionTask(task.execution);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void respondActivityTaskCanceled(RespondActivityTaskCanceledRequest request) throws AmazonServiceException,
+            AmazonClientException {
+        lock.lock();
+        try {
+            ActivityTaskState task = closeActivityTask(request.getTaskToken());
+            ActivityTaskCanceledEventAttributes attributes = new ActivityTaskCanceledEventAttributes();
+            attributes.setDetails(request.getDetails());
+            attributes.setScheduledEventId(task.scheduledEventId);
+            attributes.setStartedEventId(task.startedEventId);
+            if (task.latestCancelRequestedEventId != 0) {
+                attributes.setLatestCancelRequestedEventId(task.latestCancelRequestedEventId);
+            }
+            task.execution.addEvent(EventType.ActivityTaskCanceled).setActivityTaskCanceledEventAttributes(attributes);
+            scheduleDecisionTask(task.execution);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops timers and makes all pending and future polls return no task.
+     */
+    @Override
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            for (TaskQueue<Execution> queue : decisionTaskLists.values()) {
+                queue.notEmpty.signalAll();
+            }
+            for (TaskQueue<ActivityTaskState> queue : activityTaskLists.values()) {
+                queue.notEmpty.signalAll();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+        timerService.shutdownNow();
+    }
+
+    @Override
+    public ResponseMetadata getCachedResponseMetadata(AmazonWebServiceRequest request) {
+        return null;
+    }
+
+    private void applyDecision(Execution execution, Decision decision, long completedEventId) {
+        switch (DecisionType.fromValue(decision.getDecisionType())) {
+        case ScheduleActivityTask:
+            scheduleActivityTask(execution, decision.getScheduleActivityTaskDecisionAttributes(), completedEventId);
+            break;
+        case RequestCancelActivityTask:
+            requestCancelActivityTask(execution, decision.getRequestCancelActivityTaskDecisionAttributes(), completedEventId);
+            break;
+        case StartTimer:
+            startTimer(execution, decision.getStartTimerDecisionAttributes(), completedEventId);
+            break;
+        case CancelTimer:
+            cancelTimer(execution, decision.getCancelTimerDecisionAttributes(), completedEventId);
+            break;
+        case RecordMarker:
+            RecordMarkerDecisionAttributes markerAttributes = decision.getRecordMarkerDecisionAttributes();
+            MarkerRecordedEventAttributes markerRecorded = new MarkerRecordedEventAttributes();
+            markerRecorded.setMarkerName(markerAttributes.getMarkerName());
+            markerRecorded.setDetails(markerAttributes.getDetails());
+            markerRecorded.setDecisionTaskCompletedEventId(completedEventId);
+            execution.addEvent(EventType.MarkerRecorded).setMarkerRecordedEventAttributes(markerRecorded);
+            break;
+        case SignalExternalWorkflowExecution:
+            signalExternalWorkflowExecution(execution, decision.getSignalExternalWorkflowExecutionDecisionAttributes(),
+                    completedEventId);
+            break;
+        case RequestCancelExternalWorkflowExecution:
+            requestCancelExternalWorkflowExecution(execution,
+                    decision.getRequestCancelExternalWorkflowExecutionDecisionAttributes(), completedEventId);
+            break;
+        case StartChildWorkflowExecution:
+            startChildWorkflowExecution(execution, decision.getStartChildWorkflowExecutionDecisionAttributes(), completedEventId);
+            break;
+        case CompleteWorkflowExecution:
+            completeWorkflowExecution(execution, decision.getCompleteWorkflowExecutionDecisionAttributes(), completedEventId);
+            break;
+        case FailWorkflowExecution:
+            failWorkflowExecution(execution, decision.getFailWorkflowExecutionDecisionAttributes(), completedEventId);
+            break;
+        case CancelWorkflowExecution:
+            cancelWorkflowExecution(execution, decision.getCancelWorkflowExecutionDecisionAttributes(), completedEventId);
+            break;
+        case ContinueAsNewWorkflowExecution:
+            continueAsNewWorkflowExecution(execution, decision.getContinueAsNewWorkflowExecutionDecisionAttributes(),
+                    completedEventId);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown decision type: " + decision.getDecisionType());
+        }
+    }
+
+    private void scheduleActivityTask(Execution execution, ScheduleActivityTaskDecisionAttributes decisionAttributes,
+            long completedEventId) {
+        ActivityType activityType = decisionAttributes.getActivityType();
+        String activityId = decisionAttributes.getActivityId();
+        ActivityTypeDetail type = execution.domain.activityTypes.get(typeKey(activityType.getName(), activityType.getVersion()));
+        String cause = null;
+        TaskList taskList = decisionAttributes.getTaskList();
+        if (type == null) {
+            cause = ScheduleActivityTaskFailedCause.ACTIVITY_TYPE_DOES_NOT_EXIST.toString();
+        }
+        else if (RegistrationStatus.DEPRECATED.toString().equals(type.getTypeInfo().getStatus())) {
+            cause = ScheduleActivityTaskFailedCause.ACTIVITY_TYPE_DEPRECATED.toString();
+        }
+        else if (execution.activities.containsKey(activityId)) {
+            cause = ScheduleActivityTaskFailedCause.ACTIVITY_ID_ALREADY_IN_USE.toString();
+        }
+        else if (taskList == null) {
+            taskList = type.getConfiguration().getDefaultTaskList();
+            if (taskList == null) {
+                cause = ScheduleActivityTaskFailedCause.DEFAULT_TASK_LIST_UNDEFINED.toString();
+            }
+        }
+        if (cause != null) {
+            ScheduleActivityTaskFailedEventAttributes failed = new ScheduleActivityTaskFailedEventAttributes();
+            failed.setActivityType(activityType);
+            failed.setActivityId(activityId);
+            failed.setCause(cause);
+            failed.setDecisionTaskCompletedEventId(completedEventId);
+            execution.addEvent(EventType.ScheduleActivityTaskFailed).setScheduleActivityTaskFailedEventAttributes(failed);
+            scheduleDecisionTask(execution);
+            return;
+        }
+        ActivityTypeConfiguration defaults = type.getConfiguration();
+        ActivityTaskScheduledEventAttributes attributes = new ActivityTaskScheduledEventAttributes();
+        attributes.setActivityType(activityType);
+        attributes.setActivityId(activityId);
+        attributes.setInput(decisionAttributes.getInput());
+        attributes.setControl(decisionAttributes.getControl());
+        attributes.setTaskList(taskList);
+        attributes.setHeartbeatTimeout(withDefault(decisionAttributes.getHeartbeatTimeout(),
+                defaults.getDefaultTaskHeartbeatTimeout()));
+        attributes.setScheduleToCloseTimeout(withDefault(decisionAttributes.getScheduleToCloseTimeout(),
+                defaults.getDefaultTaskScheduleToCloseTimeout()));
+        attributes.setScheduleToStartTimeout(withDefault(decisionAttributes.getScheduleToStartTimeout(),
+                defaults.getDefaultTaskScheduleToStartTimeout()));
+        attributes.setStartToCloseTimeout(withDefault(decisionAttributes.getStartToCloseTimeout(),
+                defaults.getDefaultTaskStartToCloseTimeout()));
+        attributes.setDecisionTaskCompletedEventId(completedEventId);
+        long scheduledEventId = execution.addEvent(EventType.ActivityTaskScheduled).withActivityTaskScheduledEventAttributes(
+                attributes).getEventId();
+        ActivityTaskState task = new ActivityTaskState(execution, activityId, activityType, decisionAttributes.getInput(),
+                taskList.getName(), scheduledEventId);
+        execution.activities.put(activityId, task);
+        getActivityTaskQueue(execution.domain.info.getName(), task.taskList).add(task);
+    }
+
+    private void requestCancelActivityTask(Execution execution,
+            RequestCancelActivityTaskDecisionAttributes decisionAttributes, long completedEventId) {
+        String activityId = decisionAttributes.getActivityId();
+        ActivityTaskState task = execution.activities.get(activityId);
+        if (task == null) {
+            RequestCancelActivityTaskFailedEventAttributes failed = new RequestCancelActivityTaskFailedEventAttributes();
+            failed.setActivityId(activityId);
+            failed.setCause(RequestCancelActivityTaskFailedCause.ACTIVITY_ID_UNKNOWN);
+            failed.setDecisionTaskCompletedEventId(completedEventId);
+            execution.addEvent(EventType.RequestCancelActivityTaskFailed).setRequestCancelActivityTaskFailedEventAttributes(
+                    failed);
+            scheduleDecisionTask(execution);
+            return;
+        }
+        ActivityTaskCancelRequestedEventAttributes attributes = new ActivityTaskCancelRequestedEventAttributes();
+        attributes.setActivityId(activityId);
+        attributes.setDecisionTaskCompletedEventId(completedEventId);
+        task.latestCancelRequestedEventId = execution.addEvent(EventType.ActivityTaskCancelRequested).withActivityTaskCancelRequestedEventAttributes(
+                attributes).getEventId();
+        if (task.startedEventId == 0) {
+            // Not polled yet, so it is canceled without involving an activity worker
+            task.closed = true;
+            execution.activities.remove(activityId);
+            ActivityTaskCanceledEventAttributes canceled = new ActivityTaskCanceledEventAttributes();
+            canceled.setScheduledEventId(task.scheduledEventId);
+            canceled.setLatestCancelRequestedEventId(task.latestCancelRequestedEventId);
+            execution.addEvent(EventType.ActivityTaskCanceled).setActivityTaskCanceledEventAttributes(canceled);
+            scheduleDecisionTask(execution);
+        }
+    }
+
+    private void startTimer(final Execution execution, StartTimerDecisionAttributes decisionAttributes,
+            long completedEventId) {
+        String timerId = decisionAttributes.getTimerId();
+        if (execution.timers.containsKey(timerId)) {
+            StartTimerFailedEventAttributes failed = new StartTimerFailedEventAttributes();
+            failed.setTimerId(timerId);
+            failed.setCause(StartTimerFailedCause.TIMER_ID_ALREADY_IN_USE);
+            failed.setDecisionTaskCompletedEventId(completedEventId);
+            execution.addEvent(EventType.StartTimerFailed).setStartTimerFailedEventAttributes(failed);
+            scheduleDecisionTask(execution);
+            return;
+        }
+        TimerStartedEventAttributes attributes = new TimerStartedEventAttributes();
+        attributes.setTimerId(timerId);
+        attributes.setControl(decisionAttributes.getControl());
+        attributes.setStartToFireTimeout(decisionAttributes.getStartToFireTimeout());
+        attributes.setDecisionTaskCompletedEventId(completedEventId);
+        long startedEventId = execution.addEvent(EventType.TimerStarted).withTimerStartedEventAttributes(attributes).getEventId();
+        final TimerState timer = new TimerState(timerId, startedEventId);
+        execution.timers.put(timerId, timer);
+        long delaySeconds = FlowHelpers.durationToSeconds(decisionAttributes.getStartToFireTimeout());
+        if (delaySeconds == FlowConstants.NONE) {
+            return;
+        }
+        timer.future = timerService.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                fireTimer(execution, timer);
+            }
+        }, delaySeconds, TimeUnit.SECONDS);
+    }
+
+    private void fireTimer(Execution execution, TimerState timer) {
+        lock.lock();
+        try {
+            if (!execution.isOpen() || execution.timers.get(timer.timerId) != timer) {
+                return;
+            }
+            execution.timers.remove(timer.timerId);
+            TimerFiredEventAttributes attributes = new TimerFiredEventAttributes();
+            attributes.setTimerId(timer.timerId);
+            attributes.setStartedEventId(timer.startedEventId);
+            execution.addEvent(EventType.TimerFired).setTimerFiredEventAttributes(attributes);
+            scheduleDecisionTask(execution);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void cancelTimer(Execution execution, CancelTimerDecisionAttributes decisionAttributes, long completedEventId) {
+        String timerId = decisionAttributes.getTimerId();
+        TimerState timer = execution.timers.remove(timerId);
+        if (timer == null) {
+            CancelTimerFailedEventAttributes failed = new CancelTimerFailedEventAttributes();
+            failed.setTimerId(timerId);
+            failed.setCause(CancelTimerFailedCause.TIMER_ID_UNKNOWN);
+            failed.setDecisionTaskCompletedEventId(completedEventId);
+            execution.addEvent(EventType.CancelTimerFailed).setCancelTimerFailedEventAttributes(failed);
+            scheduleDecisionTask(execution);
+            return;
+        }
+        if (timer.future != null) {
+            timer.future.cancel(false);
+        }
+        TimerCanceledEventAttributes attributes = new TimerCanceledEventAttributes();
+        attributes.setTimerId(timerId);
+        attributes.setStartedEventId(timer.startedEventId);
+        attributes.setDecisionTaskCompletedEventId(completedEventId);
+        execution.addEvent(EventType.TimerCanceled).setTimerCanceledEventAttributes(attributes);
+    }
+
+    private void signalExternalWorkflowExecution(Execution execution,
+            SignalExternalWorkflowExecutionDecisionAttributes decisionAttributes, long completedEventId) {
+        SignalExternalWorkflowExecutionInitiatedEventAttributes attributes = new SignalExternalWorkflowExecutionInitiatedEventAttributes();
+        attributes.setWorkflowId(decisionAttributes.getWorkflowId());
+        attributes.setRunId(decisionAttributes.getRunId());
+        attributes.setSignalName(decisionAttributes.getSignalName());
+        attributes.setInput(decisionAttributes.getInput());
+        attributes.setControl(decisionAttributes.getControl());
+        attributes.setDecisionTaskCompletedEventId(completedEventId);
+        long initiatedEventId = execution.addEvent(EventType.SignalExternalWorkflowExecutionInitiated).withSignalExternalWorkflowExecutionInitiatedEventAttributes(
+                attributes).getEventId();
+        Execution target = findOpenExecution(execution.domain, decisionAttributes.getWorkflowId(),
+                decisionAttributes.getRunId());
+        if (target == null) {
+            SignalExternalWorkflowExecutionFailedEventAttributes failed = new SignalExternalWorkflowExecutionFailedEventAttributes();
+            failed.setWorkflowId(decisionAttributes.getWorkflowId());
+            failed.setRunId(decisionAttributes.getRunId());
+            failed.setCause(SignalExternalWorkflowExecutionFailedCause.UNKNOWN_EXTERNAL_WORKFLOW_EXECUTION);
+            failed.setControl(decisionAttributes.getControl());
+            failed.setInitiatedEventId(initiatedEventId);
+            failed.setDecisionTaskCompletedEventId(completedEventId);
+            execution.addEvent(EventType.SignalExternalWorkflowExecutionFailed).setSignalExternalWorkflowExecutionFailedEventAttributes(
+                    failed);
+        }
+        else {
+            WorkflowExecutionSignaledEventAttributes signaled = new WorkflowExecutionSignaledEventAttributes();
+            signaled.setSignalName(decisionAttributes.getSignalName());
+            signaled.setInput(decisionAttributes.getInput());
+            signaled.setExternalWorkflowExecution(execution.workflowExecution);
+            signaled.setExternalInitiatedEventId(initiatedEventId);
+            target.addEvent(EventType.WorkflowExecutionSignaled).setWorkflowExecutionSignaledEventAttributes(signaled);
+            scheduleDecisionTask(target);
+            ExternalWorkflowExecutionSignaledEventAttributes delivered = new ExternalWorkflowExecutionSignaledEventAttributes();
+            delivered.setWorkflowExecution(target.workflowExecution);
+            delivered.setInitiatedEventId(initiatedEventId);
+            execution.addEvent(EventType.ExternalWorkflowExecutionSignaled).setExternalWorkflowExecutionSignaledEventAttributes(
+                    delivered);
+        }
+        scheduleDecisionTask(execution);
+    }
+
+    private void requestCancelExternalWorkflowExecution(Execution execution,
+            RequestCancelExternalWorkflowExecutionDecisionAttributes decisionAttributes, long completedEventId) {
+        RequestCancelExternalWorkflowExecutionInitiatedEventAttributes attributes = new RequestCancelExternalWorkflowExecutionInitiatedEventAttributes();
+        attributes.setWorkflowId(decisionAttributes.getWorkflowId());
+        attributes.setRunId(decisionAttributes.getRunId());
+        attributes.setControl(decisionAttributes.getControl());
+        attributes.setDecisionTaskCompletedEventId(completedEventId);
+        long initiatedEventId = execution.addEvent(EventType.RequestCancelExternalWorkflowExecutionInitiated).withRequestCancelExternalWorkflowExecutionInitiatedEventAttributes(
+                attributes).getEventId();
+        Execution target = findOpenExecution(execution.domain, decisionAttributes.getWorkflowId(),
+                decisionAttributes.getRunId());
+        if (target == null) {
+            RequestCancelExternalWorkflowExecutionFailedEventAttributes failed = new RequestCancelExternalWorkflowExecutionFailedEventAttributes();
+            failed.setWorkflowId(decisionAttributes.getWorkflowId());
+            failed.setRunId(decisionAttributes.getRunId());
+            failed.setCause(RequestCancelExternalWorkflowExecutionFailedCause.UNKNOWN_EXTERNAL_WORKFLOW_EXECUTION);
+            failed.setControl(decisionAttributes.getControl());
+            failed.setInitiatedEventId(initiatedEventId);
+            failed.setDecisionTaskCompletedEventId(completedEventId);
+            execution.addEvent(EventType.RequestCancelExternalWorkflowExecutionFailed).setRequestCancelExternalWorkflowExecutionFailedEventAttributes(
+                    failed);
+        }
+        else {
+            target.cancelRequested = true;
+            WorkflowExecutionCancelRequestedEventAttributes cancelRequested = new WorkflowExecutionCancelRequestedEventAttributes();
+            cancelRequested.setExternalWorkflowExecution(execution.workflowExecution);
+            cancelRequested.setExternalInitiatedEventId(initiatedEventId);
+            target.addEvent(EventType.WorkflowExecutionCancelRequested).setWorkflowExecutionCancelRequestedEventAttributes(
+                    cancelRequested);
+            scheduleDecisionTask(target);
+            ExternalWorkflowExecutionCancelRequestedEventAttributes delivered = new ExternalWorkflowExecutionCancelRequestedEventAttributes();
+            delivered.setWorkflowExecution(target.workflowExecution);
+            delivered.setInitiatedEventId(initiatedEventId);
+            execution.addEvent(EventType.ExternalWorkflowExecutionCancelRequested).setExternalWorkflowExecutionCancelRequestedEventAttributes(
+                    delivered);
+        }
+        scheduleDecisionTask(execution);
+    }
+
+    private void startChildWorkflowExecution(Execution execution,
+            StartChildWorkflowExecutionDecisionAttributes decisionAttributes, long completedEventId) {
+        StartChildWorkflowExecutionInitiatedEventAttributes attributes = new StartChildWorkflowExecutionInitiatedEventAttributes();
+        attributes.setWorkflowId(decisionAttributes.getWorkflowId());
+        attributes.setWorkflowType(decisionAttributes.getWorkflowType());
+        attributes.setControl(decisionAttributes.getControl());
+        attributes.setInput(decisionAttributes.getInput());
+        attributes.setExecutionStartToCloseTimeout(decisionAttributes.getExecutionStartToCloseTimeout());
+        attributes.setTaskList(decisionAttributes.getTaskList());
+        attributes.setTaskStartToCloseTimeout(decisionAttributes.getTaskStartToCloseTimeout());
+        attributes.setChildPolicy(decisionAttributes.getChildPolicy());
+        attributes.setTagList(decisionAttributes.getTagList());
+        attributes.setDecisionTaskCompletedEventId(completedEventId);
+        long initiatedEventId = execution.addEvent(EventType.StartChildWorkflowExecutionInitiated).withStartChildWorkflowExecutionInitiatedEventAttributes(
+                attributes).getEventId();
+
+        WorkflowExecutionStartedEventAttributes childAttributes = new WorkflowExecutionStartedEventAttributes();
+        childAttributes.setWorkflowType(decisionAttributes.getWorkflowType());
+        childAttributes.setInput(decisionAttributes.getInput());
+        childAttributes.setTaskList(decisionAttributes.getTaskList());
+        childAttributes.setExecutionStartToCloseTimeout(decisionAttributes.getExecutionStartToCloseTimeout());
+        childAttributes.setTaskStartToCloseTimeout(decisionAttributes.getTaskStartToCloseTimeout());
+        childAttributes.setChildPolicy(decisionAttributes.getChildPolicy());
+        childAttributes.setTagList(decisionAttributes.getTagList());
+        childAttributes.setParentWorkflowExecution(execution.workflowExecution);
+        childAttributes.setParentInitiatedEventId(initiatedEventId);
+        String cause = null;
+        Execution child = null;
+        try {
+            child = startExecution(execution.domain, decisionAttributes.getWorkflowId(), childAttributes);
+        }
+        catch (WorkflowExecutionAlreadyStartedException e) {
+            cause = StartChildWorkflowExecutionFailedCause.WORKFLOW_ALREADY_RUNNING.toString();
+        }
+        catch (UnknownResourceException e) {
+            cause = StartChildWorkflowExecutionFailedCause.WORKFLOW_TYPE_DOES_NOT_EXIST.toString();
+        }
+        catch (DefaultUndefinedException e) {
+            cause = e.getErrorCode();
+        }
+        if (child == null) {
+            StartChildWorkflowExecutionFailedEventAttributes failed = new StartChildWorkflowExecutionFailedEventAttributes();
+            failed.setWorkflowId(decisionAttributes.getWorkflowId());
+            failed.setWorkflowType(decisionAttributes.getWorkflowType());
+            failed.setCause(cause);
+            failed.setControl(decisionAttributes.getControl());
+            failed.setInitiatedEventId(initiatedEventId);
+            failed.setDecisionTaskCompletedEventId(completedEventId);
+            execution.addEvent(EventType.StartChildWorkflowExecutionFailed).setStartChildWorkflowExecutionFailedEventAttributes(
+                    failed);
+        }
+        else {
+            ChildWorkflowExecutionStartedEventAttributes started = new ChildWorkflowExecutionStartedEventAttributes();
+            started.setWorkflowExecution(child.workflowExecution);
+            started.setWorkflowType(decisionAttributes.getWorkflowType());
+            started.setInitiatedEventId(initiatedEventId);
+            child.parent = execution;
+            child.parentInitiatedEventId = initiatedEventId;
+            child.parentStartedEventId = execution.addEvent(EventType.ChildWorkflowExecutionStarted).withChildWorkflowExecutionStartedEventAttributes(
+                    started).getEventId();
+            execution.openChildren++;
+        }
+        scheduleDecisionTask(execution);
+    }
+
+    private void completeWorkflowExecution(Execution execution,
+            CompleteWorkflowExecutionDecisionAttributes decisionAttributes, long completedEventId) {
+        if (execution.decisionScheduledEventId != 0) {
+            CompleteWorkflowExecutionFailedEventAttributes failed = new CompleteWorkflowExecutionFailedEventAttributes();
+            failed.setCause(CompleteWorkflowExecutionFailedCause.UNHANDLED_DECISION);
+            failed.setDecisionTaskCompletedEventId(completedEventId);
+            execution.addEvent(EventType.CompleteWorkflowExecutionFailed).setCompleteWorkflowExecutionFailedEventAttributes(
+                    failed);
+            return;
+        }
+        WorkflowExecutionCompletedEventAttributes attributes = new WorkflowExecutionCompletedEventAttributes();
+        attributes.setResult(decisionAttributes.getResult());
+        attributes.setDecisionTaskCompletedEventId(completedEventId);
+        execution.addEvent(EventType.WorkflowExecutionCompleted).setWorkflowExecutionCompletedEventAttributes(attributes);
+        closeExecution(execution, CloseStatus.COMPLETED);
+        if (execution.parent != null && execution.parent.isOpen()) {
+            ChildWorkflowExecutionCompletedEventAttributes childAttributes = new ChildWorkflowExecutionCompletedEventAttributes();
+            childAttributes.setWorkflowExecution(execution.workflowExecution);
+            childAttributes.setWorkflowType(execution.startedAttributes.getWorkflowType());
+            childAttributes.setResult(decisionAttributes.getResult());
+            childAttributes.setInitiatedEventId(execution.parentInitiatedEventId);
+            childAttributes.setStartedEventId(execution.parentStartedEventId);
+            execution.parent.addEvent(EventType.ChildWorkflowExecutionCompleted).setChildWorkflowExecutionCompletedEventAttributes(
+                    childAttributes);
+            scheduleDecisionTask(execution.parent);
+        }
+    }
+
+    private void failWorkflowExecution(Execution execution, FailWorkflowExecutionDecisionAttributes decisionAttributes,
+            long completedEventId) {
+        if (execution.decisionScheduledEventId != 0) {
+            FailWorkflowExecutionFailedEventAttributes failed = new FailWorkflowExecutionFailedEventAttributes();
+            failed.setCause(FailWorkflowExecutionFailedCause.UNHANDLED_DECISION);
+            failed.setDecisionTaskCompletedEventId(completedEventId);
+            execution.addEvent(EventType.FailWorkflowExecutionFailed).setFailWorkflowExecutionFailedEventAttributes(failed);
+            return;
+        }
+        WorkflowExecutionFailedEventAttributes attributes = new WorkflowExecutionFailedEventAttributes();
+        attributes.setReason(decisionAttributes.getReason());
+        attributes.setDetails(decisionAttributes.getDetails());
+        attributes.setDecisionTaskCompletedEventId(completedEventId);
+        execution.addEvent(EventType.WorkflowExecutionFailed).setWorkflowExecutionFailedEventAttributes(attributes);
+        closeExecution(execution, CloseStatus.FAILED);
+        if (execution.parent != null && execution.parent.isOpen()) {
+            ChildWorkflowExecutionFailedEventAttributes childAttributes = new ChildWorkflowExecutionFailedEventAttributes();
+            childAttributes.setWorkflowExecution(execution.workflowExecution);
+            childAttributes.setWorkflowType(execution.startedAttributes.getWorkflowType());
+            childAttributes.setReason(decisionAttributes.getReason());
+            childAttributes.setDetails(decisionAttributes.getDetails());
+            childAttributes.setInitiatedEventId(execution.parentInitiatedEventId);
+            childAttributes.setStartedEventId(execution.parentStartedEventId);
+            execution.parent.addEvent(EventType.ChildWorkflowExecutionFailed).setChildWorkflowExecutionFailedEventAttributes(
+                    childAttributes);
+            scheduleDecisionTask(execution.parent);
+        }
+    }
+
+    private void cancelWorkflowExecution(Execution execution, CancelWorkflowExecutionDecisionAttributes decisionAttributes,
+            long completedEventId) {
+        if (execution.decisionScheduledEventId != 0) {
+            CancelWorkflowExecutionFailedEventAttributes failed = new CancelWorkflowExecutionFailedEventAttributes();
+            failed.setCause(CancelWorkflowExecutionFailedCause.UNHANDLED_DECISION);
+            failed.setDecisionTaskCompletedEventId(completedEventId);
+            execution.addEvent(EventType.CancelWorkflowExecutionFailed).setCancelWorkflowExecutionFailedEventAttributes(failed);
+            return;
+        }
+        WorkflowExecutionCanceledEventAttributes attributes = new WorkflowExecutionCanceledEventAttributes();
+        attributes.setDetails(decisionAttributes.getDetails());
+        attributes.setDecisionTaskCompletedEventId(completedEventId);
+        execution.addEvent(EventType.WorkflowExecutionCanceled).setWorkflowExecutionCanceledEventAttributes(attributes);
+        closeExecution(execution, CloseStatus.CANCELED);
+        if (execution.parent != null && execution.parent.isOpen()) {
+            ChildWorkflowExecutionCanceledEventAttributes childAttributes = new ChildWorkflowExecutionCanceledEventAttributes();
+            childAttributes.setWorkflowExecution(execution.workflowExecution);
+            childAttributes.setWorkflowType(execution.startedAttributes.getWorkflowType());
+            childAttributes.setDetails(decisionAttributes.getDetails());
+            childAttributes.setInitiatedEventId(execution.parentInitiatedEventId);
+            childAttributes.setStartedEventId(execution.parentStartedEventId);
+            execution.parent.addEvent(EventType.ChildWorkflowExecutionCanceled).setChildWorkflowExecutionCanceledEventAttributes(
+                    childAttributes);
+            scheduleDecisionTask(execution.parent);
+        }
+    }
+
+    private void continueAsNewWorkflowExecution(Execution execution,
+            ContinueAsNewWorkflowExecutionDecisionAttributes decisionAttributes, long completedEventId) {
+        if (execution.decisionScheduledEventId != 0) {
+            ContinueAsNewWorkflowExecutionFailedEventAttributes failed = new ContinueAsNewWorkflowExecutionFailedEventAttributes();
+            failed.setCause(ContinueAsNewWorkflowExecutionFailedCause.UNHANDLED_DECISION);
+            failed.setDecisionTaskCompletedEventId(completedEventId);
+            execution.addEvent(EventType.ContinueAsNewWorkflowExecutionFailed).setContinueAsNewWorkflowExecutionFailedEventAttributes(
+                    failed);
+            return;
+        }
+        WorkflowExecutionStartedEventAttributes current = execution.startedAttributes;
+        WorkflowType workflowType = current.getWorkflowType();
+        if (decisionAttributes.getWorkflowTypeVersion() != null) {
+            workflowType = new WorkflowType().withName(workflowType.getName()).withVersion(
+                    decisionAttributes.getWorkflowTypeVersion());
+        }
+        WorkflowExecutionStartedEventAttributes newAttributes = new WorkflowExecutionStartedEventAttributes();
+        newAttributes.setWorkflowType(workflowType);
+        newAttributes.setInput(decisionAttributes.getInput());
+        newAttributes.setTaskList(decisionAttributes.getTaskList() == null ? current.getTaskList()
+                : decisionAttributes.getTaskList());
+        newAttributes.setExecutionStartToCloseTimeout(withDefault(decisionAttributes.getExecutionStartToCloseTimeout(),
+                current.getExecutionStartToCloseTimeout()));
+        newAttributes.setTaskStartToCloseTimeout(withDefault(decisionAttributes.getTaskStartToCloseTimeout(),
+                current.getTaskStartToCloseTimeout()));
+        newAttributes.setChildPolicy(withDefault(decisionAttributes.getChildPolicy(), current.getChildPolicy()));
+        newAttributes.setTagList(decisionAttributes.getTagList());
+        newAttributes.setContinuedExecutionRunId(execution.workflowExecution.getRunId());
+        newAttributes.setParentWorkflowExecution(current.getParentWorkflowExecution());
+        newAttributes.setParentInitiatedEventId(current.getParentInitiatedEventId());
+
+        String newRunId = UUID.randomUUID().toString();
+        WorkflowExecutionContinuedAsNewEventAttributes attributes = new WorkflowExecutionContinuedAsNewEventAttributes();
+        attributes.setInput(newAttributes.getInput());
+        attributes.setWorkflowType(workflowType);
+        attributes.setTaskList(newAttributes.getTaskList());
+        attributes.setExecutionStartToCloseTimeout(newAttributes.getExecutionStartToCloseTimeout());
+        attributes.setTaskStartToCloseTimeout(newAttributes.getTaskStartToCloseTimeout());
+        attributes.setChildPolicy(newAttributes.getChildPolicy());
+        attributes.setTagList(newAttributes.getTagList());
+        attributes.setNewExecutionRunId(newRunId);
+        attributes.setDecisionTaskCompletedEventId(completedEventId);
+        execution.addEvent(EventType.WorkflowExecutionContinuedAsNew).setWorkflowExecutionContinuedAsNewEventAttributes(
+                attributes);
+        closeExecution(execution, CloseStatus.CONTINUED_AS_NEW);
+
+        // The new run takes over the place of the closed one as a child of its parent
+        Execution next = startExecution(execution.domain, execution.workflowExecution.getWorkflowId(), newRunId,
+                newAttributes);
+        if (execution.parent != null) {
+            execution.parent.openChildren++;
+            next.parent = execution.parent;
+            next.parentInitiatedEventId = execution.parentInitiatedEventId;
+            next.parentStartedEventId = execution.parentStartedEventId;
+        }
+    }
+
+    private Execution startExecution(Domain domain, String workflowId, WorkflowExecutionStartedEventAttributes attributes) {
+        return startExecution(domain, workflowId, UUID.randomUUID().toString(), attributes);
+    }
+
+    private Execution startExecution(Domain domain, String workflowId, String runId,
+            WorkflowExecutionStartedEventAttributes attributes) {
+        WorkflowTypeDetail type = getWorkflowType(domain, attributes.getWorkflowType());
+        if (domain.openExecutions.containsKey(workflowId)) {
+            throw new WorkflowExecutionAlreadyStartedException(workflowId);
+        }
+        WorkflowTypeConfiguration defaults = type.getConfiguration();
+        if (attributes.getTaskList() == null) {
+            attributes.setTaskList(defaults.getDefaultTaskList());
+            if (attributes.getTaskList() == null) {
+                throw defaultUndefined(StartChildWorkflowExecutionFailedCause.DEFAULT_TASK_LIST_UNDEFINED);
+            }
+        }
+        if (attributes.getExecutionStartToCloseTimeout() == null) {
+            attributes.setExecutionStartToCloseTimeout(defaults.getDefaultExecutionStartToCloseTimeout());
+            if (attributes.getExecutionStartToCloseTimeout() == null) {
+                throw defaultUndefined(StartChildWorkflowExecutionFailedCause.DEFAULT_EXECUTION_START_TO_CLOSE_TIMEOUT_UNDEFINED);
+            }
+        }
+        if (attributes.getTaskStartToCloseTimeout() == null) {
+            attributes.setTaskStartToCloseTimeout(defaults.getDefaultTaskStartToCloseTimeout());
+            if (attributes.getTaskStartToCloseTimeout() == null) {
+                throw defaultUndefined(StartChildWorkflowExecutionFailedCause.DEFAULT_TASK_START_TO_CLOSE_TIMEOUT_UNDEFINED);
+            }
+        }
+        if (attributes.getChildPolicy() == null) {
+            attributes.setChildPolicy(defaults.getDefaultChildPolicy());
+            if (attributes.getChildPolicy() == null) {
+                throw defaultUndefined(StartChildWorkflowExecutionFailedCause.DEFAULT_CHILD_POLICY_UNDEFINED);
+            }
+        }
+        WorkflowExecution workflowExecution = new WorkflowExecution().withWorkflowId(workflowId).withRunId(runId);
+        Execution execution = new Execution(domain, workflowExecution, attributes);
+        execution.addEvent(EventType.WorkflowExecutionStarted).setWorkflowExecutionStartedEventAttributes(attributes);
+        domain.openExecutions.put(workflowId, execution);
+        domain.executions.put(runId, execution);
+        scheduleDecisionTask(execution);
+        return execution;
+    }
+
+    private static DefaultUndefinedException defaultUndefined(StartChildWorkflowExecutionFailedCause cause) {
+        DefaultUndefinedException result = new DefaultUndefinedException(cause.toString());
+        result.setErrorCode(cause.toString());
+        return result;
+    }
+
+    private void closeExecution(Execution execution, CloseStatus closeStatus) {
+        execution.closeStatus = closeStatus.toString();
+        execution.closeTimestamp = new Date();
+        execution.decisionScheduledEventId = 0;
+        if (execution.decisionTaskToken != null) {
+            decisionTasks.remove(execution.decisionTaskToken);
+            execution.decisionTaskToken = null;
+        }
+        cancelDecisionTaskTimeout(execution);
+        for (ActivityTaskState task : execution.activities.values()) {
+            task.closed = true;
+        }
+        execution.activities.clear();
+        for (TimerState timer : execution.timers.values()) {
+            if (timer.future != null) {
+                timer.future.cancel(false);
+            }
+        }
+        execution.timers.clear();
+        execution.domain.openExecutions.remove(execution.workflowExecution.getWorkflowId());
+        if (execution.parent != null) {
+            execution.parent.openChildren--;
+        }
+    }
+
+    /**
+     * Adds a DecisionTaskScheduled event unless a decision task is already
+     * scheduled. The task is dispatched to deciders right away unless another
+     * decision task of the execution is in progress.
+     */
+    private void scheduleDecisionTask(Execution execution) {
+        if (!execution.isOpen() || execution.decisionScheduledEventId != 0) {
+            return;
+        }
+        WorkflowExecutionStartedEventAttributes started = execution.startedAttributes;
+        DecisionTaskScheduledEventAttributes attributes = new DecisionTaskScheduledEventAttributes();
+        attributes.setTaskList(started.getTaskList());
+        attributes.setStartToCloseTimeout(started.getTaskStartToCloseTimeout());
+        execution.decisionScheduledEventId = execution.addEvent(EventType.DecisionTaskScheduled).withDecisionTaskScheduledEventAttributes(
+                attributes).getEventId();
+        if (execution.decisionTaskToken == null) {
+            dispatchDecisionTask(execution);
+        }
+    }
+
+    private void dispatchDecisionTask(Execution execution) {
+        getDecisionTaskQueue(execution.domain.info.getName(), execution.startedAttributes.getTaskList().getName()).add(
+                execution);
+    }
+
+    private DecisionTask newDecisionTask(Execution execution, int offset, int pageSize, boolean reverseOrder) {
+        // Events added after the decision task was started are not part of it
+        int size = (int) execution.decisionStartedEventId;
+        List<HistoryEvent> events = execution.history.subList(0, size);
+        if (reverseOrder) {
+            events = new ArrayList<HistoryEvent>(events);
+            Collections.reverse(events);
+        }
+        int end = Math.min(size, offset + pageSize);
+        DecisionTask result = new DecisionTask();
+        result.setTaskToken(execution.decisionTaskToken);
+        result.setWorkflowExecution(execution.workflowExecution);
+        result.setWorkflowType(execution.startedAttributes.getWorkflowType());
+        result.setStartedEventId(execution.decisionStartedEventId);
+        result.setPreviousStartedEventId(execution.previousStartedEventId);
+        result.setEvents(new ArrayList<HistoryEvent>(events.subList(Math.min(offset, end), end)));
+        if (end < size) {
+            result.setNextPageToken(execution.decisionTaskToken + ":" + end);
+        }
+        return result;
+    }
+
+    /**
+     * Times out the decision task just started after the task start to close
+     * timeout of the execution, unless it is completed before.
+     */
+    private void scheduleDecisionTaskTimeout(final Execution execution) {
+        long timeoutSeconds = FlowHelpers.durationToSeconds(execution.startedAttributes.getTaskStartToCloseTimeout());
+        if (timeoutSeconds == FlowConstants.NONE || shutdown) {
+            return;
+        }
+        final String taskToken = execution.decisionTaskToken;
+        execution.decisionTimeout = timerService.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                timeoutDecisionTask(execution, taskToken);
+            }
+        }, timeoutSeconds, TimeUnit.SECONDS);
+    }
+
+    private void cancelDecisionTaskTimeout(Execution execution) {
+        if (execution.decisionTimeout != null) {
+            execution.decisionTimeout.cancel(false);
+            execution.decisionTimeout = null;
+        }
+    }
+
+    private void timeoutDecisionTask(Execution execution, String taskToken) {
+        lock.lock();
+        try {
+            if (!execution.isOpen() || !taskToken.equals(execution.decisionTaskToken)) {
+                return;
+            }
+            decisionTasks.remove(taskToken);
+            execution.decisionTaskToken = null;
+            execution.decisionTimeout = null;
+            DecisionTaskTimedOutEventAttributes attributes = new DecisionTaskTimedOutEventAttributes();
+            attributes.setTimeoutType(DecisionTaskTimeoutType.START_TO_CLOSE);
+            attributes.setScheduledEventId(execution.decisionStartedScheduledEventId);
+            attributes.setStartedEventId(execution.decisionStartedEventId);
+            execution.addEvent(EventType.DecisionTaskTimedOut).setDecisionTaskTimedOutEventAttributes(attributes);
+            if (execution.decisionScheduledEventId != 0) {
+                // Scheduled while the timed out task was in progress
+                dispatchDecisionTask(execution);
+            }
+            else {
+                scheduleDecisionTask(execution);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private static WorkflowExecutionInfo newExecutionInfo(Execution execution) {
+        WorkflowExecutionStartedEventAttributes started = execution.startedAttributes;
+        WorkflowExecutionInfo info = new WorkflowExecutionInfo();
+        info.setExecution(execution.workflowExecution);
+        info.setWorkflowType(started.getWorkflowType());
+        info.setStartTimestamp(execution.startTimestamp);
+        info.setCloseTimestamp(execution.closeTimestamp);
+        info.setExecutionStatus(execution.isOpen() ? ExecutionStatus.OPEN : ExecutionStatus.CLOSED);
+        info.setCloseStatus(execution.closeStatus);
+        info.setParent(execution.parent == null ? null : execution.parent.workflowExecution);
+        info.setTagList(started.getTagList());
+        info.setCancelRequested(execution.cancelRequested);
+        return info;
+    }
+
+    /**
+     * Returns infos of the open or closed executions of the domain matching
+     * all the filters that are not null.
+     */
+    private static List<WorkflowExecutionInfo> findExecutions(Domain domain, boolean open,
+            ExecutionTimeFilter startTimeFilter, ExecutionTimeFilter closeTimeFilter, WorkflowTypeFilter typeFilter,
+            TagFilter tagFilter, WorkflowExecutionFilter executionFilter, String closeStatus) {
+        List<WorkflowExecutionInfo> result = new ArrayList<WorkflowExecutionInfo>();
+        for (Execution execution : domain.executions.values()) {
+            if (execution.isOpen() != open) {
+                continue;
+            }
+            WorkflowExecutionStartedEventAttributes started = execution.startedAttributes;
+            if (!isInTimeFilter(execution.startTimestamp, startTimeFilter)
+                    || !isInTimeFilter(execution.closeTimestamp, closeTimeFilter)) {
+                continue;
+            }
+            if (typeFilter != null
+                    && (!typeFilter.getName().equals(started.getWorkflowType().getName()) || (typeFilter.getVersion() != null && !typeFilter.getVersion().equals(
+                            started.getWorkflowType().getVersion())))) {
+                continue;
+            }
+            if (tagFilter != null && (started.getTagList() == null || !started.getTagList().contains(tagFilter.getTag()))) {
+                continue;
+            }
+            if (executionFilter != null
+                    && !executionFilter.getWorkflowId().equals(execution.workflowExecution.getWorkflowId())) {
+                continue;
+            }
+            if (closeStatus != null && !closeStatus.equals(execution.closeStatus)) {
+                continue;
+            }
+            result.add(newExecutionInfo(execution));
+        }
+        return result;
+    }
+
+    private static boolean isInTimeFilter(Date timestamp, ExecutionTimeFilter filter) {
+        if (filter == null) {
+            return true;
+        }
+        if (filter.getOldestDate() != null && timestamp.before(filter.getOldestDate())) {
+            return false;
+        }
+        return filter.getLatestDate() == null || !timestamp.after(filter.getLatestDate());
+    }
+
+    /**
+     * Returns the page of the sorted items that nextPageToken points to.
+     */
+    private <T> Page<T> getPage(List<T> items, boolean reverseOrder, String nextPageToken, Integer maximumPageSize) {
+        if (reverseOrder) {
+            Collections.reverse(items);
+        }
+        int offset = nextPageToken == null ? 0 : parsePageToken(nextPageToken);
+        int end = Math.min(items.size(), offset + getPageSize(maximumPageSize));
+        List<T> pageItems = new ArrayList<T>(items.subList(Math.min(offset, end), end));
+        return new Page<T>(pageItems, end < items.size() ? String.valueOf(end) : null);
+    }
+
+    private ActivityTaskState getActivityTask(String taskToken) {
+        ActivityTaskState result = activityTasks.get(taskToken);
+        if (result == null || result.closed) {
+            throw new UnknownResourceException("Unknown activity task: " + taskToken);
+        }
+        return result;
+    }
+
+    private ActivityTaskState closeActivityTask(String taskToken) {
+        ActivityTaskState result = getActivityTask(taskToken);
+        activityTasks.remove(taskToken);
+        result.closed = true;
+        result.execution.activities.remove(result.activityId);
+        return result;
+    }
+
+    private TaskQueue<Execution> getDecisionTaskQueue(String domain, String taskList) {
+        String key = taskListKey(domain, taskList);
+        TaskQueue<Execution> result = decisionTaskLists.get(key);
+        if (result == null) {
+            result = new TaskQueue<Execution>();
+            decisionTaskLists.put(key, result);
+        }
+        return result;
+    }
+
+    private TaskQueue<ActivityTaskState> getActivityTaskQueue(String domain, String taskList) {
+        String key = taskListKey(domain, taskList);
+        TaskQueue<ActivityTaskState> result = activityTaskLists.get(key);
+        if (result == null) {
+            result = new TaskQueue<ActivityTaskState>();
+            activityTaskLists.put(key, result);
+        }
+        return result;
+    }
+
+    private Domain getDomain(String name) {
+        Domain result = domains.get(name);
+        if (result == null) {
+            throw new UnknownResourceException("Unknown domain: " + name);
+        }
+        return result;
+    }
+
+    private static ActivityTypeDetail getActivityType(Domain domain, ActivityType activityType) {
+        ActivityTypeDetail result = domain.activityTypes.get(typeKey(activityType.getName(), activityType.getVersion()));
+        if (result == null) {
+            throw new UnknownResourceException("Unknown activity type: " + activityType);
+        }
+        return result;
+    }
+
+    private static WorkflowTypeDetail getWorkflowType(Domain domain, WorkflowType workflowType) {
+        WorkflowTypeDetail result = domain.workflowTypes.get(typeKey(workflowType.getName(), workflowType.getVersion()));
+        if (result == null) {
+            throw new UnknownResourceException("Unknown workflow type: " + workflowType);
+        }
+        return result;
+    }
+
+    private static Execution getExecution(Domain domain, WorkflowExecution workflowExecution) {
+        Execution result = domain.executions.get(workflowExecution.getRunId());
+        if (result == null || !result.workflowExecution.getWorkflowId().equals(workflowExecution.getWorkflowId())) {
+            throw new UnknownResourceException("Unknown execution: " + workflowExecution);
+        }
+        return result;
+    }
+
+    private static Execution getOpenExecution(Domain domain, String workflowId, String runId) {
+        Execution result = findOpenExecution(domain, workflowId, runId);
+        if (result == null) {
+            throw new UnknownResourceException("Unknown execution: workflowId=" + workflowId + ", runId=" + runId);
+        }
+        return result;
+    }
+
+    private static Execution findOpenExecution(Domain domain, String workflowId, String runId) {
+        Execution result = domain.openExecutions.get(workflowId);
+        if (result == null || (runId != null && !runId.equals(result.workflowExecution.getRunId()))) {
+            return null;
+        }
+        return result;
+    }
+
+    private int getPageSize(Integer requested) {
+        return requested == null || requested <= 0 ? maximumPageSize : requested;
+    }
+
+    private static int parsePageToken(String pageToken) {
+        try {
+            return Integer.parseInt(pageToken);
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid nextPageToken: " + pageToken);
+        }
+    }
+
+    private static String withDefault(String value, String defaultValue) {
+        return value == null ? defaultValue : value;
+    }
+
+    private static String typeKey(String name, String version) {
+        return name + "\n" + version;
+    }
+
+    private static String taskListKey(String domain, TaskList taskList) {
+        return taskListKey(domain, taskList.getName());
+    }
+
+    private static String taskListKey(String domain, String taskList) {
+        return domain + "\n" + taskList;
+    }
+}
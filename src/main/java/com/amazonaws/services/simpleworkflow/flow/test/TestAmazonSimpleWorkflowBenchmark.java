@@ -0,0 +1,370 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.simpleworkflow.flow.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.simpleworkflow.flow.ActivityExecutionContext;
+import com.amazonaws.services.simpleworkflow.flow.DecisionContext;
+import com.amazonaws.services.simpleworkflow.flow.WorkflowTypeRegistrationOptions;
+import com.amazonaws.services.simpleworkflow.flow.core.Promise;
+import com.amazonaws.services.simpleworkflow.flow.core.Settable;
+import com.amazonaws.services.simpleworkflow.flow.core.Task;
+import com.amazonaws.services.simpleworkflow.flow.generic.ActivityImplementation;
+import com.amazonaws.services.simpleworkflow.flow.generic.ActivityImplementationBase;
+import com.amazonaws.services.simpleworkflow.flow.generic.ActivityImplementationFactory;
+import com.amazonaws.services.simpleworkflow.flow.generic.WorkflowDefinition;
+import com.amazonaws.services.simpleworkflow.flow.generic.WorkflowDefinitionFactory;
+import com.amazonaws.services.simpleworkflow.flow.generic.WorkflowDefinitionFactoryFactory;
+import com.amazonaws.services.simpleworkflow.flow.worker.GenericActivityWorker;
+import com.amazonaws.services.simpleworkflow.flow.worker.GenericWorkflowWorker;
+import com.amazonaws.services.simpleworkflow.model.ActivityType;
+import com.amazonaws.services.simpleworkflow.model.DescribeWorkflowExecutionRequest;
+import com.amazonaws.services.simpleworkflow.model.EventType;
+import com.amazonaws.services.simpleworkflow.model.GetWorkflowExecutionHistoryRequest;
+import com.amazonaws.services.simpleworkflow.model.History;
+import com.amazonaws.services.simpleworkflow.model.HistoryEvent;
+import com.amazonaws.services.simpleworkflow.model.RegisterActivityTypeRequest;
+import com.amazonaws.services.simpleworkflow.model.RegisterDomainRequest;
+import com.amazonaws.services.simpleworkflow.model.RegisterWorkflowTypeRequest;
+import com.amazonaws.services.simpleworkflow.model.StartWorkflowExecutionRequest;
+import com.amazonaws.services.simpleworkflow.model.TaskList;
+import com.amazonaws.services.simpleworkflow.model.WorkflowExecution;
+import com.amazonaws.services.simpleworkflow.model.WorkflowType;
+
+/**
+ * Measures the decision throughput, the replay cost and the activity dispatch
+ * latency of the workers against {@link TestAmazonSimpleWorkflow}. Every
+ * workflow execution runs a chain of activities, each one scheduled after the
+ * previous one completes, so that its history grows by one activity per
+ * decision.
+ * <p>
+ * Usage: <code>TestAmazonSimpleWorkflowBenchmark [executions [steps ...]]</code>
+ * where <code>executions</code> is the number of concurrent executions of the
+ * throughput run, default 50, and <code>steps</code> are the chain lengths of
+ * the replay runs, default 10, 50, 200 and 500.
+ */
+public class TestAmazonSimpleWorkflowBenchmark {
+
+    private static final String DOMAIN = "benchmark";
+
+    private static final String DECISION_TASK_LIST = "decisions";
+
+    private static final String ACTIVITY_TASK_LIST = "activities";
+
+    private static final WorkflowType WORKFLOW_TYPE = new WorkflowType().withName("chain").withVersion("1.0");
+
+    private static final ActivityType ACTIVITY_TYPE = new ActivityType().withName("increment").withVersion("1.0");
+
+    private static final int THROUGHPUT_STEPS = 20;
+
+    private static final int POLL_THREAD_COUNT = 4;
+
+    /**
+     * Workflow that chains <code>steps</code> increment activities
+     */
+    private static class ChainWorkflowDefinition extends WorkflowDefinition {
+
+        private final DecisionContext context;
+
+        private final int steps;
+
+        private ChainWorkflowDefinition(DecisionContext context, int steps) {
+            this.context = context;
+            this.steps = steps;
+        }
+
+        @Override
+        public Promise<String> execute(String input) {
+            Settable<String> result = new Settable<String>();
+            step(0, Promise.asPromise(input), result);
+            return result;
+        }
+
+        private void step(final int index, final Promise<String> previous, final Settable<String> result) {
+            new Task(previous) {
+
+                @Override
+                protected void doExecute() throws Throwable {
+                    if (index == steps) {
+                        result.set(previous.get());
+                        return;
+                    }
+                    Promise<String> next = context.getActivityClient().scheduleActivityTask(ACTIVITY_TYPE.getName(),
+                            ACTIVITY_TYPE.getVersion(), previous.get());
+                    step(index + 1, next, result);
+                }
+            };
+        }
+
+        @Override
+        public void signalRecieved(String signalName, String input) {
+        }
+
+        @Override
+        public String getWorkflowState() {
+            return null;
+        }
+    }
+
+    private static class ChainWorkflowDefinitionFactory extends WorkflowDefinitionFactory {
+
+        private final int steps;
+
+        private ChainWorkflowDefinitionFactory(int steps) {
+            this.steps = steps;
+        }
+
+        @Override
+        public WorkflowTypeRegistrationOptions getWorkflowRegistrationOptions() {
+            return null;
+        }
+
+        @Override
+        public WorkflowDefinition getWorkflowDefinition(DecisionContext context) {
+            return new ChainWorkflowDefinition(context, steps);
+        }
+
+        @Override
+        public void deleteWorkflowDefinition(WorkflowDefinition instance) {
+        }
+
+        @Override
+        public WorkflowType getWorkflowType() {
+            return WORKFLOW_TYPE;
+        }
+    }
+
+    private final TestAmazonSimpleWorkflow service = new TestAmazonSimpleWorkflow();
+
+    private int workflowIdSequence;
+
+    public TestAmazonSimpleWorkflowBenchmark() {
+        // Short polls let the workers of a run shut down quickly
+        service.setPollTimeoutMilliseconds(500);
+        service.registerDomain(new RegisterDomainRequest().withName(DOMAIN).withWorkflowExecutionRetentionPeriodInDays("1"));
+        service.registerWorkflowType(new RegisterWorkflowTypeRequest().withDomain(DOMAIN).withName(WORKFLOW_TYPE.getName()).withVersion(
+                WORKFLOW_TYPE.getVersion()).withDefaultTaskList(new TaskList().withName(DECISION_TASK_LIST)).withDefaultChildPolicy(
+                "TERMINATE").withDefaultExecutionStartToCloseTimeout("3600").withDefaultTaskStartToCloseTimeout("60"));
+        service.registerActivityType(new RegisterActivityTypeRequest().withDomain(DOMAIN).withName(ACTIVITY_TYPE.getName()).withVersion(
+                ACTIVITY_TYPE.getVersion()).withDefaultTaskList(new TaskList().withName(ACTIVITY_TASK_LIST)).withDefaultTaskHeartbeatTimeout(
+                "NONE").withDefaultTaskScheduleToCloseTimeout("600").withDefaultTaskScheduleToStartTimeout("600").withDefaultTaskStartToCloseTimeout(
+                "60"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int executions = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        List<Integer> replaySteps = new ArrayList<Integer>();
+        for (int i = 1; i < args.length; i++) {
+            replaySteps.add(Integer.parseInt(args[i]));
+        }
+        if (replaySteps.isEmpty()) {
+            replaySteps.add(10);
+            replaySteps.add(50);
+            replaySteps.add(200);
+            replaySteps.add(500);
+        }
+        TestAmazonSimpleWorkflowBenchmark benchmark = new TestAmazonSimpleWorkflowBenchmark();
+        try {
+            benchmark.run(executions, replaySteps);
+        }
+        finally {
+            benchmark.service.shutdown();
+        }
+    }
+
+    public void run(int executions, List<Integer> replaySteps) throws InterruptedException {
+        // Warm up so that class loading and JIT do not count against the first run
+        runExecutions(POLL_THREAD_COUNT, THROUGHPUT_STEPS, POLL_THREAD_COUNT);
+
+        long start = System.nanoTime();
+        List<History> histories = runExecutions(executions, THROUGHPUT_STEPS, executions);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int decisions = countEvents(histories, EventType.DecisionTaskCompleted);
+        System.out.printf("Throughput: %d executions of %d activities, %d decisions in %.2fs, %.1f decisions/s%n",
+                executions, THROUGHPUT_STEPS, decisions, seconds, decisions / seconds);
+
+        List<Long> dispatchLatencies = getLatencies(histories, EventType.ActivityTaskScheduled,
+                EventType.ActivityTaskStarted);
+        System.out.printf("Activity dispatch latency: average %.2fms, p99 %dms over %d activities%n",
+                average(dispatchLatencies), percentile(dispatchLatencies, 99), dispatchLatencies.size());
+
+        // Without the decider cache every decision replays the whole history
+        for (int steps : replaySteps) {
+            List<History> replayed = runExecutions(1, steps, 0);
+            List<History> cached = runExecutions(1, steps, 1);
+            List<Long> replayedLatencies = getLatencies(replayed, EventType.DecisionTaskStarted,
+                    EventType.DecisionTaskCompleted);
+            List<Long> cachedLatencies = getLatencies(cached, EventType.DecisionTaskStarted,
+                    EventType.DecisionTaskCompleted);
+            System.out.printf("Replay: %d events, decision latency average %.2fms replayed, %.2fms cached%n",
+                    replayed.get(0).getEvents().size(), average(replayedLatencies), average(cachedLatencies));
+        }
+    }
+
+    /**
+     * Runs the executions to completion with workers started for this run
+     * only and returns their histories.
+     */
+    private List<History> runExecutions(int executions, int steps, int deciderCacheSize) throws InterruptedException {
+        GenericWorkflowWorker workflowWorker = new GenericWorkflowWorker(service, DOMAIN, DECISION_TASK_LIST);
+        workflowWorker.setRegisterDomain(false);
+        workflowWorker.setDisableServiceShutdownOnStop(true);
+        workflowWorker.setPollThreadCount(POLL_THREAD_COUNT);
+        workflowWorker.setDeciderCacheSize(deciderCacheSize);
+        final WorkflowDefinitionFactory factory = new ChainWorkflowDefinitionFactory(steps);
+        workflowWorker.setWorkflowDefinitionFactoryFactory(new WorkflowDefinitionFactoryFactory() {
+
+            @Override
+            public WorkflowDefinitionFactory getWorkflowDefinitionFactory(WorkflowType workflowType) {
+                return factory;
+            }
+
+            @Override
+            public Iterable<WorkflowType> getWorkflowTypesToRegister() {
+                return Collections.emptyList();
+            }
+        });
+        GenericActivityWorker activityWorker = new GenericActivityWorker(service, DOMAIN, ACTIVITY_TASK_LIST);
+        activityWorker.setRegisterDomain(false);
+        activityWorker.setDisableServiceShutdownOnStop(true);
+        activityWorker.setPollThreadCount(POLL_THREAD_COUNT);
+        activityWorker.setActivityImplementationFactory(new ActivityImplementationFactory() {
+
+            @Override
+            public Iterable<ActivityType> getActivityTypesToRegister() {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public ActivityImplementation getActivityImplementation(ActivityType activityType) {
+                return new ActivityImplementationBase() {
+
+                    @Override
+                    protected String execute(String input, ActivityExecutionContext context) {
+                        return String.valueOf(Integer.parseInt(input) + 1);
+                    }
+                };
+            }
+        });
+        workflowWorker.start();
+        activityWorker.start();
+        try {
+            List<WorkflowExecution> started = new ArrayList<WorkflowExecution>();
+            for (int i = 0; i < executions; i++) {
+                String workflowId = "chain-" + workflowIdSequence++;
+                String runId = service.startWorkflowExecution(
+                        new StartWorkflowExecutionRequest().withDomain(DOMAIN).withWorkflowId(workflowId).withWorkflowType(
+                                WORKFLOW_TYPE).withInput("0")).getRunId();
+                started.add(new WorkflowExecution().withWorkflowId(workflowId).withRunId(runId));
+            }
+            List<History> result = new ArrayList<History>();
+            for (WorkflowExecution execution : started) {
+                awaitClose(execution);
+                result.add(getHistory(execution));
+            }
+            return result;
+        }
+        finally {
+            workflowWorker.shutdown();
+            activityWorker.shutdown();
+            workflowWorker.awaitTermination(10, TimeUnit.SECONDS);
+            activityWorker.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private void awaitClose(WorkflowExecution execution) throws InterruptedException {
+        while (true) {
+            String closeStatus = service.describeWorkflowExecution(
+                    new DescribeWorkflowExecutionRequest().withDomain(DOMAIN).withExecution(execution)).getExecutionInfo().getCloseStatus();
+            if (closeStatus != null) {
+                if (!"COMPLETED".equals(closeStatus)) {
+                    throw new IllegalStateException(execution + " closed with " + closeStatus);
+                }
+                return;
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private History getHistory(WorkflowExecution execution) {
+        List<HistoryEvent> events = new ArrayList<HistoryEvent>();
+        String nextPageToken = null;
+        do {
+            History page = service.getWorkflowExecutionHistory(new GetWorkflowExecutionHistoryRequest().withDomain(DOMAIN).withExecution(
+                    execution).withNextPageToken(nextPageToken));
+            events.addAll(page.getEvents());
+            nextPageToken = page.getNextPageToken();
+        }
+        while (nextPageToken != null);
+        return new History().withEvents(events);
+    }
+
+    private static int countEvents(List<History> histories, EventType eventType) {
+        int result = 0;
+        for (History history : histories) {
+            for (HistoryEvent event : history.getEvents()) {
+                if (eventType.toString().equals(event.getEventType())) {
+                    result++;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the milliseconds between each <code>to</code> event and the
+     * preceding <code>from</code> event, in history order.
+     */
+    private static List<Long> getLatencies(List<History> histories, EventType from, EventType to) {
+        List<Long> result = new ArrayList<Long>();
+        for (History history : histories) {
+            List<Long> fromTimes = new ArrayList<Long>();
+            for (HistoryEvent event : history.getEvents()) {
+                if (from.toString().equals(event.getEventType())) {
+                    fromTimes.add(event.getEventTimestamp().getTime());
+                }
+                else if (to.toString().equals(event.getEventType()) && !fromTimes.isEmpty()) {
+                    result.add(event.getEventTimestamp().getTime() - fromTimes.remove(0));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static double average(List<Long> values) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        long sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        return (double) sum / values.size();
+    }
+
+    private static long percentile(List<Long> values, int percentile) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        List<Long> sorted = new ArrayList<Long>(values);
+        Collections.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(index, 0));
+    }
+}
@@ -39,6 +39,8 @@ class ActivityExecutionContextImpl extends ActivityExecutionContext {
     
     private final ActivityTask task;
 
+    private final ActivityHeartbeatScheduler.TaskHeartbeat heartbeat;
+
     /**
      * Create an ActivityExecutionContextImpl with the given attributes.
      * 
@@ -52,9 +54,20 @@ class ActivityExecutionContextImpl extends ActivityExecutionContext {
      * @see ActivityExecutionContext
      */
     public ActivityExecutionContextImpl(AmazonSimpleWorkflow service, String domain, ActivityTask task) {
+        this(service, domain, task, null);
+    }
+
+    /**
+     * Create an ActivityExecutionContextImpl which heartbeats are sent in the
+     * background through the given heartbeat. If heartbeat is null they are
+     * sent synchronously.
+     */
+    ActivityExecutionContextImpl(AmazonSimpleWorkflow service, String domain, ActivityTask task,
+            ActivityHeartbeatScheduler.TaskHeartbeat heartbeat) {
         this.domain = domain;
         this.service = service;
         this.task = task;
+        this.heartbeat = heartbeat;
     }
 
     /**
@@ -63,8 +76,9 @@ class ActivityExecutionContextImpl extends ActivityExecutionContext {
      */
     @Override
     public void recordActivityHeartbeat(String details) throws CancellationException {
-        //TODO: call service with the specified minimal interval (through @ActivityExecutionOptions)
-        // allowing more frequent calls of this method.
+        if (heartbeat != null && heartbeat.record(details)) {
+            return;
+        }
         RecordActivityTaskHeartbeatRequest r = new RecordActivityTaskHeartbeatRequest();
         r.setTaskToken(task.getTaskToken());
         r.setDetails(details);
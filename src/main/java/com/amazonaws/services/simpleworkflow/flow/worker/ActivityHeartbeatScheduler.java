@@ -0,0 +1,247 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.simpleworkflow.flow.worker;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.services.simpleworkflow.AmazonSimpleWorkflow;
+import com.amazonaws.services.simpleworkflow.model.ActivityTask;
+import com.amazonaws.services.simpleworkflow.model.ActivityTaskStatus;
+import com.amazonaws.services.simpleworkflow.model.RecordActivityTaskHeartbeatRequest;
+import com.amazonaws.services.simpleworkflow.model.UnknownResourceException;
+
+/**
+ * Sends activity heartbeats in the background for all activity tasks of a
+ * worker. Heartbeats recorded by an activity are coalesced: at most one
+ * heartbeat per task is sent to the service at a time and no more often than
+ * a fraction of the task heartbeat timeout, always with the latest recorded
+ * details. Cancellation requests returned by the service are reported to the
+ * activity on its next heartbeat.
+ *
+ * @see ActivityExecutionContextImpl#recordActivityHeartbeat(String)
+ */
+public class ActivityHeartbeatScheduler {
+
+    private static final Log log = LogFactory.getLog(ActivityHeartbeatScheduler.class);
+
+    public static final double DEFAULT_HEARTBEAT_TIMEOUT_FRACTION = 0.3;
+
+    public static final long DEFAULT_HEARTBEAT_INTERVAL_MILLISECONDS = 1000;
+
+    /**
+     * Heartbeats of a single activity task.
+     */
+    class TaskHeartbeat implements Runnable {
+
+        private final String taskToken;
+
+        private final long intervalNanos;
+
+        private String details;
+
+        private boolean pending;
+
+        /**
+         * true while a heartbeat is scheduled or is being sent
+         */
+        private boolean scheduled;
+
+        private boolean closed;
+
+        private long lastSentNanos;
+
+        private volatile boolean cancelRequested;
+
+        private volatile RuntimeException failure;
+
+        TaskHeartbeat(String taskToken, long intervalNanos) {
+            this.taskToken = taskToken;
+            this.intervalNanos = intervalNanos;
+            this.lastSentNanos = System.nanoTime() - intervalNanos;
+        }
+
+        /**
+         * Records heartbeat details to be sent in the background.
+         *
+         * @return false if heartbeats are no longer sent in the background and
+         *         the caller should send it itself
+         * @throws CancellationException
+         *             if a previous heartbeat returned cancellation request
+         */
+        boolean record(String details) throws CancellationException {
+            if (cancelRequested) {
+                throw new CancellationException();
+            }
+            RuntimeException f = failure;
+            if (f != null) {
+                throw f;
+            }
+            synchronized (this) {
+                if (closed) {
+                    return false;
+                }
+                this.details = details;
+                pending = true;
+                if (!scheduled) {
+                    if (!schedule()) {
+                        pending = false;
+                        return false;
+                    }
+                    scheduled = true;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Stops sending heartbeats. Called when the activity task is done.
+         */
+        synchronized void close() {
+            closed = true;
+        }
+
+        @Override
+        public void run() {
+            String detailsToSend;
+            synchronized (this) {
+                if (closed || !pending) {
+                    scheduled = false;
+                    return;
+                }
+                detailsToSend = details;
+                pending = false;
+                lastSentNanos = System.nanoTime();
+            }
+            try {
+                RecordActivityTaskHeartbeatRequest r = new RecordActivityTaskHeartbeatRequest();
+                r.setTaskToken(taskToken);
+                r.setDetails(detailsToSend);
+                ActivityTaskStatus status = service.recordActivityTaskHeartbeat(r);
+                if (status.isCancelRequested()) {
+                    cancelRequested = true;
+                }
+            }
+            catch (UnknownResourceException e) {
+                // Task timed out or was closed, there is no point to continue sending heartbeats
+                failure = e;
+            }
+            catch (RuntimeException e) {
+                if (log.isWarnEnabled()) {
+                    log.warn("Failure sending activity heartbeat", e);
+                }
+            }
+            synchronized (this) {
+                scheduled = pending && !closed && failure == null && !cancelRequested && schedule();
+            }
+        }
+
+        private boolean schedule() {
+            long delay = Math.max(0, lastSentNanos + intervalNanos - System.nanoTime());
+            try {
+                executor.schedule(this, delay, TimeUnit.NANOSECONDS);
+                return true;
+            }
+            catch (RejectedExecutionException e) {
+                // Shutting down
+                return false;
+            }
+        }
+    }
+
+    private final AmazonSimpleWorkflow service;
+
+    private final ScheduledExecutorService executor;
+
+    private double heartbeatTimeoutFraction = DEFAULT_HEARTBEAT_TIMEOUT_FRACTION;
+
+    private long defaultHeartbeatIntervalMilliseconds = DEFAULT_HEARTBEAT_INTERVAL_MILLISECONDS;
+
+    /**
+     * @param executor
+     *            executor heartbeats are sent from. It is shut down together
+     *            with the scheduler.
+     */
+    public ActivityHeartbeatScheduler(AmazonSimpleWorkflow service, ScheduledExecutorService executor) {
+        this.service = service;
+        this.executor = executor;
+    }
+
+    public double getHeartbeatTimeoutFraction() {
+        return heartbeatTimeoutFraction;
+    }
+
+    /**
+     * Minimal interval between heartbeats of a task as a fraction of the task
+     * heartbeat timeout. Should be less than 0.5 to ensure that heartbeats of
+     * an activity that records them more often than that interval are
+     * delivered within the timeout. Default is 0.3.
+     */
+    public void setHeartbeatTimeoutFraction(double heartbeatTimeoutFraction) {
+        if (heartbeatTimeoutFraction <= 0 || heartbeatTimeoutFraction >= 1) {
+            throw new IllegalArgumentException("heartbeatTimeoutFraction not in (0, 1) range: " + heartbeatTimeoutFraction);
+        }
+        this.heartbeatTimeoutFraction = heartbeatTimeoutFraction;
+    }
+
+    public long getDefaultHeartbeatIntervalMilliseconds() {
+        return defaultHeartbeatIntervalMilliseconds;
+    }
+
+    /**
+     * Minimal interval between heartbeats of tasks which heartbeat timeout is
+     * not known to the worker. Default is 1 second.
+     */
+    public void setDefaultHeartbeatIntervalMilliseconds(long defaultHeartbeatIntervalMilliseconds) {
+        if (defaultHeartbeatIntervalMilliseconds < 0) {
+            throw new IllegalArgumentException("negative defaultHeartbeatIntervalMilliseconds");
+        }
+        this.defaultHeartbeatIntervalMilliseconds = defaultHeartbeatIntervalMilliseconds;
+    }
+
+    /**
+     * @param heartbeatTimeoutSeconds
+     *            heartbeat timeout of the task or null if unknown. Activity
+     *            tasks do not include the timeout, so the default timeout the
+     *            activity type is registered with is used.
+     */
+    TaskHeartbeat createTaskHeartbeat(ActivityTask task, Long heartbeatTimeoutSeconds) {
+        long intervalNanos;
+        if (heartbeatTimeoutSeconds != null && heartbeatTimeoutSeconds > 0) {
+            intervalNanos = (long) (TimeUnit.SECONDS.toNanos(heartbeatTimeoutSeconds) * heartbeatTimeoutFraction);
+        }
+        else {
+            intervalNanos = TimeUnit.MILLISECONDS.toNanos(defaultHeartbeatIntervalMilliseconds);
+        }
+        return new TaskHeartbeat(task.getTaskToken(), intervalNanos);
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public void shutdownNow() {
+        executor.shutdownNow();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+}
@@ -128,15 +128,20 @@ public class ActivityTaskPoller extends SynchronousActivityTaskPoller {
     @Override
     public void shutdown() {
         taskExecutorService.shutdown();
+        super.shutdown();
     }
 
     @Override
     public void shutdownNow() {
         taskExecutorService.shutdownNow();
+        super.shutdownNow();
     }
 
     @Override
     public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
-        return taskExecutorService.awaitTermination(timeout, unit);
+        long start = System.nanoTime();
+        boolean terminated = taskExecutorService.awaitTermination(timeout, unit);
+        long left = unit.toNanos(timeout) - (System.nanoTime() - start);
+        return super.awaitTermination(Math.max(0, left), TimeUnit.NANOSECONDS) && terminated;
     }
 }
@@ -25,6 +25,7 @@ import com.amazonaws.AmazonServiceException;
 import com.amazonaws.AmazonServiceException.ErrorType;
 import com.amazonaws.services.simpleworkflow.flow.DecisionContext;
 import com.amazonaws.services.simpleworkflow.flow.WorkflowException;
+import com.amazonaws.services.simpleworkflow.flow.WorkflowExecutionLocal;
 import com.amazonaws.services.simpleworkflow.flow.core.AsyncScope;
 import com.amazonaws.services.simpleworkflow.flow.core.AsyncTaskInfo;
 import com.amazonaws.services.simpleworkflow.flow.core.Promise;
@@ -131,7 +132,7 @@ class AsyncDecider {
 
     private WorkflowDefinition definition;
 
-    private final HistoryHelper historyHelper;
+    private HistoryHelper historyHelper;
 
     private final DecisionsHelper decisionsHelper;
 
@@ -155,6 +156,14 @@ class AsyncDecider {
 
     private Throwable failure;
 
+    /**
+     * Workflow execution locals of a decider suspended after its last
+     * decision, null if it isn't suspended.
+     */
+    private Object suspendedLocals;
+
+    private long lastDecisionTaskStartedEventId;
+
     public AsyncDecider(WorkflowDefinitionFactory workflowDefinitionFactory, HistoryHelper historyHelper,
             DecisionsHelper decisionsHelper) throws Exception {
         this.workflowDefinitionFactory = workflowDefinitionFactory;
@@ -425,10 +434,32 @@ class AsyncDecider {
     }
 
     public void decide() throws Exception {
+        decide(false);
+    }
+
+    /**
+     * Makes the decisions of the current decision task. If suspend is true and
+     * the workflow is still open the workflow definition is not deleted.
+     * Instead its workflow execution locals are unbound from the current
+     * thread, so the decider can be continued through
+     * {@link #continueWith(HistoryHelper)} when the next decision task of the
+     * same workflow run arrives. A suspended decider that is not continued
+     * must be released through {@link #release()}.
+     * 
+     * @return true if the decider was suspended
+     */
+    boolean decide(boolean suspend) throws Exception {
+        boolean suspended = false;
         try {
-            definition = workflowDefinitionFactory.getWorkflowDefinition(context);
             if (definition == null) {
-                throw new IllegalStateException("Unknown workflow type: " + context.getWorkflowContext().getWorkflowType());
+                definition = workflowDefinitionFactory.getWorkflowDefinition(context);
+                if (definition == null) {
+                    throw new IllegalStateException("Unknown workflow type: " + context.getWorkflowContext().getWorkflowType());
+                }
+            }
+            else {
+                WorkflowExecutionLocal.resume(suspendedLocals);
+                suspendedLocals = null;
             }
             long lastNonReplayedEventId = historyHelper.getLastNonReplayEventId();
             // Buffer events until the next DecisionTaskStarted and then process them
@@ -504,6 +535,10 @@ class AsyncDecider {
                 unhandledDecision = false;
                 completeWorkflow();
             }
+            if (suspend && !completed) {
+                lastDecisionTaskStartedEventId = historyHelper.getDecisionTask().getStartedEventId();
+                suspended = true;
+            }
         }
         catch (AmazonServiceException e) {
             // We don't want to fail workflow on service exceptions like 500 or throttling
@@ -534,7 +569,59 @@ class AsyncDecider {
             catch (Throwable e) {
                 decisionsHelper.setWorkflowContextData(e.getMessage());
             }
-            workflowDefinitionFactory.deleteWorkflowDefinition(this.definition);
+            if (suspended) {
+                suspendedLocals = WorkflowExecutionLocal.suspend();
+            }
+            else {
+                workflowDefinitionFactory.deleteWorkflowDefinition(this.definition);
+            }
+        }
+        return suspended;
+    }
+
+    /**
+     * Prepares a suspended decider to decide the next decision task of its
+     * workflow run. The events that the decider has already processed are
+     * skipped, so only the new ones are applied by {@link #decide(boolean)}.
+     * 
+     * @return false if the decision task doesn't follow the last one decided
+     *         by this decider, for example because that decision failed or
+     *         timed out. In this case the history is left untouched and the
+     *         decider must be released.
+     */
+    boolean continueWith(HistoryHelper nextHistoryHelper) {
+        if (suspendedLocals == null) {
+            return false;
+        }
+        DecisionTask decisionTask = nextHistoryHelper.getDecisionTask();
+        Long previousStartedEventId = decisionTask.getPreviousStartedEventId();
+        if (previousStartedEventId == null || previousStartedEventId != lastDecisionTaskStartedEventId) {
+            return false;
+        }
+        EventsIterator eventsIterator = nextHistoryHelper.getEvents();
+        while (eventsIterator.hasNext()) {
+            if (eventsIterator.next().getEventId() == lastDecisionTaskStartedEventId) {
+                // Drop the history of the previous decision task, which the
+                // workflow context and the decisions helper refer to
+                historyHelper = nextHistoryHelper;
+                workflowContext.setDecisionTask(decisionTask);
+                decisionsHelper.setTask(decisionTask);
+                return true;
+            }
+        }
+        throw new IllegalStateException("DecisionTaskStarted event " + lastDecisionTaskStartedEventId
+                + " is missing from the history of " + workflowContext.getWorkflowExecution());
+    }
+
+    /**
+     * Deletes the workflow definition of a suspended decider that is not going
+     * to be continued.
+     */
+    void release() {
+        if (suspendedLocals != null) {
+            WorkflowExecutionLocal.resume(suspendedLocals);
+            suspendedLocals = null;
+            workflowDefinitionFactory.deleteWorkflowDefinition(definition);
         }
     }
 
@@ -39,15 +39,31 @@ public class AsyncDecisionTaskHandler extends DecisionTaskHandler {
 
     private final WorkflowDefinitionFactoryFactory definitionFactoryFactory;
 
+    private final DeciderCache deciderCache;
+
     public AsyncDecisionTaskHandler(WorkflowDefinitionFactoryFactory definitionFactoryFactory) {
+        this(definitionFactoryFactory, 0);
+    }
+
+    /**
+     * @param deciderCacheSize
+     *            maximum number of workflow runs which deciders are kept
+     *            between decision tasks to avoid replaying their whole
+     *            history. 0 disables the cache.
+     */
+    public AsyncDecisionTaskHandler(WorkflowDefinitionFactoryFactory definitionFactoryFactory, int deciderCacheSize) {
         this.definitionFactoryFactory = definitionFactoryFactory;
+        this.deciderCache = deciderCacheSize > 0 ? new DeciderCache(deciderCacheSize) : null;
     }
 
     @Override
     public RespondDecisionTaskCompletedRequest handleDecisionTask(Iterator<DecisionTask> decisionTaskIterator) throws Exception {
         HistoryHelper historyHelper = new HistoryHelper(decisionTaskIterator);
-        AsyncDecider decider = createDecider(historyHelper);
-        decider.decide();
+        AsyncDecider decider = getCachedDecider(historyHelper);
+        if (decider == null) {
+            decider = createDecider(historyHelper);
+        }
+        boolean suspended = decider.decide(deciderCache != null);
         DecisionsHelper decisionsHelper = decider.getDecisionsHelper();
         Collection<Decision> decisions = decisionsHelper.getDecisions();
         String context = decisionsHelper.getWorkflowContextDataToReturn();
@@ -64,9 +80,42 @@ public class AsyncDecisionTaskHandler extends DecisionTaskHandler {
         completedRequest.setTaskToken(decisionTask.getTaskToken());
         completedRequest.setDecisions(decisions);
         completedRequest.setExecutionContext(context);
+        if (suspended) {
+            deciderCache.put(decisionTask.getWorkflowExecution().getRunId(), decider);
+        }
         return completedRequest;
     }
 
+    /**
+     * @return decider suspended after the previous decision task of the
+     *         workflow run or null if there is none or it cannot be continued
+     *         and the whole history has to be replayed.
+     */
+    private AsyncDecider getCachedDecider(HistoryHelper historyHelper) {
+        if (deciderCache == null) {
+            return null;
+        }
+        DecisionTask decisionTask = historyHelper.getDecisionTask();
+        AsyncDecider decider = deciderCache.remove(decisionTask.getWorkflowExecution().getRunId());
+        if (decider == null) {
+            return null;
+        }
+        boolean continued = false;
+        try {
+            continued = decider.continueWith(historyHelper);
+        }
+        finally {
+            if (!continued) {
+                DeciderCache.release(decider);
+            }
+        }
+        if (continued && log.isDebugEnabled()) {
+            log.debug("Continuing cached decider: taskId=" + decisionTask.getStartedEventId() + ", workflowExecution="
+                    + decisionTask.getWorkflowExecution());
+        }
+        return continued ? decider : null;
+    }
+
     @Override
     public WorkflowDefinition loadWorkflowThroughReplay(Iterator<DecisionTask> decisionTaskIterator) throws Exception {
         HistoryHelper historyHelper = new HistoryHelper(decisionTaskIterator);
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.simpleworkflow.flow.worker;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Worker local cache of deciders suspended after their last decision, keyed
+ * by workflow run id. Deciders are removed from the cache while they decide,
+ * so a decider is never used by two threads at the same time. The least
+ * recently used deciders are released once the cache is full.
+ */
+class DeciderCache {
+
+    private static final Log log = LogFactory.getLog(DeciderCache.class);
+
+    private final int maximumSize;
+
+    private final Map<String, AsyncDecider> deciders = new LinkedHashMap<String, AsyncDecider>(16, 0.75f, true);
+
+    DeciderCache(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("0 or negative maximumSize");
+        }
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * @return decider of the workflow run or null if it is not cached. The
+     *         decider is removed from the cache.
+     */
+    AsyncDecider remove(String runId) {
+        synchronized (deciders) {
+            return deciders.remove(runId);
+        }
+    }
+
+    /**
+     * Caches a suspended decider, releasing the least recently used ones if
+     * the cache is full.
+     */
+    void put(String runId, AsyncDecider decider) {
+        List<AsyncDecider> evicted = new ArrayList<AsyncDecider>();
+        synchronized (deciders) {
+            AsyncDecider previous = deciders.put(runId, decider);
+            if (previous != null && previous != decider) {
+                evicted.add(previous);
+            }
+            Iterator<AsyncDecider> iterator = deciders.values().iterator();
+            while (deciders.size() > maximumSize) {
+                evicted.add(iterator.next());
+                iterator.remove();
+            }
+        }
+        // Released outside of the lock as releasing calls the workflow definition factory
+        for (AsyncDecider d : evicted) {
+            release(d);
+        }
+    }
+
+    static void release(AsyncDecider decider) {
+        try {
+            decider.release();
+        }
+        catch (Throwable e) {
+            if (log.isWarnEnabled()) {
+                log.warn("Failure releasing cached decider", e);
+            }
+        }
+    }
+}
@@ -16,11 +16,17 @@ package com.amazonaws.services.simpleworkflow.flow.worker;
 
 import java.lang.management.ManagementFactory;
 import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.simpleworkflow.AmazonSimpleWorkflow;
 import com.amazonaws.services.simpleworkflow.flow.common.WorkflowExecutionUtils;
 import com.amazonaws.services.simpleworkflow.model.DecisionTask;
@@ -34,14 +40,102 @@ public class DecisionTaskPoller implements TaskPoller {
 
     private static final Log decisionsLog = LogFactory.getLog(DecisionTaskPoller.class.getName() + ".decisions");
 
+    /**
+     * Polls the history pages that follow the first page of a decision task
+     * in the background, so that fetching them overlaps with the replay of the
+     * pages already received. At most historyPagePrefetchCount pages are kept
+     * ahead of the decider.
+     */
+    private class HistoryPagePrefetcher implements Runnable {
+
+        private final BlockingQueue<Object> pages;
+
+        private final String firstPageToken;
+
+        private Future<?> future;
+
+        public HistoryPagePrefetcher(String firstPageToken) {
+            this.firstPageToken = firstPageToken;
+            pages = new ArrayBlockingQueue<Object>(historyPagePrefetchCount);
+        }
+
+        void start() {
+            future = historyPagePrefetchService.submit(this);
+        }
+
+        @Override
+        public void run() {
+            try {
+                String nextPageToken = firstPageToken;
+                while (nextPageToken != null) {
+                    Object page;
+                    try {
+                        DecisionTask decisionTask = poll(nextPageToken);
+                        nextPageToken = decisionTask == null ? null : decisionTask.getNextPageToken();
+                        page = decisionTask == null ? NO_PAGE : decisionTask;
+                    }
+                    catch (Throwable e) {
+                        nextPageToken = null;
+                        page = e;
+                    }
+                    pages.put(page);
+                }
+            }
+            catch (InterruptedException e) {
+                // Cancelled as the decision task is no longer processed
+            }
+        }
+
+        /**
+         * @return the next page or null if the history ended unexpectedly.
+         */
+        DecisionTask take() {
+            Object page;
+            try {
+                page = pages.take();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AmazonClientException("Interrupted while waiting for the next history page", e);
+            }
+            if (page instanceof RuntimeException) {
+                throw (RuntimeException) page;
+            }
+            if (page instanceof Error) {
+                throw (Error) page;
+            }
+            if (page instanceof Throwable) {
+                throw new AmazonClientException("Failure polling for the next history page", (Throwable) page);
+            }
+            return page == NO_PAGE ? null : (DecisionTask) page;
+        }
+
+        void cancel() {
+            future.cancel(true);
+        }
+    }
+
     private class DecisionTaskIterator implements Iterator<DecisionTask> {
 
         private final DecisionTask firstDecisionTask;
 
         private DecisionTask next;
 
+        private HistoryPagePrefetcher prefetcher;
+
         public DecisionTaskIterator() {
             next = firstDecisionTask = poll(null);
+            if (next != null && next.getNextPageToken() != null && historyPagePrefetchService != null
+                    && historyPagePrefetchCount > 0) {
+                prefetcher = new HistoryPagePrefetcher(next.getNextPageToken());
+                try {
+                    prefetcher.start();
+                }
+                catch (RejectedExecutionException e) {
+                    // Shutting down or all prefetch threads are busy, poll the pages synchronously
+                    prefetcher = null;
+                }
+            }
         }
 
         @Override
@@ -59,7 +153,7 @@ public class DecisionTaskPoller implements TaskPoller {
                 next = null;
             }
             else {
-                next = poll(next.getNextPageToken());
+                next = prefetcher == null ? poll(next.getNextPageToken()) : prefetcher.take();
                 // Just to not keep around the history page
                 if (firstDecisionTask != result) {
                     firstDecisionTask.setEvents(null);
@@ -77,8 +171,19 @@ public class DecisionTaskPoller implements TaskPoller {
             return firstDecisionTask;
         }
 
+        /**
+         * Stops prefetching the pages that weren't used.
+         */
+        public void close() {
+            if (prefetcher != null) {
+                prefetcher.cancel();
+            }
+        }
+
     }
 
+    private static final Object NO_PAGE = new Object();
+
     private AmazonSimpleWorkflow service;
 
     private String domain;
@@ -91,6 +196,12 @@ public class DecisionTaskPoller implements TaskPoller {
 
     private DecisionTaskHandler decisionTaskHandler;
 
+    private ExecutorService historyPagePrefetchService;
+
+    private int historyPagePrefetchCount = 1;
+
+    private PollMetrics pollMetrics;
+
     public DecisionTaskPoller() {
         identity = ManagementFactory.getRuntimeMXBean().getName();
     }
@@ -139,6 +250,48 @@ public class DecisionTaskPoller implements TaskPoller {
         this.domain = domain;
     }
 
+    public ExecutorService getHistoryPagePrefetchService() {
+        return historyPagePrefetchService;
+    }
+
+    /**
+     * Executor used to poll the history pages of a decision task in the
+     * background while the decider replays the previous ones. When not set
+     * pages are polled synchronously when the decider reaches the end of the
+     * current page. The executor is shut down with the poller.
+     */
+    public void setHistoryPagePrefetchService(ExecutorService historyPagePrefetchService) {
+        this.historyPagePrefetchService = historyPagePrefetchService;
+    }
+
+    public int getHistoryPagePrefetchCount() {
+        return historyPagePrefetchCount;
+    }
+
+    /**
+     * Maximum number of history pages polled ahead of the decider. Default is
+     * 1. 0 disables prefetch.
+     */
+    public void setHistoryPagePrefetchCount(int historyPagePrefetchCount) {
+        if (historyPagePrefetchCount < 0) {
+            throw new IllegalArgumentException("negative historyPagePrefetchCount");
+        }
+        this.historyPagePrefetchCount = historyPagePrefetchCount;
+    }
+
+    public PollMetrics getPollMetrics() {
+        return pollMetrics;
+    }
+
+    /**
+     * Counters the poll and decision latencies are recorded to. Only the
+     * polls for new decision tasks are recorded, not the ones for the
+     * following history pages. Optional.
+     */
+    public void setPollMetrics(PollMetrics pollMetrics) {
+        this.pollMetrics = pollMetrics;
+    }
+
     public String getTaskListToPoll() {
         return taskListToPoll;
     }
@@ -168,7 +321,11 @@ public class DecisionTaskPoller implements TaskPoller {
         if (log.isDebugEnabled()) {
             log.debug("poll request begin: " + pollRequest);
         }
+        long start = System.nanoTime();
         DecisionTask result = service.pollForDecisionTask(pollRequest);
+        if (pollMetrics != null && nextResultToken == null) {
+            pollMetrics.recordPoll(System.nanoTime() - start, result == null || result.getTaskToken() == null);
+        }
         if (log.isDebugEnabled()) {
             log.debug("poll request returned decision task: workflowType=" + result.getWorkflowType() + ", workflowExecution="
                     + result.getWorkflowExecution() + ", startedEventId=" + result.getStartedEventId() + ", previousStartedEventId=" + result.getPreviousStartedEventId());
@@ -193,11 +350,13 @@ public class DecisionTaskPoller implements TaskPoller {
     public boolean pollAndProcessSingleTask() throws Exception {
         DecisionTaskIterator tasks = null;
         RespondDecisionTaskCompletedRequest taskCompletedRequest = null;
+        long start = 0;
         try {
             tasks = new DecisionTaskIterator();
             if (!tasks.hasNext()) {
                 return false;
             }
+            start = System.nanoTime();
             taskCompletedRequest = decisionTaskHandler.handleDecisionTask(tasks);
             if (decisionsLog.isTraceEnabled()) {
                 decisionsLog.trace(WorkflowExecutionUtils.prettyPrintDecisions(taskCompletedRequest.getDecisions()));
@@ -224,6 +383,14 @@ public class DecisionTaskPoller implements TaskPoller {
             }
             throw e;
         }
+        finally {
+            if (tasks != null) {
+                tasks.close();
+            }
+            if (pollMetrics != null && start != 0) {
+                pollMetrics.recordTask(System.nanoTime() - start);
+            }
+        }
         return true;
     }
 
@@ -256,14 +423,23 @@ public class DecisionTaskPoller implements TaskPoller {
 
     @Override
     public void shutdown() {
+        if (historyPagePrefetchService != null) {
+            historyPagePrefetchService.shutdown();
+        }
     }
 
     @Override
     public void shutdownNow() {
+        if (historyPagePrefetchService != null) {
+            historyPagePrefetchService.shutdownNow();
+        }
     }
 
     @Override
     public boolean awaitTermination(long left, TimeUnit milliseconds) throws InterruptedException {
+        if (historyPagePrefetchService != null) {
+            historyPagePrefetchService.awaitTermination(left, milliseconds);
+        }
         //TODO: Waiting for all currently running pollAndProcessSingleTask to complete 
         return false;
     }
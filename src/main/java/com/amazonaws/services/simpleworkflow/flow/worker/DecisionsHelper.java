@@ -70,7 +70,7 @@ class DecisionsHelper {
 
     static final String FORCE_IMMEDIATE_DECISION_TIMER = "FORCE_IMMEDIATE_DECISION";
 
-    private final DecisionTask task;
+    private DecisionTask task;
 
     private long idCounter;
 
@@ -495,6 +495,10 @@ class DecisionsHelper {
         return task;
     }
 
+    void setTask(DecisionTask task) {
+        this.task = task;
+    }
+
     String getActivityId(ActivityTaskCanceledEventAttributes attributes) {
         Long sourceId = attributes.getScheduledEventId();
         return activitySchedulingEventIdToActivityId.get(sourceId);
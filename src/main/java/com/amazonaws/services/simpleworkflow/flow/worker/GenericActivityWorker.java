@@ -14,6 +14,7 @@
  */
 package com.amazonaws.services.simpleworkflow.flow.worker;
 
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -41,10 +42,14 @@ public class GenericActivityWorker extends GenericWorker {
 
     private static final String ACTIVITY_THREAD_NAME_PREFIX = "SWF Activity ";
 
+    private static final String HEARTBEAT_THREAD_NAME_PREFIX = "SWF Activity Heartbeat ";
+
     private ActivityImplementationFactory activityImplementationFactory;
 
     private int taskExecutorThreadPoolSize = 100;
 
+    private double heartbeatTimeoutFraction;
+
     public GenericActivityWorker(AmazonSimpleWorkflow service, String domain, String taskListToPoll) {
         super(service, domain, taskListToPoll);
         if (service == null) {
@@ -76,6 +81,35 @@ public class GenericActivityWorker extends GenericWorker {
         this.taskExecutorThreadPoolSize = taskExecutorThreadPoolSize;
     }
 
+    public double getHeartbeatTimeoutFraction() {
+        return heartbeatTimeoutFraction;
+    }
+
+    /**
+     * When greater than 0, activity heartbeats are sent in the background no
+     * more often than this fraction of the heartbeat timeout the activity type
+     * is registered with, always with the latest details. Cancellation is
+     * reported to an activity on the heartbeat that follows the one which
+     * received the cancellation request. Default is 0, which disables
+     * background heartbeats, so every heartbeat is sent synchronously.
+     * <p>
+     * Activity tasks do not include their heartbeat timeout, so the interval
+     * is based on the registered default even when a workflow schedules the
+     * task with a shorter heartbeatTimeoutSeconds. Enable background
+     * heartbeats only for activity types that are never scheduled with a
+     * heartbeat timeout shorter than the registered one, otherwise heartbeats
+     * may be held back past the task's timeout. 0.3 is a reasonable value.
+     * 
+     * @see ActivityHeartbeatScheduler
+     */
+    public void setHeartbeatTimeoutFraction(double heartbeatTimeoutFraction) {
+        if (heartbeatTimeoutFraction < 0 || heartbeatTimeoutFraction >= 1) {
+            throw new IllegalArgumentException("heartbeatTimeoutFraction not in [0, 1) range: " + heartbeatTimeoutFraction);
+        }
+        checkStarted();
+        this.heartbeatTimeoutFraction = heartbeatTimeoutFraction;
+    }
+
     protected Semaphore createPollSemaphore() {
         return new Semaphore(taskExecutorThreadPoolSize);
     }
@@ -83,7 +117,7 @@ public class GenericActivityWorker extends GenericWorker {
     @Override
     public String toString() {
         return this.getClass().getSimpleName() + " [super=" + super.toString() + ", taskExecutorThreadPoolSize="
-                + taskExecutorThreadPoolSize + "]";
+                + taskExecutorThreadPoolSize + ", heartbeatTimeoutFraction=" + heartbeatTimeoutFraction + "]";
     }
 
     @Override
@@ -97,7 +131,20 @@ public class GenericActivityWorker extends GenericWorker {
                 new SynchronousQueue<Runnable>());
         tasksExecutor.setThreadFactory(new ExecutorThreadFactory(ACTIVITY_THREAD_NAME_PREFIX + " " + getTaskListToPoll() + " "));
         tasksExecutor.setRejectedExecutionHandler(new BlockCallerPolicy());
-        return new ActivityTaskPoller(service, domain, getTaskListToPoll(), activityImplementationFactory, tasksExecutor);
+        ActivityTaskPoller poller = new ActivityTaskPoller(service, domain, getTaskListToPoll(), activityImplementationFactory,
+                tasksExecutor);
+        poller.setPollMetrics(getPollMetrics());
+        if (heartbeatTimeoutFraction > 0) {
+            // Threads are only kept while heartbeats are sent, at most one per running activity
+            ScheduledThreadPoolExecutor heartbeatExecutor = new ScheduledThreadPoolExecutor(taskExecutorThreadPoolSize,
+                    new ExecutorThreadFactory(HEARTBEAT_THREAD_NAME_PREFIX + getTaskListToPoll() + " "));
+            heartbeatExecutor.setKeepAliveTime(1, TimeUnit.MINUTES);
+            heartbeatExecutor.allowCoreThreadTimeOut(true);
+            ActivityHeartbeatScheduler heartbeatScheduler = new ActivityHeartbeatScheduler(service, heartbeatExecutor);
+            heartbeatScheduler.setHeartbeatTimeoutFraction(heartbeatTimeoutFraction);
+            poller.setHeartbeatScheduler(heartbeatScheduler);
+        }
+        return poller;
     }
 
     @Override
@@ -18,6 +18,7 @@ import java.lang.Thread.UncaughtExceptionHandler;
 import java.lang.management.ManagementFactory;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -64,6 +65,7 @@ public abstract class GenericWorker implements WorkerBase {
 
         @Override
         public void run() {
+            boolean polled = false;
             try {
                 if (log.isDebugEnabled()) {
                     log.debug("poll task begin");
@@ -91,7 +93,7 @@ public abstract class GenericWorker implements WorkerBase {
                 if (pollExecutor.isTerminating()) {
                     return;
                 }
-                poller.pollAndProcessSingleTask();
+                polled = poller.pollAndProcessSingleTask();
                 pollBackoffThrottler.success();
             }
             catch (Throwable e) {
@@ -103,7 +105,7 @@ public abstract class GenericWorker implements WorkerBase {
             finally {
                 // Resubmit itself back to pollExecutor
                 if (!pollExecutor.isShutdown()) {
-                    pollExecutor.execute(this);
+                    resubmit(this, polled);
                 }
             }
         }
@@ -145,9 +147,15 @@ public abstract class GenericWorker implements WorkerBase {
 
     private int pollThreadCount = 1;
 
+    private int minimumPollThreadCount;
+
+    private final AtomicInteger activePollThreadCount = new AtomicInteger();
+
+    private PollMetrics pollMetrics;
+
     private BackoffThrottler pollBackoffThrottler;
 
-    private Throttler pollRateThrottler;
+    private RateLimiter pollRateThrottler;
 
     protected UncaughtExceptionHandler uncaughtExceptionHandler = new UncaughtExceptionHandler() {
 
@@ -338,6 +346,38 @@ public abstract class GenericWorker implements WorkerBase {
         this.pollThreadCount = threadCount;
     }
 
+    public int getMinimumPollThreadCount() {
+        return minimumPollThreadCount;
+    }
+
+    /**
+     * Enables adaptive polling when set to a value between 1 and
+     * {@link #getPollThreadCount()} - 1. The worker starts with that many
+     * polling threads and adds one each time a poll returns a task, up to
+     * {@link #getPollThreadCount()}. A thread stops polling after a poll that
+     * times out without a task, as long as at least minimumPollThreadCount
+     * threads are left. This way bursts of tasks are picked up by more
+     * concurrent polls while an idle task list holds few long poll
+     * connections. Default is 0 which means that all
+     * {@link #getPollThreadCount()} threads always poll.
+     */
+    public void setMinimumPollThreadCount(int minimumPollThreadCount) {
+        checkStarted();
+        if (minimumPollThreadCount < 0) {
+            throw new IllegalArgumentException("negative minimumPollThreadCount");
+        }
+        this.minimumPollThreadCount = minimumPollThreadCount;
+    }
+
+    /**
+     * Poll and task latency counters of the task list polled by the worker.
+     * 
+     * @return null if the worker is not started
+     */
+    public PollMetrics getPollMetrics() {
+        return pollMetrics;
+    }
+
     @Override
     public void setDisableTypeRegistrationOnStart(boolean disableTypeRegistrationOnStart) {
         this.disableTypeRegitrationOnStart = disableTypeRegistrationOnStart;
@@ -368,7 +408,7 @@ public abstract class GenericWorker implements WorkerBase {
         }
 
         if (maximumPollRatePerSecond > 0.0) {
-            pollRateThrottler = new Throttler("pollRateThrottler " + taskListToPoll, maximumPollRatePerSecond,
+            pollRateThrottler = new RateLimiter("pollRateThrottler " + taskListToPoll, maximumPollRatePerSecond,
                     maximumPollRateIntervalMilliseconds);
         }
 
@@ -376,15 +416,64 @@ public abstract class GenericWorker implements WorkerBase {
                 new LinkedBlockingQueue<Runnable>(pollThreadCount));
         ExecutorThreadFactory pollExecutorThreadFactory = getExecutorThreadFactory();
         pollExecutor.setThreadFactory(pollExecutorThreadFactory);
+        int initialPollThreadCount = pollThreadCount;
+        if (isAdaptivePolling()) {
+            // Threads of the pollers stopped after empty polls are released
+            pollExecutor.allowCoreThreadTimeOut(true);
+            initialPollThreadCount = minimumPollThreadCount;
+        }
 
         pollBackoffThrottler = new BackoffThrottler(pollBackoffInitialInterval, pollBackoffMaximumInterval,
                 pollBackoffCoefficient);
+        pollMetrics = new PollMetrics(taskListToPoll);
         poller = createPoller();
-        for (int i = 0; i < pollThreadCount; i++) {
+        for (int i = 0; i < initialPollThreadCount; i++) {
+            activePollThreadCount.incrementAndGet();
+            pollMetrics.pollThreadStarted();
             pollExecutor.execute(new PollServiceTask(poller));
         }
     }
 
+    private boolean isAdaptivePolling() {
+        return minimumPollThreadCount > 0 && minimumPollThreadCount < pollThreadCount;
+    }
+
+    /**
+     * Continues polling after a poll completes. In adaptive mode a poll that
+     * returned a task starts an additional poller and an empty one stops the
+     * current poller if there are more than minimumPollThreadCount of them.
+     */
+    private void resubmit(PollServiceTask task, boolean polled) {
+        if (isAdaptivePolling()) {
+            if (polled) {
+                int count = activePollThreadCount.get();
+                if (count < pollThreadCount && activePollThreadCount.compareAndSet(count, count + 1)) {
+                    pollMetrics.pollThreadStarted();
+                    executePollTask(new PollServiceTask(poller));
+                }
+            }
+            else {
+                int count = activePollThreadCount.get();
+                if (count > minimumPollThreadCount && activePollThreadCount.compareAndSet(count, count - 1)) {
+                    pollMetrics.pollThreadStopped();
+                    return;
+                }
+            }
+        }
+        executePollTask(task);
+    }
+
+    private void executePollTask(PollServiceTask task) {
+        try {
+            pollExecutor.execute(task);
+        }
+        catch (RejectedExecutionException e) {
+            // Shutting down
+            activePollThreadCount.decrementAndGet();
+            pollMetrics.pollThreadStopped();
+        }
+    }
+
     private ExecutorThreadFactory getExecutorThreadFactory() {
         ExecutorThreadFactory pollExecutorThreadFactory = new ExecutorThreadFactory(getPollThreadNamePrefix());
         return pollExecutorThreadFactory;
@@ -492,7 +581,7 @@ public abstract class GenericWorker implements WorkerBase {
         return this.getClass().getSimpleName() + "[service=" + service + ", domain=" + domain + ", taskListToPoll="
                 + taskListToPoll + ", identity=" + identity + ", backoffInitialInterval=" + pollBackoffInitialInterval
                 + ", backoffMaximumInterval=" + pollBackoffMaximumInterval + ", backoffCoefficient=" + pollBackoffCoefficient
-                + "]";
+                + ", pollThreadCount=" + pollThreadCount + ", minimumPollThreadCount=" + minimumPollThreadCount + "]";
     }
 
     @Override
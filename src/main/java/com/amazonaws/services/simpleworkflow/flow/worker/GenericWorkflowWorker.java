@@ -15,6 +15,9 @@
 package com.amazonaws.services.simpleworkflow.flow.worker;
 
 import java.lang.management.ManagementFactory;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -36,8 +39,14 @@ public class GenericWorkflowWorker extends GenericWorker {
 
     private static final String THREAD_NAME_PREFIX = "SWF Decider ";
 
+    private static final String HISTORY_THREAD_NAME_PREFIX = "SWF Decider History ";
+
     private WorkflowDefinitionFactoryFactory workflowDefinitionFactoryFactory;
 
+    private int deciderCacheSize;
+
+    private int historyPagePrefetchCount = 1;
+
     public GenericWorkflowWorker() {
         setIdentity(ManagementFactory.getRuntimeMXBean().getName());
     }
@@ -57,6 +66,45 @@ public class GenericWorkflowWorker extends GenericWorker {
         this.workflowDefinitionFactoryFactory = workflowDefinitionFactoryFactory;
     }
 
+    public int getDeciderCacheSize() {
+        return deciderCacheSize;
+    }
+
+    /**
+     * Maximum number of workflow runs which deciders are kept in memory
+     * between decision tasks, so that only the new events of a decision task
+     * are applied instead of replaying the whole history. The least recently
+     * used deciders are dropped when the limit is reached, and the whole
+     * history is replayed for runs which deciders are not cached or cannot be
+     * continued. Default is 0 which disables the cache.
+     */
+    public void setDeciderCacheSize(int deciderCacheSize) {
+        if (deciderCacheSize < 0) {
+            throw new IllegalArgumentException("negative deciderCacheSize");
+        }
+        checkStarted();
+        this.deciderCacheSize = deciderCacheSize;
+    }
+
+    public int getHistoryPagePrefetchCount() {
+        return historyPagePrefetchCount;
+    }
+
+    /**
+     * Maximum number of history pages of a decision task polled in the
+     * background ahead of the decider, so that fetching long histories
+     * overlaps with their replay. Default is 1. 0 disables prefetch, which
+     * causes pages to be polled only when the decider reaches the end of the
+     * current one.
+     */
+    public void setHistoryPagePrefetchCount(int historyPagePrefetchCount) {
+        if (historyPagePrefetchCount < 0) {
+            throw new IllegalArgumentException("negative historyPagePrefetchCount");
+        }
+        checkStarted();
+        this.historyPagePrefetchCount = historyPagePrefetchCount;
+    }
+
     protected DecisionTaskPoller createWorkflowPoller() {
         DecisionTaskPoller poller = new DecisionTaskPoller();
         return poller;
@@ -75,11 +123,20 @@ public class GenericWorkflowWorker extends GenericWorker {
     @Override
     protected TaskPoller createPoller() {
         DecisionTaskPoller result = new DecisionTaskPoller();
-        result.setDecisionTaskHandler(new AsyncDecisionTaskHandler(workflowDefinitionFactoryFactory));
+        result.setDecisionTaskHandler(new AsyncDecisionTaskHandler(workflowDefinitionFactoryFactory, deciderCacheSize));
         result.setDomain(getDomain());
         result.setIdentity(getIdentity());
         result.setService(getService());
         result.setTaskListToPoll(getTaskListToPoll());
+        result.setPollMetrics(getPollMetrics());
+        if (historyPagePrefetchCount > 0) {
+            // A decision task that finds all the threads busy polls its pages synchronously
+            ThreadPoolExecutor historyExecutor = new ThreadPoolExecutor(0, getPollThreadCount(), 1, TimeUnit.MINUTES,
+                    new SynchronousQueue<Runnable>());
+            historyExecutor.setThreadFactory(new ExecutorThreadFactory(HISTORY_THREAD_NAME_PREFIX + getTaskListToPoll() + " "));
+            result.setHistoryPagePrefetchService(historyExecutor);
+            result.setHistoryPagePrefetchCount(historyPagePrefetchCount);
+        }
         return result;
     }
 
@@ -91,7 +148,7 @@ public class GenericWorkflowWorker extends GenericWorker {
     @Override
     public String toString() {
         return this.getClass().getSimpleName() + "[super=" + super.toString() + ", workflowDefinitionFactoryFactory="
-                + workflowDefinitionFactoryFactory + "]";
+                + workflowDefinitionFactoryFactory + ", deciderCacheSize=" + deciderCacheSize + ", historyPagePrefetchCount=" + historyPagePrefetchCount + "]";
     }
 
     public static void registerWorkflowTypes(AmazonSimpleWorkflow service, String domain, String defaultTaskList,
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.simpleworkflow.flow.worker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Poll and task processing counters of a single task list. Counters are
+ * cumulative since the worker was started; callers interested in rates should
+ * sample them periodically and compute the differences.
+ * <p>
+ * Instances of this class are thread-safe.
+ */
+public class PollMetrics {
+
+    private final String taskList;
+
+    private final AtomicInteger pollThreadCount = new AtomicInteger();
+
+    private final AtomicLong pollCount = new AtomicLong();
+
+    private final AtomicLong emptyPollCount = new AtomicLong();
+
+    private final AtomicLong pollTimeNanos = new AtomicLong();
+
+    private final AtomicLong taskCount = new AtomicLong();
+
+    private final AtomicLong taskTimeNanos = new AtomicLong();
+
+    public PollMetrics(String taskList) {
+        this.taskList = taskList;
+    }
+
+    public String getTaskList() {
+        return taskList;
+    }
+
+    /**
+     * Number of threads currently polling the task list.
+     */
+    public int getPollThreadCount() {
+        return pollThreadCount.get();
+    }
+
+    /**
+     * Number of completed poll requests, including the empty ones.
+     */
+    public long getPollCount() {
+        return pollCount.get();
+    }
+
+    /**
+     * Number of poll requests that timed out without returning a task.
+     */
+    public long getEmptyPollCount() {
+        return emptyPollCount.get();
+    }
+
+    /**
+     * Total time spent in poll requests.
+     */
+    public long getPollTime(TimeUnit unit) {
+        return unit.convert(pollTimeNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Number of processed tasks, either successfully or not.
+     */
+    public long getTaskCount() {
+        return taskCount.get();
+    }
+
+    /**
+     * Total time spent processing tasks, up to and including reporting their
+     * results to the service.
+     */
+    public long getTaskTime(TimeUnit unit) {
+        return unit.convert(taskTimeNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return average poll request latency or 0 if there were no polls
+     */
+    public double getAveragePollLatencyMilliseconds() {
+        return average(pollTimeNanos.get(), pollCount.get());
+    }
+
+    /**
+     * @return average task processing latency or 0 if there were no tasks
+     */
+    public double getAverageTaskLatencyMilliseconds() {
+        return average(taskTimeNanos.get(), taskCount.get());
+    }
+
+    void pollThreadStarted() {
+        pollThreadCount.incrementAndGet();
+    }
+
+    void pollThreadStopped() {
+        pollThreadCount.decrementAndGet();
+    }
+
+    void recordPoll(long elapsedNanos, boolean empty) {
+        pollTimeNanos.addAndGet(elapsedNanos);
+        pollCount.incrementAndGet();
+        if (empty) {
+            emptyPollCount.incrementAndGet();
+        }
+    }
+
+    void recordTask(long elapsedNanos) {
+        taskTimeNanos.addAndGet(elapsedNanos);
+        taskCount.incrementAndGet();
+    }
+
+    private static double average(long totalNanos, long count) {
+        if (count == 0) {
+            return 0;
+        }
+        return totalNanos / 1000000.0 / count;
+    }
+
+    @Override
+    public String toString() {
+        return "PollMetrics[taskList=" + taskList + ", pollThreadCount=" + getPollThreadCount() + ", pollCount="
+                + getPollCount() + ", emptyPollCount=" + getEmptyPollCount() + ", averagePollLatencyMilliseconds="
+                + getAveragePollLatencyMilliseconds() + ", taskCount=" + getTaskCount()
+                + ", averageTaskLatencyMilliseconds=" + getAverageTaskLatencyMilliseconds() + "]";
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.simpleworkflow.flow.worker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Limits the rate of calls the same way as {@link Throttler} does, but
+ * without a lock: each caller atomically reserves the earliest time slot
+ * available to it and then waits for that slot on its own. Callers that are
+ * within the rate never wait and never block each other.
+ * <p>
+ * Up to maxRatePerSecond * rateIntervalMilliseconds / 1000 calls are allowed
+ * in a burst, after which calls are spaced evenly at the maximum rate.
+ */
+public class RateLimiter {
+
+    private static final Log log = LogFactory.getLog(RateLimiter.class);
+
+    /**
+     * Human readable name of the resource being throttled. Used for logging
+     * only.
+     */
+    private final String name;
+
+    private final long emissionIntervalNanos;
+
+    private final long burstNanos;
+
+    /**
+     * Time at which the next call would be allowed if there were no burst
+     * allowance.
+     */
+    private final AtomicLong nextCallNanos;
+
+    /**
+     * @param name
+     *            Human readable name of the resource being throttled. Used for
+     *            logging only.
+     * @param maxRatePerSecond
+     *            maximum rate allowed
+     * @param rateIntervalMilliseconds
+     *            rate measurement interval. Controls the size of the allowed
+     *            bursts.
+     */
+    public RateLimiter(String name, double maxRatePerSecond, long rateIntervalMilliseconds) {
+        if (null == name) {
+            throw new IllegalArgumentException("null name");
+        }
+        if (maxRatePerSecond <= 0) {
+            throw new IllegalArgumentException("0 or negative maxRatePerSecond");
+        }
+        if (rateIntervalMilliseconds <= 0) {
+            throw new IllegalArgumentException("0 or negative rateIntervalMilliseconds");
+        }
+        this.name = name;
+        emissionIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / maxRatePerSecond);
+        burstNanos = Math.max(0, TimeUnit.MILLISECONDS.toNanos(rateIntervalMilliseconds) - emissionIntervalNanos);
+        nextCallNanos = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Reserves a call slot without waiting.
+     *
+     * @return nanoseconds the caller must wait before making the call, 0 if
+     *         it can call immediately
+     */
+    public long reserve() {
+        while (true) {
+            long now = System.nanoTime();
+            long next = nextCallNanos.get();
+            long slot = next - now > 0 ? next : now;
+            if (nextCallNanos.compareAndSet(next, slot + emissionIntervalNanos)) {
+                return Math.max(0, slot - burstNanos - now);
+            }
+        }
+    }
+
+    /**
+     * Sleeps if called faster than the configured rate. Unlike
+     * {@link Throttler#throttle()} concurrent callers do not wait for each
+     * other.
+     *
+     * @throws InterruptedException
+     *             when interrupted
+     */
+    public void throttle() throws InterruptedException {
+        long delay = reserve();
+        if (delay > 0) {
+            if (log.isTraceEnabled()) {
+                log.trace("Throttling " + name + ": going to sleep for " + TimeUnit.NANOSECONDS.toMillis(delay)
+                        + " milliseconds.");
+            }
+            TimeUnit.NANOSECONDS.sleep(delay);
+        }
+    }
+}
@@ -58,6 +58,10 @@ public class SynchronousActivityTaskPoller implements TaskPoller {
 
     private boolean initialized;
 
+    private ActivityHeartbeatScheduler heartbeatScheduler;
+
+    private PollMetrics pollMetrics;
+
     public SynchronousActivityTaskPoller(AmazonSimpleWorkflow service, String domain, String taskListToPoll,
             ActivityImplementationFactory activityImplementationFactory) {
         this();
@@ -135,6 +139,31 @@ public class SynchronousActivityTaskPoller implements TaskPoller {
         return taskListToPoll;
     }
 
+    public ActivityHeartbeatScheduler getHeartbeatScheduler() {
+        return heartbeatScheduler;
+    }
+
+    /**
+     * Scheduler used to send heartbeats of the executed activities in the
+     * background. When not set heartbeats are sent synchronously each time an
+     * activity records one. The scheduler is shut down with the poller.
+     */
+    public void setHeartbeatScheduler(ActivityHeartbeatScheduler heartbeatScheduler) {
+        this.heartbeatScheduler = heartbeatScheduler;
+    }
+
+    public PollMetrics getPollMetrics() {
+        return pollMetrics;
+    }
+
+    /**
+     * Counters the poll and activity execution latencies are recorded to.
+     * Optional.
+     */
+    public void setPollMetrics(PollMetrics pollMetrics) {
+        this.pollMetrics = pollMetrics;
+    }
+
     /**
      * Poll for a task using {@link #getPollTimeoutInSeconds()}
      * 
@@ -155,8 +184,13 @@ public class SynchronousActivityTaskPoller implements TaskPoller {
         if (log.isDebugEnabled()) {
             log.debug("poll request begin: " + pollRequest);
         }
+        long start = System.nanoTime();
         ActivityTask result = service.pollForActivityTask(pollRequest);
-        if (result == null || result.getTaskToken() == null) {
+        boolean empty = result == null || result.getTaskToken() == null;
+        if (pollMetrics != null) {
+            pollMetrics.recordPoll(System.nanoTime() - start, empty);
+        }
+        if (empty) {
             if (log.isDebugEnabled()) {
                 log.debug("poll request returned no task");
             }
@@ -187,12 +221,20 @@ public class SynchronousActivityTaskPoller implements TaskPoller {
     protected void execute(final ActivityTask task) throws Exception {
         String output = null;
         ActivityType activityType = task.getActivityType();
+        ActivityHeartbeatScheduler.TaskHeartbeat heartbeat = null;
+        long start = System.nanoTime();
         try {
-            ActivityExecutionContext context = new ActivityExecutionContextImpl(service, domain, task);
             ActivityImplementation activityImplementation = activityImplementationFactory.getActivityImplementation(activityType);
             if (activityImplementation == null) {
                 throw new ActivityFailureException("Unknown activity type: " + activityType);
             }
+            if (heartbeatScheduler != null) {
+                ActivityTypeRegistrationOptions registrationOptions = activityImplementation.getRegistrationOptions();
+                Long heartbeatTimeout = registrationOptions == null ? null
+                        : registrationOptions.getDefaultTaskHeartbeatTimeoutSeconds();
+                heartbeat = heartbeatScheduler.createTaskHeartbeat(task, heartbeatTimeout);
+            }
+            ActivityExecutionContext context = new ActivityExecutionContextImpl(service, domain, task, heartbeat);
             output = activityImplementation.execute(context);
             if (!activityImplementation.getExecutionOptions().isManualActivityCompletion()) {
                 respondActivityTaskCompletedWithRetry(task.getTaskToken(), output);
@@ -222,6 +264,14 @@ public class SynchronousActivityTaskPoller implements TaskPoller {
             String details = sw.toString();
             respondActivityTaskFailedWithRetry(task.getTaskToken(), reason, details);
         }
+        finally {
+            if (heartbeat != null) {
+                heartbeat.close();
+            }
+            if (pollMetrics != null) {
+                pollMetrics.recordTask(System.nanoTime() - start);
+            }
+        }
     }
 
     protected void respondActivityTaskFailedWithRetry(final String taskToken, final String reason, final String details) {
@@ -299,14 +349,23 @@ public class SynchronousActivityTaskPoller implements TaskPoller {
 
     @Override
     public void shutdown() {
+        if (heartbeatScheduler != null) {
+            heartbeatScheduler.shutdown();
+        }
     }
 
     @Override
     public void shutdownNow() {
+        if (heartbeatScheduler != null) {
+            heartbeatScheduler.shutdownNow();
+        }
     }
 
     @Override
     public boolean awaitTermination(long left, TimeUnit milliseconds) throws InterruptedException {
+        if (heartbeatScheduler != null) {
+            return heartbeatScheduler.awaitTermination(left, milliseconds);
+        }
         //TODO: Waiting for all currently running pollAndProcessSingleTask to complete 
         return true;
     }
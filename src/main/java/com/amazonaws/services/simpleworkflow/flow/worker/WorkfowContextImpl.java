@@ -29,13 +29,17 @@ import com.amazonaws.services.simpleworkflow.model.WorkflowType;
 
 class WorkfowContextImpl implements WorkflowContext {
 
-    private final DecisionTask decisionTask;
+    private DecisionTask decisionTask;
     private boolean cancelRequested;
     private ContinueAsNewWorkflowExecutionParameters continueAsNewOnCompletion;
     
     public WorkfowContextImpl(DecisionTask decisionTask) {
         this.decisionTask = decisionTask;
     }
+
+    void setDecisionTask(DecisionTask decisionTask) {
+        this.decisionTask = decisionTask;
+    }
     
     @Override
     public WorkflowExecution getWorkflowExecution() {
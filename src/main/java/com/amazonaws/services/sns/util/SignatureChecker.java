@@ -15,15 +15,32 @@
 package com.amazonaws.services.sns.util;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.TreeMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.SortedMap;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import javax.security.auth.x500.X500Principal;
 
 import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonParseException;
@@ -31,12 +48,56 @@ import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonToken;
 import org.apache.commons.codec.binary.Base64;
 
+import com.amazonaws.AmazonClientException;
+
 /**
  * Utility for validating signatures on a Simple Notification Service JSON message.
+ * <p>
+ * Instances of this class are thread-safe, and can be shared by all the
+ * threads that receive messages.
  */
 public class SignatureChecker {
 
-    private Signature sigChecker;
+    /** Maximum number of signing certificates cached. */
+    private static final int MAX_CACHED_CERTIFICATES = 100;
+
+    /** Timeout, in milliseconds, for retrieving a signing certificate. */
+    private static final int CERTIFICATE_TIMEOUT_MILLIS = 10 * 1000;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /** Hosts Simple Notification Service signing certificates are published on. */
+    private static final Pattern SIGNING_CERTIFICATE_HOST = Pattern.compile("^sns\\.([a-z0-9-]+)\\.amazonaws\\.com(\\.cn)?$");
+
+    /** The name Simple Notification Service signing certificates are issued to. */
+    private static final String SIGNING_CERTIFICATE_NAME = "sns.amazonaws.com";
+
+    /** Type of the DNS name entries of a certificate's subject alternative names. */
+    private static final int DNS_NAME_TYPE = 2;
+
+    /** Signature verifiers, reused by each thread. */
+    private static final ThreadLocal<Signature> SIGNATURES = new ThreadLocal<Signature>() {
+        @Override
+        protected Signature initialValue() {
+            try {
+                return Signature.getInstance("SHA1withRSA");
+            } catch (NoSuchAlgorithmException e) {
+                // Rare exception: JVM does not support SHA1 with RSA
+                return null;
+            }
+        }
+    };
+
+    /** Recently used signing certificates, keyed by their URL. */
+    private static final Map<String, X509Certificate> SIGNING_CERTIFICATES =
+        new LinkedHashMap<String, X509Certificate>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, X509Certificate> eldest) {
+                return size() > MAX_CACHED_CERTIFICATES;
+            }
+        };
 
     private final String NOTIFICATION_TYPE = "Notification";
     private final String SUBSCRIBE_TYPE = "SubscriptionConfirmation";
@@ -48,11 +109,16 @@ public class SignatureChecker {
     private final String TIMESTAMP = "Timestamp";
     private final String SIGNATURE_VERSION = "SignatureVersion";
     private final String SIGNATURE = "Signature";
+    private final String SIGNING_CERT_URL = "SigningCertURL";
     private final String MESSAGE_ID = "MessageId";
     private final String SUBJECT = "Subject";
     private final String TOPIC = "TopicArn";
     private final String TOKEN = "Token";
 
+    /** The signed fields of each message type, in the order they are signed. */
+    private final String[] PUBLISH_KEYS = { MESSAGE, MESSAGE_ID, SUBJECT, TIMESTAMP, TOPIC, TYPE };
+    private final String[] SUBSCRIBE_KEYS = { MESSAGE, MESSAGE_ID, SUBSCRIBE_URL, TIMESTAMP, TOKEN, TOPIC, TYPE };
+
     /**
      * Validates the signature on a Simple Notification Service message. No
      * Amazon-specific dependencies, just plain Java crypto and Jackson for
@@ -68,25 +134,69 @@ public class SignatureChecker {
      * @return True if the message was correctly validated, otherwise false.
      */
     public boolean verifyMessageSignature(String message, PublicKey publicKey) {
-        boolean valid = false;
-        // extract the type and signature parameters
+        return verifyMessageSignature(parseJSON(message), publicKey);
+    }
+
+    /**
+     * Validates the signature on a Simple Notification Service message, using
+     * the signing certificate the message refers to. Certificates are only
+     * retrieved over HTTPS from Simple Notification Service hosts, and are
+     * cached so that they're retrieved once rather than for every message.
+     *
+     * @param message
+     *            A JSON-encoded Simple Notification Service message. Note: the
+     *            JSON may be only one level deep.
+     *
+     * @return True if the message was correctly validated, otherwise false.
+     *
+     * @throws AmazonClientException
+     *             If the signing certificate couldn't be retrieved.
+     */
+    public boolean verifyMessageSignature(String message) {
         Map<String, String> parsed = parseJSON(message);
+        X509Certificate certificate = getSigningCertificate(parsed.get(SIGNING_CERT_URL));
+        if (certificate == null) return false;
+        return verifyMessageSignature(parsed, certificate.getPublicKey());
+    }
+
+    private boolean verifyMessageSignature(Map<String, String> parsed, PublicKey publicKey) {
+        boolean valid = false;
         String version = parsed.get(SIGNATURE_VERSION);
-        if (version.equals("1")) {
-            // construct the canonical signed string
+        if ("1".equals(version)) {
+            // pick the fields of the canonical signed string
             String type = parsed.get(TYPE);
-            String signature = parsed.get(SIGNATURE);
-            String signed = "";
-            if (type.equals(NOTIFICATION_TYPE)) {
-                signed = stringToSign(publishMessageValues(parsed));
-            } else if (type.equals(SUBSCRIBE_TYPE)) {
-                signed = stringToSign(subscribeMessageValues(parsed));
-            } else if (type.equals(UNSUBSCRIBE_TYPE)) {
-                signed = stringToSign(subscribeMessageValues(parsed)); // no difference, for now
+            String[] keys;
+            if (NOTIFICATION_TYPE.equals(type)) {
+                keys = PUBLISH_KEYS;
+            } else if (SUBSCRIBE_TYPE.equals(type)) {
+                keys = SUBSCRIBE_KEYS;
+            } else if (UNSUBSCRIBE_TYPE.equals(type)) {
+                keys = SUBSCRIBE_KEYS; // no difference, for now
             } else {
                 throw new RuntimeException("Cannot process message of type " + type);
             }
-            valid = verifySignature(signed, signature, publicKey);
+            String signature = parsed.get(SIGNATURE);
+            if (signature == null) return false;
+            try {
+                Signature sigChecker = initVerify(publicKey);
+                if (sigChecker == null) return false;
+                // each key and value is followed by a newline
+                for (String key : keys) {
+                    String value = parsed.get(key);
+                    if (value == null) continue;
+                    sigChecker.update(key.getBytes("UTF-8"));
+                    sigChecker.update((byte)'\n');
+                    sigChecker.update(value.getBytes("UTF-8"));
+                    sigChecker.update((byte)'\n');
+                }
+                valid = sigChecker.verify(Base64.decodeBase64(signature.getBytes("UTF-8")));
+            } catch (InvalidKeyException e) {
+                // Rare exception: The private key was incorrectly formatted
+            } catch (SignatureException e) {
+                // Rare exception: Catch-all exception for the signature checker
+            } catch (UnsupportedEncodingException e) {
+                // Rare exception: JVM does not support UTF-8
+            }
         }
         return valid;
     }
@@ -104,19 +214,18 @@ public class SignatureChecker {
      */
     public boolean verifySignature(String message, String signature, PublicKey publicKey){
         boolean result = false;
-        byte[] sigbytes = null;
         try {
-            sigbytes = Base64.decodeBase64(signature.getBytes());
-            sigChecker = Signature.getInstance("SHA1withRSA"); //check the signature
-            sigChecker.initVerify(publicKey);
-            sigChecker.update(message.getBytes());
+            byte[] sigbytes = Base64.decodeBase64(signature.getBytes("UTF-8"));
+            Signature sigChecker = initVerify(publicKey);
+            if (sigChecker == null) return false;
+            sigChecker.update(message.getBytes("UTF-8"));
             result = sigChecker.verify(sigbytes);
-        } catch (NoSuchAlgorithmException e) {
-            // Rare exception: JVM does not support SHA1 with RSA
         } catch (InvalidKeyException e) {
             // Rare exception: The private key was incorrectly formatted
         } catch (SignatureException e) {
             // Rare exception: Catch-all exception for the signature checker
+        } catch (UnsupportedEncodingException e) {
+            // Rare exception: JVM does not support UTF-8
         }
         return result;
     }
@@ -132,11 +241,120 @@ public class SignatureChecker {
         return result;
     }
 
+    /**
+     * Returns this thread's signature verifier, initialized with the specified
+     * key, or null if the JVM doesn't support SHA1 with RSA.
+     */
+    private static Signature initVerify(PublicKey publicKey) throws InvalidKeyException {
+        Signature sigChecker = SIGNATURES.get();
+        if (sigChecker != null) sigChecker.initVerify(publicKey);
+        return sigChecker;
+    }
+
+    /**
+     * Returns the signing certificate at the specified URL, or null if the URL
+     * isn't a Simple Notification Service certificate URL or the certificate
+     * isn't valid or wasn't issued to Simple Notification Service.
+     */
+    private X509Certificate getSigningCertificate(String certUrl) {
+        if (!isSigningCertificateUrl(certUrl)) return null;
+
+        X509Certificate certificate;
+        synchronized (SIGNING_CERTIFICATES) {
+            certificate = SIGNING_CERTIFICATES.get(certUrl);
+        }
+        if (certificate == null) {
+            certificate = retrieveCertificate(certUrl);
+            if (!isIssuedToSns(certificate, certUrl)) return null;
+            synchronized (SIGNING_CERTIFICATES) {
+                SIGNING_CERTIFICATES.put(certUrl, certificate);
+            }
+        }
+
+        try {
+            certificate.checkValidity();
+            return certificate;
+        } catch (CertificateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if the specified URL can only refer to a certificate
+     * published by Simple Notification Service. Amazon S3 hosts are rejected,
+     * since "sns.s3.amazonaws.com" is the host of a bucket anyone could own.
+     */
+    private static boolean isSigningCertificateUrl(String certUrl) {
+        if (certUrl == null) return false;
+        try {
+            URL url = new URL(certUrl);
+            Matcher matcher = SIGNING_CERTIFICATE_HOST.matcher(url.getHost().toLowerCase());
+            if (!"https".equals(url.getProtocol()) || !matcher.matches()) return false;
+            String region = matcher.group(1);
+            return !region.equals("s3") && !region.startsWith("s3-");
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns true if the certificate's subject common name or one of its DNS
+     * subject alternative names is the name Simple Notification Service
+     * certificates are issued to, or the host it was retrieved from.
+     */
+    private static boolean isIssuedToSns(X509Certificate certificate, String certUrl) {
+        String host;
+        try {
+            host = new URL(certUrl).getHost().toLowerCase();
+        } catch (IOException e) {
+            return false;
+        }
+        try {
+            LdapName subject = new LdapName(certificate.getSubjectX500Principal().getName(X500Principal.RFC2253));
+            for (Rdn rdn : subject.getRdns()) {
+                if ("CN".equalsIgnoreCase(rdn.getType()) && isSnsName(String.valueOf(rdn.getValue()), host)) return true;
+            }
+            Collection<List<?>> alternativeNames = certificate.getSubjectAlternativeNames();
+            if (alternativeNames != null) {
+                for (List<?> alternativeName : alternativeNames) {
+                    if (((Integer)alternativeName.get(0)).intValue() == DNS_NAME_TYPE
+                            && isSnsName(String.valueOf(alternativeName.get(1)), host)) return true;
+                }
+            }
+        } catch (InvalidNameException e) {
+            return false;
+        } catch (CertificateException e) {
+            return false;
+        }
+        return false;
+    }
+
+    private static boolean isSnsName(String name, String host) {
+        name = name.toLowerCase();
+        return name.equals(SIGNING_CERTIFICATE_NAME) || name.equals(host);
+    }
+
+    private static X509Certificate retrieveCertificate(String certUrl) {
+        InputStream input = null;
+        try {
+            HttpURLConnection connection = (HttpURLConnection)new URL(certUrl).openConnection();
+            connection.setConnectTimeout(CERTIFICATE_TIMEOUT_MILLIS);
+            connection.setReadTimeout(CERTIFICATE_TIMEOUT_MILLIS);
+            input = connection.getInputStream();
+            return (X509Certificate)CertificateFactory.getInstance("X.509").generateCertificate(input);
+        } catch (IOException e) {
+            throw new AmazonClientException("Unable to retrieve signing certificate " + certUrl + ": " + e.getMessage(), e);
+        } catch (GeneralSecurityException e) {
+            throw new AmazonClientException("Unable to parse signing certificate " + certUrl + ": " + e.getMessage(), e);
+        } finally {
+            try {if (input != null) input.close();} catch (IOException e) {}
+        }
+    }
+
     private Map<String, String> parseJSON(String jsonmessage){
         Map<String, String> parsed = new HashMap<String, String>();
-        JsonFactory jf = new JsonFactory();
         try {
-            JsonParser parser = jf.createJsonParser(jsonmessage);
+            JsonParser parser = JSON_FACTORY.createJsonParser(jsonmessage);
             parser.nextToken(); //shift past the START_OBJECT that begins the JSON
             while (parser.nextToken() != JsonToken.END_OBJECT) {
                 String fieldname = parser.getCurrentName();
@@ -152,26 +370,4 @@ public class SignatureChecker {
         }
         return parsed;
     }
-
-    private TreeMap<String, String> publishMessageValues(Map<String, String> parsedMessage){
-        TreeMap<String, String> signables = new TreeMap<String, String>();
-        String[] keys = { MESSAGE, MESSAGE_ID, SUBJECT, TYPE, TIMESTAMP, TOPIC };
-        for(String key: keys){
-            if(parsedMessage.containsKey(key)){
-                signables.put(key, parsedMessage.get(key));
-            }
-        }
-        return signables;
-    }
-
-    private TreeMap<String, String> subscribeMessageValues(Map<String, String> parsedMessage){
-        TreeMap<String, String> signables = new TreeMap<String, String>();
-        String[] keys = { SUBSCRIBE_URL, MESSAGE, MESSAGE_ID, TYPE, TIMESTAMP, TOKEN, TOPIC };
-        for(String key: keys){
-            if(parsedMessage.containsKey(key)){
-                signables.put(key, parsedMessage.get(key));
-            }
-        }
-        return signables;
-    }
 }
@@ -19,6 +19,7 @@ package com.amazonaws.services.sqs.buffered;
 
 import java.util.LinkedHashMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
@@ -29,11 +30,13 @@ import com.amazonaws.regions.Region;
 import com.amazonaws.services.sqs.AmazonSQSAsync;
 import com.amazonaws.services.sqs.model.AddPermissionRequest;
 import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
 import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
 import com.amazonaws.services.sqs.model.ChangeMessageVisibilityRequest;
 import com.amazonaws.services.sqs.model.CreateQueueRequest;
 import com.amazonaws.services.sqs.model.CreateQueueResult;
 import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
 import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
 import com.amazonaws.services.sqs.model.DeleteMessageRequest;
 import com.amazonaws.services.sqs.model.DeleteQueueRequest;
@@ -87,6 +90,19 @@ public class AmazonSQSBufferedAsyncClient implements AmazonSQSAsync {
     private final CachingMap buffers = new CachingMap( 16, (float) 0.75, true );
     private final AmazonSQSAsync realSQS;
     private final QueueBufferConfig bufferConfigExemplar;
+
+    /**
+     * Permits for batches in flight across all the queue buffers of this
+     * client, shared so that many queues can't each claim their own threads
+     * and connections.
+     */
+    private final Semaphore sharedInflightBatches;
+
+    /**
+     * Extends the visibility timeout of received messages until they are
+     * deleted; null unless enabled in the config.
+     */
+    private final VisibilityHeartbeat visibilityHeartbeat;
     
     public AmazonSQSBufferedAsyncClient( AmazonSQSAsync paramRealSQS) {
         this( paramRealSQS, new QueueBufferConfig());
@@ -98,6 +114,9 @@ public class AmazonSQSBufferedAsyncClient implements AmazonSQSAsync {
         config.validate();
         realSQS = paramRealSQS;
         bufferConfigExemplar = config;
+        int maxInflightBatches = config.getMaxInflightBatchesAllQueues();
+        sharedInflightBatches = new Semaphore( maxInflightBatches > 0 ? maxInflightBatches : Integer.MAX_VALUE );
+        visibilityHeartbeat = config.isVisibilityHeartbeat() ? new VisibilityHeartbeat( paramRealSQS, config ) : null;
     }
 
     
@@ -120,6 +139,7 @@ public class AmazonSQSBufferedAsyncClient implements AmazonSQSAsync {
     public ChangeMessageVisibilityBatchResult changeMessageVisibilityBatch(
             ChangeMessageVisibilityBatchRequest changeMessageVisibilityBatchRequest)
             throws AmazonServiceException, AmazonClientException {
+        releaseVisibility(changeMessageVisibilityBatchRequest);
         ResultConverter.appendUserAgent(changeMessageVisibilityBatchRequest, USER_AGENT);
         return realSQS.changeMessageVisibilityBatch(changeMessageVisibilityBatchRequest);
     }
@@ -128,6 +148,7 @@ public class AmazonSQSBufferedAsyncClient implements AmazonSQSAsync {
     public void changeMessageVisibility(
             ChangeMessageVisibilityRequest changeMessageVisibilityRequest)
             throws AmazonServiceException, AmazonClientException {
+        releaseVisibility(changeMessageVisibilityRequest.getReceiptHandle());
         ResultConverter.appendUserAgent(changeMessageVisibilityRequest, USER_AGENT);
         QueueBuffer buffer = getQBuffer(changeMessageVisibilityRequest.getQueueUrl());
         buffer.changeMessageVisibilitySync(changeMessageVisibilityRequest);
@@ -163,6 +184,7 @@ public class AmazonSQSBufferedAsyncClient implements AmazonSQSAsync {
     public DeleteMessageBatchResult deleteMessageBatch(
             DeleteMessageBatchRequest deleteMessageBatchRequest)
             throws AmazonServiceException, AmazonClientException {
+        releaseVisibility(deleteMessageBatchRequest);
         ResultConverter.appendUserAgent(deleteMessageBatchRequest, USER_AGENT);
         return realSQS.deleteMessageBatch(deleteMessageBatchRequest);
     }
@@ -170,6 +192,7 @@ public class AmazonSQSBufferedAsyncClient implements AmazonSQSAsync {
     
     public void deleteMessage(DeleteMessageRequest deleteMessageRequest)
             throws AmazonServiceException, AmazonClientException {
+        releaseVisibility(deleteMessageRequest.getReceiptHandle());
         ResultConverter.appendUserAgent(deleteMessageRequest, USER_AGENT);
         QueueBuffer buffer = getQBuffer(deleteMessageRequest.getQueueUrl());
         buffer.deleteMessageSync(deleteMessageRequest);
@@ -180,6 +203,9 @@ public class AmazonSQSBufferedAsyncClient implements AmazonSQSAsync {
         for( QueueBuffer buffer : buffers.values() ) {
             buffer.shutdown();
         }
+        if ( visibilityHeartbeat != null ) {
+            visibilityHeartbeat.shutdown();
+        }
         realSQS.shutdown();
     }
 
@@ -187,6 +213,7 @@ public class AmazonSQSBufferedAsyncClient implements AmazonSQSAsync {
     public Future<ChangeMessageVisibilityBatchResult> changeMessageVisibilityBatchAsync(
             ChangeMessageVisibilityBatchRequest changeMessageVisibilityBatchRequest)
             throws AmazonServiceException, AmazonClientException {
+        releaseVisibility(changeMessageVisibilityBatchRequest);
         ResultConverter.appendUserAgent(changeMessageVisibilityBatchRequest, USER_AGENT);
         return realSQS.changeMessageVisibilityBatchAsync(changeMessageVisibilityBatchRequest);
     }
@@ -195,6 +222,7 @@ public class AmazonSQSBufferedAsyncClient implements AmazonSQSAsync {
     public Future<Void> changeMessageVisibilityAsync(
             ChangeMessageVisibilityRequest changeMessageVisibilityRequest)
             throws AmazonServiceException, AmazonClientException {
+        releaseVisibility(changeMessageVisibilityRequest.getReceiptHandle());
         ResultConverter.appendUserAgent(changeMessageVisibilityRequest, USER_AGENT);
         QueueBuffer buffer = getQBuffer(changeMessageVisibilityRequest.getQueueUrl());
         return buffer.changeMessageVisibility(changeMessageVisibilityRequest, null);
@@ -233,6 +261,7 @@ public class AmazonSQSBufferedAsyncClient implements AmazonSQSAsync {
     public Future<DeleteMessageBatchResult> deleteMessageBatchAsync(
             DeleteMessageBatchRequest deleteMessageBatchRequest)
             throws AmazonServiceException, AmazonClientException {
+        releaseVisibility(deleteMessageBatchRequest);
         ResultConverter.appendUserAgent(deleteMessageBatchRequest, USER_AGENT);
         return realSQS.deleteMessageBatchAsync(deleteMessageBatchRequest);
     }
@@ -375,11 +404,39 @@ public class AmazonSQSBufferedAsyncClient implements AmazonSQSAsync {
     public Future<Void> deleteMessageAsync(
             DeleteMessageRequest deleteMessageRequest)
             throws AmazonServiceException, AmazonClientException {
+        releaseVisibility(deleteMessageRequest.getReceiptHandle());
         ResultConverter.appendUserAgent(deleteMessageRequest, USER_AGENT);
         QueueBuffer buffer = getQBuffer(deleteMessageRequest.getQueueUrl());
         return buffer.deleteMessage(deleteMessageRequest, null);
     }
     
+    /**
+     * Stops the visibility heartbeat, if enabled, from extending the
+     * visibility timeout of a message that the caller is deleting or whose
+     * visibility the caller is changing.
+     */
+    private void releaseVisibility(String receiptHandle) {
+        if ( visibilityHeartbeat != null ) {
+            visibilityHeartbeat.release(receiptHandle);
+        }
+    }
+
+    private void releaseVisibility(DeleteMessageBatchRequest request) {
+        if ( visibilityHeartbeat != null ) {
+            for ( DeleteMessageBatchRequestEntry entry : request.getEntries() ) {
+                visibilityHeartbeat.release(entry.getReceiptHandle());
+            }
+        }
+    }
+
+    private void releaseVisibility(ChangeMessageVisibilityBatchRequest request) {
+        if ( visibilityHeartbeat != null ) {
+            for ( ChangeMessageVisibilityBatchRequestEntry entry : request.getEntries() ) {
+                visibilityHeartbeat.release(entry.getReceiptHandle());
+            }
+        }
+    }
+
     /**
      * Returns (creating it if necessary) a queue buffer for a particular queue
      * Since we are only storing a limited number of queue buffers, it is
@@ -392,7 +449,7 @@ public class AmazonSQSBufferedAsyncClient implements AmazonSQSAsync {
         QueueBuffer toReturn = buffers.get(qUrl);
         if ( null == toReturn ) {
             QueueBufferConfig config = new QueueBufferConfig( bufferConfigExemplar );
-            toReturn = new QueueBuffer( config, qUrl, realSQS );
+            toReturn = new QueueBuffer( config, qUrl, realSQS, sharedInflightBatches, visibilityHeartbeat );
             buffers.put(qUrl,toReturn);
         }
         return toReturn;
@@ -417,6 +474,7 @@ public class AmazonSQSBufferedAsyncClient implements AmazonSQSAsync {
             ChangeMessageVisibilityRequest changeMessageVisibilityRequest,
             AsyncHandler<ChangeMessageVisibilityRequest, Void> asyncHandler)
             throws AmazonServiceException, AmazonClientException {
+        releaseVisibility(changeMessageVisibilityRequest.getReceiptHandle());
         ResultConverter.appendUserAgent(changeMessageVisibilityRequest, USER_AGENT);
         QueueBuffer buffer = getQBuffer(changeMessageVisibilityRequest.getQueueUrl());
         return buffer.changeMessageVisibility(changeMessageVisibilityRequest, asyncHandler);
@@ -446,6 +504,7 @@ public class AmazonSQSBufferedAsyncClient implements AmazonSQSAsync {
             DeleteMessageRequest deleteMessageRequest,
             AsyncHandler<DeleteMessageRequest, Void> asyncHandler)
             throws AmazonServiceException, AmazonClientException {
+        releaseVisibility(deleteMessageRequest.getReceiptHandle());
         ResultConverter.appendUserAgent(deleteMessageRequest, USER_AGENT);
         QueueBuffer buffer = getQBuffer(deleteMessageRequest.getQueueUrl());
         return buffer.deleteMessage(deleteMessageRequest, asyncHandler);
@@ -463,6 +522,7 @@ public class AmazonSQSBufferedAsyncClient implements AmazonSQSAsync {
             ChangeMessageVisibilityBatchRequest changeMessageVisibilityBatchRequest,
             AsyncHandler<ChangeMessageVisibilityBatchRequest, ChangeMessageVisibilityBatchResult> asyncHandler)
             throws AmazonServiceException, AmazonClientException {
+        releaseVisibility(changeMessageVisibilityBatchRequest);
         return realSQS.changeMessageVisibilityBatchAsync(
                 changeMessageVisibilityBatchRequest, asyncHandler);
     }
@@ -515,6 +575,7 @@ public class AmazonSQSBufferedAsyncClient implements AmazonSQSAsync {
             DeleteMessageBatchRequest deleteMessageBatchRequest,
             AsyncHandler<DeleteMessageBatchRequest, DeleteMessageBatchResult> asyncHandler)
             throws AmazonServiceException, AmazonClientException {
+        releaseVisibility(deleteMessageBatchRequest);
         return realSQS.deleteMessageBatchAsync(deleteMessageBatchRequest,
                 asyncHandler);
     }
@@ -22,6 +22,7 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -66,14 +67,18 @@ class QueueBuffer {
      * 
      *  The DaemonThreadFactory creates daemon threads, which means they won't block the JVM 
      *  from exiting if only they are still around.
+     *  
+     *  Every batch holds a permit from its client's shared in-flight budget (see
+     *  {@link QueueBufferConfig#getMaxInflightBatchesAllQueues()}) while it runs, so
+     *  that budget also bounds the number of threads this executor keeps busy.
      *  */
     static ExecutorService executor = Executors.newCachedThreadPool(new DaemonThreadFactory());;
     
-    QueueBuffer( QueueBufferConfig paramConfig, String url, AmazonSQSAsync sqs) {
+    QueueBuffer( QueueBufferConfig paramConfig, String url, AmazonSQSAsync sqs, Semaphore sharedInflightBatches, VisibilityHeartbeat visibilityHeartbeat) {
         realSqs = sqs;
         config = paramConfig;
-        sendBuffer = new SendQueueBuffer(sqs, executor, paramConfig, url);
-        receiveBuffer =  new ReceiveQueueBuffer(sqs, executor, paramConfig, url);
+        sendBuffer = new SendQueueBuffer(sqs, executor, paramConfig, url, sharedInflightBatches);
+        receiveBuffer =  new ReceiveQueueBuffer(sqs, executor, paramConfig, url, sharedInflightBatches, visibilityHeartbeat);
         
     }
 
@@ -123,6 +123,56 @@ public class QueueBufferConfig {
     private int longPollWaitTimeoutSeconds;
     
     public static final int LONGPOLL_WAIT_TIMEOUT_SECONDS_DEFAULT = 20;
+
+    /**
+     * Should outbound batches adapt how long they are held open to the
+     * observed request rate?  When enabled, a batch is sent as soon as no
+     * further requests are expected within the batch window, and is only held
+     * open for the full {@code maxBatchOpenMs} while the in-flight batch
+     * limits are exhausted.
+     * */
+    private boolean adaptiveBatching;
+
+    /** false */
+    public static final boolean ADAPTIVE_BATCHING_DEFAULT = false;
+
+    /**
+     * The maximum number of batches, of all types, in flight at the same time
+     * across all the queues used by one buffered client. Each in-flight batch
+     * occupies a thread and a connection, so this bounds the resources used by
+     * a client that works with many queues.  Zero or a negative value means
+     * no shared limit.
+     * */
+    private int maxInflightBatchesAllQueues;
+
+    /** 0, which means no shared limit */
+    public static final int MAX_INFLIGHT_BATCHES_ALL_QUEUES_DEFAULT = 0;
+
+    /**
+     * Should the client keep extending the visibility timeout of messages it
+     * has received, both while they wait in the pre-fetch buffer and after
+     * they have been handed to a caller, until they are deleted or their
+     * visibility is changed through this client?  Extensions for many
+     * messages are sent together as {@code ChangeMessageVisibilityBatch}
+     * calls from a single background thread.
+     * */
+    private boolean visibilityHeartbeat;
+
+    /** false */
+    public static final boolean VISIBILITY_HEARTBEAT_DEFAULT = false;
+
+    /**
+     * The maximum time, in seconds since a message was received, for which the
+     * visibility heartbeat keeps extending its visibility timeout.  This keeps
+     * messages whose callers never delete them from being held forever.
+     * */
+    private int maxVisibilityExtensionSeconds;
+
+    /** 5 minutes */
+    public static final int MAX_VISIBILITY_EXTENSION_SECONDS_DEFAULT = 5 * 60;
+
+    /** 12 hours, the longest SQS allows a message to stay invisible */
+    private static final int MAX_VISIBILITY_EXTENSION_SECONDS_LIMIT = 12 * 60 * 60;
     
     public QueueBufferConfig( long maxBatchOpenMs, 
             int maxInflightOutboundBatches,
@@ -144,6 +194,10 @@ public class QueueBufferConfig {
         this.visibilityTimeoutSeconds = visibilityTimeout;
         this.longPollWaitTimeoutSeconds = longPollTimeout;
         this.maxBatchSize = maxBatch;
+        this.adaptiveBatching = ADAPTIVE_BATCHING_DEFAULT;
+        this.maxInflightBatchesAllQueues = MAX_INFLIGHT_BATCHES_ALL_QUEUES_DEFAULT;
+        this.visibilityHeartbeat = VISIBILITY_HEARTBEAT_DEFAULT;
+        this.maxVisibilityExtensionSeconds = MAX_VISIBILITY_EXTENSION_SECONDS_DEFAULT;
     }
     
     public QueueBufferConfig() {
@@ -170,6 +224,10 @@ public class QueueBufferConfig {
         maxInflightOutboundBatches = other.maxInflightOutboundBatches;
         maxInflightReceiveBatches = other.maxInflightReceiveBatches;
         visibilityTimeoutSeconds = other.visibilityTimeoutSeconds;
+        adaptiveBatching = other.adaptiveBatching;
+        maxInflightBatchesAllQueues = other.maxInflightBatchesAllQueues;
+        visibilityHeartbeat = other.visibilityHeartbeat;
+        maxVisibilityExtensionSeconds = other.maxVisibilityExtensionSeconds;
     }
     
 
@@ -184,7 +242,11 @@ public class QueueBufferConfig {
                 + maxDoneReceiveBatches + ", maxBatchSizeBytes="
                 + maxBatchSizeBytes + ", visibilityTimeoutSeconds="
                 + visibilityTimeoutSeconds + ", longPollWaitTimeoutSeconds="
-                + longPollWaitTimeoutSeconds + "]";
+                + longPollWaitTimeoutSeconds + ", adaptiveBatching="
+                + adaptiveBatching + ", maxInflightBatchesAllQueues="
+                + maxInflightBatchesAllQueues + ", visibilityHeartbeat="
+                + visibilityHeartbeat + ", maxVisibilityExtensionSeconds="
+                + maxVisibilityExtensionSeconds + "]";
     }
 
     /**
@@ -440,6 +502,108 @@ public class QueueBufferConfig {
         return this;
     }
 
+    /**
+     * @return true if outbound batches are sent as soon as no further requests
+     * are expected, rather than always being held open for
+     * {@code maxBatchOpenMs}.
+     * */
+    public boolean isAdaptiveBatching() {
+        return adaptiveBatching;
+    }
+
+    /**
+     * Specify "true" to send outbound batches as soon as no further requests
+     * are expected within the batch window, based on the observed request
+     * rate.  Batches are still held open for up to {@code maxBatchOpenMs}
+     * while the in-flight batch limits are exhausted.
+     * */
+    public void setAdaptiveBatching(boolean adaptiveBatching) {
+        this.adaptiveBatching = adaptiveBatching;
+    }
+
+    public QueueBufferConfig withAdaptiveBatching(boolean adaptiveBatching) {
+        this.adaptiveBatching = adaptiveBatching;
+        return this;
+    }
+
+    /**
+     * The maximum number of batches, of all types, in flight at the same time
+     * across all the queues used by one buffered client.  Zero or a negative
+     * value means no shared limit.
+     * */
+    public int getMaxInflightBatchesAllQueues() {
+        return maxInflightBatchesAllQueues;
+    }
+
+    /**
+     * The maximum number of batches, of all types, in flight at the same time
+     * across all the queues used by one buffered client. Each in-flight batch
+     * occupies a thread and a connection, so this bounds the resources used by
+     * a client that works with many queues.  Zero or a negative value means
+     * no shared limit.
+     * */
+    public void setMaxInflightBatchesAllQueues(int maxInflightBatchesAllQueues) {
+        this.maxInflightBatchesAllQueues = maxInflightBatchesAllQueues;
+    }
+
+    public QueueBufferConfig withMaxInflightBatchesAllQueues(int maxInflightBatchesAllQueues) {
+        this.maxInflightBatchesAllQueues = maxInflightBatchesAllQueues;
+        return this;
+    }
+
+    /**
+     * @return true if the client keeps extending the visibility timeout of
+     * received messages until they are deleted or their visibility is changed
+     * through this client.
+     * */
+    public boolean isVisibilityHeartbeat() {
+        return visibilityHeartbeat;
+    }
+
+    /**
+     * Specify "true" to keep extending the visibility timeout of received
+     * messages, both while they wait in the pre-fetch buffer and while callers
+     * process them, until they are deleted or their visibility is changed
+     * through this client.  This avoids messages being delivered twice when
+     * processing is slow, and allows more messages to be pre-fetched.
+     * */
+    public void setVisibilityHeartbeat(boolean visibilityHeartbeat) {
+        this.visibilityHeartbeat = visibilityHeartbeat;
+    }
+
+    public QueueBufferConfig withVisibilityHeartbeat(boolean visibilityHeartbeat) {
+        this.visibilityHeartbeat = visibilityHeartbeat;
+        return this;
+    }
+
+    /**
+     * The maximum time, in seconds since a message was received, for which the
+     * visibility heartbeat keeps extending its visibility timeout.
+     * */
+    public int getMaxVisibilityExtensionSeconds() {
+        return maxVisibilityExtensionSeconds;
+    }
+
+    /**
+     * The maximum time, in seconds since a message was received, for which the
+     * visibility heartbeat keeps extending its visibility timeout.  This keeps
+     * messages whose callers never delete them from being held forever.
+     * <p>
+     * A message that a caller gives up on without deleting it or changing its
+     * visibility stays invisible to other consumers for up to this long plus
+     * one visibility timeout, so keep it short when failed messages are
+     * expected to be redelivered.
+     * Must be between 1 second and 12 hours; defaults to 5 minutes.
+     * */
+    public void setMaxVisibilityExtensionSeconds(int maxVisibilityExtensionSeconds) {
+        this.maxVisibilityExtensionSeconds = maxVisibilityExtensionSeconds;
+    }
+
+    public QueueBufferConfig withMaxVisibilityExtensionSeconds(int maxVisibilityExtensionSeconds) {
+        this.maxVisibilityExtensionSeconds = maxVisibilityExtensionSeconds;
+        return this;
+    }
+
     /**
      * this method checks the config for validity. If the config is deemed to be
      * invalid, an informative exception is thrown.
@@ -451,6 +615,10 @@ public class QueueBufferConfig {
         if (visibilityTimeoutSeconds == 0 ) {
             throw new AmazonClientException("Visibility timeout value may not be equal to zero ");
         }
+        if (maxVisibilityExtensionSeconds <= 0 || maxVisibilityExtensionSeconds > MAX_VISIBILITY_EXTENSION_SECONDS_LIMIT) {
+            throw new AmazonClientException("Maximum visibility extension must be between 1 and "
+                    + MAX_VISIBILITY_EXTENSION_SECONDS_LIMIT + " seconds");
+        }
     }
 
 }
@@ -112,8 +112,24 @@ class QueueBufferFuture<Req extends AmazonWebServiceRequest, Res> implements Fut
         return false;
     }
     
-    public void setBuffer ( QueueBuffer paramBuffer ) {
+    public synchronized void setBuffer ( QueueBuffer paramBuffer ) {
+        boolean callbackSkipped = done && issuingBuffer == null;
         issuingBuffer = paramBuffer;
+        
+        //the future may have been completed straight from the buffer before
+        //the buffer was set, in which case its callback is still owed.
+        if ( callbackSkipped && callback != null && issuingBuffer != null ) {
+            QueueBuffer.executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    if ( e != null ) {
+                        callback.onError(e);
+                    } else {
+                        callback.onSuccess(result);
+                    }
+                    return null;
+                }
+            });
+        }
     }
     
 
@@ -18,18 +18,17 @@
 package com.amazonaws.services.sqs.buffered;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.amazonaws.AmazonClientException;
-import com.amazonaws.AmazonWebServiceRequest;
-import com.amazonaws.handlers.AsyncHandler;
 import com.amazonaws.services.sqs.AmazonSQS;
 import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
 import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
@@ -45,12 +44,14 @@ import com.amazonaws.services.sqs.model.ReceiveMessageResult;
  * the messages are configurable. <p>
  * 
  *  Synchronization strategy:
- *  - Threads must hold the TaskSpawnSyncPoint object monitor to spawn a new task or modify
- *    the number of inflight tasks
- *  - Threads must hold the monitor of the "futures" list to modify the list
- *  - Threads must hold the monitor of the "finishedTasks" list to modify the list
- *  - If you need to lock both futures and finishedTasks, lock futures first and
- *    finishedTasks second
+ *  - Pre-fetched messages, receive failures and unsatisfied futures are kept in
+ *    lock-free queues, so consumers take messages without holding any monitor
+ *  - Each future is completed by whichever thread polls it from the futures
+ *    queue; a thread that can't fill a future puts it back and re-checks the
+ *    buffer, so that messages arriving at the same time are never missed
+ *  - The number of inflight tasks is reserved with compare-and-set; the
+ *    TaskSpawnSyncPoint object monitor is only held to look up the queue's
+ *    visibility timeout
  * */
 public class ReceiveQueueBuffer {
     
@@ -63,26 +64,39 @@ public class ReceiveQueueBuffer {
     private final Executor executor;
     
     private final AmazonSQS sqsClient;
+
+    /**
+     * Permits controlling the number of in flight batches of all types across
+     * all the queues of the client that owns this buffer. Receive batches only
+     * take a permit if one is free; a queue with waiting receive calls and no
+     * receive batch in flight always spawns one, so that it can't be starved
+     * by other queues.
+     */
+    private final Semaphore sharedInflightBatches;
+
+    /**
+     * Extends the visibility timeout of pre-fetched messages, and of messages
+     * handed to callers, until they are deleted. May be null.
+     */
+    private final VisibilityHeartbeat visibilityHeartbeat;
     
-    private long bufferCounter = 0;
+    private final AtomicInteger bufferCounter = new AtomicInteger(0);
     
     /**
      * This buffer's queue visibility timeout. Used to detect expired message
      * that should not be returned by the {@code receiveMessage} call.
-     * Synchronized by {@code receiveMessageLock}. -1 indicates that the time is
+     * Initialized under {@code taskSpawnSyncPoint}. -1 indicates that the time is
      * uninitialized.
      */
     private volatile long visibilityTimeoutNanos = -1;
 
     /**
      * Used as permits controlling the number of in flight receive batches.
-     * Synchronized by {@code taskSpawnSyncPoint}.
      */
-    private volatile int inflightReceiveMessageBatches;
+    private final AtomicInteger inflightReceiveMessageBatches = new AtomicInteger(0);
     
     /**
-     * synchronize on this object to create new receive batches or modify
-     * inflight message count
+     * synchronize on this object to look up the visibility timeout of the queue
      */
     private final Object taskSpawnSyncPoint = new Object();
     
@@ -90,14 +104,22 @@ public class ReceiveQueueBuffer {
     /** shutdown buffer does not retrieve any more messages from sqs */
     volatile boolean shutDown = false;
     
-    /** message delivery futures we gave out */ 
-    private final LinkedList< ReceiveMessageFuture > futures = new LinkedList<ReceiveMessageFuture>();
+    /** message delivery futures we gave out and have not satisfied yet */ 
+    private final ConcurrentLinkedQueue< ReceiveMessageFuture > futures = new ConcurrentLinkedQueue<ReceiveMessageFuture>();
+    
+    /** pre-fetched messages, in the order they were received */
+    private final ConcurrentLinkedQueue<PrefetchedMessage> prefetchedMessages = new ConcurrentLinkedQueue<PrefetchedMessage>();
     
-    /** finished batches are stored in this list. */
-    private LinkedList<ReceiveMessageBatchTask> finishedTasks = new LinkedList<ReceiveMessageBatchTask>();
+    /** the number of messages in {@code prefetchedMessages} */
+    private final AtomicInteger prefetchedMessageCount = new AtomicInteger(0);
+    
+    /** failures of receive batches, waiting to be reported to a future */
+    private final ConcurrentLinkedQueue<Exception> receiveFailures = new ConcurrentLinkedQueue<Exception>();
         
-    ReceiveQueueBuffer( AmazonSQS paramSQS, Executor paramExecutor, QueueBufferConfig paramConfig, String url ) {
+    ReceiveQueueBuffer( AmazonSQS paramSQS, Executor paramExecutor, QueueBufferConfig paramConfig, String url, Semaphore paramSharedInflightBatches, VisibilityHeartbeat paramVisibilityHeartbeat ) {
         config = paramConfig;
+        visibilityHeartbeat = paramVisibilityHeartbeat;
+        sharedInflightBatches = paramSharedInflightBatches;
         executor = paramExecutor;
         sqsClient = paramSQS;
         qUrl = url;
@@ -111,7 +133,7 @@ public class ReceiveQueueBuffer {
     public void shutdown() {
         shutDown = true;
         try {
-        while ( inflightReceiveMessageBatches > 0 )
+        while ( inflightReceiveMessageBatches.get() > 0 )
             Thread.sleep(100);
         } catch( InterruptedException e) {
             Thread.currentThread().interrupt();
@@ -137,9 +159,16 @@ public class ReceiveQueueBuffer {
         if ( rq.getMaxNumberOfMessages() != null ) {
             numMessages = rq.getMaxNumberOfMessages();
         }
-        QueueBufferFuture<ReceiveMessageRequest,ReceiveMessageResult> toReturn = issueFuture(numMessages, callback);
+        ReceiveMessageFuture toReturn = new ReceiveMessageFuture(callback, numMessages);
         
-        //attempt to satisfy it right away...
+        //attempt to satisfy it right away from the buffer, without
+        //queueing it behind other futures if messages are available...
+        if ( futures.isEmpty() && fillFuture(toReturn) ) {
+            spawnMoreReceiveTasks();
+            return toReturn;
+        }
+        
+        futures.add(toReturn);
         satisfyFuturesFromBuffer();
         
         //spawn more receive tasks if we need them...
@@ -148,108 +177,76 @@ public class ReceiveQueueBuffer {
         return toReturn;
     }
     
-    /**
-     * Creates and returns a new future object. Sleeps if the list of
-     * already-issued but as yet unsatisfied futures is over a throttle limit.
-     * 
-     * @return never null
-     */
-    private ReceiveMessageFuture issueFuture( int size, QueueBufferCallback<ReceiveMessageRequest, ReceiveMessageResult> callback) {
-        synchronized( futures )    {
-            ReceiveMessageFuture theFuture = new ReceiveMessageFuture(callback, size);
-            futures.addLast(theFuture);
-            return theFuture;
-        }
-    }
-    
     /**
      * Attempts to satisfy some or all of the already-issued futures from the
      * local buffer. If the buffer is empty or there are no futures, this method
      * won't do anything.
      * */
     private void satisfyFuturesFromBuffer()    {
-        synchronized( futures )    {
-            synchronized( finishedTasks ) {
-                //attempt to satisfy futures until we run out of either futures or
-                //finished tasks
-                while ( (!futures.isEmpty())  &&  (!finishedTasks.isEmpty()) )    {
-                    ReceiveMessageFuture currentFuture = futures.poll();
-                    fillFuture( currentFuture);
-                }
+        //attempt to satisfy futures until we run out of either futures or
+        //buffered results. The loop condition is re-checked after a future
+        //is put back, so a message that arrived while this thread held the
+        //future is not missed by both threads.
+        while ( (!futures.isEmpty()) && ( (!prefetchedMessages.isEmpty()) || (!receiveFailures.isEmpty()) ) ) {
+            ReceiveMessageFuture currentFuture = futures.poll();
+            if ( currentFuture == null ) {
+                break;
+            }
+            if ( !fillFuture( currentFuture ) ) {
+                futures.add( currentFuture );
             }
         }
     }
     
     /** 
-     * Fills the future with whatever results were received by the full batch 
-     * currently at the head of the completed batch queue.  Those results may be retrieved
-     * messages, or an exception.  
+     * Fills the future with pre-fetched messages that have not expired, up to
+     * the requested number, or with the failure of a receive batch if no
+     * messages are available.
      * 
-     * this method assumes that you are holding the finished tasks lock 
-     * locks when invoking it.  violate this assumption at 
-     * your own peril */
-    private void fillFuture( ReceiveMessageFuture f ){
-        ReceiveMessageResult r = new ReceiveMessageResult();
-        LinkedList<Message> messages = new LinkedList<Message>();
-        r.setMessages(messages);
-        Exception exception = null;
-        
-        if ( !finishedTasks.isEmpty() ) {
-            ReceiveMessageBatchTask t = finishedTasks.getFirst();
-            
-            exception = t.getException();
-            int retrieved = 0;
-            
-            boolean batchDone = false;
-            while (  retrieved < f.getRequestedSize() )  
-            {
-                Message m = t.removeMessage();
-                
-                // a non-empty batch can still give back a null 
-                // message if the message expired.
-                if ( null != m) {
-                    messages.add(m);
-                    ++retrieved;
-                }
-                else {
-                    batchDone = true;
-                    break;
-                }
-                
-            }
-            
-            //we may have just drained the batch.
-            batchDone = batchDone || t.isEmpty() || ( exception != null );
-            
-            if ( batchDone) {
-                finishedTasks.removeFirst();
+     * @return true if the future was completed, false if there was nothing
+     *         to complete it with */
+    private boolean fillFuture( ReceiveMessageFuture f ){
+        List<Message> messages = new ArrayList<Message>(f.getRequestedSize());
+        while ( messages.size() < f.getRequestedSize() ) {
+            Message m = takeMessage();
+            if ( m == null ) {
+                break;
             }
-            r.setMessages(messages);
+            messages.add(m);
         }
         
-        //if after the above runs the exception is not null, 
-        //the finished batch has encountered an error, and we will
-        //report that in the Future.  Otherwise, we will fill
-        //the future with the receive result
-        
-        if ( exception != null )
-            f.setFailure(exception);
-        else
+        if ( !messages.isEmpty() ) {
+            ReceiveMessageResult r = new ReceiveMessageResult();
+            r.setMessages(messages);
             f.setSuccess(r);
+            return true;
+        }
         
-        //now, a bit of maintenance.  remove empty non-exception-bearing 
-        //batches so we can get new ones.
-        
-        while ( !finishedTasks.isEmpty() ) {
-            ReceiveMessageBatchTask t = finishedTasks.getFirst();
-            if ( (!t.isEmpty()) || (t.getException() != null) ) {
-                //if we found a finished task that has useful content,
-                //our cleanup is done
-                break;
+        Exception exception = receiveFailures.poll();
+        if ( exception != null ) {
+            f.setFailure(exception);
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Takes the oldest pre-fetched message whose visibility timeout has not
+     * expired, discarding any expired messages ahead of it.
+     * 
+     * @return a message, or null if the buffer holds no unexpired messages
+     */
+    private Message takeMessage() {
+        while ( true ) {
+            PrefetchedMessage pm = prefetchedMessages.poll();
+            if ( pm == null ) {
+                return null;
             }
-            
-            //throw away the empty batch.
-            finishedTasks.removeFirst();
+            prefetchedMessageCount.decrementAndGet();
+            if ( !pm.isExpired( System.nanoTime() ) ) {
+                return pm.message;
+            }
+            releaseVisibility( pm );
         }
     }
     
@@ -265,45 +262,62 @@ public class ReceiveQueueBuffer {
 
         int desiredBatches = config.getMaxDoneReceiveBatches();
         desiredBatches = desiredBatches < 1 ? 1 : desiredBatches;
+        int batchSize = config.getMaxBatchSize();
+        batchSize = batchSize < 1 ? 1 : batchSize;
         
-        synchronized( finishedTasks ) {
-            if (  finishedTasks.size() >= desiredBatches )
-                return;
-            
-            //if we have some finished batches already, and 
-            //existing inflight batches will bring us to the limit, 
-            //don't spawn more. if our finished tasks cache is empty, we will
-            //always spawn a thread.
-            if ( finishedTasks.size() > 0 && ( finishedTasks.size() + inflightReceiveMessageBatches ) >= desiredBatches )
-                return;
-        }
+        //count the buffered messages in batches, as they were received
+        int doneBatches = ( prefetchedMessageCount.get() + batchSize - 1 ) / batchSize;
+        if (  doneBatches >= desiredBatches )
+            return;
+        
+        //if we have some finished batches already, and 
+        //existing inflight batches will bring us to the limit, 
+        //don't spawn more. if our buffer is empty, we will
+        //always spawn a thread.
+        if ( doneBatches > 0 && ( doneBatches + inflightReceiveMessageBatches.get() ) >= desiredBatches )
+            return;
 
-        synchronized (taskSpawnSyncPoint) {
-            if (visibilityTimeoutNanos == -1) {
-                GetQueueAttributesRequest request = new GetQueueAttributesRequest().
-                        withQueueUrl(qUrl).
-                        withAttributeNames("VisibilityTimeout");
-                ResultConverter.appendUserAgent(request, AmazonSQSBufferedAsyncClient.USER_AGENT);
-                long visibilityTimeoutSeconds = Long.parseLong(sqsClient.getQueueAttributes( request ).getAttributes().get("VisibilityTimeout"));
-                visibilityTimeoutNanos = TimeUnit.NANOSECONDS.convert(visibilityTimeoutSeconds, TimeUnit.SECONDS);
+        if (visibilityTimeoutNanos == -1) {
+            synchronized (taskSpawnSyncPoint) {
+                if (visibilityTimeoutNanos == -1) {
+                    GetQueueAttributesRequest request = new GetQueueAttributesRequest().
+                            withQueueUrl(qUrl).
+                            withAttributeNames("VisibilityTimeout");
+                    ResultConverter.appendUserAgent(request, AmazonSQSBufferedAsyncClient.USER_AGENT);
+                    long visibilityTimeoutSeconds = Long.parseLong(sqsClient.getQueueAttributes( request ).getAttributes().get("VisibilityTimeout"));
+                    visibilityTimeoutNanos = TimeUnit.NANOSECONDS.convert(visibilityTimeoutSeconds, TimeUnit.SECONDS);
+                }
             }
+        }
 
-            int max = config.getMaxInflightReceiveBatches();
-            //must allow at least one inflight receive task, or receive won't 
-            //work at all.
-            max = max > 0 ? max : 1; 
-            int toSpawn =  max - inflightReceiveMessageBatches;
-            if (toSpawn > 0) {
-                ReceiveMessageBatchTask task = new ReceiveMessageBatchTask(this );
-                ++inflightReceiveMessageBatches;
-                ++bufferCounter;
-                if (log.isTraceEnabled()) {
-                    log.trace("Spawned receive batch #" + bufferCounter + " (" + inflightReceiveMessageBatches 
-                            + " of " + max + " inflight) for queue " + qUrl);
-                }
-                executor.execute(task);
+        int max = config.getMaxInflightReceiveBatches();
+        //must allow at least one inflight receive task, or receive won't 
+        //work at all.
+        max = max > 0 ? max : 1; 
+        
+        int inflight;
+        do {
+            inflight = inflightReceiveMessageBatches.get();
+            if ( inflight >= max ) {
+                return;
             }
+        } while ( !inflightReceiveMessageBatches.compareAndSet(inflight, inflight + 1) );
+        
+        boolean holdsSharedPermit = sharedInflightBatches.tryAcquire();
+        if ( !holdsSharedPermit && ( inflight > 0 || futures.isEmpty() ) ) {
+            //the shared budget is used up by other batches, and this
+            //queue is not waiting on us: leave the budget to others.
+            inflightReceiveMessageBatches.decrementAndGet();
+            return;
         }
+        
+        ReceiveMessageBatchTask task = new ReceiveMessageBatchTask(this, holdsSharedPermit );
+        int batchNumber = bufferCounter.incrementAndGet();
+        if (log.isTraceEnabled()) {
+            log.trace("Spawned receive batch #" + batchNumber + " (" + ( inflight + 1 )
+                    + " of " + max + " inflight) for queue " + qUrl);
+        }
+        executor.execute(task);
     }
     
     /**
@@ -313,19 +327,41 @@ public class ReceiveQueueBuffer {
      * */
     void reportBatchFinished( ReceiveMessageBatchTask batch )
     {
-        synchronized( finishedTasks ) {
-            finishedTasks.addLast( batch );
-            if ( log.isTraceEnabled() ) {
-                log.info("Queue " + qUrl + " now has " + finishedTasks.size() + " receive results cached ");
+        if ( batch.exception != null ) {
+            receiveFailures.add( batch.exception );
+        } else {
+            for ( Message m : batch.messages ) {
+                VisibilityHeartbeat.Lease lease = null;
+                if ( visibilityHeartbeat != null ) {
+                    lease = visibilityHeartbeat.track( qUrl, m.getReceiptHandle(), batch.visibilityTimeoutSeconds, batch.visibilityDeadlineNano );
+                }
+                prefetchedMessages.add( new PrefetchedMessage( m, batch.visibilityDeadlineNano, lease ) );
+                prefetchedMessageCount.incrementAndGet();
             }
         }
+        if ( log.isTraceEnabled() ) {
+            log.trace("Queue " + qUrl + " now has " + prefetchedMessageCount.get() + " receive results cached ");
+        }
         
-        synchronized( taskSpawnSyncPoint )    {
-            --inflightReceiveMessageBatches;
+        inflightReceiveMessageBatches.decrementAndGet();
+        
+        if ( batch.holdsSharedPermit ) {
+            sharedInflightBatches.release();
         }
         
         satisfyFuturesFromBuffer();
-        
+
+        //a batch that came back empty answers the oldest waiting future with
+        //an empty result, so that receive calls on an empty queue return
+        if ( batch.exception == null && batch.messages.isEmpty() ) {
+            ReceiveMessageFuture oldest = futures.poll();
+            if ( oldest != null && !fillFuture( oldest ) ) {
+                ReceiveMessageResult r = new ReceiveMessageResult();
+                r.setMessages(new ArrayList<Message>());
+                oldest.setSuccess(r);
+            }
+        }
+
         spawnMoreReceiveTasks();
     }
 
@@ -334,19 +370,66 @@ public class ReceiveQueueBuffer {
      * Clears and nacks any pre-fetched messages in this buffer.
      */
     public void clear() {
-        boolean done = false;
-        while ( !done ) {
-            ReceiveMessageBatchTask currentBatch = null;
-            synchronized (finishedTasks) {
-                currentBatch = finishedTasks.poll();
+        List<Message> toNack = new ArrayList<Message>(QueueBufferConfig.MAX_BATCH_SIZE_DEFAULT);
+        while ( true ) {
+            PrefetchedMessage pm = prefetchedMessages.poll();
+            if ( pm != null ) {
+                prefetchedMessageCount.decrementAndGet();
+                if ( !pm.isExpired(System.nanoTime()) ) {
+                    toNack.add(pm.message);
+                }
+                releaseVisibility( pm );
             }
             
-            if ( currentBatch != null ) {
-                currentBatch.clear();
-            } else {
-                //ran out of batches to clear
-                done = true;
+            if ( toNack.size() == QueueBufferConfig.MAX_BATCH_SIZE_DEFAULT || ( pm == null && !toNack.isEmpty() ) ) {
+                nack(toNack);
+                toNack.clear();
             }
+            
+            if ( pm == null ) {
+                //ran out of messages to clear
+                break;
+            }
+        }
+    }
+
+    /**
+     * Stops extending the visibility timeout of a message that will not be
+     * handed to a caller.
+     */
+    private void releaseVisibility( PrefetchedMessage pm ) {
+        if ( pm.lease != null ) {
+            visibilityHeartbeat.release( pm.message.getReceiptHandle() );
+        }
+    }
+
+    /**
+     * Makes the specified messages visible to other consumers right away.
+     */
+    private void nack( List<Message> messages ) {
+        ChangeMessageVisibilityBatchRequest batchRequest = new ChangeMessageVisibilityBatchRequest()
+        .withQueueUrl(qUrl);
+        ResultConverter.appendUserAgent(batchRequest, AmazonSQSBufferedAsyncClient.USER_AGENT);
+
+        List<ChangeMessageVisibilityBatchRequestEntry> entries = 
+            new ArrayList<ChangeMessageVisibilityBatchRequestEntry>(messages.size());
+
+        int i = 0;
+        for (Message m : messages) {
+                
+            entries.add(new ChangeMessageVisibilityBatchRequestEntry()
+                    .withId(Integer.toString(i))
+                    .withReceiptHandle(m.getReceiptHandle())
+                    .withVisibilityTimeout(0));
+            ++i;
+        }
+        
+        try {
+            batchRequest.setEntries(entries);
+            sqsClient.changeMessageVisibilityBatch(batchRequest);
+        } catch (AmazonClientException e) {
+            // Log and ignore.
+            log.warn("ReceiveQueueBuffer: changeMessageVisibility failed "    + e);
         }
     }
 
@@ -371,131 +454,72 @@ public class ReceiveQueueBuffer {
         
     }
     
+    /**
+     * A pre-fetched message, and the time at which its visibility timeout
+     * expires and it may be delivered to another consumer.  If the visibility
+     * heartbeat is enabled, the deadline is tracked (and extended) by the
+     * message's lease instead.
+     */
+    private static class PrefetchedMessage {
+        final Message message;
+        final long visibilityDeadlineNano;
+        final VisibilityHeartbeat.Lease lease;
+        
+        PrefetchedMessage( Message paramMessage, long paramVisibilityDeadlineNano, VisibilityHeartbeat.Lease paramLease ) {
+            message = paramMessage;
+            visibilityDeadlineNano = paramVisibilityDeadlineNano;
+            lease = paramLease;
+        }
+        
+        boolean isExpired( long nowNano ) {
+            if ( lease != null ) {
+                return lease.isExpired( nowNano );
+            }
+            return nowNano - visibilityDeadlineNano > 0;
+        }
+    }
+    
     /**
      * Task to receive messages from SQS.
      * <p>
-     * The batch task is constructed {@code !open} until the
-     * {@code ReceiveMessage} completes. At that point, the batch opens and its
-     * messages (if any) become available to read.
+     * Once the {@code ReceiveMessage} call completes, the task hands its
+     * messages (or its failure) to the parent buffer.
      */
     private class ReceiveMessageBatchTask implements Runnable {
         private Exception exception = null;
         private List<Message> messages;
         private long visibilityDeadlineNano;
-        private boolean open = false;
+        private int visibilityTimeoutSeconds;
         private ReceiveQueueBuffer parentBuffer;
+        /** whether this batch holds a permit from the shared in-flight budget */
+        private final boolean holdsSharedPermit;
         
 
         /**
-         * Constructs a receive task waiting the specified time before calling
-         * SQS.
-         * 
-         * @param waitTimeMs
-         *            the time to wait before calling SQS
+         * Constructs a receive task for the specified buffer.
          */
-        ReceiveMessageBatchTask(ReceiveQueueBuffer paramParentBuffer) {
+        ReceiveMessageBatchTask(ReceiveQueueBuffer paramParentBuffer, boolean paramHoldsSharedPermit) {
             parentBuffer = paramParentBuffer;
-            messages = Collections.emptyList();
-        }
-        
-        synchronized int getSize()    {
-            if (!open)
-                throw new IllegalStateException("batch is not open");
-
-            return messages.size();
-            
-        }
-
-        synchronized boolean isEmpty() {
-            if (!open)
-                throw new IllegalStateException("batch is not open");
-
-            return messages.isEmpty();
-        }
-        
-        /** @return the exception that was thrown during execution, or null
-         * if there was no exception */ 
-        synchronized Exception getException() {
-            if (!open)
-                throw new IllegalStateException("batch is not open");
-            
-            return exception;
-        }
-        
-        
-        /**
-         * Returns a message if one is available.
-         * <p>
-         * The call adjusts the message count.
-         * 
-         * @return a message or {@code null} if none is available
-         */
-        synchronized Message removeMessage() {
-            if (!open)
-                throw new IllegalStateException("batch is not open");
-
-            // our messages expired.
-            if ( System.nanoTime() > visibilityDeadlineNano ) { 
-                messages.clear();
-                return null;
-            }
-            
-            if (messages.isEmpty())
-                return null;
-            else
-                return messages.remove(messages.size() - 1);
-        }
-
-        /**
-         * Nacks and clears all messages remaining in the batch.
-         */
-        synchronized void clear() {
-            if (!open)
-                throw new IllegalStateException("batch is not open");
-
-            if (System.nanoTime() < visibilityDeadlineNano) {
-                ChangeMessageVisibilityBatchRequest batchRequest = new ChangeMessageVisibilityBatchRequest()
-                .withQueueUrl(qUrl);
-                ResultConverter.appendUserAgent(batchRequest, AmazonSQSBufferedAsyncClient.USER_AGENT);
-
-                List<ChangeMessageVisibilityBatchRequestEntry> entries = 
-                    new ArrayList<ChangeMessageVisibilityBatchRequestEntry>(messages.size());
-
-                int i = 0;
-                for (Message m : messages) {
-                        
-                    entries.add(new ChangeMessageVisibilityBatchRequestEntry()
-                            .withId(Integer.toString(i))
-                            .withReceiptHandle(m.getReceiptHandle())
-                            .withVisibilityTimeout(0));
-                    ++i;
-                }
-                
-                try {
-                    batchRequest.setEntries(entries);
-                    sqsClient.changeMessageVisibilityBatch(batchRequest);
-                } catch (AmazonClientException e) {
-                    // Log and ignore.
-                    log.warn("ReceiveMessageBatchTask: changeMessageVisibility failed "    + e);
-                }
-            }
-            messages.clear();
+            holdsSharedPermit = paramHoldsSharedPermit;
+            messages = new ArrayList<Message>();
         }
 
         /**
          * Attempts to retrieve messages from SQS and upon completion (successful or
-         * unsuccessful) reports the batch as complete and open 
+         * unsuccessful) reports the batch as complete
          * */
         public void run() {
             
             try {
                 visibilityDeadlineNano = System.nanoTime() + visibilityTimeoutNanos;
+                visibilityTimeoutSeconds = (int) TimeUnit.SECONDS.convert(visibilityTimeoutNanos, TimeUnit.NANOSECONDS);
                 ReceiveMessageRequest request = new ReceiveMessageRequest(qUrl).withMaxNumberOfMessages(config.getMaxBatchSize());
                 ResultConverter.appendUserAgent(request, AmazonSQSBufferedAsyncClient.USER_AGENT);
                 
                 if ( config.getVisibilityTimeoutSeconds() > 0 ) {
                     request.setVisibilityTimeout(config.getVisibilityTimeoutSeconds());
                     visibilityDeadlineNano = System.nanoTime() + TimeUnit.NANOSECONDS.convert(config.getVisibilityTimeoutSeconds(), TimeUnit.SECONDS);
+                    visibilityTimeoutSeconds = config.getVisibilityTimeoutSeconds();
                 }
                 
                 if ( config.isLongPoll() ) {
@@ -506,8 +530,7 @@ public class ReceiveQueueBuffer {
             } catch (AmazonClientException e) {
                 exception = e;
             } finally {
-                //whatever happened, we are done and can be considered open
-                open = true;
+                //whatever happened, we are done
                 parentBuffer.reportBatchFinished(this);
             }
             
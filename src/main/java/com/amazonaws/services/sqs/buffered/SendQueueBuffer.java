@@ -138,9 +138,25 @@ public class SendQueueBuffer {
      */
     private final Semaphore inflightChangeMessageVisibilityBatches;
 
-    SendQueueBuffer(AmazonSQS sqsClient, Executor executor, QueueBufferConfig paramConfig, String url) {
+    /**
+     * Permits controlling the number of in flight batches of all types across
+     * all the queues of the client that owns this buffer.
+     */
+    private final Semaphore sharedInflightBatches;
+
+    /**
+     * Observed arrival rates of each type of outbound request, used to decide
+     * when to close batches if adaptive batching is enabled. Synchronized by
+     * the lock of the matching call type.
+     */
+    private final ArrivalRate sendMessageArrivals = new ArrivalRate();
+    private final ArrivalRate deleteMessageArrivals = new ArrivalRate();
+    private final ArrivalRate changeMessageVisibilityArrivals = new ArrivalRate();
+
+    SendQueueBuffer(AmazonSQS sqsClient, Executor executor, QueueBufferConfig paramConfig, String url, Semaphore sharedInflightBatches) {
         this.sqsClient = sqsClient;
         this.executor = executor;
+        this.sharedInflightBatches = sharedInflightBatches;
         this.config = paramConfig;
         qUrl = url;
         int maxBatch = config.getMaxInflightOutboundBatches();
@@ -163,7 +179,7 @@ public class SendQueueBuffer {
       public QueueBufferFuture< SendMessageRequest, SendMessageResult > sendMessage( SendMessageRequest request, QueueBufferCallback<SendMessageRequest, SendMessageResult> callback)
       {
           QueueBufferFuture<SendMessageRequest, SendMessageResult>  result = 
-                  submitOutboundRequest(sendMessageLock, openSendMessageBatchTask, request, inflightSendMessageBatches, callback);
+                  submitOutboundRequest(sendMessageLock, openSendMessageBatchTask, request, inflightSendMessageBatches, sendMessageArrivals, callback);
           return result;
       }
       
@@ -175,6 +191,7 @@ public class SendQueueBuffer {
                   openDeleteMessageBatchTask,
                   request, 
                   inflightDeleteMessageBatches,
+                  deleteMessageArrivals,
                   callback);
       }
       
@@ -187,6 +204,7 @@ public class SendQueueBuffer {
                 openChangeMessageVisibilityBatchTask,
                 request,
                 inflightChangeMessageVisibilityBatches,
+                changeMessageVisibilityArrivals,
                 callback);
       }
       
@@ -255,6 +273,8 @@ public class SendQueueBuffer {
      *            the request to submit
      * @param inflightOperationBatches
      *            the permits controlling the batches for this type of request
+     * @param arrivals
+     *            the observed arrival rate for this type of request
      * @return never null
      * @throws AmazonClientException
      *             (see the various outbound calls for details)
@@ -265,24 +285,36 @@ public class SendQueueBuffer {
             OBT[] openOutboundBatchTask, 
             R request,
             final Semaphore inflightOperationBatches, 
+            ArrivalRate arrivals,
             QueueBufferCallback<R, Result> callback) {
         /*
          * Callers add requests to a single batch task (openOutboundBatchTask)
          * until it is full or maxBatchOpenMs elapses. The total number of batch
          * task in flight is controlled by the inflightOperationBatch semaphore
-         * capped at maxInflightOutboundBatches.
+         * capped at maxInflightOutboundBatches, and by the semaphore shared
+         * by all the queues of the client.
          */
         QueueBufferFuture<R, Result> theFuture = null;
         try {
             synchronized (operationLock) {
+                arrivals.recordArrival();
                 if (openOutboundBatchTask[0] == null || ((theFuture = openOutboundBatchTask[0].addRequest(request, callback))) == null) {
                     OBT obt = (OBT) newOutboundBatchTask(request);
+                    obt.arrivals = arrivals;
+                    obt.inflightOperationBatches = inflightOperationBatches;
                     inflightOperationBatches.acquire();
+                    try {
+                        sharedInflightBatches.acquire();
+                    } catch (InterruptedException e) {
+                        inflightOperationBatches.release();
+                        throw e;
+                    }
                     openOutboundBatchTask[0] = obt;
                     // Register a listener for the event signaling that the
                     // batch task has completed (successfully or not).
                     openOutboundBatchTask[0].onCompleted = new Listener<OutboundBatchTask<R, Result>>() {
                         public void invoke(OutboundBatchTask<R, Result> task) {
+                            sharedInflightBatches.release();
                             inflightOperationBatches.release();
                         }
                     };
@@ -319,7 +351,9 @@ public class SendQueueBuffer {
      * Task to send a batch of outbound requests to SQS.
      * <p>
      * The batch task is constructed open and accepts requests until full, or
-     * until {@code maxBatchOpenMs} elapses. At that point, the batch closes and
+     * until {@code maxBatchOpenMs} elapses. With adaptive batching, it also
+     * closes once no further request is expected soon, unless the in-flight
+     * batch limits are exhausted. At that point, the batch closes and
      * the collected requests are assembled into a single batch request to SQS.
      * Specialized for each type of outbound request.
      * <p>
@@ -335,6 +369,9 @@ public class SendQueueBuffer {
         final ArrayList<QueueBufferFuture<R, Result>> futures;
         AtomicBoolean open = new AtomicBoolean(true);
         volatile Listener<OutboundBatchTask<R, Result>> onCompleted = null;
+        volatile ArrivalRate arrivals = null;
+        volatile Semaphore inflightOperationBatches = null;
+        private long lastAddedNanos = System.nanoTime();
 
         OutboundBatchTask() {
             requests = new ArrayList<R>(config.getMaxBatchSize());
@@ -382,6 +419,7 @@ public class SendQueueBuffer {
                 QueueBufferFuture<R, Result> theFuture = new QueueBufferFuture<R, Result>(callback);
 
                 futures.add(theFuture);
+                lastAddedNanos = System.nanoTime();
                 onRequestAdded(request);
                 return theFuture;
             } else
@@ -415,11 +453,18 @@ public class SendQueueBuffer {
                         config.getMaxBatchOpenMs() +1;
                 long t = TimeUnit.MILLISECONDS.convert(System.nanoTime(), TimeUnit.NANOSECONDS );
                 while (open.get()  && (t  < deadlineMs ) ) {
-                    t = TimeUnit.MILLISECONDS.convert(System.nanoTime(), TimeUnit.NANOSECONDS );
-                    
+                    long closeAtMs = deadlineMs;
+                    if ( config.isAdaptiveBatching() && !isInflightLimitReached() ) {
+                        closeAtMs = Math.min(deadlineMs, adaptiveCloseTimeMs());
+                        if ( t >= closeAtMs ) {
+                            break;
+                        }
+                    }
+
                     //zero means "wait forever", can't have that.
-                    long toWait = Math.max(1, deadlineMs - t);
+                    long toWait = Math.max(1, closeAtMs - t);
                     wait(toWait);
+                    t = TimeUnit.MILLISECONDS.convert(System.nanoTime(), TimeUnit.NANOSECONDS );
                 }
                     
                 open.set(false);
@@ -442,6 +487,32 @@ public class SendQueueBuffer {
             }
         }
         
+        /**
+         * @return the time, in milliseconds on the {@code System.nanoTime()}
+         *         clock, after which no further request is expected for this
+         *         batch: twice the average gap between requests after the last
+         *         one added, or right away if requests arrive more rarely than
+         *         the batch window.
+         */
+        private synchronized long adaptiveCloseTimeMs() {
+            long gapNanos = arrivals == null ? Long.MAX_VALUE : arrivals.getAverageGapNanos();
+            long maxOpenNanos = TimeUnit.NANOSECONDS.convert(config.getMaxBatchOpenMs(), TimeUnit.MILLISECONDS);
+            if ( gapNanos > maxOpenNanos / 2 ) {
+                return 0;
+            }
+            return TimeUnit.MILLISECONDS.convert(lastAddedNanos + 2 * gapNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @return whether no further batches of this type can be sent right
+         *         now, in which case closing this batch early gains nothing.
+         */
+        private boolean isInflightLimitReached() {
+            Semaphore operationBatches = inflightOperationBatches;
+            return ( operationBatches != null && operationBatches.availablePermits() == 0 )
+                    || sharedInflightBatches.availablePermits() == 0;
+        }
+
         private void failAll( Exception e) {
             for( QueueBufferFuture<R, Result> f : futures ) {
                 f.setFailure(e);
@@ -449,6 +520,31 @@ public class SendQueueBuffer {
         }
     }
 
+    /**
+     * Tracks the exponentially weighted average gap between requests of one
+     * type. Not thread safe; callers synchronize on the lock of the call type.
+     */
+    private static class ArrivalRate {
+        /** Gaps longer than this are treated as idle periods. */
+        private static final long MAX_GAP_NANOS = TimeUnit.NANOSECONDS.convert(10, TimeUnit.SECONDS);
+
+        private long lastArrivalNanos = -1;
+        private volatile long averageGapNanos = MAX_GAP_NANOS;
+
+        void recordArrival() {
+            long now = System.nanoTime();
+            if ( lastArrivalNanos != -1 ) {
+                long gap = Math.min(now - lastArrivalNanos, MAX_GAP_NANOS);
+                averageGapNanos += (gap - averageGapNanos) / 4;
+            }
+            lastArrivalNanos = now;
+        }
+
+        long getAverageGapNanos() {
+            return averageGapNanos;
+        }
+    }
+
     private class SendMessageBatchTask extends
             OutboundBatchTask<SendMessageRequest, SendMessageResult> {
         int batchSizeBytes = 0;
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2012-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+
+package com.amazonaws.services.sqs.buffered;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResultEntry;
+
+/**
+ * Keeps received messages invisible to other consumers until the client is
+ * done with them. Messages are tracked from the moment they are received
+ * (while they wait in a pre-fetch buffer and while callers process them) until
+ * they are deleted or their visibility is changed through the buffered client.
+ * <p>
+ * A single background thread wakes up every second and, for every tracked
+ * message that has used up half of its visibility timeout, resets the timeout
+ * with {@code ChangeMessageVisibilityBatch} calls of up to 10 messages per
+ * queue. Messages are no longer extended once
+ * {@link QueueBufferConfig#getMaxVisibilityExtensionSeconds()} has passed
+ * since they were received.
+ * <p>
+ * Instances of {@code VisibilityHeartbeat} are thread-safe.
+ */
+class VisibilityHeartbeat {
+
+    private static Log log = LogFactory.getLog(VisibilityHeartbeat.class);
+
+    /** how often, in milliseconds, the tracked messages are checked */
+    private static final long HEARTBEAT_INTERVAL_MS = 1000;
+
+    /** visibility timeouts shorter than this are too short to extend reliably */
+    private static final int MIN_VISIBILITY_TIMEOUT_SECONDS = 4;
+
+    private final AmazonSQS sqsClient;
+
+    private final long maxExtensionNanos;
+
+    /** tracked messages, keyed by receipt handle */
+    private final ConcurrentHashMap<String, Lease> leases = new ConcurrentHashMap<String, Lease>();
+
+    private final ScheduledExecutorService scheduler;
+
+    VisibilityHeartbeat( AmazonSQS paramSQS, QueueBufferConfig config ) {
+        sqsClient = paramSQS;
+        maxExtensionNanos = TimeUnit.NANOSECONDS.convert(config.getMaxVisibilityExtensionSeconds(), TimeUnit.SECONDS);
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread( Runnable r ) {
+                Thread thread = new Thread( r );
+                thread.setDaemon(true);
+                thread.setName("SQSVisibilityHeartbeatThread");
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    extendLeases();
+                } catch ( RuntimeException e ) {
+                    log.warn("VisibilityHeartbeat: unable to extend visibility timeouts " + e);
+                }
+            }
+        }, HEARTBEAT_INTERVAL_MS, HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts tracking a received message.
+     *
+     * @return the lease holding the message's current visibility deadline, or
+     *         null if the visibility timeout is too short to be extended
+     */
+    Lease track( String qUrl, String receiptHandle, int visibilityTimeoutSeconds, long visibilityDeadlineNano ) {
+        if ( visibilityTimeoutSeconds < MIN_VISIBILITY_TIMEOUT_SECONDS ) {
+            return null;
+        }
+        Lease lease = new Lease( qUrl, receiptHandle, visibilityTimeoutSeconds, visibilityDeadlineNano );
+        leases.put( receiptHandle, lease );
+        return lease;
+    }
+
+    /**
+     * Stops tracking a message, because it was deleted or its visibility is now
+     * managed by the caller.
+     */
+    void release( String receiptHandle ) {
+        if ( receiptHandle != null ) {
+            leases.remove( receiptHandle );
+        }
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+        leases.clear();
+    }
+
+    /**
+     * Extends the visibility timeout of every tracked message that has used up
+     * half of it, and forgets messages that expired or reached the maximum
+     * extension time.
+     */
+    private void extendLeases() {
+        long now = System.nanoTime();
+        Map<String, List<Lease>> dueByQueue = new HashMap<String, List<Lease>>();
+
+        for ( Lease lease : leases.values() ) {
+            if ( lease.isExpired(now) || now - lease.receivedNano > maxExtensionNanos ) {
+                leases.remove( lease.receiptHandle, lease );
+                continue;
+            }
+            long halfTimeoutNanos = TimeUnit.NANOSECONDS.convert(lease.visibilityTimeoutSeconds, TimeUnit.SECONDS) / 2;
+            if ( lease.visibilityDeadlineNano - now <= halfTimeoutNanos ) {
+                List<Lease> due = dueByQueue.get( lease.qUrl );
+                if ( due == null ) {
+                    due = new ArrayList<Lease>();
+                    dueByQueue.put( lease.qUrl, due );
+                }
+                due.add( lease );
+            }
+        }
+
+        for ( Map.Entry<String, List<Lease>> entry : dueByQueue.entrySet() ) {
+            List<Lease> due = entry.getValue();
+            for ( int i = 0; i < due.size(); i += QueueBufferConfig.MAX_BATCH_SIZE_DEFAULT ) {
+                extend( entry.getKey(), due.subList(i, Math.min(due.size(), i + QueueBufferConfig.MAX_BATCH_SIZE_DEFAULT)) );
+            }
+        }
+    }
+
+    private void extend( String qUrl, List<Lease> batch ) {
+        ChangeMessageVisibilityBatchRequest batchRequest = new ChangeMessageVisibilityBatchRequest()
+                .withQueueUrl(qUrl);
+        ResultConverter.appendUserAgent(batchRequest, AmazonSQSBufferedAsyncClient.USER_AGENT);
+
+        List<ChangeMessageVisibilityBatchRequestEntry> entries =
+                new ArrayList<ChangeMessageVisibilityBatchRequestEntry>(batch.size());
+        for ( int i = 0, n = batch.size(); i < n; i++ ) {
+            entries.add(new ChangeMessageVisibilityBatchRequestEntry()
+                    .withId(Integer.toString(i))
+                    .withReceiptHandle(batch.get(i).receiptHandle)
+                    .withVisibilityTimeout(batch.get(i).visibilityTimeoutSeconds));
+        }
+        batchRequest.setEntries(entries);
+
+        long requestStart = System.nanoTime();
+        try {
+            ChangeMessageVisibilityBatchResult batchResult = sqsClient.changeMessageVisibilityBatch(batchRequest);
+            for ( ChangeMessageVisibilityBatchResultEntry resultEntry : batchResult.getSuccessful() ) {
+                Lease lease = batch.get(Integer.parseInt(resultEntry.getId()));
+                lease.visibilityDeadlineNano = requestStart
+                        + TimeUnit.NANOSECONDS.convert(lease.visibilityTimeoutSeconds, TimeUnit.SECONDS);
+            }
+            for ( BatchResultErrorEntry errorEntry : batchResult.getFailed() ) {
+                if ( errorEntry.isSenderFault() ) {
+                    //the receipt handle is no longer valid; retrying won't help
+                    Lease lease = batch.get(Integer.parseInt(errorEntry.getId()));
+                    leases.remove( lease.receiptHandle, lease );
+                }
+            }
+        } catch ( AmazonClientException e ) {
+            // Log and retry on the next heartbeat.
+            log.warn("VisibilityHeartbeat: changeMessageVisibilityBatch failed " + e);
+        }
+    }
+
+    /**
+     * A tracked message and the time at which its visibility timeout currently
+     * expires.
+     */
+    static class Lease {
+        final String qUrl;
+        final String receiptHandle;
+        final int visibilityTimeoutSeconds;
+        final long receivedNano;
+        volatile long visibilityDeadlineNano;
+
+        Lease( String paramQUrl, String paramReceiptHandle, int paramVisibilityTimeoutSeconds, long paramVisibilityDeadlineNano ) {
+            qUrl = paramQUrl;
+            receiptHandle = paramReceiptHandle;
+            visibilityTimeoutSeconds = paramVisibilityTimeoutSeconds;
+            receivedNano = System.nanoTime();
+            visibilityDeadlineNano = paramVisibilityDeadlineNano;
+        }
+
+        boolean isExpired( long nowNano ) {
+            return nowNano - visibilityDeadlineNano > 0;
+        }
+    }
+}
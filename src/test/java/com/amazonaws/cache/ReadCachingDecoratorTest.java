@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.dynamodb.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodb.model.ListTablesRequest;
+import com.amazonaws.services.dynamodb.model.ListTablesResult;
+
+/**
+ * Tests which calls {@link ReadCachingDecorator} answers from its cache,
+ * against a client that counts the calls that reach it.
+ */
+public class ReadCachingDecoratorTest {
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private AmazonDynamoDBAsync client;
+
+    @Before
+    public void setUp() {
+        AmazonDynamoDBAsync counting = (AmazonDynamoDBAsync) Proxy.newProxyInstance(
+                AmazonDynamoDBAsync.class.getClassLoader(), new Class<?>[] { AmazonDynamoDBAsync.class },
+                new InvocationHandler() {
+
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        calls.incrementAndGet();
+                        if (method.getName().equals("listTablesAsync")) {
+                            FutureTask<ListTablesResult> future = new FutureTask<ListTablesResult>(
+                                    new Callable<ListTablesResult>() {
+
+                                        public ListTablesResult call() {
+                                            throw new IllegalStateException("failed");
+                                        }
+                                    });
+                            future.run();
+                            return future;
+                        }
+                        return new ListTablesResult();
+                    }
+                });
+        client = new ReadCachingDecorator(new ReadCacheConfig().withOperationTtlMillis("listTablesAsync", 60000))
+                .decorate(AmazonDynamoDBAsync.class, counting);
+    }
+
+    @Test
+    public void identicalReadsAreCached() {
+        client.listTables(new ListTablesRequest().withLimit(1));
+        client.listTables(new ListTablesRequest().withLimit(1));
+        assertEquals(1, calls.get());
+
+        client.listTables(new ListTablesRequest().withLimit(2));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void readsWithRequestCredentialsAreNotCached() {
+        client.listTables(new ListTablesRequest().withLimit(1));
+        ListTablesRequest request = new ListTablesRequest().withLimit(1);
+        request.setRequestCredentials(new BasicAWSCredentials("other", "secret"));
+        client.listTables(request);
+        client.listTables(request);
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void asyncReadsAreNotCached() {
+        Future<ListTablesResult> first = client.listTablesAsync(new ListTablesRequest().withLimit(1));
+        Future<ListTablesResult> second = client.listTablesAsync(new ListTablesRequest().withLimit(1));
+        assertEquals(2, calls.get());
+        assertEquals(true, first != second);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.dynamodb.AmazonDynamoDBClient;
+
+/**
+ * Tests that connections are spread across the addresses of an endpoint, and
+ * that an address nothing listens on is skipped, with stub servers listening
+ * on two loopback addresses.
+ */
+public class DnsCachingClientConnManagerTest {
+
+    private static final int REQUESTS = 60;
+
+    private final AtomicInteger lookups = new AtomicInteger();
+
+    private StubHttpServer first;
+
+    private StubHttpServer second;
+
+    private AmazonDynamoDBClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        StubHttpServer.Handler handler = new StubHttpServer.Handler() {
+
+            public StubHttpServer.Response handle(Map<String, String> headers, String body) throws Exception {
+                return new StubHttpServer.Response("{\"TableNames\":[]}".getBytes("UTF-8"))
+                        .withHeader("Content-Type", "application/x-amz-json-1.0");
+            }
+        };
+        first = new StubHttpServer(InetAddress.getByName("127.0.0.1"), 0, handler);
+        try {
+            second = new StubHttpServer(InetAddress.getByName("127.0.0.2"), first.getPort(), handler);
+        } catch (IOException e) {
+            // Not every platform routes the whole loopback range
+            Assume.assumeNoException(e);
+        }
+
+        DnsResolver resolver = new DnsResolver() {
+
+            public InetAddress[] resolve(String host) throws UnknownHostException {
+                lookups.incrementAndGet();
+                return new InetAddress[] { InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.2"),
+                        InetAddress.getByName("127.0.0.3"), };
+            }
+        };
+        client = new AmazonDynamoDBClient(new BasicAWSCredentials("access", "secret"),
+                new ClientConfiguration().withDnsResolver(resolver));
+        client.setEndpoint("http://service.example.com:" + first.getPort());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (client != null) client.shutdown();
+        first.stop();
+        if (second != null) second.stop();
+    }
+
+    @Test
+    public void connectionsAreSpreadAcrossReachableAddresses() {
+        for (int i = 0; i < REQUESTS; i++) {
+            client.listTables();
+        }
+
+        assertEquals(REQUESTS, first.getRequestCount() + second.getRequestCount());
+        assertTrue("first got " + first.getRequestCount(), first.getRequestCount() >= REQUESTS / 3);
+        assertTrue("second got " + second.getRequestCount(), second.getRequestCount() >= REQUESTS / 3);
+        assertEquals(1, lookups.get());
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.dynamodb.AmazonDynamoDBClient;
+
+/**
+ * Tests responses compressed at the request of
+ * {@link ClientConfiguration#setUseGzip(boolean)} against a stub server.
+ */
+public class GzipResponseTest {
+
+    private static final int TABLE_COUNT = 2000;
+
+    private StubHttpServer server;
+
+    private volatile String acceptEncoding;
+
+    private volatile boolean badChecksum;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubHttpServer(new StubHttpServer.Handler() {
+
+            public StubHttpServer.Response handle(Map<String, String> headers, String body) throws Exception {
+                acceptEncoding = headers.get("accept-encoding");
+                StringBuilder json = new StringBuilder("{\"TableNames\":[");
+                for (int i = 0; i < TABLE_COUNT; i++) {
+                    json.append(i == 0 ? "" : ",").append("\"table-").append(i).append("\"");
+                }
+                byte[] content = json.append("]}").toString().getBytes("UTF-8");
+
+                boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+                if (gzip) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    GZIPOutputStream out = new GZIPOutputStream(bytes);
+                    out.write(content);
+                    out.close();
+                    content = bytes.toByteArray();
+                }
+                CRC32 crc32 = new CRC32();
+                crc32.update(content);
+                StubHttpServer.Response response = new StubHttpServer.Response(content)
+                        .withHeader("Content-Type", "application/x-amz-json-1.0")
+                        .withHeader("x-amz-crc32", String.valueOf(badChecksum ? crc32.getValue() + 1 : crc32.getValue()));
+                if (gzip) response.withHeader("Content-Encoding", "gzip");
+                return response;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    private AmazonDynamoDBClient newClient(boolean gzip) {
+        AmazonDynamoDBClient client = new AmazonDynamoDBClient(new BasicAWSCredentials("access", "secret"),
+                new ClientConfiguration().withGzip(gzip).withMaxErrorRetry(0));
+        client.setEndpoint(server.getEndpoint());
+        return client;
+    }
+
+    @Test
+    public void uncompressedByDefault() {
+        assertEquals(TABLE_COUNT, newClient(false).listTables().getTableNames().size());
+        assertNull(acceptEncoding);
+    }
+
+    @Test
+    public void compressedResponseIsDecompressed() {
+        assertEquals(TABLE_COUNT, newClient(true).listTables().getTableNames().size());
+        assertEquals("gzip", acceptEncoding);
+    }
+
+    @Test
+    public void checksumOfCompressedResponseIsChecked() {
+        badChecksum = true;
+        try {
+            newClient(true).listTables();
+            fail("Expected a checksum mismatch");
+        } catch (AmazonClientException expected) {
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.HedgingPolicy;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.dynamodb.AmazonDynamoDBClient;
+import com.amazonaws.services.dynamodb.model.ListTablesRequest;
+
+/**
+ * Tests request hedging against a stub server that stalls chosen requests.
+ */
+public class HedgedRequestExecutorTest {
+
+    /** Enough fast requests for the executor to start hedging. */
+    private static final int WARM_UP_REQUESTS = 200;
+
+    private static final long STALL_MILLIS = 3000;
+
+    private StubHttpServer server;
+
+    private volatile boolean stallNext;
+
+    private AmazonDynamoDBClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubHttpServer(new StubHttpServer.Handler() {
+
+            public StubHttpServer.Response handle(Map<String, String> headers, String body) throws Exception {
+                if (stallNext) {
+                    stallNext = false;
+                    Thread.sleep(STALL_MILLIS);
+                }
+                return new StubHttpServer.Response("{\"TableNames\":[\"table\"]}".getBytes("UTF-8"))
+                        .withHeader("Content-Type", "application/x-amz-json-1.0");
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (client != null) client.shutdown();
+        server.stop();
+    }
+
+    private long timeListTables() {
+        long start = System.currentTimeMillis();
+        assertEquals(1, client.listTables(new ListTablesRequest().withLimit(1)).getTableNames().size());
+        return System.currentTimeMillis() - start;
+    }
+
+    @Test
+    public void stalledReadIsHedged() {
+        client = new AmazonDynamoDBClient(new BasicAWSCredentials("access", "secret"),
+                new ClientConfiguration().withHedgingPolicy(new HedgingPolicy().withMaxHedgeRatio(0.2)));
+        client.setEndpoint(server.getEndpoint());
+        for (int i = 0; i < WARM_UP_REQUESTS; i++) {
+            timeListTables();
+        }
+
+        int requests = server.getRequestCount();
+        stallNext = true;
+        long millis = timeListTables();
+        assertTrue("Hedged request took " + millis + "ms", millis < STALL_MILLIS / 2);
+        assertEquals(requests + 2, server.getRequestCount());
+    }
+
+    @Test
+    public void readIsNotHedgedWithoutPolicy() {
+        client = new AmazonDynamoDBClient(new BasicAWSCredentials("access", "secret"), new ClientConfiguration());
+        client.setEndpoint(server.getEndpoint());
+        for (int i = 0; i < WARM_UP_REQUESTS; i++) {
+            timeListTables();
+        }
+
+        int requests = server.getRequestCount();
+        stallNext = true;
+        assertTrue(timeListTables() >= STALL_MILLIS);
+        assertEquals(requests + 1, server.getRequestCount());
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.http;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal HTTP/1.1 server for tests that answers each request on its own
+ * thread, with the response its {@link Handler} builds, and closes the
+ * connection after every response.
+ */
+class StubHttpServer {
+
+    /** Builds the response to a request. */
+    interface Handler {
+        Response handle(Map<String, String> headers, String body) throws Exception;
+    }
+
+    static class Response {
+
+        private final Map<String, String> headers = new LinkedHashMap<String, String>();
+
+        private final byte[] body;
+
+        Response(byte[] body) {
+            this.body = body;
+        }
+
+        Response withHeader(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+    }
+
+    private final ServerSocket serverSocket;
+
+    private final Handler handler;
+
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    private volatile boolean stopped;
+
+    StubHttpServer(Handler handler) throws IOException {
+        this(new ServerSocket(0, 200), handler);
+    }
+
+    /**
+     * Creates a server listening on the specified address and port, or on any
+     * free port if the port is 0.
+     */
+    StubHttpServer(InetAddress address, int port, Handler handler) throws IOException {
+        this(new ServerSocket(port, 200, address), handler);
+    }
+
+    private StubHttpServer(ServerSocket serverSocket, Handler handler) {
+        this.serverSocket = serverSocket;
+        this.handler = handler;
+        Thread acceptor = new Thread("stub-http-server-" + serverSocket.getLocalPort()) {
+
+            @Override
+            public void run() {
+                while (!stopped) {
+                    try {
+                        final Socket socket = StubHttpServer.this.serverSocket.accept();
+                        new Thread() {
+
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }.start();
+                    }
+                    catch (IOException e) {
+                        // Closed by stop()
+                    }
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    String getEndpoint() {
+        return "http://localhost:" + getPort();
+    }
+
+    /** @return The number of requests received so far. */
+    int getRequestCount() {
+        return requestCount.get();
+    }
+
+    void stop() throws IOException {
+        stopped = true;
+        serverSocket.close();
+    }
+
+    private void serve(Socket socket) {
+        try {
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+                reader.readLine();
+                Map<String, String> headers = new HashMap<String, String>();
+                String line;
+                while ((line = reader.readLine()) != null && line.length() > 0) {
+                    int colon = line.indexOf(':');
+                    headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+                }
+                int length = headers.containsKey("content-length") ? Integer.parseInt(headers.get("content-length")) : 0;
+                char[] body = new char[length];
+                for (int offset = 0; offset < length;) {
+                    int read = reader.read(body, offset, length - offset);
+                    if (read < 0) break;
+                    offset += read;
+                }
+                requestCount.incrementAndGet();
+
+                Response response = handler.handle(headers, new String(body));
+                StringBuilder head = new StringBuilder("HTTP/1.1 200 OK\r\nConnection: close\r\n");
+                for (Map.Entry<String, String> header : response.headers.entrySet()) {
+                    head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+                }
+                head.append("Content-Length: ").append(response.body.length).append("\r\n\r\n");
+                OutputStream out = socket.getOutputStream();
+                out.write(head.toString().getBytes("ISO-8859-1"));
+                out.write(response.body);
+                out.flush();
+            }
+            finally {
+                socket.close();
+            }
+        }
+        catch (Exception e) {
+            // The client went away, for instance after aborting a request
+        }
+    }
+}
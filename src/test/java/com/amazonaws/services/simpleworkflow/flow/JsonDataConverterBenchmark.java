@@ -0,0 +1,186 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.simpleworkflow.flow;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.map.DeserializationConfig;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectMapper.DefaultTyping;
+import org.codehaus.jackson.map.SerializationConfig;
+
+/**
+ * Measures the conversions a decider makes while replaying a history of
+ * activities: the arguments of every activity are serialized and its result
+ * deserialized. {@link JsonDataConverter}, which reuses its readers, writer
+ * and resolved type ids, is compared with a converter that calls the mapper
+ * directly for every value, as {@link JsonDataConverter} used to. Both produce
+ * the same JSON, which is checked before the runs.
+ * <p>
+ * Usage: <code>JsonDataConverterBenchmark [activities [replays]]</code>,
+ * default histories of 500 activities replayed 200 times.
+ */
+public class JsonDataConverterBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    /** Activity argument and result with the usual mix of field types. */
+    public static class Order {
+
+        private String id;
+
+        private int quantity;
+
+        private List<String> items;
+
+        private Map<String, Double> prices;
+
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+
+        public void setQuantity(int quantity) {
+            this.quantity = quantity;
+        }
+
+        public List<String> getItems() {
+            return items;
+        }
+
+        public void setItems(List<String> items) {
+            this.items = items;
+        }
+
+        public Map<String, Double> getPrices() {
+            return prices;
+        }
+
+        public void setPrices(Map<String, Double> prices) {
+            this.prices = prices;
+        }
+    }
+
+    /**
+     * Converts every value through the mapper, with the configuration of the
+     * default {@link JsonDataConverter}.
+     */
+    private static class MapperDataConverter extends DataConverter {
+
+        private final ObjectMapper mapper = new ObjectMapper();
+
+        MapperDataConverter() {
+            mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+            mapper.configure(SerializationConfig.Feature.FAIL_ON_EMPTY_BEANS, false);
+            mapper.enableDefaultTyping(DefaultTyping.NON_FINAL);
+        }
+
+        @Override
+        public String toData(Object value) throws DataConverterException {
+            try {
+                return mapper.writeValueAsString(value);
+            }
+            catch (IOException e) {
+                throw new DataConverterException(e);
+            }
+        }
+
+        @Override
+        public <T> T fromData(String serialized, Class<T> valueType) throws DataConverterException {
+            try {
+                return mapper.readValue(serialized, valueType);
+            }
+            catch (IOException e) {
+                throw new DataConverterException(e);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int activities = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int replays = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        List<Order> orders = new ArrayList<Order>(activities);
+        for (int i = 0; i < activities; i++) {
+            orders.add(newOrder(i));
+        }
+        DataConverter cached = new JsonDataConverter();
+        DataConverter uncached = new MapperDataConverter();
+        for (Order order : orders) {
+            Object[] arguments = new Object[] { order, "step" };
+            if (!cached.toData(arguments).equals(uncached.toData(arguments))) {
+                throw new IllegalStateException("Converters disagree on " + uncached.toData(arguments));
+            }
+        }
+
+        // Warm up so that class loading and JIT do not count against the runs,
+        // then alternate so that neither converter always runs first
+        replay("JsonDataConverter", cached, orders, replays / 10);
+        replay("ObjectMapper per value", uncached, orders, replays / 10);
+        for (int round = 0; round < ROUNDS; round++) {
+            replay("JsonDataConverter", cached, orders, replays);
+            replay("ObjectMapper per value", uncached, orders, replays);
+        }
+    }
+
+    private static Order newOrder(int i) {
+        Order order = new Order();
+        order.setId("order-" + i);
+        order.setQuantity(i % 10 + 1);
+        List<String> items = new ArrayList<String>();
+        Map<String, Double> prices = new HashMap<String, Double>();
+        for (int j = 0; j < 5; j++) {
+            items.add("item-" + j);
+            prices.put("item-" + j, j * 1.5);
+        }
+        order.setItems(items);
+        order.setPrices(prices);
+        return order;
+    }
+
+    /**
+     * Replays the history as a decider would: the results recorded in it are
+     * deserialized, and the arguments of each activity serialized again.
+     */
+    private static void replay(String name, DataConverter converter, List<Order> orders, int replays) {
+        List<String> results = new ArrayList<String>(orders.size());
+        for (Order order : orders) {
+            results.add(converter.toData(order));
+        }
+        int quantity = 0;
+        long start = System.nanoTime();
+        for (int r = 0; r < replays; r++) {
+            for (int i = 0; i < orders.size(); i++) {
+                converter.toData(new Object[] { orders.get(i), "step" });
+                quantity += converter.fromData(results.get(i), Order.class).getQuantity();
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long conversions = 2L * replays * orders.size();
+        System.out.printf("%s: %d replays of %d activities in %.2fs, %.0f conversions/s, %.2fms per replay (%d)%n",
+                name, replays, orders.size(), seconds, conversions / seconds, seconds * 1000 / replays, quantity);
+    }
+}
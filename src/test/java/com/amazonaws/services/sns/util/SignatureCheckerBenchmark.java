@@ -0,0 +1,209 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.sns.util;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Field;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Measures how fast {@link SignatureChecker} verifies notifications signed
+ * with the same certificate, with the certificate taken from the checker's
+ * cache, and with it parsed again for every notification as callers had to
+ * before the cache. Neither run includes retrieving the certificate, so the
+ * uncached figure is a lower bound; the benchmark needs no network.
+ * <p>
+ * The certificate is a self-signed one issued to sns.amazonaws.com, and is
+ * put in the cache under its URL before the cached run.
+ * <p>
+ * Usage: <code>SignatureCheckerBenchmark [threads [messages]]</code>, default
+ * 8 threads verifying 100000 messages.
+ */
+public class SignatureCheckerBenchmark {
+
+    private static final String CERTIFICATE_URL = "https://sns.us-east-1.amazonaws.com/SimpleNotificationService-benchmark.pem";
+
+    /** DER encoding of the self-signed certificate, in base 64. */
+    private static final String CERTIFICATE =
+            "MIIDGzCCAgOgAwIBAgIUIyB94ksn5qOMup+bxIw2bZX5XB8wDQYJKoZIhvcNAQELBQAwHDEaMBgG" +
+            "A1UEAwwRc25zLmFtYXpvbmF3cy5jb20wIBcNMjYxMDE5MTQyNDM1WhgPMjEyNjA5MjUxNDI0MzVa" +
+            "MBwxGjAYBgNVBAMMEXNucy5hbWF6b25hd3MuY29tMIIBIjANBgkqhkiG9w0BAQEFAAOCAQ8AMIIB" +
+            "CgKCAQEA8F1P7W5+2GkW3x7nIwPuFgY6f/f/iQyd2xZ+P4I7wW6x+daVfquuPDeinuE8TOCq5Bvs" +
+            "8ksUMAU0OAwXxFGa873mOX9gp08F2f+mu7MQkX6TLtlveee/CNSLGSXajhOZMQebVFJ8/ynOjjZR" +
+            "vucudh0tH6zCBywLqf5EOHDVa/2oaLbu0sZXC6KYg7GOoPSyDJ8cWQvstiDzok6iVCZY5/VPsfYR" +
+            "Bd5bCMezxJwawaCSuYfExk8DfXPumzAIz6FSnQnuKe15k3jhc2pkm9Yl9Q7u6H3iwVlCkNXjdDSr" +
+            "0MRBHTqNuA4H8ijkiznKemtLzcbuJUP8XDEKHpXYMlr60wIDAQABo1MwUTAdBgNVHQ4EFgQUzcDu" +
+            "mNH4ll6mb5qE2x0JtWpvKhswHwYDVR0jBBgwFoAUzcDumNH4ll6mb5qE2x0JtWpvKhswDwYDVR0T" +
+            "AQH/BAUwAwEB/zANBgkqhkiG9w0BAQsFAAOCAQEAX6mRm1Lnsbts8SuAQSeSqfoiPs3QK0mw7oh2" +
+            "JaL+I6xjRzU6YXlujzMFU9DExMhNEKOb4PlHUWt7yZUoNzvchIB8rrHpJ0Ck4BPPvD3mjITE7y61" +
+            "fJsS/s5mehgcqBzT0QgVpcmnGbvPhNisHZU+y+cC3umbq7F+xtuoMfG1JqGb+uJyBCJAp7d6BQys" +
+            "EorT9/XyE8VJMFwivPia+suIsmyVsIYCKQArOw3R+Pf9gSmMJ7pAFwUNXpqDhX/fRct2nDd+gDru" +
+            "DZe0cnAvDHrveS3LQdEQV2kE0s9cm4J0Tk/yGSrej4/HPFfNqwob19zHDL3bsgmJejr/dax+ZcWs" +
+            "cw==";
+
+    /** PKCS#8 encoding of the certificate's private key, in base 64. */
+    private static final String PRIVATE_KEY =
+            "MIIEvQIBADANBgkqhkiG9w0BAQEFAASCBKcwggSjAgEAAoIBAQDwXU/tbn7YaRbfHucjA+4WBjp/" +
+            "9/+JDJ3bFn4/gjvBbrH51pV+q648N6Ke4TxM4KrkG+zySxQwBTQ4DBfEUZrzveY5f2CnTwXZ/6a7" +
+            "sxCRfpMu2W95578I1IsZJdqOE5kxB5tUUnz/Kc6ONlG+5y52HS0frMIHLAup/kQ4cNVr/ahotu7S" +
+            "xlcLopiDsY6g9LIMnxxZC+y2IPOiTqJUJljn9U+x9hEF3lsIx7PEnBrBoJK5h8TGTwN9c+6bMAjP" +
+            "oVKdCe4p7XmTeOFzamSb1iX1Du7ofeLBWUKQ1eN0NKvQxEEdOo24DgfyKOSLOcp6a0vNxu4lQ/xc" +
+            "MQoeldgyWvrTAgMBAAECggEAPa/9CNcAV+MUmxuvv0VNb7qWfew0WURzKNyrdvoiAuE5bQC86j7+" +
+            "Xvb6VeNBWguY4CUomQBaxH45ah70ZI57AY4djWka8aVuv4WEkYyBto1xEad9HCC1XvtJXaFg53Cx" +
+            "MqucmjX3XXcpy0a2kRN80ZRoVcY9H6EWt0CJ2qBerbFzFZcFjjme2IbW9jFEgZyXd60JI6+72UY+" +
+            "wZbgdb5N+2Njis5k2iWIx65x5sVAAgxMfvRjx5FqhCN6xpEpR3o2nW8t1YnzG7P6y4nKpWxrlLpf" +
+            "dRWDYZtNV2gZmFq4fJhCTy22sSMfLVsLozl7gxIKc4pmZQcY+qUo1jvZv+5puQKBgQD7xB1feWQR" +
+            "gQ/owEGoSffNBGfNmwgUEEpMK4cSlfRvWyCCqm7Tg7TEuQA2Wv6MdamuTfacZPi1xmjy6Ad9Doq6" +
+            "ihkmftUKeXdjXES7vsGu3t1VpFif2BTAobVXemgkVdHNyWPLtwrYMm0EOE/07B/24/wKWpLEu1yg" +
+            "2T0Qe4jeGwKBgQD0aBy8KXWtNofTtLsOIqx74qMCmUJ2bDKCTFfMETnam7vosId/IXYQNXHKPfQO" +
+            "kemwGJoqJ2+FxWFvwUDivpebzP2XapBqFYmMSH9+0k2Iu4a/HrvzpiSJr4twmEy31KzlBHbJkh6G" +
+            "dcg0dVMxq0fgVrhEwyC42JKLipL14YrBqQKBgBU+dSQLQDBh7Y+8OU4T/77i8kddH49h2IMY4Srm" +
+            "UFvdGp8r9nIOmQBIhAYSI4yCmTDGD1sfAgWEmnJ0tb0NrxMSeBDRfvSFT1eo/3vAGuPAlniVh4zl" +
+            "VMr0WjLpd0Qpoax1o+Aar+WSS7Shc8285u2USz4saloDXUuNSSPM6L2lAoGAYH3iKl9r+DC5O1n1" +
+            "J8WEt3xowxPi64IYBt1BJG4Am1A0xc88D3MUe52+CQygmEf/LOjppI7hNr0QlOCFT3/Tt00dKXSH" +
+            "A3rxTRMqUtWQitUOg9IMfksvzbQipxdZ4pHymJBEnZw0tP03R46yg7+NpwJVycAH4TKP2Mui7bRX" +
+            "5dECgYEA07kbcem6acvuoakRvgD0xugi0mW46x3kcO0oYi/7a1HHjIb/49N5Hgrs14JdJzNjWBKk" +
+            "WIcg1ed0fXKpOGkMR1/4xgWb7j+8p6mzz7Op1bYYLUzsCMcjrTxVcgO0JF0pWqlfGdL0767eKwZQ" +
+            "6UqcNjAHY2HvpJ20KN/gS1ukTSk=";
+
+    private static final SignatureChecker checker = new SignatureChecker();
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+        final byte[] certificate = Base64.decodeBase64(CERTIFICATE.getBytes("UTF-8"));
+        cacheCertificate(parseCertificate(certificate));
+        final String message = signedMessage();
+
+        Verifier cached = new Verifier("cached") {
+
+            @Override
+            boolean verify() {
+                return checker.verifyMessageSignature(message);
+            }
+        };
+        Verifier uncached = new Verifier("uncached") {
+
+            @Override
+            boolean verify() throws Exception {
+                return checker.verifyMessageSignature(message, parseCertificate(certificate).getPublicKey());
+            }
+        };
+
+        // Warm up so that class loading and JIT do not count against the runs
+        cached.run(threads, messages / 10);
+        uncached.run(threads, messages / 10);
+        cached.run(threads, messages);
+        uncached.run(threads, messages);
+    }
+
+    private static abstract class Verifier {
+
+        private final String name;
+
+        Verifier(String name) {
+            this.name = name;
+        }
+
+        abstract boolean verify() throws Exception;
+
+        void run(int threads, final int messages) throws InterruptedException {
+            final AtomicInteger verified = new AtomicInteger();
+            final AtomicInteger failed = new AtomicInteger();
+            final CountDownLatch done = new CountDownLatch(threads);
+            List<Thread> workers = new ArrayList<Thread>(threads);
+            for (int i = 0; i < threads; i++) {
+                workers.add(new Thread() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            while (verified.incrementAndGet() <= messages) {
+                                if (!verify()) failed.incrementAndGet();
+                            }
+                        }
+                        catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                        finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+            long start = System.nanoTime();
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            done.await();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%s: %d threads verified %d messages in %.2fs, %.0f messages/s, %d failed%n",
+                    name, threads, messages, seconds, messages / seconds, failed.get());
+        }
+    }
+
+    private static X509Certificate parseCertificate(byte[] certificate) throws Exception {
+        return (X509Certificate)CertificateFactory.getInstance("X.509").generateCertificate(
+                new ByteArrayInputStream(certificate));
+    }
+
+    /**
+     * Puts the certificate in the checker's cache, so that the cached run
+     * doesn't try to retrieve it.
+     */
+    @SuppressWarnings("unchecked")
+    private static void cacheCertificate(X509Certificate certificate) throws Exception {
+        Field field = SignatureChecker.class.getDeclaredField("SIGNING_CERTIFICATES");
+        field.setAccessible(true);
+        Map<String, X509Certificate> certificates = (Map<String, X509Certificate>)field.get(null);
+        synchronized (certificates) {
+            certificates.put(CERTIFICATE_URL, certificate);
+        }
+    }
+
+    /** Returns a notification signed with the certificate's private key. */
+    private static String signedMessage() throws Exception {
+        String[][] fields = { { "Message", "benchmark message" },
+                { "MessageId", "165545c9-2a5c-472c-8df2-7ff2be2b3b1b" }, { "Subject", "benchmark" },
+                { "Timestamp", "2013-01-01T00:00:00.000Z" },
+                { "TopicArn", "arn:aws:sns:us-east-1:123456789012:benchmark" }, { "Type", "Notification" } };
+
+        PrivateKey key = KeyFactory.getInstance("RSA").generatePrivate(
+                new PKCS8EncodedKeySpec(Base64.decodeBase64(PRIVATE_KEY.getBytes("UTF-8"))));
+        Signature signer = Signature.getInstance("SHA1withRSA");
+        signer.initSign(key);
+        StringBuilder json = new StringBuilder("{");
+        for (String[] field : fields) {
+            signer.update((field[0] + "\n" + field[1] + "\n").getBytes("UTF-8"));
+            json.append('"').append(field[0]).append("\":\"").append(field[1]).append("\",");
+        }
+        String signature = new String(Base64.encodeBase64(signer.sign()), "UTF-8");
+        return json.append("\"SignatureVersion\":\"1\",\"Signature\":\"").append(signature)
+                .append("\",\"SigningCertURL\":\"").append(CERTIFICATE_URL).append("\"}").toString();
+    }
+}
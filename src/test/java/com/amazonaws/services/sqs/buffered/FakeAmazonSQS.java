@@ -0,0 +1,160 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.sqs.buffered;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResultEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.GetQueueAttributesResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+
+/**
+ * Single queue in memory standing in for {@link AmazonSQSAsync}. Received
+ * messages are never redelivered. The <code>*Async</code> methods run the
+ * matching call on the caller's thread and return a completed future.
+ */
+class FakeAmazonSQS implements InvocationHandler {
+
+    static final String QUEUE_URL = "https://queue.amazonaws.com/123456789012/fake";
+
+    private final BlockingQueue<Message> messages = new LinkedBlockingQueue<Message>();
+
+    private final AtomicLong messageIdSequence = new AtomicLong();
+
+    private final AtomicInteger receiveCount = new AtomicInteger();
+
+    private final AtomicInteger deleteCount = new AtomicInteger();
+
+    private final AmazonSQSAsync client = (AmazonSQSAsync) Proxy.newProxyInstance(
+            AmazonSQSAsync.class.getClassLoader(), new Class<?>[] { AmazonSQSAsync.class }, this);
+
+    AmazonSQSAsync getClient() {
+        return client;
+    }
+
+    void addMessages(int count) {
+        for (int i = 0; i < count; i++) {
+            String id = String.valueOf(messageIdSequence.incrementAndGet());
+            messages.add(new Message().withMessageId(id).withReceiptHandle("handle-" + id).withBody("body-" + id));
+        }
+    }
+
+    /** @return the number of ReceiveMessage calls made so far */
+    int getReceiveCount() {
+        return receiveCount.get();
+    }
+
+    /** @return the number of messages deleted so far */
+    int getDeleteCount() {
+        return deleteCount.get();
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            return method.invoke(this, args);
+        }
+        String name = method.getName();
+        if (name.endsWith("Async")) {
+            Method sync = FakeAmazonSQS.class.getDeclaredMethod(name.substring(0, name.length() - "Async".length()),
+                    method.getParameterTypes()[0]);
+            try {
+                return completed(sync.invoke(this, args[0]));
+            }
+            catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+        if (name.equals("getQueueAttributes")) {
+            return new GetQueueAttributesResult().withAttributes(Collections.singletonMap("VisibilityTimeout", "30"));
+        }
+        if (name.equals("receiveMessage")) {
+            return receiveMessage((ReceiveMessageRequest) args[0]);
+        }
+        if (name.equals("deleteMessageBatch")) {
+            return deleteMessageBatch((DeleteMessageBatchRequest) args[0]);
+        }
+        if (name.equals("changeMessageVisibilityBatch")) {
+            return changeMessageVisibilityBatch((ChangeMessageVisibilityBatchRequest) args[0]);
+        }
+        if (name.equals("shutdown") || name.startsWith("set")) {
+            return null;
+        }
+        throw new UnsupportedOperationException(name);
+    }
+
+    ReceiveMessageResult receiveMessage(ReceiveMessageRequest request) throws InterruptedException {
+        receiveCount.incrementAndGet();
+        int max = request.getMaxNumberOfMessages() == null ? 1 : request.getMaxNumberOfMessages();
+        List<Message> result = new ArrayList<Message>(max);
+        messages.drainTo(result, max);
+        if (result.isEmpty() && request.getWaitTimeSeconds() != null && request.getWaitTimeSeconds() > 0) {
+            Message message = messages.poll(request.getWaitTimeSeconds(), TimeUnit.SECONDS);
+            if (message != null) {
+                result.add(message);
+            }
+        }
+        return new ReceiveMessageResult().withMessages(result);
+    }
+
+    DeleteMessageBatchResult deleteMessageBatch(DeleteMessageBatchRequest request) {
+        List<DeleteMessageBatchResultEntry> entries = new ArrayList<DeleteMessageBatchResultEntry>();
+        for (DeleteMessageBatchRequestEntry entry : request.getEntries()) {
+            entries.add(new DeleteMessageBatchResultEntry().withId(entry.getId()));
+        }
+        deleteCount.addAndGet(entries.size());
+        return new DeleteMessageBatchResult().withSuccessful(entries);
+    }
+
+    ChangeMessageVisibilityBatchResult changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest request) {
+        List<ChangeMessageVisibilityBatchResultEntry> entries = new ArrayList<ChangeMessageVisibilityBatchResultEntry>();
+        for (ChangeMessageVisibilityBatchRequestEntry entry : request.getEntries()) {
+            entries.add(new ChangeMessageVisibilityBatchResultEntry().withId(entry.getId()));
+        }
+        return new ChangeMessageVisibilityBatchResult().withSuccessful(entries);
+    }
+
+    private static Future<Object> completed(Object value) {
+        FutureTask<Object> future = new FutureTask<Object>(new Runnable() {
+
+            public void run() {
+            }
+        }, value);
+        future.run();
+        return future;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.sqs.buffered;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+
+/**
+ * Measures how fast consumer threads take prefetched messages from one queue
+ * through {@link AmazonSQSBufferedAsyncClient}, against {@link FakeAmazonSQS}
+ * so that only the client side buffering is measured.
+ * <p>
+ * Usage: <code>ReceiveQueueBufferBenchmark [consumers [messages]]</code>,
+ * default 64 consumers taking 128000 messages.
+ */
+public class ReceiveQueueBufferBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int consumers = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 128000;
+
+        // Warm up so that class loading and JIT do not count against the run
+        run(consumers, messages / 10);
+        run(consumers, messages);
+    }
+
+    private static void run(int consumers, final int messages) throws InterruptedException {
+        final FakeAmazonSQS sqs = new FakeAmazonSQS();
+        sqs.addMessages(messages);
+        QueueBufferConfig config = new QueueBufferConfig().withLongPoll(false).withMaxInflightReceiveBatches(
+                consumers / 8 + 1).withMaxDoneReceiveBatches(consumers / 4 + 1);
+        final AmazonSQSBufferedAsyncClient client = new AmazonSQSBufferedAsyncClient(sqs.getClient(), config);
+        final AtomicInteger received = new AtomicInteger();
+        final ConcurrentHashMap<String, Boolean> ids = new ConcurrentHashMap<String, Boolean>();
+        final AtomicInteger duplicates = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(consumers);
+        List<Thread> threads = new ArrayList<Thread>(consumers);
+        for (int i = 0; i < consumers; i++) {
+            threads.add(new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        while (received.get() < messages) {
+                            List<Message> batch = client.receiveMessage(
+                                    new ReceiveMessageRequest(FakeAmazonSQS.QUEUE_URL).withMaxNumberOfMessages(10)).getMessages();
+                            for (Message message : batch) {
+                                if (ids.putIfAbsent(message.getMessageId(), Boolean.TRUE) != null) {
+                                    duplicates.incrementAndGet();
+                                }
+                                client.deleteMessageAsync(new DeleteMessageRequest(FakeAmazonSQS.QUEUE_URL,
+                                        message.getReceiptHandle()));
+                            }
+                            received.addAndGet(batch.size());
+                        }
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        done.await();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        client.shutdown();
+        System.out.printf("%d consumers received %d messages in %.2fs, %.0f messages/s, %d receive calls, %d duplicates%n",
+                consumers, received.get(), seconds, received.get() / seconds, sqs.getReceiveCount(), duplicates.get());
+    }
+}
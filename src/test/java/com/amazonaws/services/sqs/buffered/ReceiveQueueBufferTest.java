@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.sqs.buffered;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+
+public class ReceiveQueueBufferTest {
+
+    private FakeAmazonSQS sqs;
+
+    private AmazonSQSBufferedAsyncClient client;
+
+    @Before
+    public void setUp() {
+        sqs = new FakeAmazonSQS();
+        client = new AmazonSQSBufferedAsyncClient(sqs.getClient(), new QueueBufferConfig().withLongPoll(false));
+    }
+
+    @After
+    public void tearDown() {
+        client.shutdown();
+    }
+
+    @Test(timeout = 10000)
+    public void receiveOnEmptyQueueReturnsEmptyResult() {
+        ReceiveMessageResult result = client.receiveMessage(new ReceiveMessageRequest(FakeAmazonSQS.QUEUE_URL));
+        assertTrue(result.getMessages().isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void receiveAfterEmptyQueueReturnsNewMessages() {
+        client.receiveMessage(new ReceiveMessageRequest(FakeAmazonSQS.QUEUE_URL));
+        sqs.addMessages(1);
+        ReceiveMessageResult result;
+        do {
+            result = client.receiveMessage(new ReceiveMessageRequest(FakeAmazonSQS.QUEUE_URL));
+        }
+        while (result.getMessages().isEmpty());
+        assertEquals("body-1", result.getMessages().get(0).getBody());
+    }
+
+    @Test(timeout = 10000)
+    public void receiveDeliversEachMessageOnce() {
+        sqs.addMessages(100);
+        Set<String> received = new HashSet<String>();
+        while (received.size() < 100) {
+            ReceiveMessageResult result = client.receiveMessage(new ReceiveMessageRequest(FakeAmazonSQS.QUEUE_URL).withMaxNumberOfMessages(10));
+            for (Message message : result.getMessages()) {
+                assertTrue("duplicate " + message.getMessageId(), received.add(message.getMessageId()));
+            }
+        }
+    }
+}